@@ -0,0 +1,20 @@
+package voltric.graph.triangulation;
+
+/**
+ * Greedy criteria used by {@link Triangulation} to choose the next node to eliminate. In all of them, ties are broken
+ * by the size of the clique that the elimination would create and then by the position of the node in the graph.
+ */
+public enum EliminationHeuristic {
+
+    /** Eliminates the node whose elimination adds the fewest fill-in edges. */
+    MIN_FILL,
+
+    /**
+     * Eliminates the node whose elimination adds the fill-in edges of minimum total weight, where the weight of an edge
+     * is the product of the cardinalities of its endpoints.
+     */
+    WEIGHTED_MIN_FILL,
+
+    /** Eliminates the node with the fewest neighbors. */
+    MIN_DEGREE
+}
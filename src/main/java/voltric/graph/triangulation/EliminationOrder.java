@@ -0,0 +1,114 @@
+package voltric.graph.triangulation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of triangulating a graph: the elimination order and the cost of the cliques it induces.
+ *
+ * <p>Table sizes are the products of the cardinalities of the clique members. They saturate at
+ * {@link Long#MAX_VALUE} instead of overflowing, so they can always be compared against a budget.</p>
+ *
+ * @param <T> the node's content type.
+ */
+public final class EliminationOrder<T> {
+
+    private final List<T> order;
+
+    private final EliminationHeuristic heuristic;
+
+    private final int maxCliqueSize;
+
+    private final long maxCliqueTableSize;
+
+    private final long totalTableSize;
+
+    EliminationOrder(List<T> order,
+                     EliminationHeuristic heuristic,
+                     int maxCliqueSize,
+                     long maxCliqueTableSize,
+                     long totalTableSize) {
+        this.order = Collections.unmodifiableList(order);
+        this.heuristic = heuristic;
+        this.maxCliqueSize = maxCliqueSize;
+        this.maxCliqueTableSize = maxCliqueTableSize;
+        this.totalTableSize = totalTableSize;
+    }
+
+    /**
+     * Returns the contents of the graph nodes in elimination order.
+     *
+     * @return the contents of the graph nodes in elimination order.
+     */
+    public List<T> getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the heuristic that produced this order.
+     *
+     * @return the heuristic that produced this order.
+     */
+    public EliminationHeuristic getHeuristic() {
+        return heuristic;
+    }
+
+    /**
+     * Returns the number of nodes in the largest clique induced by this order.
+     *
+     * @return the number of nodes in the largest clique induced by this order.
+     */
+    public int getMaxCliqueSize() {
+        return maxCliqueSize;
+    }
+
+    /**
+     * Returns the width of the triangulation, that is, the size of its largest clique minus one.
+     *
+     * @return the width of the triangulation.
+     */
+    public int getTreewidth() {
+        return Math.max(maxCliqueSize - 1, 0);
+    }
+
+    /**
+     * Returns the table size of the largest clique induced by this order.
+     *
+     * @return the table size of the largest clique induced by this order.
+     */
+    public long getMaxCliqueTableSize() {
+        return maxCliqueTableSize;
+    }
+
+    /**
+     * Returns the sum of the table sizes of the cliques created while eliminating the nodes. It is the usual proxy for
+     * the memory and time required by junction tree inference.
+     *
+     * @return the sum of the table sizes of the elimination cliques.
+     */
+    public long getTotalTableSize() {
+        return totalTableSize;
+    }
+
+    /**
+     * Returns {@code true} if this order is cheaper than the argument one: it has a smaller total table size or, in
+     * case of a tie, a smaller largest clique table.
+     *
+     * @param other the order to compare against.
+     * @return true if this order is cheaper than {@code other}.
+     */
+    public boolean isCheaperThan(EliminationOrder<T> other) {
+        if (this.totalTableSize != other.totalTableSize)
+            return this.totalTableSize < other.totalTableSize;
+
+        return this.maxCliqueTableSize < other.maxCliqueTableSize;
+    }
+
+    @Override
+    public String toString() {
+        return "EliminationOrder{heuristic=" + heuristic
+                + ", maxCliqueSize=" + maxCliqueSize
+                + ", maxCliqueTableSize=" + maxCliqueTableSize
+                + ", totalTableSize=" + totalTableSize + "}";
+    }
+}
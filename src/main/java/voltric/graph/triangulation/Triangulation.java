@@ -0,0 +1,236 @@
+package voltric.graph.triangulation;
+
+import voltric.graph.AbstractNode;
+import voltric.graph.UndirectedGraph;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Greedy triangulation of undirected graphs by node elimination.
+ *
+ * <p>The graph is translated into bitset adjacency lists and the candidates are kept in a priority queue. After each
+ * elimination only the scores of the nodes whose neighborhood may have changed are recomputed; their old queue entries
+ * are discarded lazily when they reach the head of the queue. The input graph is never modified.</p>
+ */
+public final class Triangulation {
+
+    private Triangulation() {
+    }
+
+    /**
+     * Triangulates the graph with every {@link EliminationHeuristic} and returns the cheapest order, as defined by
+     * {@link EliminationOrder#isCheaperThan(EliminationOrder)}.
+     *
+     * @param graph the graph being triangulated.
+     * @param cardinality the number of states of each node content.
+     * @param <T> the node's content type.
+     * @return the cheapest elimination order found.
+     */
+    public static <T> EliminationOrder<T> triangulate(UndirectedGraph<T> graph, ToIntFunction<T> cardinality) {
+        EliminationOrder<T> best = null;
+        for (EliminationHeuristic heuristic : EliminationHeuristic.values()) {
+            EliminationOrder<T> order = triangulate(graph, cardinality, heuristic);
+            if (best == null || order.isCheaperThan(best))
+                best = order;
+        }
+        return best;
+    }
+
+    /**
+     * Triangulates the graph using the argument heuristic.
+     *
+     * @param graph the graph being triangulated.
+     * @param cardinality the number of states of each node content.
+     * @param heuristic the criterion used to select the next node to eliminate.
+     * @param <T> the node's content type.
+     * @return the elimination order and the cost of its cliques.
+     */
+    public static <T> EliminationOrder<T> triangulate(UndirectedGraph<T> graph,
+                                                      ToIntFunction<T> cardinality,
+                                                      EliminationHeuristic heuristic) {
+        List<AbstractNode<T>> nodes = graph.getNodes();
+        int n = nodes.size();
+
+        HashMap<T, Integer> indexes = new HashMap<>(2 * n);
+        List<T> contents = new ArrayList<>(n);
+        long[] cards = new long[n];
+        for (int i = 0; i < n; i++) {
+            T content = nodes.get(i).getContent();
+            int card = cardinality.applyAsInt(content);
+            if (card < 1)
+                throw new IllegalArgumentException("The cardinality of " + content + " must be positive");
+
+            indexes.put(content, i);
+            contents.add(content);
+            cards[i] = card;
+        }
+
+        BitSet[] adjacency = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            adjacency[i] = new BitSet(n);
+            for (AbstractNode<T> neighbor : nodes.get(i).getNeighbors())
+                adjacency[i].set(indexes.get(neighbor.getContent()));
+        }
+
+        Eliminator eliminator = new Eliminator(adjacency, cards, heuristic);
+        int[] order = eliminator.run();
+
+        List<T> contentOrder = new ArrayList<>(n);
+        for (int node : order)
+            contentOrder.add(contents.get(node));
+
+        return new EliminationOrder<>(contentOrder, heuristic,
+                eliminator.maxCliqueSize, eliminator.maxCliqueTableSize, eliminator.totalTableSize);
+    }
+
+    /** Multiplies two non-negative longs, returning {@link Long#MAX_VALUE} on overflow. */
+    static long saturatedMultiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a)
+            return Long.MAX_VALUE;
+        return a * b;
+    }
+
+    /** Adds two non-negative longs, returning {@link Long#MAX_VALUE} on overflow. */
+    static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * The state of an elimination in progress. Eliminated nodes are removed from the adjacency lists, so the set bits
+     * of {@code adjacency[i]} are always the current neighbors of {@code i}.
+     */
+    private static final class Eliminator {
+
+        private final BitSet[] adjacency;
+
+        private final long[] cards;
+
+        private final EliminationHeuristic heuristic;
+
+        private final int[] versions;
+
+        private final PriorityQueue<Candidate> queue;
+
+        private final BitSet scratch;
+
+        private int maxCliqueSize;
+
+        private long maxCliqueTableSize;
+
+        private long totalTableSize;
+
+        Eliminator(BitSet[] adjacency, long[] cards, EliminationHeuristic heuristic) {
+            this.adjacency = adjacency;
+            this.cards = cards;
+            this.heuristic = heuristic;
+            this.versions = new int[cards.length];
+            this.queue = new PriorityQueue<>(Math.max(cards.length, 1));
+            this.scratch = new BitSet(cards.length);
+        }
+
+        int[] run() {
+            int n = cards.length;
+            for (int i = 0; i < n; i++)
+                queue.add(score(i));
+
+            int[] order = new int[n];
+            BitSet affected = new BitSet(n);
+
+            for (int position = 0; position < n; position++) {
+                Candidate candidate = queue.poll();
+                while (candidate.version != versions[candidate.node])
+                    candidate = queue.poll();
+
+                int node = candidate.node;
+                order[position] = node;
+                versions[node] = -1;
+
+                BitSet neighbors = adjacency[node];
+                maxCliqueSize = Math.max(maxCliqueSize, neighbors.cardinality() + 1);
+                maxCliqueTableSize = Math.max(maxCliqueTableSize, candidate.tableSize);
+                totalTableSize = saturatedAdd(totalTableSize, candidate.tableSize);
+
+                // connects the neighbors of the eliminated node and removes it from the graph
+                affected.clear();
+                for (int u = neighbors.nextSetBit(0); u >= 0; u = neighbors.nextSetBit(u + 1)) {
+                    adjacency[u].or(neighbors);
+                    adjacency[u].clear(u);
+                    adjacency[u].clear(node);
+                    affected.set(u);
+                }
+
+                // the fill-in of a node depends on the edges between its neighbors
+                if (heuristic != EliminationHeuristic.MIN_DEGREE)
+                    for (int u = neighbors.nextSetBit(0); u >= 0; u = neighbors.nextSetBit(u + 1))
+                        affected.or(adjacency[u]);
+
+                for (int u = affected.nextSetBit(0); u >= 0; u = affected.nextSetBit(u + 1)) {
+                    versions[u]++;
+                    queue.add(score(u));
+                }
+            }
+
+            return order;
+        }
+
+        private Candidate score(int node) {
+            BitSet neighbors = adjacency[node];
+
+            long tableSize = cards[node];
+            for (int u = neighbors.nextSetBit(0); u >= 0; u = neighbors.nextSetBit(u + 1))
+                tableSize = saturatedMultiply(tableSize, cards[u]);
+
+            long score = 0;
+            if (heuristic == EliminationHeuristic.MIN_DEGREE) {
+                score = neighbors.cardinality();
+            } else {
+                for (int u = neighbors.nextSetBit(0); u >= 0; u = neighbors.nextSetBit(u + 1)) {
+                    // neighbors w > u that are not connected to u
+                    scratch.clear();
+                    scratch.or(neighbors);
+                    scratch.andNot(adjacency[u]);
+                    scratch.clear(0, u + 1);
+
+                    if (heuristic == EliminationHeuristic.MIN_FILL) {
+                        score += scratch.cardinality();
+                    } else {
+                        for (int w = scratch.nextSetBit(0); w >= 0; w = scratch.nextSetBit(w + 1))
+                            score = saturatedAdd(score, saturatedMultiply(cards[u], cards[w]));
+                    }
+                }
+            }
+
+            return new Candidate(node, versions[node], score, tableSize);
+        }
+    }
+
+    /** An entry of the elimination queue. It is stale if the node's version has changed since it was created. */
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final int node;
+
+        private final int version;
+
+        private final long score;
+
+        private final long tableSize;
+
+        Candidate(int node, int version, long score, long tableSize) {
+            this.node = node;
+            this.version = version;
+            this.score = score;
+            this.tableSize = tableSize;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (this.score != other.score)
+                return Long.compare(this.score, other.score);
+            if (this.tableSize != other.tableSize)
+                return Long.compare(this.tableSize, other.tableSize);
+            return Integer.compare(this.node, other.node);
+        }
+    }
+}
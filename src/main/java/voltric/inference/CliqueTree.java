@@ -9,6 +9,8 @@ import voltric.graph.AbstractNode;
 import voltric.graph.DirectedNode;
 import voltric.graph.Edge;
 import voltric.graph.UndirectedGraph;
+import voltric.graph.triangulation.EliminationOrder;
+import voltric.graph.triangulation.Triangulation;
 import voltric.learning.parameter.em.util.MessagesForLocalEM;
 import voltric.model.DiscreteBayesNet;
 import voltric.model.DiscreteBeliefNode;
@@ -45,12 +47,42 @@ public class CliqueTree extends UndirectedGraph<String> {
 		_focusedSubtree = focusedSubtree;
 	}
 
+	/**
+	 * Returns the elimination order used to build this CT. It reports the
+	 * maximum clique size and the total table size of the triangulation.
+	 * 
+	 * @return the elimination order used to build this CT.
+	 */
+	public EliminationOrder<Variable> getEliminationOrder() {
+		return _eliminationOrder;
+	}
+
 	/**
 	 * The map from belief nodes to family covering cliques. belief for each
 	 * node and its family will be computed at its family covering clique.
 	 */
 	protected Map<DiscreteVariable, CliqueNode> _familyCliques;
 
+	/**
+	 * The elimination order used to build this CT, together with the size of
+	 * the cliques it induced.
+	 */
+	private EliminationOrder<Variable> _eliminationOrder;
+
+	/**
+	 * Returns the cheapest elimination order of a moral graph among the
+	 * available heuristics.
+	 * 
+	 * @param moralGraph
+	 *            moral graph of a BN.
+	 * @return the cheapest elimination order of the moral graph.
+	 */
+	static EliminationOrder<Variable> computeEliminationOrder(
+			UndirectedGraph<Variable> moralGraph) {
+		return Triangulation.triangulate(moralGraph,
+				var -> ((DiscreteVariable) var).getCardinality());
+	}
+
 	/**
 	 * <p>
 	 * Constructs an empty CT. We have NOT construct the _familyCliques and
@@ -75,17 +107,33 @@ public class CliqueTree extends UndirectedGraph<String> {
 	 *            BN to be associated with this CT.
 	 */
 	public CliqueTree(DiscreteBayesNet DiscreteBayesNet) {
+		this(DiscreteBayesNet, null);
+	}
+
+	/**
+	 * Constructs a CT for the specified BN following an elimination order
+	 * that has already been computed for its moral graph.
+	 * 
+	 * @param DiscreteBayesNet
+	 *            BN to be associated with this CT.
+	 * @param eliminationOrder
+	 *            elimination order of the moral graph of the BN, or
+	 *            <code>null</code> to compute the cheapest one.
+	 */
+	CliqueTree(DiscreteBayesNet DiscreteBayesNet,
+			EliminationOrder<Variable> eliminationOrder) {
 
 		// I know this can be implicit. However, I am inclined to add it.
 		super();
 
-		// computes minimum deficiency order
+		// computes the cheapest elimination order among the available heuristics
 		UndirectedGraph<Variable> moralGraph = DiscreteBayesNet.computeMoralGraph();
-		LinkedList<Variable> order = moralGraph.minimumDeficiencySearch();
+		_eliminationOrder = eliminationOrder != null ? eliminationOrder
+				: computeEliminationOrder(moralGraph);
 
 		// builds this CT
 //		buildCliqueTree(moralGraph, order.iterator(), DiscreteBayesNet);
-		buildCliqueTreeNotRecursively(moralGraph, order.iterator(), DiscreteBayesNet);
+		buildCliqueTreeNotRecursively(moralGraph, _eliminationOrder.getOrder().iterator(), DiscreteBayesNet);
 
 		// finds family covering cliques for belief nodes
 		_familyCliques = new HashMap<DiscreteVariable, CliqueNode>();
@@ -337,6 +385,9 @@ public class CliqueTree extends UndirectedGraph<String> {
 
 		copy._pivot = (CliqueNode) copy.getNode(_pivot.getContent());
 
+		// the elimination order is immutable and can be shared
+		copy._eliminationOrder = _eliminationOrder;
+
 		return copy;
 	}
 
@@ -443,6 +494,15 @@ public class CliqueTree extends UndirectedGraph<String> {
 	public boolean inFocusedSubtree(CliqueNode clique) {
 		return _focusedSubtree == null || _focusedSubtree.contains(clique);
 	}
+
+	/**
+	 * Returns <code>true</code> if a focused subtree has been set.
+	 * 
+	 * @return <code>true</code> if a focused subtree has been set.
+	 */
+	public boolean hasFocusedSubtree() {
+		return _focusedSubtree != null;
+	}
 	
 	public void copyInMsgsFrom(Set<MessagesForLocalEM> msgs) {
 		
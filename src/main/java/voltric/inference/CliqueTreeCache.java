@@ -0,0 +1,203 @@
+package voltric.inference;
+
+import voltric.graph.triangulation.EliminationOrder;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.Variable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of compiled {@link CliqueTree}s keyed by the {@link StructureSignature} of the network they were
+ * built from.
+ *
+ * <p>Building a clique tree requires moralizing and triangulating the network, which is by far the most expensive part
+ * of creating a {@link CliqueTreePropagation}. Since a clique tree only depends on the structure of the network
+ * (the CPTs are attached when evidence is absorbed), networks that share their structure, such as EM restart
+ * candidates or clones evaluated during structure search, can reuse the same compilation. The cached trees are
+ * templates and are never handed out directly: {@link #compile(DiscreteBayesNet)} always returns a clone.</p>
+ *
+ * <p>The elimination order of each structure is cached as well, so that {@link #compile(DiscreteBayesNet, long)} can
+ * reject structures whose cliques would be too large without triangulating them again.</p>
+ */
+public final class CliqueTreeCache {
+
+    /** Default number of compiled trees kept by the shared cache. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final CliqueTreeCache sharedCache = new CliqueTreeCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+
+    private final LinkedHashMap<StructureSignature, Entry> templates;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Creates an empty cache that keeps at most {@code capacity} compiled trees.
+     *
+     * @param capacity the maximum number of compiled trees kept by the cache.
+     */
+    public CliqueTreeCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of the cache must be positive");
+
+        this.capacity = capacity;
+        this.templates = new LinkedHashMap<StructureSignature, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StructureSignature, Entry> eldest) {
+                return size() > CliqueTreeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache used by {@link CliqueTreePropagation} by default.
+     *
+     * @return the cache used by {@link CliqueTreePropagation} by default.
+     */
+    public static CliqueTreeCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * Returns a clique tree for the argument network. If a network with the same structure has already been compiled,
+     * its tree is cloned, otherwise a new tree is built and stored in the cache.
+     *
+     * @param bayesNet the network whose clique tree is requested.
+     * @return a clique tree for {@code bayesNet} that the caller can freely modify.
+     */
+    public CliqueTree compile(DiscreteBayesNet bayesNet) {
+        return compile(bayesNet, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a clique tree for the argument network, or {@code null} if the largest clique table of the cheapest
+     * triangulation found has more than {@code maxCliqueTableSize} cells. In the latter case the tree is not built.
+     *
+     * @param bayesNet the network whose clique tree is requested.
+     * @param maxCliqueTableSize the maximum number of cells allowed in a clique table.
+     * @return a clique tree for {@code bayesNet} that the caller can freely modify, or {@code null}.
+     */
+    public CliqueTree compile(DiscreteBayesNet bayesNet, long maxCliqueTableSize) {
+        StructureSignature signature = new StructureSignature(bayesNet);
+
+        EliminationOrder<Variable> order = null;
+        synchronized (this) {
+            Entry entry = this.templates.get(signature);
+            if (entry != null) {
+                this.hits++;
+                if (entry.order.getMaxCliqueTableSize() > maxCliqueTableSize)
+                    return null;
+                if (entry.template != null)
+                    return entry.template.clone();
+                order = entry.order;
+            } else {
+                this.misses++;
+            }
+        }
+
+        // The order and the tree are computed outside the lock so that different structures can be compiled concurrently
+        if (order == null) {
+            order = CliqueTree.computeEliminationOrder(bayesNet.computeMoralGraph());
+            if (order.getMaxCliqueTableSize() > maxCliqueTableSize) {
+                store(signature, new Entry(order, null));
+                return null;
+            }
+        }
+
+        CliqueTree compiled = new CliqueTree(bayesNet, order);
+        store(signature, new Entry(order, compiled.clone()));
+
+        return compiled;
+    }
+
+    /**
+     * Returns the elimination order used to compile the argument network. It is computed and stored in the cache if no
+     * network with the same structure has been seen, but the tree is not built.
+     *
+     * @param bayesNet the network.
+     * @return the elimination order of the moral graph of {@code bayesNet}.
+     */
+    public EliminationOrder<Variable> getEliminationOrder(DiscreteBayesNet bayesNet) {
+        StructureSignature signature = new StructureSignature(bayesNet);
+
+        synchronized (this) {
+            Entry entry = this.templates.get(signature);
+            if (entry != null) {
+                this.hits++;
+                return entry.order;
+            }
+            this.misses++;
+        }
+
+        EliminationOrder<Variable> order = CliqueTree.computeEliminationOrder(bayesNet.computeMoralGraph());
+        store(signature, new Entry(order, null));
+        return order;
+    }
+
+    /** Stores the entry unless another thread has already stored a compiled tree for the same structure. */
+    private synchronized void store(StructureSignature signature, Entry entry) {
+        Entry current = this.templates.get(signature);
+        if (current == null || (current.template == null && entry.template != null))
+            this.templates.put(signature, entry);
+    }
+
+    /**
+     * Removes all the compiled trees from the cache.
+     */
+    public synchronized void clear() {
+        this.templates.clear();
+    }
+
+    /**
+     * Returns the number of compiled trees currently stored.
+     *
+     * @return the number of compiled trees currently stored.
+     */
+    public synchronized int size() {
+        return this.templates.size();
+    }
+
+    /**
+     * Returns the maximum number of compiled trees kept by the cache.
+     *
+     * @return the maximum number of compiled trees kept by the cache.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of requests that were served from the cache.
+     *
+     * @return the number of requests that were served from the cache.
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of requests that required building a new tree.
+     *
+     * @return the number of requests that required building a new tree.
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** The elimination order of a structure and, unless it was too expensive, its compiled tree. */
+    private static final class Entry {
+
+        private final EliminationOrder<Variable> order;
+
+        private final CliqueTree template;
+
+        Entry(EliminationOrder<Variable> order, CliqueTree template) {
+            this.order = order;
+            this.template = template;
+        }
+    }
+}
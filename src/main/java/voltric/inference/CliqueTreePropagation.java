@@ -11,6 +11,7 @@ import voltric.model.DiscreteBayesNet;
 import voltric.model.DiscreteBeliefNode;
 import voltric.potential.Function;
 import voltric.variables.DiscreteVariable;
+import voltric.variables.Variable;
 
 import java.util.*;
 
@@ -35,7 +36,8 @@ public final class CliqueTreePropagation implements Cloneable {
 	private DiscreteBayesNet bayesNet;
 
 	/**
-	 * The CT used by this CTP.
+	 * The CT used by this CTP. It is <code>null</code> if the BN is handled
+	 * by an approximate engine.
 	 */
 	private CliqueTree cliqueTree;
 
@@ -46,6 +48,55 @@ public final class CliqueTreePropagation implements Cloneable {
 
 	private double lastLogLikelihood = Double.NaN;
 
+	/**
+	 * Engine used instead of message passing on the CT: the latent tree
+	 * engine when the BN is a tree (e.g. an HLCM), loopy belief propagation
+	 * when the CT would exceed an {@link InferenceBudget} whose policy is
+	 * {@link InferenceBudget.Policy#APPROXIMATE}, or an approximate engine
+	 * given by the user. It is <code>null</code> for other BNs.
+	 */
+	private PropagationEngine engine;
+
+	/**
+	 * Whether the messages stored in the CT correspond to the last
+	 * propagation. It is <code>false</code> after a propagation carried out by
+	 * the engine.
+	 */
+	private boolean cliqueTreeUpToDate = true;
+
+	/**
+	 * Default minimum number of cells of all the clique tables of a CT for
+	 * its messages to be sent in parallel.
+	 */
+	public static final long DEFAULT_PARALLEL_THRESHOLD = 1L << 18;
+
+	/**
+	 * Minimum number of cells of all the clique tables of the CT for its
+	 * messages to be sent in parallel. Smaller CTs are propagated by the
+	 * calling thread.
+	 */
+	private long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	/**
+	 * Buffers of {@link #addFamilyBelief(DiscreteVariable, double, double[], int)},
+	 * which grow to the largest family covering clique and are then reused.
+	 */
+	private final List<Function> scratchFactors = new ArrayList<Function>();
+
+	private final List<DiscreteVariable> scratchVariables = new ArrayList<DiscreteVariable>();
+
+	private int[] scratchStates = new int[0];
+
+	private int[] scratchCardinalities = new int[0];
+
+	private int[] scratchFamilyStrides = new int[0];
+
+	private int[] scratchIndices = new int[0];
+
+	private int[] scratchStrides = new int[0];
+
+	private double[] scratchBelief = new double[0];
+
 	/**
 	 * Dummy constructor. It is supposed that only
 	 * <code>CliqueTreePropagation.clone()</code> will invoke it.
@@ -54,15 +105,142 @@ public final class CliqueTreePropagation implements Cloneable {
 	}
 
 	/**
-	 * Constructs a CTP for the specified BN.
+	 * Constructs a CTP for the specified BN. The clique tree is obtained from
+	 * the shared {@link CliqueTreeCache}, so networks with the same structure
+	 * are only triangulated once.
 	 * 
 	 * @param bayesNet
 	 *            BN under query.
 	 */
 	public CliqueTreePropagation(DiscreteBayesNet bayesNet) {
+		this(bayesNet, CliqueTreeCache.getSharedCache());
+	}
+
+	/**
+	 * Constructs a CTP for the specified BN, obtaining its clique tree from
+	 * the specified cache. Inference is always exact; use
+	 * {@link #CliqueTreePropagation(DiscreteBayesNet, CliqueTreeCache, InferenceBudget)}
+	 * to fall back to an approximate engine for large networks.
+	 * 
+	 * @param bayesNet
+	 *            BN under query.
+	 * @param cache
+	 *            cache of compiled clique trees.
+	 */
+	public CliqueTreePropagation(DiscreteBayesNet bayesNet, CliqueTreeCache cache) {
+		this(bayesNet, cache, InferenceBudget.UNLIMITED);
+	}
+
+	/**
+	 * Constructs a CTP for the specified BN whose predicted cost is checked
+	 * against the specified budget before any potential is allocated. See
+	 * {@link #CliqueTreePropagation(DiscreteBayesNet, CliqueTreeCache, InferenceBudget)}.
+	 * 
+	 * @param bayesNet
+	 *            BN under query.
+	 * @param budget
+	 *            limits on the cost of a propagation.
+	 */
+	public CliqueTreePropagation(DiscreteBayesNet bayesNet, InferenceBudget budget) {
+		this(bayesNet, CliqueTreeCache.getSharedCache(), budget);
+	}
+
+	/**
+	 * Constructs a CTP for the specified BN whose predicted cost is checked
+	 * against the specified budget before any potential is allocated. If the
+	 * cost exceeds the budget, the BN is rejected or handled by
+	 * {@link LoopyBeliefPropagation}, depending on the policy of the budget.
+	 * 
+	 * @param bayesNet
+	 *            BN under query.
+	 * @param cache
+	 *            cache of compiled clique trees.
+	 * @param budget
+	 *            limits on the cost of a propagation.
+	 * @throws IllegalArgumentException
+	 *             if the cost exceeds the budget and its policy is
+	 *             {@link InferenceBudget.Policy#REJECT}.
+	 */
+	public CliqueTreePropagation(DiscreteBayesNet bayesNet, CliqueTreeCache cache, InferenceBudget budget) {
 		this.bayesNet = bayesNet;
-		cliqueTree = new CliqueTree(this.bayesNet);
 		_evidence = new HashMap<DiscreteVariable, Integer>();
+
+		if (budget.isUnlimited()) {
+			cliqueTree = cache.compile(bayesNet);
+			engine = createLatentTree(bayesNet);
+			return;
+		}
+
+		InferenceCost cost = InferenceCostEstimator.estimate(bayesNet, cache);
+		if (budget.admits(cost)) {
+			cliqueTree = cache.compile(bayesNet);
+			engine = createLatentTree(bayesNet);
+		} else if (budget.getPolicy() == InferenceBudget.Policy.APPROXIMATE) {
+			engine = new LoopyBeliefPropagation(bayesNet);
+		} else {
+			throw new IllegalArgumentException("The predicted cost of the model exceeds the inference budget: " + cost);
+		}
+	}
+
+	/**
+	 * Constructs a CTP for the specified BN that delegates all queries to an
+	 * approximate engine, such as {@link GibbsSampling}, instead of building
+	 * a clique tree.
+	 * 
+	 * @param bayesNet
+	 *            BN under query.
+	 * @param engine
+	 *            engine created for the BN.
+	 */
+	public CliqueTreePropagation(DiscreteBayesNet bayesNet, PropagationEngine engine) {
+		if (engine.getBayesNet() != bayesNet)
+			throw new IllegalArgumentException("The engine has been created for a different model");
+
+		this.bayesNet = bayesNet;
+		this.engine = engine;
+		_evidence = new HashMap<DiscreteVariable, Integer>();
+	}
+
+	/**
+	 * Returns a latent tree engine for the BN if it is tree-structured, or
+	 * <code>null</code> otherwise.
+	 */
+	private static LatentTreePropagation createLatentTree(DiscreteBayesNet bayesNet) {
+		if (LatentTreePropagation.isApplicable(bayesNet))
+			return new LatentTreePropagation(bayesNet);
+
+		return null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the BN is handled by an approximate
+	 * engine, either because its CT would be too large or because the engine
+	 * was given at construction. Beliefs and likelihoods are then
+	 * approximate, there is no CT and MPE queries are not supported.
+	 * 
+	 * @return whether inference is approximate.
+	 */
+	public boolean isApproximate() {
+		return engine != null && !engine.isExact();
+	}
+
+	/**
+	 * Returns <code>true</code> if the next propagation will be carried out
+	 * by the latent tree engine. It is used for tree-structured BNs, unless a
+	 * focused subtree has been set on the CT.
+	 * 
+	 * @return whether the latent tree engine is used.
+	 */
+	public boolean usesLatentTreeEngine() {
+		return engine instanceof LatentTreePropagation && !cliqueTree.hasFocusedSubtree();
+	}
+
+	/**
+	 * Returns <code>true</code> if the next propagation will be carried out
+	 * by the engine instead of message passing on the CT.
+	 */
+	private boolean usesEngine() {
+		return cliqueTree == null || usesLatentTreeEngine();
 	}
 
 	/**
@@ -78,9 +256,24 @@ public final class CliqueTreePropagation implements Cloneable {
 	 * @return A deep copy of this CTP.
 	 */
 	public CliqueTreePropagation clone() {
+		return clone(bayesNet);
+	}
+
+	/**
+	 * Creates and returns a deep copy of this CTP for another BN with the
+	 * same structure, as {@link #setBayesNet(DiscreteBayesNet)} would do on a
+	 * copy, but copying the engine only once.
+	 * 
+	 * @param bayesNet
+	 *            BN under query of the copy.
+	 * @return A deep copy of this CTP for the specified BN.
+	 */
+	public CliqueTreePropagation clone(DiscreteBayesNet bayesNet) {
 		CliqueTreePropagation copy = new CliqueTreePropagation();
 		copy.bayesNet = bayesNet;
-		copy.cliqueTree = cliqueTree.clone();
+		copy.cliqueTree = cliqueTree == null ? null : cliqueTree.clone();
+		copy.engine = engine == null ? null : engine.copy(bayesNet);
+		copy.parallelThreshold = parallelThreshold;
 		// abandon eveidence
 		return copy;
 	}
@@ -204,6 +397,8 @@ public final class CliqueTreePropagation implements Cloneable {
 			assert computeLikelihood() > 0.0;
 
 			belief = Function.createIndicatorFunction(var, _evidence.get(var));
+		} else if (!cliqueTreeUpToDate) {
+			belief = engine.computeBelief(var);
 		} else {
 			// initializationMethod
 			belief = Function.createIdentityFunction();
@@ -273,6 +468,9 @@ public final class CliqueTreePropagation implements Cloneable {
 			return obsBel;
 		}
 
+		// the messages in the CT are needed
+		calibrateCliqueTree();
+
 		// belief over hidden variables
 		Function hdnBel = Function.createIdentityFunction();
 
@@ -330,6 +528,9 @@ public final class CliqueTreePropagation implements Cloneable {
         if(!bayesNet.containsVars(vars))
             throw new IllegalArgumentException("Some of the variables under query are not present in the model");
 
+		if (cliqueTree == null)
+			return computeBeliefFromFamily(vars);
+
 		// collects hidden and observed variables in query nodes
 		LinkedList<DiscreteVariable> hdnVars = new LinkedList<DiscreteVariable>();
 		ArrayList<DiscreteVariable> obsVars = new ArrayList<DiscreteVariable>();
@@ -351,6 +552,9 @@ public final class CliqueTreePropagation implements Cloneable {
 			return obsBel;
 		}
 
+		// the messages in the CT are needed
+		calibrateCliqueTree();
+
 		// belief over hidden variables
 		Function hdnBel = Function.createIdentityFunction();
 
@@ -393,6 +597,28 @@ public final class CliqueTreePropagation implements Cloneable {
 		return hdnBel.times(obsBel);
 	}
 
+	/**
+	 * Computes the joint belief of variables that belong to a single family
+	 * by marginalizing the family belief computed by the approximate engine.
+	 * Approximate beliefs of variables in different families are not
+	 * supported.
+	 */
+	private Function computeBeliefFromFamily(Collection<DiscreteVariable> vars) {
+		for (DiscreteVariable candidate : vars) {
+			List<DiscreteVariable> family = bayesNet.getNode(candidate).getCpt().getVariables();
+			if (!family.containsAll(vars))
+				continue;
+
+			ArrayList<DiscreteVariable> others = new ArrayList<DiscreteVariable>(family);
+			others.removeAll(vars);
+
+			Function belief = computeFamilyBelief(candidate);
+			return others.isEmpty() ? belief : belief.sumOut(others);
+		}
+
+		throw new IllegalStateException("Approximate engines only compute joint beliefs of variables in the same family");
+	}
+
 	/**
 	 * Returns the posterior probability distribution of the family of the
 	 * specified variable. It is a function of all Variables in the family no
@@ -411,6 +637,9 @@ public final class CliqueTreePropagation implements Cloneable {
         if(!bayesNet.containsVar(var))
             throw new IllegalArgumentException("The variable under query is not present in the model");
 
+		if (!cliqueTreeUpToDate)
+			return engine.computeFamilyBelief(var);
+
 		// collects hidden and observed variables in family
 		LinkedList<DiscreteVariable> hdnVars = new LinkedList<DiscreteVariable>();
 		ArrayList<DiscreteVariable> obsVars = new ArrayList<DiscreteVariable>();
@@ -471,11 +700,169 @@ public final class CliqueTreePropagation implements Cloneable {
 		return hdnBel.times(obsBel);
 	}
 
+	/**
+	 * Adds the posterior probability distribution of the family of the
+	 * specified variable, multiplied by a weight, to the specified array. The
+	 * cells are laid out like those of the CPT of the variable, from the
+	 * specified offset. It is meant for accumulating the expected sufficient
+	 * statistics of EM: no function is created, the family being
+	 * marginalized in place from the latent tree engine or from the
+	 * functions and messages of its family covering clique.
+	 * 
+	 * @param var
+	 *            variable under query.
+	 * @param weight
+	 *            weight of the posterior.
+	 * @param target
+	 *            array where the posterior is accumulated.
+	 * @param offset
+	 *            position of the first cell of the family in the array.
+	 */
+	public void addFamilyBelief(DiscreteVariable var, double weight, double[] target, int offset) {
+		if (var == null)
+			throw new IllegalArgumentException("Variable cannot be null");
+
+		if (!bayesNet.containsVar(var))
+			throw new IllegalArgumentException("The variable under query is not present in the model");
+
+		if (!cliqueTreeUpToDate) {
+			engine.addFamilyBelief(var, weight, target, offset);
+			return;
+		}
+
+		// a fully observed family has a single cell, whose position follows
+		// the row-major layout of the CPT
+		DiscreteBeliefNode node = bayesNet.getNode(var);
+		Function cpt = node.getCpt();
+		Integer state = _evidence.get(var);
+		boolean observed = state != null;
+		int index = observed ? state * cpt.getMagnitude(var) : 0;
+		for (AbstractNode parent : node.getParents()) {
+			if (!observed)
+				break;
+
+			DiscreteVariable vParent = ((DiscreteBeliefNode) parent).getVariable();
+			state = _evidence.get(vParent);
+			observed = state != null;
+			if (observed)
+				index += state * cpt.getMagnitude(vParent);
+		}
+
+		if (observed) {
+			target[offset + index] += weight;
+			return;
+		}
+
+		addFamilyBeliefFromClique(var, cpt, weight, target, offset);
+	}
+
+	/**
+	 * Marginalizes the family of the specified variable from the functions
+	 * and the incoming messages of its family covering clique, without
+	 * multiplying them into a clique potential. The configurations of the
+	 * hidden variables of the clique are enumerated like an odometer, and
+	 * the index of each function and of the family follows them by strides.
+	 * Only buffers kept by this CTP are used.
+	 */
+	private void addFamilyBeliefFromClique(DiscreteVariable var, Function cpt, double weight, double[] target, int offset) {
+		CliqueNode familyClique = cliqueTree.getFamilyClique(var);
+
+		// evidence has been absorbed, so the functions and messages only
+		// involve hidden variables
+		List<Function> factors = scratchFactors;
+		factors.clear();
+		factors.addAll(familyClique.getFunctions());
+		for (AbstractNode<String> neighbor : familyClique.getNeighbors())
+			factors.add(((CliqueNode) neighbor).getMessageTo(familyClique));
+
+		// the observed members of the family fix the base cell
+		List<DiscreteVariable> hidden = scratchVariables;
+		hidden.clear();
+		int familyIndex = 0;
+		for (DiscreteVariable member : familyClique.getVariables()) {
+			Integer state = _evidence.get(member);
+			if (state == null)
+				hidden.add(member);
+			else
+				familyIndex += state * cpt.getMagnitude(member);
+		}
+
+		int nVars = hidden.size();
+		int nFactors = factors.size();
+		if (scratchStates.length < nVars) {
+			scratchStates = new int[nVars];
+			scratchCardinalities = new int[nVars];
+			scratchFamilyStrides = new int[nVars];
+		}
+		if (scratchIndices.length < nFactors)
+			scratchIndices = new int[nFactors];
+		if (scratchStrides.length < nFactors * nVars)
+			scratchStrides = new int[nFactors * nVars];
+		if (scratchBelief.length < cpt.getDomainSize())
+			scratchBelief = new double[cpt.getDomainSize()];
+
+		int[] states = scratchStates;
+		int[] cardinalities = scratchCardinalities;
+		int[] familyStrides = scratchFamilyStrides;
+		int[] indices = scratchIndices;
+		int[] strides = scratchStrides;
+		double[] belief = scratchBelief;
+
+		for (int j = 0; j < nVars; j++) {
+			DiscreteVariable member = hidden.get(j);
+			states[j] = 0;
+			cardinalities[j] = member.getCardinality();
+			familyStrides[j] = cpt.getMagnitude(member);
+			for (int f = 0; f < nFactors; f++)
+				strides[f * nVars + j] = factors.get(f).getMagnitude(member);
+		}
+		Arrays.fill(indices, 0, nFactors, 0);
+		Arrays.fill(belief, 0, cpt.getDomainSize(), 0);
+
+		double total = 0;
+		while (true) {
+			double product = 1;
+			for (int f = 0; f < nFactors; f++)
+				product *= factors.get(f).getCells()[indices[f]];
+			belief[familyIndex] += product;
+			total += product;
+
+			// moves to the next configuration, the last variable being the
+			// fastest
+			int j = nVars - 1;
+			for (; j >= 0; j--) {
+				states[j]++;
+				familyIndex += familyStrides[j];
+				for (int f = 0; f < nFactors; f++)
+					indices[f] += strides[f * nVars + j];
+
+				if (states[j] < cardinalities[j])
+					break;
+
+				states[j] = 0;
+				familyIndex -= familyStrides[j] * cardinalities[j];
+				for (int f = 0; f < nFactors; f++)
+					indices[f] -= strides[f * nVars + j] * cardinalities[j];
+			}
+
+			if (j < 0)
+				break;
+		}
+
+		for (int i = 0; i < cpt.getDomainSize(); i++)
+			target[offset + i] += weight * belief[i] / total;
+	}
+
 	/**
 	 * Returns the likelihood of the evidences on the associated BN. Make sure
 	 * that propogation has been conducted when calling this method.
 	 */
 	public double computeLikelihood() {
+		if (!cliqueTreeUpToDate) {
+			lastLogLikelihood = engine.getLogLikelihood();
+			return Math.exp(lastLogLikelihood);
+		}
+
 		CliqueNode pivot = cliqueTree.getPivot();
 
 		// times up functions attached to pivot
@@ -567,14 +954,35 @@ public final class CliqueTreePropagation implements Cloneable {
 	 * Get cliqueTree
 	 * 
 	 * @author csct
-	 * @return cliqueTree
+	 * After a propagation carried out by the latent tree engine, the messages
+	 * stored in the CT are those of the last propagation on the CT; call
+	 * {@link #calibrateCliqueTree()} before reading them.
+	 * 
+	 * @return cliqueTree, or <code>null</code> if the BN is handled by an
+	 *         approximate engine
 	 */
 	public CliqueTree getCliqueTree() {
 		return cliqueTree;
 	}
 
 	/**
-	 * Propagates messages on the CT.
+	 * Propagates the current evidence on the CT if the last propagation was
+	 * carried out by the latent tree engine, so that the messages stored in
+	 * the CT can be read. It costs a full propagation on the CT in that case
+	 * and nothing otherwise.
+	 */
+	public void calibrateCliqueTree() {
+		if (cliqueTree == null)
+			throw new IllegalStateException("The query requires a clique tree, but the model is handled by an approximate engine");
+
+		if (!cliqueTreeUpToDate)
+			propagateOnCliqueTree();
+	}
+
+	/**
+	 * Propagates the evidence. Tree-structured BNs are handled by the latent
+	 * tree engine, BNs without a CT by the approximate engine, and the rest
+	 * by message passing on the CT.
 	 * 
 	 * @return LL.
 	 */
@@ -583,8 +991,31 @@ public final class CliqueTreePropagation implements Cloneable {
 			throw new RuntimeException("Thread interrupted");
 		}
 
+		if (usesEngine()) {
+			cliqueTreeUpToDate = false;
+			double likelihood = engine.propagate(_evidence);
+			lastLogLikelihood = engine.getLogLikelihood();
+			return likelihood;
+		}
+
+		return propagateOnCliqueTree();
+	}
+
+	/**
+	 * Propagates messages on the CT.
+	 * 
+	 * @return LL.
+	 */
+	private double propagateOnCliqueTree() {
 		// absorbs evidences
 		absorbEvidence();
+		cliqueTreeUpToDate = true;
+
+		if (ParallelMessagePassing.isWorthwhile(cliqueTree, parallelThreshold)) {
+			// independent subtrees are processed by different workers
+			ParallelMessagePassing.propagate(this, cliqueTree);
+			return computeLikelihood();
+		}
 
 		CliqueNode pivot = cliqueTree.getPivot();
 
@@ -601,6 +1032,247 @@ public final class CliqueTreePropagation implements Cloneable {
 		return computeLikelihood();
 	}
 
+	/**
+	 * Returns the minimum number of cells of all the clique tables of the CT
+	 * for its messages to be sent in parallel.
+	 * 
+	 * @return the parallel threshold.
+	 */
+	public long getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the minimum number of cells of all the clique tables of the CT for
+	 * its messages to be sent in parallel by the common fork-join pool. The
+	 * messages are always sent sequentially when the propagation is called
+	 * from a fork-join task, since the caller is then already parallel. Use
+	 * <code>Long.MAX_VALUE</code> to disable parallel propagation.
+	 * 
+	 * @param parallelThreshold
+	 *            the parallel threshold.
+	 */
+	public void setParallelThreshold(long parallelThreshold) {
+		if (parallelThreshold < 1)
+			throw new IllegalArgumentException("The parallel threshold must be positive");
+
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Returns the most probable joint configuration of the specified
+	 * variables given the current evidence. See
+	 * {@link #computeMpe(List, int[], int)}.
+	 * 
+	 * @param vars
+	 *            variables whose configuration is requested.
+	 * @return the states of the variables in the most probable configuration.
+	 */
+	public int[] computeMpe(List<DiscreteVariable> vars) {
+		int[] states = new int[vars.size()];
+		computeMpe(vars, states, 0);
+		return states;
+	}
+
+	/**
+	 * Computes the most probable joint configuration of the specified
+	 * variables given the current evidence by max-product propagation on the
+	 * clique tree followed by backtracking. The states are written into
+	 * <code>states[offset]</code>, ..., <code>states[offset + vars.size() - 1]</code>.
+	 * <p>
+	 * Unobserved variables that are not queried and have no observed or
+	 * queried descendants (e.g. missing manifest variables of an HLCM) are
+	 * barren and are summed out exactly. The remaining unobserved variables
+	 * are maximized jointly with the query.
+	 * </p>
+	 * <p>
+	 * Messages are kept local to this call, so the functions and messages
+	 * stored in the clique tree by {@link #propagate()} are left untouched.
+	 * </p>
+	 * 
+	 * @param vars
+	 *            variables whose configuration is requested.
+	 * @param states
+	 *            array where the states are written.
+	 * @param offset
+	 *            position of the first state in the array.
+	 * @return the log-probability of the configuration together with the
+	 *         evidence.
+	 */
+	public double computeMpe(List<DiscreteVariable> vars, int[] states, int offset) {
+		if (!bayesNet.containsVars(vars))
+			throw new IllegalArgumentException("Some of the variables under query are not present in the model");
+
+		if (offset < 0 || offset + vars.size() > states.length)
+			throw new IllegalArgumentException("The array of states is too small");
+
+		if (cliqueTree == null)
+			throw new IllegalStateException("MPE queries are not supported when the model is handled by an approximate engine");
+
+		// tree-structured BNs are maximized by the latent tree engine without allocating potentials
+		if (usesLatentTreeEngine())
+			return ((LatentTreePropagation) engine).computeMpe(_evidence, vars, states, offset);
+
+		Set<DiscreteVariable> barrenVars = computeBarrenVariables(vars);
+
+		// initial potential of each clique: product of its projected CPTs
+		HashMap<CliqueNode, Function> potentials = new HashMap<CliqueNode, Function>();
+		for (AbstractNode<String> node : cliqueTree.getNodes())
+			potentials.put((CliqueNode) node, Function.createIdentityFunction());
+
+		for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+			DiscreteVariable var = node.getVariable();
+			if (barrenVars.contains(var))
+				continue;
+
+			Function function = node.getCpt();
+			for (DiscreteVariable functionVar : node.getCpt().getVariables()) {
+				Integer value = _evidence.get(functionVar);
+				if (value != null)
+					function = function.project(functionVar, value);
+			}
+
+			CliqueNode familyClique = cliqueTree.getFamilyClique(var);
+			potentials.put(familyClique, potentials.get(familyClique).times(function));
+		}
+
+		// collects max-messages towards the pivot
+		HashMap<CliqueNode, Function> messages = new HashMap<CliqueNode, Function>();
+		HashMap<CliqueNode, Double> logNormalizations = new HashMap<CliqueNode, Double>();
+		CliqueNode pivot = cliqueTree.getPivot();
+
+		Function potential = potentials.get(pivot);
+		double logProbability = 0;
+		for (AbstractNode<String> neighbor : pivot.getNeighbors()) {
+			CliqueNode clique = (CliqueNode) neighbor;
+			collectMaxMessage(clique, pivot, potentials, messages, logNormalizations);
+			potential = potential.times(messages.get(clique));
+			logProbability += logNormalizations.get(clique);
+		}
+		potentials.put(pivot, potential);
+		logProbability += Math.log(potential.max());
+
+		// backtracks from the pivot to recover the maximizing states
+		HashMap<DiscreteVariable, Integer> assignment = new HashMap<DiscreteVariable, Integer>();
+		backtrackMaxStates(pivot, null, potentials, assignment);
+
+		for (int i = 0; i < vars.size(); i++) {
+			DiscreteVariable var = vars.get(i);
+			Integer value = _evidence.get(var);
+			if (value == null)
+				value = assignment.get(var);
+			states[offset + i] = value;
+		}
+
+		return logProbability;
+	}
+
+	/**
+	 * Returns the unobserved variables that are not in the query and whose
+	 * descendants are neither observed nor in the query. Their CPTs sum up to
+	 * one and can be dropped from the max-product computation.
+	 */
+	private Set<DiscreteVariable> computeBarrenVariables(Collection<DiscreteVariable> query) {
+		HashSet<DiscreteVariable> barrenVars = new HashSet<DiscreteVariable>();
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+				DiscreteVariable var = node.getVariable();
+				if (barrenVars.contains(var) || _evidence.containsKey(var) || query.contains(var))
+					continue;
+
+				boolean barren = true;
+				for (DirectedNode<Variable> child : node.getChildren()) {
+					if (!barrenVars.contains(((DiscreteBeliefNode) child).getVariable())) {
+						barren = false;
+						break;
+					}
+				}
+
+				if (barren) {
+					barrenVars.add(var);
+					changed = true;
+				}
+			}
+		}
+
+		return barrenVars;
+	}
+
+	/**
+	 * Collects max-messages around the source and computes the max-message
+	 * from the source to the destination. The potential of the source before
+	 * maximization is kept in <code>potentials</code> for backtracking.
+	 */
+	private void collectMaxMessage(CliqueNode source, CliqueNode destination,
+			Map<CliqueNode, Function> potentials, Map<CliqueNode, Function> messages,
+			Map<CliqueNode, Double> logNormalizations) {
+		Function potential = potentials.get(source);
+		double logNormalization = 0;
+
+		for (AbstractNode<String> neighbor : source.getNeighbors()) {
+			if (neighbor != destination) {
+				CliqueNode clique = (CliqueNode) neighbor;
+				collectMaxMessage(clique, source, potentials, messages, logNormalizations);
+				potential = potential.times(messages.get(clique));
+				logNormalization += logNormalizations.get(clique);
+			}
+		}
+		potentials.put(source, potential);
+
+		// maxes out difference between source and destination
+		Function message = potential;
+		for (DiscreteVariable var : source.getDifferenceTo(destination)) {
+			if (message.contains(var)) {
+				message = message.maxOut(var);
+			}
+		}
+
+		// normalizes to alleviate round off error
+		double n = message.normalize();
+		if (n == 0.0)
+			throw new IllegalStateException("The evidence has zero probability");
+
+		messages.put(source, message);
+		logNormalizations.put(source, logNormalization + Math.log(n));
+	}
+
+	/**
+	 * Chooses the maximizing states of the variables in the clique that have
+	 * not been assigned yet and proceeds with the rest of the tree.
+	 */
+	private void backtrackMaxStates(CliqueNode clique, CliqueNode parent,
+			Map<CliqueNode, Function> potentials, Map<DiscreteVariable, Integer> assignment) {
+		Function potential = potentials.get(clique);
+
+		// instantiates the variables fixed by the parent cliques
+		ArrayList<DiscreteVariable> fixedVars = new ArrayList<DiscreteVariable>();
+		ArrayList<Integer> fixedStates = new ArrayList<Integer>();
+		for (DiscreteVariable var : potential.getVariables()) {
+			Integer value = assignment.get(var);
+			if (value != null) {
+				fixedVars.add(var);
+				fixedStates.add(value);
+			}
+		}
+		potential = potential.project(fixedVars, fixedStates);
+
+		int[] maxStates = new int[potential.getDimension()];
+		potential.computeStates(potential.argMax(), maxStates);
+
+		List<DiscreteVariable> freeVars = potential.getVariables();
+		for (int i = 0; i < maxStates.length; i++)
+			assignment.put(freeVars.get(i), maxStates[i]);
+
+		for (AbstractNode<String> neighbor : clique.getNeighbors()) {
+			if (neighbor != parent) {
+				backtrackMaxStates((CliqueNode) neighbor, clique, potentials, assignment);
+			}
+		}
+	}
+
 	/**
 	 * Sends a message from the source to the destiation.
 	 * 
@@ -675,6 +1347,8 @@ public final class CliqueTreePropagation implements Cloneable {
 
 	public void setBayesNet(DiscreteBayesNet bayesNet) {
 		this.bayesNet = bayesNet;
+		this.engine = engine == null ? null : engine.copy(bayesNet);
+		this.cliqueTreeUpToDate = true;
 	}
 
 	public void addEvidence(DiscreteVariable variable, int state) {
@@ -2,80 +2,126 @@ package voltric.inference;
 
 import voltric.model.DiscreteBayesNet;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
+ * Provides {@link CliqueTreePropagation}s for a model to the threads that run inference in parallel.
+ *
+ * <p>Each thread keeps its own CTP, which is lazily cloned from a template the first time the thread calls
+ * {@link #take()}. Since CTPs are never shared between threads, neither {@link #take()} nor {@link #put(CliqueTreePropagation)}
+ * synchronize or block, so fork-join workers are never parked waiting for a CTP, no matter how many ways the work is
+ * split. If a thread calls {@link #take()} again before returning its CTP, it receives a fresh clone that is discarded
+ * when put back.</p>
+ *
+ * <p>The CTPs are held by the group rather than by the threads, so they are released together with the group. CTPs
+ * read the CPTs of the model each time they propagate, so parameter updates are seen without any action. After
+ * changing the structure of the model, a new group must be created.</p>
+ *
  * Created by fernando on 4/04/17.
  */
 public class CliqueTreePropagationGroup {
 
-    private final BlockingQueue<CliqueTreePropagation> queue;
     public final DiscreteBayesNet model;
+
+    /** The expected number of threads that use this group concurrently. It is used to decide how to split work. */
     public final int capacity;
 
-    public static CliqueTreePropagationGroup constructFromTemplate(
-            CliqueTreePropagation template, DiscreteBayesNet model, int capacity) {
-        CliqueTreePropagationGroup group =
-                new CliqueTreePropagationGroup(model, capacity);
+    private final CliqueTreePropagation template;
 
-        while (group.queue.size() < capacity) {
-            CliqueTreePropagation ctp = template.clone();
-            ctp.setBayesNet(model);
-            group.queue.add(ctp);
-        }
+    /** The CTP cached by each thread that has used this group. */
+    private final Map<Thread, Slot> slots = new ConcurrentHashMap<>();
 
-        return group;
+    public static CliqueTreePropagationGroup constructFromTemplate(
+            CliqueTreePropagation template, DiscreteBayesNet model, int capacity) {
+        return new CliqueTreePropagationGroup(model, template.clone(model), capacity);
     }
 
     public static CliqueTreePropagationGroup constructFromModel(DiscreteBayesNet model,
                                                                 int capacity) {
-        return new CliqueTreePropagationGroup(construct(model), capacity);
+        return constructFromFactory(model, CliqueTreePropagation::new, capacity);
+    }
+
+    /**
+     * Creates a group whose CTPs are created by the argument factory, e.g. to use an approximate engine such as
+     * {@link GibbsSampling}. The factory is called once for the template, and the CTPs of the threads are clones of
+     * it.
+     *
+     * @param model the model under query.
+     * @param factory creates a CTP for a model.
+     * @param capacity the expected number of threads that use this group concurrently.
+     * @return a new group.
+     */
+    public static CliqueTreePropagationGroup constructFromFactory(DiscreteBayesNet model,
+                                                                  Function<DiscreteBayesNet, CliqueTreePropagation> factory,
+                                                                  int capacity) {
+        return new CliqueTreePropagationGroup(model, factory.apply(model), capacity);
     }
 
-    private CliqueTreePropagationGroup(DiscreteBayesNet model, int capacity) {
+    private CliqueTreePropagationGroup(DiscreteBayesNet model, CliqueTreePropagation template, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive");
+
         this.capacity = capacity;
         this.model = model;
-        queue = new ArrayBlockingQueue<CliqueTreePropagation>(capacity);
+        this.template = template;
     }
 
+    /**
+     * Creates a group whose template is a copy of the argument CTP. The CTP itself becomes the cached CTP of the
+     * calling thread.
+     *
+     * @param ctp the CTP used as template.
+     * @param capacity the expected number of threads that use this group concurrently.
+     */
     public CliqueTreePropagationGroup(CliqueTreePropagation ctp, int capacity) {
-        this(ctp.getBayesNet(), capacity);
-
-        queue.add(ctp);
-
-        while (queue.size() < capacity)
-            queue.add(construct(model));
-    }
+        this(ctp.getBayesNet(), ctp.clone(), capacity);
 
-    private static CliqueTreePropagation construct(DiscreteBayesNet model) {
-        return new CliqueTreePropagation(model);
+        slot().ctp = ctp;
     }
 
     /**
-     * It constructs new clique tree propagation if necessary, otherwise reuses
-     * the ones in reserve.
+     * Returns the CTP of the calling thread, cloning it from the template if the thread has none. It never blocks.
      *
-     * @return
+     * @return a CTP that only the calling thread uses until it is put back.
      */
     public CliqueTreePropagation take() {
-        try {
-            return queue.take();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        Slot slot = slot();
+
+        if (slot.inUse) {
+            // re-entrant call: the cached CTP is busy
+            return template.clone();
         }
+
+        if (slot.ctp == null)
+            slot.ctp = template.clone();
+
+        slot.inUse = true;
+        return slot.ctp;
     }
 
     /**
-     * Puts back a clique tree propagation in reserve after use.
+     * Puts back a CTP obtained with {@link #take()}. It never blocks.
      *
-     * @param ctp
+     * @param ctp the CTP being returned.
      */
     public void put(CliqueTreePropagation ctp) {
-        try {
-            queue.put(ctp);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+        Slot slot = slot();
+
+        if (slot.ctp == ctp)
+            slot.inUse = false;
+        // otherwise it was a temporary clone and it is simply dropped
+    }
+
+    /** Returns the slot of the calling thread, which only that thread reads or writes. */
+    private Slot slot() {
+        return slots.computeIfAbsent(Thread.currentThread(), thread -> new Slot());
+    }
+
+    /** The CTP cached by a thread. */
+    private static final class Slot {
+        private CliqueTreePropagation ctp;
+        private boolean inUse;
     }
 }
@@ -0,0 +1,579 @@
+package voltric.inference;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.*;
+
+/**
+ * Approximate inference by Gibbs sampling. Each call to {@link #propagate(Map)} runs a single chain over the
+ * unobserved variables and estimates the family beliefs from its samples. The cost of a sweep is linear in the size of
+ * the Markov blankets, so it does not depend on the treewidth of the network.
+ *
+ * <p>Unobserved variables without children (e.g. the missing manifest variables of a latent model) are not sampled:
+ * their family beliefs are computed exactly from the samples of their parents. The other variables are sampled in
+ * blocks: each one is paired with one of its parents that is not in another block, and the pair is drawn from its joint
+ * conditional, so strongly coupled latent variables (e.g. a chain of latent variables) do not slow down the mixing of
+ * the chain. The family beliefs of sampled variables are Rao-Blackwellized, that is, the full conditional of the block
+ * is accumulated instead of its sampled states.</p>
+ *
+ * <p>The likelihood of the evidence is estimated by likelihood weighting with the same number of samples, and the
+ * chain starts from the weighted sample with the largest weight, so it always starts from a state with non-zero
+ * probability.</p>
+ *
+ * <p>Each engine owns a {@link SplittableRandom}. Engines created by {@link #copy(DiscreteBayesNet)}, which is how
+ * {@link CliqueTreePropagation}s are cloned for each thread, receive a generator split from the original one, so
+ * parallel chains are independent and never contend for a shared generator.</p>
+ */
+public final class GibbsSampling implements PropagationEngine {
+
+    public static final int DEFAULT_SAMPLES = 1000;
+
+    public static final int DEFAULT_BURN_IN = 100;
+
+    private final DiscreteBayesNet bayesNet;
+
+    private final int nSamples;
+
+    private final int burnIn;
+
+    private final SplittableRandom random;
+
+    private final DiscreteVariable[] variables;
+
+    private final HashMap<DiscreteVariable, Integer> indexes;
+
+    private final DiscreteBeliefNode[] nodes;
+
+    private final int[] cards;
+
+    /** Variable indexes of each family, in the order of the CPT cells. */
+    private final int[][] scopes;
+
+    /** The distance between consecutive states of each family member in the CPT cells. */
+    private final int[][] strides;
+
+    /** The position of each variable in its own family. */
+    private final int[] positions;
+
+    /** The families each variable belongs to as a parent, and its position in them. */
+    private final int[][] childFamilies;
+
+    private final int[][] childPositions;
+
+    /** The variables ordered so that parents come before their children. */
+    private final int[] topologicalOrder;
+
+    /** The blocks of variables with children that are sampled together: a parent and its child, or a single one. */
+    private final int[][] blocks;
+
+    /** The families whose CPTs are multiplied to compute the joint conditional of each block. */
+    private final int[][] blockFamilies;
+
+    /** For each block, family and block member, the stride of the member in the family, or 0 if it is not in it. */
+    private final int[][][] blockStrides;
+
+    private final List<List<DiscreteVariable>> families;
+
+    private final double[][] cells;
+
+    private final double[][] familyBeliefs;
+
+    private final int[] evidence;
+
+    private final int[] states;
+
+    private final int[] bestStates;
+
+    // buffers
+    private final double[] conditional;
+
+
+    private double logLikelihood = Double.NaN;
+
+    /**
+     * Creates an engine with the default number of samples and burn-in.
+     *
+     * @param bayesNet the network under query.
+     */
+    public GibbsSampling(DiscreteBayesNet bayesNet) {
+        this(bayesNet, DEFAULT_SAMPLES, DEFAULT_BURN_IN);
+    }
+
+    /**
+     * Creates an engine whose generator is seeded at random.
+     *
+     * @param bayesNet the network under query.
+     * @param nSamples the number of sweeps used for estimation in each propagation.
+     * @param burnIn the number of sweeps discarded at the start of each propagation.
+     */
+    public GibbsSampling(DiscreteBayesNet bayesNet, int nSamples, int burnIn) {
+        this(bayesNet, nSamples, burnIn, new SplittableRandom());
+    }
+
+    /**
+     * Creates an engine whose generator is seeded with the argument value.
+     *
+     * @param bayesNet the network under query.
+     * @param nSamples the number of sweeps used for estimation in each propagation.
+     * @param burnIn the number of sweeps discarded at the start of each propagation.
+     * @param seed the seed of the generator.
+     */
+    public GibbsSampling(DiscreteBayesNet bayesNet, int nSamples, int burnIn, long seed) {
+        this(bayesNet, nSamples, burnIn, new SplittableRandom(seed));
+    }
+
+    private GibbsSampling(DiscreteBayesNet bayesNet, int nSamples, int burnIn, SplittableRandom random) {
+        if (nSamples < 1)
+            throw new IllegalArgumentException("The number of samples must be positive");
+
+        if (burnIn < 0)
+            throw new IllegalArgumentException("The burn-in cannot be negative");
+
+        this.bayesNet = bayesNet;
+        this.nSamples = nSamples;
+        this.burnIn = burnIn;
+        this.random = random;
+
+        List<DiscreteBeliefNode> nodeList = bayesNet.getNodes();
+        int n = nodeList.size();
+
+        this.nodes = nodeList.toArray(new DiscreteBeliefNode[n]);
+        this.variables = new DiscreteVariable[n];
+        this.indexes = new HashMap<>(2 * n);
+        this.cards = new int[n];
+        int maxCard = 1;
+        for (int i = 0; i < n; i++) {
+            variables[i] = nodes[i].getVariable();
+            indexes.put(variables[i], i);
+            cards[i] = variables[i].getCardinality();
+            maxCard = Math.max(maxCard, cards[i]);
+        }
+
+        this.scopes = new int[n][];
+        this.strides = new int[n][];
+        this.positions = new int[n];
+        this.families = new ArrayList<>(n);
+        int[] nChildren = new int[n];
+        for (int f = 0; f < n; f++) {
+            List<DiscreteVariable> family = nodes[f].getCpt().getVariables();
+            families.add(family);
+
+            int size = family.size();
+            scopes[f] = new int[size];
+            strides[f] = new int[size];
+            int stride = 1;
+            for (int j = size - 1; j >= 0; j--) {
+                int v = indexes.get(family.get(j));
+                scopes[f][j] = v;
+                strides[f][j] = stride;
+                stride *= cards[v];
+
+                if (v == f)
+                    positions[f] = j;
+                else
+                    nChildren[v]++;
+            }
+        }
+
+        this.childFamilies = new int[n][];
+        this.childPositions = new int[n][];
+        for (int v = 0; v < n; v++) {
+            childFamilies[v] = new int[nChildren[v]];
+            childPositions[v] = new int[nChildren[v]];
+            nChildren[v] = 0;
+        }
+        for (int f = 0; f < n; f++) {
+            for (int j = 0; j < scopes[f].length; j++) {
+                int v = scopes[f][j];
+                if (v != f) {
+                    childFamilies[v][nChildren[v]] = f;
+                    childPositions[v][nChildren[v]] = j;
+                    nChildren[v]++;
+                }
+            }
+        }
+
+        this.topologicalOrder = computeTopologicalOrder();
+
+        this.blocks = computeBlocks();
+        this.blockFamilies = new int[blocks.length][];
+        this.blockStrides = new int[blocks.length][][];
+        int maxBlockSize = 1;
+        for (int b = 0; b < blocks.length; b++) {
+            int[] members = blocks[b];
+
+            // the families of the members and of their children, without repetitions
+            LinkedHashSet<Integer> relevant = new LinkedHashSet<>();
+            int blockSize = 1;
+            for (int v : members) {
+                relevant.add(v);
+                for (int child : childFamilies[v])
+                    relevant.add(child);
+                blockSize *= cards[v];
+            }
+            maxBlockSize = Math.max(maxBlockSize, blockSize);
+
+            blockFamilies[b] = new int[relevant.size()];
+            blockStrides[b] = new int[relevant.size()][members.length];
+            int i = 0;
+            for (int f : relevant) {
+                blockFamilies[b][i] = f;
+                for (int m = 0; m < members.length; m++) {
+                    for (int j = 0; j < scopes[f].length; j++)
+                        if (scopes[f][j] == members[m])
+                            blockStrides[b][i][m] = strides[f][j];
+                }
+                i++;
+            }
+        }
+
+        this.cells = new double[n][];
+        this.familyBeliefs = new double[n][];
+        for (int f = 0; f < n; f++)
+            familyBeliefs[f] = new double[nodes[f].getCpt().getDomainSize()];
+
+        this.evidence = new int[n];
+        this.states = new int[n];
+        this.bestStates = new int[n];
+        this.conditional = new double[maxBlockSize];
+    }
+
+    /** Kahn's algorithm on the parent sets. */
+    private int[] computeTopologicalOrder() {
+        int n = nodes.length;
+        int[] nParents = new int[n];
+        for (int f = 0; f < n; f++)
+            nParents[f] = scopes[f].length - 1;
+
+        int[] order = new int[n];
+        int head = 0, tail = 0;
+        for (int v = 0; v < n; v++)
+            if (nParents[v] == 0)
+                order[tail++] = v;
+
+        while (head < tail) {
+            int v = order[head++];
+            for (int child : childFamilies[v])
+                if (--nParents[child] == 0)
+                    order[tail++] = child;
+        }
+
+        return order;
+    }
+
+    /**
+     * Pairs each variable with children with one of its parents with children, visiting the children before their
+     * parents so chains are covered from the bottom. The variables that are left out form blocks of their own.
+     */
+    private int[][] computeBlocks() {
+        int n = nodes.length;
+        boolean[] blocked = new boolean[n];
+        List<int[]> blockList = new ArrayList<>();
+
+        for (int i = n - 1; i >= 0; i--) {
+            int v = topologicalOrder[i];
+            if (!isSampled(v) || blocked[v])
+                continue;
+
+            int partner = -1;
+            for (int j = 0; j < scopes[v].length && partner < 0; j++) {
+                int parent = scopes[v][j];
+                if (parent != v && isSampled(parent) && !blocked[parent])
+                    partner = parent;
+            }
+
+            blocked[v] = true;
+            if (partner >= 0) {
+                blocked[partner] = true;
+                blockList.add(new int[]{partner, v});
+            } else {
+                blockList.add(new int[]{v});
+            }
+        }
+
+        return blockList.toArray(new int[blockList.size()][]);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double propagate(Map<DiscreteVariable, Integer> evidenceMap) {
+        int n = nodes.length;
+
+        for (int i = 0; i < n; i++) {
+            cells[i] = nodes[i].getCpt().getCells();
+            Integer value = evidenceMap.get(variables[i]);
+            evidence[i] = value == null ? -1 : value;
+            Arrays.fill(familyBeliefs[i], 0.0);
+        }
+
+        logLikelihood = weightSamples();
+        if (Math.exp(logLikelihood) < Double.MIN_NORMAL)
+            throw new IllegalStateException("normalization value lower than Double.MIN_NORMAL");
+
+        System.arraycopy(bestStates, 0, states, 0, n);
+
+        for (int sweep = 0; sweep < burnIn; sweep++)
+            sweep(false);
+
+        for (int sample = 0; sample < nSamples; sample++) {
+            sweep(true);
+            accumulateUnsampledFamilies();
+        }
+
+        for (int f = 0; f < n; f++) {
+            double[] belief = familyBeliefs[f];
+            for (int c = 0; c < belief.length; c++)
+                belief[c] /= nSamples;
+        }
+
+        return Math.exp(logLikelihood);
+    }
+
+    /**
+     * Draws {@code nSamples} weighted samples by likelihood weighting, keeps the one with the largest weight in
+     * {@link #bestStates} and returns the log of the average weight.
+     */
+    private double weightSamples() {
+        double maxLogWeight = Double.NEGATIVE_INFINITY;
+        double[] logWeights = new double[nSamples];
+
+        for (int sample = 0; sample < nSamples; sample++) {
+            double logWeight = 0;
+            for (int v : topologicalOrder) {
+                if (evidence[v] >= 0) {
+                    states[v] = evidence[v];
+                    logWeight += Math.log(cells[v][cellIndex(v)]);
+                } else if (isSampled(v)) {
+                    states[v] = 0;
+                    int base = cellIndex(v);
+                    states[v] = sample(cells[v], base, strides[v][positions[v]], cards[v], 1.0);
+                }
+            }
+
+            logWeights[sample] = logWeight;
+            if (logWeight > maxLogWeight) {
+                maxLogWeight = logWeight;
+                System.arraycopy(states, 0, bestStates, 0, states.length);
+            }
+        }
+
+        if (maxLogWeight == Double.NEGATIVE_INFINITY)
+            return Double.NEGATIVE_INFINITY;
+
+        double sum = 0;
+        for (double logWeight : logWeights)
+            sum += Math.exp(logWeight - maxLogWeight);
+
+        return maxLogWeight + Math.log(sum / nSamples);
+    }
+
+    /**
+     * Samples the unobserved members of each block from their joint full conditional. An observed member keeps its
+     * value, so the block reduces to the other member.
+     */
+    private void sweep(boolean accumulate) {
+        for (int b = 0; b < blocks.length; b++) {
+            int[] members = blocks[b];
+            int first = members[0];
+            int second = members.length > 1 ? members[1] : -1;
+
+            // the range of states of each member, which is a single one if it is observed
+            int from0 = evidence[first] >= 0 ? evidence[first] : 0;
+            int to0 = evidence[first] >= 0 ? evidence[first] + 1 : cards[first];
+            int from1 = 0, to1 = 1;
+            if (second >= 0) {
+                from1 = evidence[second] >= 0 ? evidence[second] : 0;
+                to1 = evidence[second] >= 0 ? evidence[second] + 1 : cards[second];
+            }
+            if (to0 - from0 == 1 && to1 - from1 == 1)
+                continue;
+
+            int n1 = to1 - from1;
+            int size = (to0 - from0) * n1;
+            Arrays.fill(conditional, 0, size, 1.0);
+
+            for (int i = 0; i < blockFamilies[b].length; i++) {
+                int f = blockFamilies[b][i];
+                // unobserved children without children sum to one
+                if (evidence[f] < 0 && !isSampled(f))
+                    continue;
+
+                int[] memberStrides = blockStrides[b][i];
+                int stride0 = memberStrides[0];
+                int stride1 = second >= 0 ? memberStrides[1] : 0;
+                int base = cellIndex(f) - states[first] * stride0 - (second >= 0 ? states[second] * stride1 : 0);
+                double[] cpt = cells[f];
+
+                double max = 0;
+                for (int s0 = from0, k = 0; s0 < to0; s0++) {
+                    for (int s1 = from1; s1 < to1; s1++, k++) {
+                        conditional[k] *= cpt[base + s0 * stride0 + s1 * stride1];
+                        max = Math.max(max, conditional[k]);
+                    }
+                }
+
+                // rescales to avoid underflow with many children
+                if (max > 0 && max < 1e-200)
+                    for (int k = 0; k < size; k++)
+                        conditional[k] /= max;
+            }
+
+            double sum = 0;
+            for (int k = 0; k < size; k++)
+                sum += conditional[k];
+
+            // a state with zero probability can only be reached from an invalid starting point, so it is kept
+            if (sum == 0)
+                continue;
+
+            if (accumulate) {
+                for (int m = 0; m < members.length; m++) {
+                    int v = members[m];
+                    if (evidence[v] >= 0)
+                        continue;
+
+                    // the family of each member is the first one of the block that contains it
+                    int i = indexOfFamily(b, v);
+                    int stride0 = blockStrides[b][i][0];
+                    int stride1 = second >= 0 ? blockStrides[b][i][1] : 0;
+                    int base = cellIndex(v) - states[first] * stride0 - (second >= 0 ? states[second] * stride1 : 0);
+                    double[] belief = familyBeliefs[v];
+                    for (int s0 = from0, k = 0; s0 < to0; s0++)
+                        for (int s1 = from1; s1 < to1; s1++, k++)
+                            belief[base + s0 * stride0 + s1 * stride1] += conditional[k] / sum;
+                }
+            }
+
+            int k = sample(conditional, 0, 1, size, sum);
+            states[first] = from0 + k / n1;
+            if (second >= 0)
+                states[second] = from1 + k % n1;
+        }
+    }
+
+    private int indexOfFamily(int b, int f) {
+        int[] families = blockFamilies[b];
+        for (int i = 0; i < families.length; i++)
+            if (families[i] == f)
+                return i;
+        throw new IllegalStateException("The family is not part of the block");
+    }
+
+    /** Adds the current sample to the families of observed variables and of unobserved variables without children. */
+    private void accumulateUnsampledFamilies() {
+        for (int v = 0; v < nodes.length; v++) {
+            if (evidence[v] >= 0) {
+                familyBeliefs[v][cellIndex(v)] += 1.0;
+            } else if (!isSampled(v)) {
+                int stride = strides[v][positions[v]];
+                states[v] = 0;
+                int base = cellIndex(v);
+                for (int s = 0; s < cards[v]; s++)
+                    familyBeliefs[v][base + s * stride] += cells[v][base + s * stride];
+            }
+        }
+    }
+
+    /** Unobserved variables without children are summed out instead of sampled. */
+    private boolean isSampled(int v) {
+        return childFamilies[v].length > 0;
+    }
+
+    /** Returns the index of the CPT cell of the argument family that corresponds to the current states. */
+    private int cellIndex(int f) {
+        int[] scope = scopes[f];
+        int[] stride = strides[f];
+        int index = 0;
+        for (int j = 0; j < scope.length; j++)
+            index += states[scope[j]] * stride[j];
+        return index;
+    }
+
+    /** Samples a state from the unnormalized distribution stored at {@code values[base + s * stride]}. */
+    private int sample(double[] values, int base, int stride, int card, double sum) {
+        double u = random.nextDouble() * sum;
+        double accumulated = 0;
+        for (int s = 0; s < card - 1; s++) {
+            accumulated += values[base + s * stride];
+            if (u < accumulated)
+                return s;
+        }
+        return card - 1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Function computeBelief(DiscreteVariable var) {
+        int v = indexOf(var);
+        Function function = Function.createFunction(Collections.singletonList(var));
+        double[] belief = function.getCells();
+
+        double[] family = familyBeliefs[v];
+        int stride = strides[v][positions[v]];
+        for (int c = 0; c < family.length; c++)
+            belief[(c / stride) % cards[v]] += family[c];
+
+        return function;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Function computeFamilyBelief(DiscreteVariable var) {
+        int f = indexOf(var);
+        Function function = Function.createFunction(families.get(f));
+        System.arraycopy(familyBeliefs[f], 0, function.getCells(), 0, familyBeliefs[f].length);
+        return function;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DiscreteBayesNet getBayesNet() {
+        return bayesNet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    /**
+     * Returns a new engine whose generator is split from the generator of this engine. It can be called concurrently
+     * from several threads.
+     *
+     * @param bayesNet the network of the new engine.
+     * @return a new engine for {@code bayesNet}.
+     */
+    @Override
+    public PropagationEngine copy(DiscreteBayesNet bayesNet) {
+        SplittableRandom split;
+        synchronized (random) {
+            split = random.split();
+        }
+        return new GibbsSampling(bayesNet, nSamples, burnIn, split);
+    }
+
+    public int getNumberOfSamples() {
+        return nSamples;
+    }
+
+    public int getBurnIn() {
+        return burnIn;
+    }
+
+    private int indexOf(DiscreteVariable var) {
+        Integer index = indexes.get(var);
+        if (index == null)
+            throw new IllegalArgumentException("The variable under query is not present in the model");
+        return index;
+    }
+}
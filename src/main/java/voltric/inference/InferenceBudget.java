@@ -0,0 +1,107 @@
+package voltric.inference;
+
+import voltric.model.DiscreteBayesNet;
+
+/**
+ * Limits on the memory and time of a propagation, checked against the {@link InferenceCost} predicted by
+ * {@link InferenceCostEstimator} before any potential is allocated.
+ *
+ * <p>The policy decides what {@link CliqueTreePropagation} does with a network whose cost exceeds the budget: reject it
+ * or fall back to {@link LoopyBeliefPropagation}, whose memory is linear in the size of the CPTs. Structure search
+ * operators discard the candidate models that exceed the budget, whatever the policy.</p>
+ */
+public final class InferenceBudget {
+
+    /** What to do with a network whose predicted cost exceeds the budget. */
+    public enum Policy {
+        /** Throw an {@link IllegalArgumentException}. */
+        REJECT,
+        /** Use an approximate engine instead of a clique tree. */
+        APPROXIMATE
+    }
+
+    /** Budget that admits any network. */
+    public static final InferenceBudget UNLIMITED = new InferenceBudget(Long.MAX_VALUE, Long.MAX_VALUE, Policy.REJECT);
+
+    private final long maxBytes;
+
+    private final long maxFlopsPerPropagation;
+
+    private final Policy policy;
+
+    /**
+     * Creates a budget that only limits memory.
+     *
+     * @param maxBytes the maximum predicted memory of a propagation, in bytes.
+     * @param policy what to do with the networks that exceed the budget.
+     */
+    public InferenceBudget(long maxBytes, Policy policy) {
+        this(maxBytes, Long.MAX_VALUE, policy);
+    }
+
+    /**
+     * Creates a budget.
+     *
+     * @param maxBytes the maximum predicted memory of a propagation, in bytes.
+     * @param maxFlopsPerPropagation the maximum predicted number of operations of a propagation.
+     * @param policy what to do with the networks that exceed the budget.
+     */
+    public InferenceBudget(long maxBytes, long maxFlopsPerPropagation, Policy policy) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("The maximum number of bytes must be positive");
+
+        if (maxFlopsPerPropagation < 1)
+            throw new IllegalArgumentException("The maximum number of operations must be positive");
+
+        if (policy == null)
+            throw new IllegalArgumentException("The policy cannot be null");
+
+        this.maxBytes = maxBytes;
+        this.maxFlopsPerPropagation = maxFlopsPerPropagation;
+        this.policy = policy;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxFlopsPerPropagation() {
+        return maxFlopsPerPropagation;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public boolean isUnlimited() {
+        return maxBytes == Long.MAX_VALUE && maxFlopsPerPropagation == Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns {@code true} if the argument cost is within the budget.
+     *
+     * @param cost the predicted cost.
+     * @return {@code true} if the cost is within the budget.
+     */
+    public boolean admits(InferenceCost cost) {
+        return cost.getEstimatedBytes() <= maxBytes && cost.getFlopsPerPropagation() <= maxFlopsPerPropagation;
+    }
+
+    /**
+     * Returns {@code true} if the predicted cost of propagation in the argument network is within the budget. The cost
+     * is not estimated if the budget is unlimited.
+     *
+     * @param bayesNet the network.
+     * @return {@code true} if the predicted cost is within the budget.
+     */
+    public boolean admits(DiscreteBayesNet bayesNet) {
+        return isUnlimited() || admits(InferenceCostEstimator.estimate(bayesNet));
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceBudget{maxBytes=" + maxBytes
+                + ", maxFlopsPerPropagation=" + maxFlopsPerPropagation
+                + ", policy=" + policy + "}";
+    }
+}
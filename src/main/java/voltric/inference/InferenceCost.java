@@ -0,0 +1,115 @@
+package voltric.inference;
+
+/**
+ * Predicted cost of clique tree propagation in a network, computed by {@link InferenceCostEstimator} from its structure
+ * alone.
+ *
+ * <p>Sizes are numbers of table cells. Like those of {@link voltric.graph.triangulation.EliminationOrder}, all the
+ * values saturate at {@link Long#MAX_VALUE} instead of overflowing, so they can always be compared against a
+ * budget.</p>
+ */
+public final class InferenceCost {
+
+    /** Bytes of a table cell. */
+    static final int BYTES_PER_CELL = Double.BYTES;
+
+    private final int nCliques;
+
+    private final long maxCliqueTableSize;
+
+    private final long totalCliqueTableSize;
+
+    private final long maxMessageSize;
+
+    private final long totalMessageSize;
+
+    private final long flopsPerPropagation;
+
+    InferenceCost(int nCliques, long maxCliqueTableSize, long totalCliqueTableSize,
+                  long maxMessageSize, long totalMessageSize, long flopsPerPropagation) {
+        this.nCliques = nCliques;
+        this.maxCliqueTableSize = maxCliqueTableSize;
+        this.totalCliqueTableSize = totalCliqueTableSize;
+        this.maxMessageSize = maxMessageSize;
+        this.totalMessageSize = totalMessageSize;
+        this.flopsPerPropagation = flopsPerPropagation;
+    }
+
+    /**
+     * Returns the number of cliques of the predicted clique tree.
+     *
+     * @return the number of cliques.
+     */
+    public int getNumberOfCliques() {
+        return nCliques;
+    }
+
+    /**
+     * Returns the number of cells of the largest clique table.
+     *
+     * @return the size of the largest clique table.
+     */
+    public long getMaxCliqueTableSize() {
+        return maxCliqueTableSize;
+    }
+
+    /**
+     * Returns the number of cells of all the clique tables.
+     *
+     * @return the size of all the clique tables.
+     */
+    public long getTotalCliqueTableSize() {
+        return totalCliqueTableSize;
+    }
+
+    /**
+     * Returns the number of cells of the largest message, that is, of the largest separator table.
+     *
+     * @return the size of the largest message.
+     */
+    public long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Returns the number of cells of all the messages of a propagation, which sends one message in each direction of
+     * each edge of the tree.
+     *
+     * @return the size of all the messages.
+     */
+    public long getTotalMessageSize() {
+        return totalMessageSize;
+    }
+
+    /**
+     * Returns the predicted number of floating point operations of a propagation: each message multiplies the
+     * incoming messages and the functions of its clique over the clique table, and then sums it out.
+     *
+     * @return the predicted number of operations of a propagation.
+     */
+    public long getFlopsPerPropagation() {
+        return flopsPerPropagation;
+    }
+
+    /**
+     * Returns the predicted peak memory of a propagation: the clique tables, which are built while sending messages,
+     * plus the stored messages.
+     *
+     * @return the predicted memory of a propagation, in bytes.
+     */
+    public long getEstimatedBytes() {
+        long cells = InferenceCostEstimator.saturatedAdd(totalCliqueTableSize, totalMessageSize);
+        return InferenceCostEstimator.saturatedMultiply(cells, BYTES_PER_CELL);
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceCost{cliques=" + nCliques
+                + ", maxCliqueTableSize=" + maxCliqueTableSize
+                + ", totalCliqueTableSize=" + totalCliqueTableSize
+                + ", maxMessageSize=" + maxMessageSize
+                + ", totalMessageSize=" + totalMessageSize
+                + ", flopsPerPropagation=" + flopsPerPropagation
+                + ", estimatedBytes=" + getEstimatedBytes() + "}";
+    }
+}
@@ -0,0 +1,179 @@
+package voltric.inference;
+
+import voltric.graph.AbstractNode;
+import voltric.graph.UndirectedGraph;
+import voltric.graph.triangulation.EliminationOrder;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.Variable;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Predicts the cost of clique tree propagation in a network from its structure, without building any potential.
+ *
+ * <p>The elimination order is obtained from a {@link CliqueTreeCache}, so the triangulation is shared with the
+ * {@link CliqueTreePropagation}s that are later created for the same structure. The elimination is then replayed on
+ * bitsets to obtain the junction tree of the order: each clique is an eliminated variable and its remaining
+ * neighbors, and it is linked to the clique of the first variable of its separator that is eliminated, unless that
+ * clique is contained in it and they are merged. These are the cliques and separators of the tree {@link CliqueTree}
+ * builds from the same order. The number of operations is an estimate, since it depends on how the functions are
+ * assigned to the cliques.</p>
+ */
+public final class InferenceCostEstimator {
+
+    private InferenceCostEstimator() {
+    }
+
+    /**
+     * Estimates the cost of propagation in the argument network, using the shared {@link CliqueTreeCache}.
+     *
+     * @param bayesNet the network.
+     * @return the predicted cost.
+     */
+    public static InferenceCost estimate(DiscreteBayesNet bayesNet) {
+        return estimate(bayesNet, CliqueTreeCache.getSharedCache());
+    }
+
+    /**
+     * Estimates the cost of propagation in the argument network.
+     *
+     * @param bayesNet the network.
+     * @param cache the cache that provides the elimination order.
+     * @return the predicted cost.
+     */
+    public static InferenceCost estimate(DiscreteBayesNet bayesNet, CliqueTreeCache cache) {
+        UndirectedGraph<Variable> moralGraph = bayesNet.computeMoralGraph();
+        EliminationOrder<Variable> order = cache.getEliminationOrder(bayesNet);
+        List<Variable> eliminated = order.getOrder();
+        int n = eliminated.size();
+
+        if (n == 0)
+            return new InferenceCost(0, 0, 0, 0, 0, 0);
+
+        // nodes are indexed by their position in the elimination order
+        HashMap<Variable, Integer> positions = new HashMap<>(2 * n);
+        long[] cards = new long[n];
+        for (int i = 0; i < n; i++) {
+            positions.put(eliminated.get(i), i);
+            cards[i] = ((DiscreteVariable) eliminated.get(i)).getCardinality();
+        }
+
+        BitSet[] adjacency = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            adjacency[i] = new BitSet(n);
+            for (AbstractNode<Variable> neighbor : moralGraph.getNode(eliminated.get(i)).getNeighbors())
+                adjacency[i].set(positions.get(neighbor.getContent()));
+        }
+
+        // clique[i] represents the elimination clique of i, or the clique it has been merged into
+        int[] clique = new int[n];
+        int[] parent = new int[n];
+        boolean[] maximal = new boolean[n];
+        long[] tableSizes = new long[n];
+        long[] separatorSizes = new long[n];
+        BitSet[] separators = new BitSet[n];
+
+        for (int v = 0; v < n; v++) {
+            // remaining neighbors, all eliminated after v
+            BitSet separator = adjacency[v];
+            separators[v] = separator;
+            clique[v] = v;
+            parent[v] = -1;
+            maximal[v] = true;
+
+            long separatorSize = 1;
+            for (int u = separator.nextSetBit(0); u >= 0; u = separator.nextSetBit(u + 1)) {
+                separatorSize = saturatedMultiply(separatorSize, cards[u]);
+
+                // fill-in edges
+                adjacency[u].or(separator);
+                adjacency[u].clear(u);
+                adjacency[u].clear(v);
+            }
+            separatorSizes[v] = separatorSize;
+            tableSizes[v] = saturatedMultiply(separatorSize, cards[v]);
+
+            if (!separator.isEmpty())
+                parent[v] = separator.nextSetBit(0);
+        }
+
+        // The separator of a child is always contained in the clique of its parent, so the parent's clique is
+        // contained in the child's one if and only if both have the same size. In that case it is merged into it.
+        for (int v = 0; v < n; v++) {
+            int w = parent[v];
+            if (w >= 0 && maximal[w] && separators[v].cardinality() == separators[w].cardinality() + 1) {
+                maximal[w] = false;
+                clique[w] = v;
+            }
+        }
+
+        int nCliques = 0;
+        long maxTable = 0, totalTable = 0, maxMessage = 0, totalMessage = 0;
+        int[] degrees = new int[n];
+
+        for (int v = 0; v < n; v++) {
+            if (!maximal[v])
+                continue;
+
+            nCliques++;
+            maxTable = Math.max(maxTable, tableSizes[v]);
+            totalTable = saturatedAdd(totalTable, tableSizes[v]);
+
+            // The edge towards the root leaves from the highest clique merged into v
+            int top = v;
+            int ancestor = -1;
+            while (parent[top] >= 0) {
+                ancestor = findClique(parent[top], clique, maximal);
+                if (ancestor != v)
+                    break;
+                top = parent[top];
+                ancestor = -1;
+            }
+            if (ancestor < 0)
+                continue;
+
+            degrees[v]++;
+            degrees[ancestor]++;
+            long message = separatorSizes[top];
+            maxMessage = Math.max(maxMessage, message);
+            // one message in each direction
+            totalMessage = saturatedAdd(totalMessage, saturatedMultiply(message, 2));
+        }
+
+        long flops = 0;
+        for (int v = 0; v < n; v++) {
+            if (!maximal[v])
+                continue;
+
+            // each of the messages sent multiplies the other incoming messages and the functions over the table
+            int degree = Math.max(degrees[v], 1);
+            flops = saturatedAdd(flops, saturatedMultiply(tableSizes[v], (long) degree * (degree + 1)));
+        }
+
+        return new InferenceCost(nCliques, maxTable, totalTable, maxMessage, totalMessage, flops);
+    }
+
+    /** Returns the maximal clique the elimination clique of {@code v} has been merged into. */
+    private static int findClique(int v, int[] clique, boolean[] maximal) {
+        int target = v;
+        while (!maximal[target])
+            target = clique[target];
+        return target;
+    }
+
+    /** Multiplies two non-negative longs, returning {@link Long#MAX_VALUE} on overflow. */
+    static long saturatedMultiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a)
+            return Long.MAX_VALUE;
+        return a * b;
+    }
+
+    /** Adds two non-negative longs, returning {@link Long#MAX_VALUE} on overflow. */
+    static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,699 @@
+package voltric.inference;
+
+import voltric.graph.DirectedNode;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.Variable;
+
+import java.util.*;
+
+/**
+ * Upward-downward belief propagation for tree-structured networks, where every node has at most one parent, such as
+ * {@link voltric.model.HLCM}s. The clique tree of these networks is just the tree of parent-child pairs, so instead of
+ * building clique potentials this engine reads the CPT cells directly:
+ * <ul>
+ *     <li>messages are vectors over the states of the receiving variable,</li>
+ *     <li>the evidence of an observed leaf is a row selection of its CPT,</li>
+ *     <li>unobserved leaves send no message at all if every row of their CPT sums up to one, otherwise their message
+ *     holds the sums of the rows (e.g. for the expected log-parameters of variational Bayes),</li>
+ *     <li>family beliefs are tables over the states of a node and its parent.</li>
+ * </ul>
+ *
+ * <p>All the buffers are allocated once, so propagating a data case does not create any object. The downward pass is
+ * only carried out when a belief is requested, which makes likelihood-only propagation as cheap as possible.</p>
+ *
+ * <p>This class is used by {@link CliqueTreePropagation}, which selects it automatically. It is not thread-safe.</p>
+ */
+final class LatentTreePropagation implements PropagationEngine {
+
+    /** The largest difference from one of the sum of a CPT row that is considered to sum up to one. */
+    private static final double STOCHASTIC_TOLERANCE = 1e-10;
+
+    private final DiscreteBayesNet bayesNet;
+
+    /** Nodes in breadth-first order from the root, so parents always precede their children. */
+    private final DiscreteBeliefNode[] nodes;
+
+    private final DiscreteVariable[] variables;
+
+    private final HashMap<DiscreteVariable, Integer> indexes;
+
+    /** Position of the parent of each node, or -1 for the root. */
+    private final int[] parents;
+
+    private final int[][] children;
+
+    private final int[] cards;
+
+    /** Strides of a node and of its parent in the cells of the node's CPT. */
+    private final int[] childStrides;
+
+    private final int[] parentStrides;
+
+    /** The variables of each node's CPT, in the order used by {@link Function}. */
+    private final List<List<DiscreteVariable>> families;
+
+    private final int[] evidence;
+
+    /** Product of the evidence indicator and the messages from the children, up to a constant. */
+    private final double[][] lambdas;
+
+    /** Message from each node to its parent, up to a constant. */
+    private final double[][] upMessages;
+
+    /** Whether the message to the parent is constant and has been omitted. */
+    private final boolean[] trivialUpMessages;
+
+    /** Whether every row of the CPT of each node sums up to one. */
+    private final boolean[] stochastic;
+
+    /** The version of the model when {@link #stochastic} was computed. */
+    private long stochasticVersion = -1;
+
+    /** Normalized posterior distribution of each node. */
+    private final double[][] beliefs;
+
+    private final boolean[] beliefComputed;
+
+    /** Buffer for the message that the parent of a node would send it. */
+    private final double[] outside;
+
+    private final double[][] cells;
+
+    private double logLikelihood = Double.NaN;
+
+    /** The buffers of the MPE queries, which are allocated by the first one. */
+    private double[][] mpeLambdas;
+
+    private double[][] mpeMessages;
+
+    /** The maximizing state of each node for each state of its parent. */
+    private int[][] mpeArgMaxes;
+
+    private int[] mpeEvidence;
+
+    private int[] mpeStates;
+
+    /** Whether each node is observed, queried or has such a descendant, otherwise it is summed out. */
+    private boolean[] mpeRelevant;
+
+    private boolean propagated = false;
+
+    /**
+     * Returns {@code true} if the network is a tree: it has a single root and every other node has exactly one parent.
+     *
+     * @param bayesNet the network being checked.
+     * @return true if this engine can be used for {@code bayesNet}.
+     */
+    static boolean isApplicable(DiscreteBayesNet bayesNet) {
+        int nRoots = 0;
+        for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+            int nParents = node.getParents().size();
+            if (nParents > 1)
+                return false;
+            if (nParents == 0)
+                nRoots++;
+        }
+        return nRoots == 1;
+    }
+
+    LatentTreePropagation(DiscreteBayesNet bayesNet) {
+        if (!isApplicable(bayesNet))
+            throw new IllegalArgumentException("The Bayes net must be a tree");
+
+        this.bayesNet = bayesNet;
+
+        int n = bayesNet.getNodes().size();
+        this.nodes = new DiscreteBeliefNode[n];
+        this.variables = new DiscreteVariable[n];
+        this.indexes = new HashMap<>(2 * n);
+        this.parents = new int[n];
+        this.children = new int[n][];
+        this.cards = new int[n];
+        this.childStrides = new int[n];
+        this.parentStrides = new int[n];
+        this.families = new ArrayList<>(n);
+
+        // breadth-first traversal from the root
+        DiscreteBeliefNode root = null;
+        for (DiscreteBeliefNode node : bayesNet.getNodes())
+            if (node.getParents().isEmpty())
+                root = node;
+
+        nodes[0] = root;
+        parents[0] = -1;
+        int size = 1;
+        for (int i = 0; i < size; i++) {
+            DiscreteBeliefNode node = nodes[i];
+            variables[i] = node.getVariable();
+            cards[i] = variables[i].getCardinality();
+            indexes.put(variables[i], i);
+
+            children[i] = new int[node.getChildren().size()];
+            int j = 0;
+            for (DirectedNode<Variable> child : node.getChildren()) {
+                nodes[size] = (DiscreteBeliefNode) child;
+                parents[size] = i;
+                children[i][j++] = size++;
+            }
+        }
+
+        int maxCard = 0;
+        for (int i = 0; i < n; i++) {
+            List<DiscreteVariable> family = nodes[i].getCpt().getVariables();
+            families.add(family);
+            maxCard = Math.max(maxCard, cards[i]);
+
+            if (parents[i] < 0) {
+                childStrides[i] = 1;
+                parentStrides[i] = 0;
+            } else if (family.get(0) == variables[i]) {
+                childStrides[i] = cards[parents[i]];
+                parentStrides[i] = 1;
+            } else {
+                childStrides[i] = 1;
+                parentStrides[i] = cards[i];
+            }
+        }
+
+        this.evidence = new int[n];
+        this.lambdas = new double[n][];
+        this.upMessages = new double[n][];
+        this.beliefs = new double[n][];
+        for (int i = 0; i < n; i++) {
+            lambdas[i] = new double[cards[i]];
+            beliefs[i] = new double[cards[i]];
+            if (parents[i] >= 0)
+                upMessages[i] = new double[cards[parents[i]]];
+        }
+        this.trivialUpMessages = new boolean[n];
+        this.stochastic = new boolean[n];
+        this.beliefComputed = new boolean[n];
+        this.outside = new double[maxCard];
+        this.cells = new double[n][];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DiscreteBayesNet getBayesNet() {
+        return bayesNet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public PropagationEngine copy(DiscreteBayesNet bayesNet) {
+        return new LatentTreePropagation(bayesNet);
+    }
+
+    /**
+     * Returns {@code true} if {@link #propagate(Map)} has been called.
+     *
+     * @return true if the engine holds the result of a propagation.
+     */
+    boolean hasPropagated() {
+        return propagated;
+    }
+
+    /**
+     * Propagates the evidence upwards and returns the likelihood of the evidence.
+     *
+     * @param evidenceMap observed states of the observed variables.
+     * @return the likelihood of the evidence.
+     */
+    @Override
+    public double propagate(Map<DiscreteVariable, Integer> evidenceMap) {
+        int n = nodes.length;
+
+        // reads the current CPTs, which may have been replaced since the last propagation
+        for (int i = 0; i < n; i++) {
+            cells[i] = nodes[i].getCpt().getCells();
+            Integer value = evidenceMap.get(variables[i]);
+            evidence[i] = value == null ? -1 : value;
+            beliefComputed[i] = false;
+        }
+        checkStochastic();
+
+        double logScale = 0;
+
+        // upward pass: children before parents
+        for (int i = n - 1; i >= 0; i--) {
+            double[] lambda = lambdas[i];
+            int card = cards[i];
+
+            if (evidence[i] < 0) {
+                Arrays.fill(lambda, 1.0);
+            } else {
+                Arrays.fill(lambda, 0.0);
+                lambda[evidence[i]] = 1.0;
+            }
+
+            boolean constant = evidence[i] < 0;
+            for (int child : children[i]) {
+                if (trivialUpMessages[child])
+                    continue;
+
+                constant = false;
+                double[] message = upMessages[child];
+                double sum = 0;
+                for (int x = 0; x < card; x++) {
+                    lambda[x] *= message[x];
+                    sum += lambda[x];
+                }
+                // rescales after each product to avoid underflow with wide nodes
+                logScale += normalize(lambda, sum);
+            }
+
+            if (parents[i] < 0)
+                break;
+
+            if (constant && stochastic[i]) {
+                // the CPT sums up to one, so the message would be constant
+                trivialUpMessages[i] = true;
+                continue;
+            }
+            trivialUpMessages[i] = false;
+
+            double[] message = upMessages[i];
+            double[] cpt = cells[i];
+            int parentCard = cards[parents[i]];
+            int childStride = childStrides[i];
+            int parentStride = parentStrides[i];
+
+            if (evidence[i] >= 0) {
+                // row selection of the CPT
+                int offset = evidence[i] * childStride;
+                double weight = lambda[evidence[i]];
+                for (int y = 0; y < parentCard; y++)
+                    message[y] = cpt[offset + y * parentStride] * weight;
+            } else {
+                for (int y = 0; y < parentCard; y++) {
+                    double value = 0;
+                    int offset = y * parentStride;
+                    for (int x = 0; x < card; x++)
+                        value += cpt[offset + x * childStride] * lambda[x];
+                    message[y] = value;
+                }
+            }
+
+            double sum = 0;
+            for (int y = 0; y < parentCard; y++)
+                sum += message[y];
+            logScale += normalize(message, sum);
+        }
+
+        // likelihood at the root
+        double[] prior = cells[0];
+        double sum = 0;
+        for (int x = 0; x < cards[0]; x++)
+            sum += prior[x] * lambdas[0][x];
+
+        logLikelihood = logScale + Math.log(sum);
+        propagated = true;
+
+        double likelihood = Math.exp(logLikelihood);
+        if (likelihood < Double.MIN_NORMAL)
+            throw new IllegalStateException("normalization value lower than Double.MIN_NORMAL");
+
+        return likelihood;
+    }
+
+    /**
+     * Returns the log-likelihood computed by the last propagation.
+     *
+     * @return the log-likelihood computed by the last propagation.
+     */
+    @Override
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /**
+     * Returns the posterior distribution of the argument variable.
+     *
+     * @param var the variable under query.
+     * @return the posterior distribution of {@code var}.
+     */
+    @Override
+    public Function computeBelief(DiscreteVariable var) {
+        int i = indexOf(var);
+        double[] belief = computeBelief(i);
+
+        Function function = Function.createFunction(Collections.singletonList(var));
+        System.arraycopy(belief, 0, function.getCells(), 0, cards[i]);
+        return function;
+    }
+
+    /**
+     * Returns the posterior distribution of the family of the argument variable. The result involves the same
+     * variables as the variable's CPT, and observed variables are represented by an indicator.
+     *
+     * @param var the variable under query.
+     * @return the posterior distribution of the family of {@code var}.
+     */
+    @Override
+    public Function computeFamilyBelief(DiscreteVariable var) {
+        int i = indexOf(var);
+        Function function = Function.createFunction(families.get(i));
+        double[] result = function.getCells();
+
+        int parent = parents[i];
+        if (parent < 0) {
+            System.arraycopy(computeBelief(i), 0, result, 0, cards[i]);
+            return function;
+        }
+
+        double[] parentBelief = computeBelief(parent);
+        int parentCard = cards[parent];
+        int childStride = childStrides[i];
+        int parentStride = parentStrides[i];
+
+        if (evidence[i] >= 0 && children[i].length == 0) {
+            // the posterior of the parent already accounts for the observed leaf
+            int offset = evidence[i] * childStride;
+            for (int y = 0; y < parentCard; y++)
+                result[offset + y * parentStride] = parentBelief[y];
+            return function;
+        }
+
+        computeOutside(i, parentBelief);
+
+        double[] cpt = cells[i];
+        double[] lambda = lambdas[i];
+        double sum = 0;
+        for (int y = 0; y < parentCard; y++) {
+            if (outside[y] == 0)
+                continue;
+            for (int x = 0; x < cards[i]; x++) {
+                int index = x * childStride + y * parentStride;
+                double value = outside[y] * cpt[index] * lambda[x];
+                result[index] = value;
+                sum += value;
+            }
+        }
+        normalize(result, sum);
+
+        return function;
+    }
+
+    /**
+     * Accumulates the family belief without creating a function, following the same steps as
+     * {@link #computeFamilyBelief(DiscreteVariable)}.
+     */
+    @Override
+    public void addFamilyBelief(DiscreteVariable var, double weight, double[] target, int offset) {
+        int i = indexOf(var);
+
+        int parent = parents[i];
+        if (parent < 0) {
+            double[] belief = computeBelief(i);
+            for (int x = 0; x < cards[i]; x++)
+                target[offset + x] += weight * belief[x];
+            return;
+        }
+
+        double[] parentBelief = computeBelief(parent);
+        int parentCard = cards[parent];
+        int childStride = childStrides[i];
+        int parentStride = parentStrides[i];
+
+        if (evidence[i] >= 0 && children[i].length == 0) {
+            // the posterior of the parent already accounts for the observed leaf
+            int evidenceOffset = offset + evidence[i] * childStride;
+            for (int y = 0; y < parentCard; y++)
+                target[evidenceOffset + y * parentStride] += weight * parentBelief[y];
+            return;
+        }
+
+        computeOutside(i, parentBelief);
+
+        double[] cpt = cells[i];
+        double[] lambda = lambdas[i];
+
+        // the normalizing constant is needed before accumulating
+        double sum = 0;
+        for (int y = 0; y < parentCard; y++) {
+            if (outside[y] == 0)
+                continue;
+            for (int x = 0; x < cards[i]; x++) {
+                int index = x * childStride + y * parentStride;
+                sum += outside[y] * cpt[index] * lambda[x];
+            }
+        }
+
+        if (sum == 0.0)
+            throw new IllegalStateException("normalization value lower than Double.MIN_NORMAL");
+
+        double factor = weight / sum;
+        for (int y = 0; y < parentCard; y++) {
+            if (outside[y] == 0)
+                continue;
+            for (int x = 0; x < cards[i]; x++) {
+                int index = x * childStride + y * parentStride;
+                target[offset + index] += factor * outside[y] * cpt[index] * lambda[x];
+            }
+        }
+    }
+
+    /**
+     * Returns the normalized posterior distribution of the i-th node, computing it (and those of its ancestors) if
+     * necessary.
+     */
+    private double[] computeBelief(int i) {
+        if (!propagated)
+            throw new IllegalStateException("Propagation must be carried out before computing beliefs");
+
+        if (beliefComputed[i])
+            return beliefs[i];
+
+        double[] belief = beliefs[i];
+        double[] lambda = lambdas[i];
+        int card = cards[i];
+        int parent = parents[i];
+
+        if (parent < 0) {
+            double[] prior = cells[i];
+            for (int x = 0; x < card; x++)
+                belief[x] = prior[x] * lambda[x];
+        } else {
+            computeOutside(i, computeBelief(parent));
+
+            double[] cpt = cells[i];
+            int parentCard = cards[parent];
+            int childStride = childStrides[i];
+            int parentStride = parentStrides[i];
+            for (int x = 0; x < card; x++) {
+                double value = 0;
+                int offset = x * childStride;
+                for (int y = 0; y < parentCard; y++)
+                    value += outside[y] * cpt[offset + y * parentStride];
+                belief[x] = value * lambda[x];
+            }
+        }
+
+        double sum = 0;
+        for (int x = 0; x < card; x++)
+            sum += belief[x];
+        normalize(belief, sum);
+
+        beliefComputed[i] = true;
+        return belief;
+    }
+
+    /**
+     * Fills {@code outside} with the message the parent of the i-th node sends it, up to a constant. It is the
+     * posterior of the parent with the message from the i-th node divided out. States where that message is zero
+     * cannot contribute to any belief of the subtree and are set to zero.
+     */
+    private void computeOutside(int i, double[] parentBelief) {
+        int parentCard = cards[parents[i]];
+
+        if (trivialUpMessages[i]) {
+            System.arraycopy(parentBelief, 0, outside, 0, parentCard);
+            return;
+        }
+
+        double[] message = upMessages[i];
+        for (int y = 0; y < parentCard; y++)
+            outside[y] = message[y] == 0 ? 0 : parentBelief[y] / message[y];
+    }
+
+    /**
+     * Computes the most probable joint configuration of the argument variables given the evidence by max-product
+     * propagation upwards and backtracking downwards, with the same semantics as
+     * {@link CliqueTreePropagation#computeMpe(List, int[], int)}: unobserved variables that are not queried and have
+     * no observed or queried descendants are summed out, which means they are ignored since their CPTs sum up to one,
+     * and the remaining unobserved variables are maximized jointly with the query.
+     *
+     * <p>The buffers are separate from those of {@link #propagate(Map)}, whose result is left untouched.</p>
+     *
+     * @param evidenceMap observed states of the observed variables.
+     * @param vars variables whose configuration is requested.
+     * @param states array where the states are written.
+     * @param offset position of the first state in the array.
+     * @return the log-probability of the configuration together with the evidence.
+     */
+    double computeMpe(Map<DiscreteVariable, Integer> evidenceMap, List<DiscreteVariable> vars, int[] states, int offset) {
+        int n = nodes.length;
+
+        if (mpeLambdas == null) {
+            mpeLambdas = new double[n][];
+            mpeMessages = new double[n][];
+            mpeArgMaxes = new int[n][];
+            mpeEvidence = new int[n];
+            mpeStates = new int[n];
+            mpeRelevant = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                mpeLambdas[i] = new double[cards[i]];
+                if (parents[i] >= 0) {
+                    mpeMessages[i] = new double[cards[parents[i]]];
+                    mpeArgMaxes[i] = new int[cards[parents[i]]];
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            Integer value = evidenceMap.get(variables[i]);
+            mpeEvidence[i] = value == null ? -1 : value;
+            mpeRelevant[i] = mpeEvidence[i] >= 0;
+        }
+        for (DiscreteVariable var : vars)
+            mpeRelevant[indexOf(var)] = true;
+
+        // a node is relevant if it is observed, queried or has a relevant descendant
+        for (int i = n - 1; i > 0; i--) {
+            if (mpeRelevant[i])
+                mpeRelevant[parents[i]] = true;
+        }
+
+        // nothing is observed nor queried
+        if (!mpeRelevant[0])
+            return 0;
+
+        double logScale = 0;
+
+        // upward pass of max-messages: children before parents
+        for (int i = n - 1; i >= 0; i--) {
+            if (!mpeRelevant[i])
+                continue;
+
+            double[] lambda = mpeLambdas[i];
+            int card = cards[i];
+
+            if (mpeEvidence[i] < 0) {
+                Arrays.fill(lambda, 1.0);
+            } else {
+                Arrays.fill(lambda, 0.0);
+                lambda[mpeEvidence[i]] = 1.0;
+            }
+
+            for (int child : children[i]) {
+                if (!mpeRelevant[child])
+                    continue;
+
+                double[] message = mpeMessages[child];
+                double max = 0;
+                for (int x = 0; x < card; x++) {
+                    lambda[x] *= message[x];
+                    max = Math.max(max, lambda[x]);
+                }
+                logScale += normalize(lambda, max);
+            }
+
+            if (parents[i] < 0)
+                break;
+
+            double[] message = mpeMessages[i];
+            int[] argMax = mpeArgMaxes[i];
+            double[] cpt = nodes[i].getCpt().getCells();
+            int parentCard = cards[parents[i]];
+            int childStride = childStrides[i];
+            int parentStride = parentStrides[i];
+
+            double max = 0;
+            for (int y = 0; y < parentCard; y++) {
+                int rowOffset = y * parentStride;
+                double best = -1;
+                int bestState = 0;
+                for (int x = 0; x < card; x++) {
+                    double value = cpt[rowOffset + x * childStride] * lambda[x];
+                    if (value > best) {
+                        best = value;
+                        bestState = x;
+                    }
+                }
+                message[y] = best;
+                argMax[y] = bestState;
+                max = Math.max(max, best);
+            }
+            logScale += normalize(message, max);
+        }
+
+        // maximizes at the root
+        double[] prior = nodes[0].getCpt().getCells();
+        double best = -1;
+        for (int x = 0; x < cards[0]; x++) {
+            double value = prior[x] * mpeLambdas[0][x];
+            if (value > best) {
+                best = value;
+                mpeStates[0] = x;
+            }
+        }
+
+        // backtracks from the root to recover the maximizing states
+        for (int i = 1; i < n; i++) {
+            if (mpeRelevant[i])
+                mpeStates[i] = mpeEvidence[i] >= 0 ? mpeEvidence[i] : mpeArgMaxes[i][mpeStates[parents[i]]];
+        }
+
+        for (int k = 0; k < vars.size(); k++)
+            states[offset + k] = mpeStates[indexOf(vars.get(k))];
+
+        return logScale + Math.log(best);
+    }
+
+    /** Checks which CPTs have rows that sum up to one, once for each version of the model. */
+    private void checkStochastic() {
+        long version = bayesNet.getVersion();
+        if (version == stochasticVersion)
+            return;
+
+        for (int i = 1; i < nodes.length; i++) {
+            double[] cpt = cells[i];
+            boolean rowsSumToOne = true;
+            for (int y = 0; y < cards[parents[i]] && rowsSumToOne; y++) {
+                double sum = 0;
+                for (int x = 0; x < cards[i]; x++)
+                    sum += cpt[y * parentStrides[i] + x * childStrides[i]];
+                rowsSumToOne = Math.abs(sum - 1) <= STOCHASTIC_TOLERANCE;
+            }
+            stochastic[i] = rowsSumToOne;
+        }
+        stochasticVersion = version;
+    }
+
+    private int indexOf(DiscreteVariable var) {
+        Integer index = indexes.get(var);
+        if (index == null)
+            throw new IllegalArgumentException("The variable under query is not present in the model");
+        return index;
+    }
+
+    /** Divides the first values of the array by their sum and returns the log of the sum. */
+    private static double normalize(double[] values, double sum) {
+        if (sum == 0.0)
+            throw new IllegalStateException("normalization value lower than Double.MIN_NORMAL");
+
+        for (int x = 0; x < values.length; x++)
+            values[x] /= sum;
+
+        return Math.log(sum);
+    }
+}
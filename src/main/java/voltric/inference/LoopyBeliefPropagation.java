@@ -0,0 +1,607 @@
+package voltric.inference;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.*;
+
+/**
+ * Approximate inference by loopy belief propagation on the factor graph of a Bayesian network. Each CPT is a factor,
+ * so the cost of an update is linear in the size of the CPT instead of exponential in the treewidth of the network.
+ * This makes it possible to run inference (and therefore EM) on networks whose clique tree would not fit in memory.
+ *
+ * <p>Messages are updated with residual scheduling: the factor whose incoming messages changed the most since its
+ * last update is updated first. Outgoing messages are damped, {@code new = (1 - damping) * computed + damping * old},
+ * to help convergence on networks with tight loops, and the distance left to the computed values counts towards the
+ * residual of the factor. Propagation stops when every residual is below the tolerance or
+ * after {@code maxIterations} updates per factor, whichever comes first.</p>
+ *
+ * <p>The likelihood is approximated by the Bethe free energy, which is exact when the network is a tree. Beliefs and
+ * likelihoods are exact on trees and approximate otherwise.</p>
+ */
+public final class LoopyBeliefPropagation implements PropagationEngine {
+
+    public static final double DEFAULT_DAMPING = 0.5;
+
+    public static final double DEFAULT_TOLERANCE = 1e-6;
+
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+    private final DiscreteBayesNet bayesNet;
+
+    private final double damping;
+
+    private final double tolerance;
+
+    private final int maxIterations;
+
+    private final DiscreteVariable[] variables;
+
+    private final HashMap<DiscreteVariable, Integer> indexes;
+
+    private final int[] cards;
+
+    /** Factors that involve each variable, and the position of the variable in their scopes. */
+    private final int[][] varFactors;
+
+    private final int[][] varPositions;
+
+    /** The factor of each variable is its CPT, which has the same index as the variable. */
+    private final DiscreteBeliefNode[] nodes;
+
+    /** Variable indexes of each factor, in the order of the CPT cells. */
+    private final int[][] scopes;
+
+    private final List<List<DiscreteVariable>> families;
+
+    private final double[][] cells;
+
+    /** Messages from each factor to the variables in its scope, indexed by scope position. */
+    private final double[][][] factorToVar;
+
+    /** Messages from the variables in each factor's scope to the factor, indexed by scope position. */
+    private final double[][][] varToFactor;
+
+    private final double[][] varBeliefs;
+
+    private final double[][] factorBeliefs;
+
+    private final int[] evidence;
+
+    private final double[] residuals;
+
+    private final int[] versions;
+
+    private final PriorityQueue<Update> queue;
+
+    // buffers
+    private final double[][] accumulators;
+
+    private final double[] prefix;
+
+    private final double[] suffix;
+
+    private final int[] states;
+
+    private final double[] logProducts;
+
+    private final int[] zeroCounts;
+
+    private double logLikelihood = Double.NaN;
+
+    private int lastNumberOfUpdates;
+
+    private boolean converged;
+
+    /**
+     * Creates an engine with the default damping, tolerance and maximum number of iterations.
+     *
+     * @param bayesNet the network under query.
+     */
+    public LoopyBeliefPropagation(DiscreteBayesNet bayesNet) {
+        this(bayesNet, DEFAULT_DAMPING, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param bayesNet the network under query.
+     * @param damping weight of the old message in each update, in [0, 1).
+     * @param tolerance propagation stops when no message would change more than this amount.
+     * @param maxIterations maximum number of updates per factor in each propagation.
+     */
+    public LoopyBeliefPropagation(DiscreteBayesNet bayesNet, double damping, double tolerance, int maxIterations) {
+        if (damping < 0 || damping >= 1)
+            throw new IllegalArgumentException("The damping factor must be in [0, 1)");
+
+        if (tolerance <= 0)
+            throw new IllegalArgumentException("The tolerance must be positive");
+
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("The maximum number of iterations must be positive");
+
+        this.bayesNet = bayesNet;
+        this.damping = damping;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+
+        List<DiscreteBeliefNode> nodeList = bayesNet.getNodes();
+        int n = nodeList.size();
+
+        this.nodes = nodeList.toArray(new DiscreteBeliefNode[n]);
+        this.variables = new DiscreteVariable[n];
+        this.indexes = new HashMap<>(2 * n);
+        this.cards = new int[n];
+        int maxCard = 1;
+        for (int i = 0; i < n; i++) {
+            variables[i] = nodes[i].getVariable();
+            indexes.put(variables[i], i);
+            cards[i] = variables[i].getCardinality();
+            maxCard = Math.max(maxCard, cards[i]);
+        }
+
+        this.scopes = new int[n][];
+        this.families = new ArrayList<>(n);
+        int[] degrees = new int[n];
+        int maxScope = 1;
+        for (int f = 0; f < n; f++) {
+            List<DiscreteVariable> family = nodes[f].getCpt().getVariables();
+            families.add(family);
+            scopes[f] = new int[family.size()];
+            for (int j = 0; j < scopes[f].length; j++) {
+                int v = indexes.get(family.get(j));
+                scopes[f][j] = v;
+                degrees[v]++;
+            }
+            maxScope = Math.max(maxScope, scopes[f].length);
+        }
+
+        this.varFactors = new int[n][];
+        this.varPositions = new int[n][];
+        for (int v = 0; v < n; v++) {
+            varFactors[v] = new int[degrees[v]];
+            varPositions[v] = new int[degrees[v]];
+            degrees[v] = 0;
+        }
+        for (int f = 0; f < n; f++) {
+            for (int j = 0; j < scopes[f].length; j++) {
+                int v = scopes[f][j];
+                varFactors[v][degrees[v]] = f;
+                varPositions[v][degrees[v]] = j;
+                degrees[v]++;
+            }
+        }
+
+        this.cells = new double[n][];
+        this.factorToVar = new double[n][][];
+        this.varToFactor = new double[n][][];
+        this.factorBeliefs = new double[n][];
+        this.varBeliefs = new double[n][];
+        for (int f = 0; f < n; f++) {
+            int size = scopes[f].length;
+            factorToVar[f] = new double[size][];
+            varToFactor[f] = new double[size][];
+            for (int j = 0; j < size; j++) {
+                factorToVar[f][j] = new double[cards[scopes[f][j]]];
+                varToFactor[f][j] = new double[cards[scopes[f][j]]];
+            }
+            factorBeliefs[f] = new double[nodes[f].getCpt().getDomainSize()];
+            varBeliefs[f] = new double[cards[f]];
+        }
+
+        this.evidence = new int[n];
+        this.residuals = new double[n];
+        this.versions = new int[n];
+        this.queue = new PriorityQueue<>(Math.max(n, 1));
+
+        this.accumulators = new double[maxScope][maxCard];
+        this.prefix = new double[maxScope + 1];
+        this.suffix = new double[maxScope + 1];
+        this.states = new int[maxScope];
+        this.logProducts = new double[maxCard];
+        this.zeroCounts = new int[maxCard];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double propagate(Map<DiscreteVariable, Integer> evidenceMap) {
+        int n = nodes.length;
+
+        for (int i = 0; i < n; i++) {
+            cells[i] = nodes[i].getCpt().getCells();
+            Integer value = evidenceMap.get(variables[i]);
+            evidence[i] = value == null ? -1 : value;
+        }
+
+        // uniform messages, except from observed variables
+        for (int f = 0; f < n; f++) {
+            for (int j = 0; j < scopes[f].length; j++) {
+                int v = scopes[f][j];
+                Arrays.fill(factorToVar[f][j], 1.0 / cards[v]);
+                if (evidence[v] < 0) {
+                    Arrays.fill(varToFactor[f][j], 1.0 / cards[v]);
+                } else {
+                    Arrays.fill(varToFactor[f][j], 0.0);
+                    varToFactor[f][j][evidence[v]] = 1.0;
+                }
+            }
+        }
+
+        // every factor is updated at least once
+        queue.clear();
+        for (int f = 0; f < n; f++) {
+            residuals[f] = Double.POSITIVE_INFINITY;
+            versions[f]++;
+            queue.add(new Update(f, versions[f], residuals[f]));
+        }
+
+        long maxUpdates = (long) maxIterations * n;
+        int nUpdates = 0;
+        converged = false;
+        while (true) {
+            Update update = queue.poll();
+            if (update == null) {
+                converged = true;
+                break;
+            }
+
+            if (update.version != versions[update.factor])
+                continue;
+
+            if (update.residual < tolerance) {
+                converged = true;
+                break;
+            }
+
+            if (nUpdates >= maxUpdates)
+                break;
+
+            updateFactor(update.factor);
+            nUpdates++;
+        }
+        lastNumberOfUpdates = nUpdates;
+
+        computeBeliefs();
+        logLikelihood = computeBetheLogLikelihood();
+
+        double likelihood = Math.exp(logLikelihood);
+        if (likelihood < Double.MIN_NORMAL)
+            throw new IllegalStateException("normalization value lower than Double.MIN_NORMAL");
+
+        return likelihood;
+    }
+
+    /**
+     * Recomputes the messages from a factor to the variables in its scope, and the messages that those variables send
+     * to their other factors.
+     */
+    private void updateFactor(int f) {
+        int[] scope = scopes[f];
+        int size = scope.length;
+        double[] factor = cells[f];
+        double[][] incoming = varToFactor[f];
+
+        for (int j = 0; j < size; j++)
+            Arrays.fill(accumulators[j], 0, cards[scope[j]], 0.0);
+
+        // f(x) times the product of the incoming messages of the other variables, for every cell
+        Arrays.fill(states, 0, size, 0);
+        for (int c = 0; c < factor.length; c++) {
+            double value = factor[c];
+            if (value != 0) {
+                prefix[0] = 1.0;
+                for (int j = 0; j < size; j++)
+                    prefix[j + 1] = prefix[j] * incoming[j][states[j]];
+                suffix[size] = 1.0;
+                for (int j = size - 1; j >= 0; j--)
+                    suffix[j] = suffix[j + 1] * incoming[j][states[j]];
+                for (int j = 0; j < size; j++)
+                    accumulators[j][states[j]] += value * prefix[j] * suffix[j + 1];
+            }
+
+            // next cell: the last variable changes fastest
+            for (int j = size - 1; j >= 0; j--) {
+                if (++states[j] < cards[scope[j]])
+                    break;
+                states[j] = 0;
+            }
+        }
+
+        // with damping, the messages only move part of the way towards their computed values
+        double pending = 0;
+
+        for (int j = 0; j < size; j++) {
+            int v = scope[j];
+            int card = cards[v];
+            double[] accumulator = accumulators[j];
+            double[] message = factorToVar[f][j];
+
+            double sum = 0;
+            for (int x = 0; x < card; x++)
+                sum += accumulator[x];
+            if (sum == 0)
+                throw new IllegalStateException("The evidence has zero probability");
+
+            double change = 0;
+            for (int x = 0; x < card; x++) {
+                double computed = accumulator[x] / sum;
+                double updated = (1 - damping) * computed + damping * message[x];
+                change = Math.max(change, Math.abs(updated - message[x]));
+                pending = Math.max(pending, Math.abs(computed - updated));
+                message[x] = updated;
+            }
+
+            // messages from observed variables never change
+            if (evidence[v] < 0 && change > 0)
+                updateVariable(v, f);
+        }
+
+        residuals[f] = pending;
+        versions[f]++;
+        if (pending >= tolerance)
+            queue.add(new Update(f, versions[f], pending));
+    }
+
+    /** Recomputes the messages from a variable to its factors, except the one given. */
+    private void updateVariable(int v, int skippedFactor) {
+        int card = cards[v];
+        computeLogProducts(v);
+
+        for (int i = 0; i < varFactors[v].length; i++) {
+            int g = varFactors[v][i];
+            if (g == skippedFactor)
+                continue;
+
+            double[] excluded = factorToVar[g][varPositions[v][i]];
+            double[] message = varToFactor[g][varPositions[v][i]];
+
+            double max = Double.NEGATIVE_INFINITY;
+            for (int x = 0; x < card; x++) {
+                int zeros = zeroCounts[x] - (excluded[x] == 0 ? 1 : 0);
+                if (zeros == 0)
+                    max = Math.max(max, logProducts[x] - (excluded[x] == 0 ? 0 : Math.log(excluded[x])));
+            }
+
+            double change = 0;
+            double sum = 0;
+            double[] updated = accumulators[0];
+            for (int x = 0; x < card; x++) {
+                int zeros = zeroCounts[x] - (excluded[x] == 0 ? 1 : 0);
+                updated[x] = zeros > 0 || max == Double.NEGATIVE_INFINITY
+                        ? 0 : Math.exp(logProducts[x] - (excluded[x] == 0 ? 0 : Math.log(excluded[x])) - max);
+                sum += updated[x];
+            }
+            if (sum == 0)
+                continue;
+
+            for (int x = 0; x < card; x++) {
+                double value = updated[x] / sum;
+                change = Math.max(change, Math.abs(value - message[x]));
+                message[x] = value;
+            }
+
+            if (change > residuals[g]) {
+                residuals[g] = change;
+                if (change >= tolerance) {
+                    versions[g]++;
+                    queue.add(new Update(g, versions[g], change));
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes, for each state of the variable, the log of the product of the non-zero messages it receives and the
+     * number of zero messages.
+     */
+    private void computeLogProducts(int v) {
+        int card = cards[v];
+        Arrays.fill(logProducts, 0, card, 0.0);
+        Arrays.fill(zeroCounts, 0, card, 0);
+
+        for (int i = 0; i < varFactors[v].length; i++) {
+            double[] message = factorToVar[varFactors[v][i]][varPositions[v][i]];
+            for (int x = 0; x < card; x++) {
+                if (message[x] == 0)
+                    zeroCounts[x]++;
+                else
+                    logProducts[x] += Math.log(message[x]);
+            }
+        }
+    }
+
+    private void computeBeliefs() {
+        int n = nodes.length;
+
+        for (int v = 0; v < n; v++) {
+            double[] belief = varBeliefs[v];
+            int card = cards[v];
+
+            if (evidence[v] >= 0) {
+                Arrays.fill(belief, 0.0);
+                belief[evidence[v]] = 1.0;
+                continue;
+            }
+
+            computeLogProducts(v);
+            double max = Double.NEGATIVE_INFINITY;
+            for (int x = 0; x < card; x++)
+                if (zeroCounts[x] == 0)
+                    max = Math.max(max, logProducts[x]);
+
+            double sum = 0;
+            for (int x = 0; x < card; x++) {
+                belief[x] = zeroCounts[x] > 0 ? 0 : Math.exp(logProducts[x] - max);
+                sum += belief[x];
+            }
+            normalize(belief, sum);
+        }
+
+        for (int f = 0; f < n; f++) {
+            int[] scope = scopes[f];
+            int size = scope.length;
+            double[] factor = cells[f];
+            double[] belief = factorBeliefs[f];
+            double[][] incoming = varToFactor[f];
+
+            Arrays.fill(states, 0, size, 0);
+            double sum = 0;
+            for (int c = 0; c < factor.length; c++) {
+                double value = factor[c];
+                for (int j = 0; j < size && value != 0; j++)
+                    value *= incoming[j][states[j]];
+                belief[c] = value;
+                sum += value;
+
+                for (int j = size - 1; j >= 0; j--) {
+                    if (++states[j] < cards[scope[j]])
+                        break;
+                    states[j] = 0;
+                }
+            }
+            normalize(belief, sum);
+        }
+    }
+
+    /**
+     * Returns minus the Bethe free energy: the sum over factors of the expected log-factor plus the factor entropies,
+     * minus the variable entropies counted once per extra factor they appear in.
+     */
+    private double computeBetheLogLikelihood() {
+        double result = 0;
+
+        for (int f = 0; f < nodes.length; f++) {
+            double[] factor = cells[f];
+            double[] belief = factorBeliefs[f];
+            for (int c = 0; c < belief.length; c++)
+                if (belief[c] > 0)
+                    result += belief[c] * (Math.log(factor[c]) - Math.log(belief[c]));
+        }
+
+        for (int v = 0; v < nodes.length; v++) {
+            int degree = varFactors[v].length;
+            if (degree <= 1 || evidence[v] >= 0)
+                continue;
+
+            double entropy = 0;
+            for (double value : varBeliefs[v])
+                if (value > 0)
+                    entropy -= value * Math.log(value);
+            result -= (degree - 1) * entropy;
+        }
+
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Function computeBelief(DiscreteVariable var) {
+        int v = indexOf(var);
+        Function function = Function.createFunction(Collections.singletonList(var));
+        System.arraycopy(varBeliefs[v], 0, function.getCells(), 0, cards[v]);
+        return function;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Function computeFamilyBelief(DiscreteVariable var) {
+        int f = indexOf(var);
+        Function function = Function.createFunction(families.get(f));
+        System.arraycopy(factorBeliefs[f], 0, function.getCells(), 0, factorBeliefs[f].length);
+        return function;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DiscreteBayesNet getBayesNet() {
+        return bayesNet;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public PropagationEngine copy(DiscreteBayesNet bayesNet) {
+        return new LoopyBeliefPropagation(bayesNet, damping, tolerance, maxIterations);
+    }
+
+    /**
+     * Returns {@code true} if the last propagation converged before reaching the maximum number of iterations.
+     *
+     * @return true if the last propagation converged.
+     */
+    public boolean hasConverged() {
+        return converged;
+    }
+
+    /**
+     * Returns the number of factor updates carried out by the last propagation.
+     *
+     * @return the number of factor updates carried out by the last propagation.
+     */
+    public int getLastNumberOfUpdates() {
+        return lastNumberOfUpdates;
+    }
+
+    public double getDamping() {
+        return damping;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    private int indexOf(DiscreteVariable var) {
+        Integer index = indexes.get(var);
+        if (index == null)
+            throw new IllegalArgumentException("The variable under query is not present in the model");
+        return index;
+    }
+
+    private static void normalize(double[] values, double sum) {
+        if (sum == 0.0)
+            throw new IllegalStateException("The evidence has zero probability");
+
+        for (int i = 0; i < values.length; i++)
+            values[i] /= sum;
+    }
+
+    /** An entry of the update queue. It is stale if the factor's version has changed since it was created. */
+    private static final class Update implements Comparable<Update> {
+
+        private final int factor;
+
+        private final int version;
+
+        private final double residual;
+
+        Update(int factor, int version, double residual) {
+            this.factor = factor;
+            this.version = version;
+            this.residual = residual;
+        }
+
+        @Override
+        public int compareTo(Update other) {
+            // largest residual first
+            int comparison = Double.compare(other.residual, this.residual);
+            return comparison != 0 ? comparison : Integer.compare(this.factor, other.factor);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package voltric.inference;
+
+import voltric.graph.AbstractNode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Sends the messages of one propagation of a {@link CliqueTreePropagation} in parallel.
+ *
+ * <p>The clique tree is rooted at its pivot. In the collect phase, the message from a clique to its parent is sent once
+ * the messages of all its children have arrived, which is tracked by the pending counts of a tree of
+ * {@link CountedCompleter}s, so independent subtrees are processed by different workers. In the distribute phase, each
+ * clique sends its messages to its children and then forks one task per child subtree. Subtrees whose clique tables are
+ * small compared to the whole tree are processed sequentially within the task of their parent, so the tasks stay coarse
+ * enough to pay for their scheduling.</p>
+ *
+ * <p>Each clique stores the messages it sends, and the schedule guarantees that a clique is never written by one task
+ * while another task reads or writes it, so the cliques need no synchronization.</p>
+ */
+final class ParallelMessagePassing {
+
+    /** Subtrees whose clique tables have fewer cells than this are never split. */
+    private static final long MIN_GRAIN = 1L << 12;
+
+    /** Number of tasks per worker that the grain aims at. */
+    private static final int TASKS_PER_WORKER = 4;
+
+    private final CliqueTreePropagation ctp;
+
+    private final CliqueTree cliqueTree;
+
+    /** Total number of cells of the clique tables of the subtree rooted at each clique. */
+    private final Map<CliqueNode, Long> subtreeSizes = new IdentityHashMap<>();
+
+    private final long grain;
+
+    private ParallelMessagePassing(CliqueTreePropagation ctp, CliqueTree cliqueTree, ForkJoinPool pool) {
+        this.ctp = ctp;
+        this.cliqueTree = cliqueTree;
+
+        long totalSize = computeSubtreeSize(cliqueTree.getPivot(), null);
+        this.grain = Math.max(MIN_GRAIN, totalSize / ((long) TASKS_PER_WORKER * pool.getParallelism()));
+    }
+
+    /**
+     * Returns {@code true} if the messages of a propagation on the argument clique tree are worth sending in parallel:
+     * the pool has more than one worker, the caller is not already a fork-join task (e.g. one of the workers of a
+     * parallel EM, which already keep all the cores busy), and the clique tables add up to at least
+     * {@code threshold} cells.
+     */
+    static boolean isWorthwhile(CliqueTree cliqueTree, long threshold) {
+        if (ForkJoinTask.inForkJoinPool() || ForkJoinPool.getCommonPoolParallelism() < 2)
+            return false;
+
+        if (cliqueTree.getNumberOfNodes() < 3)
+            return false;
+
+        long totalSize = 0;
+        for (AbstractNode<String> node : cliqueTree.getNodes()) {
+            totalSize += ((CliqueNode) node).getCardinality();
+            if (totalSize >= threshold)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collects the messages towards the pivot and distributes them back in the common fork-join pool. The evidence
+     * must have been absorbed.
+     */
+    static void propagate(CliqueTreePropagation ctp, CliqueTree cliqueTree) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ParallelMessagePassing passing = new ParallelMessagePassing(ctp, cliqueTree, pool);
+
+        CliqueNode pivot = cliqueTree.getPivot();
+        pool.invoke(passing.new CollectTask(null, pivot, null));
+        pool.invoke(passing.new DistributeTask(null, pivot, null));
+    }
+
+    private long computeSubtreeSize(CliqueNode clique, CliqueNode parent) {
+        long size = clique.getCardinality();
+        for (AbstractNode<String> neighbor : clique.getNeighbors()) {
+            if (neighbor != parent)
+                size += computeSubtreeSize((CliqueNode) neighbor, clique);
+        }
+        subtreeSizes.put(clique, size);
+        return size;
+    }
+
+    private boolean isHeavy(CliqueNode clique) {
+        return subtreeSizes.get(clique) >= grain;
+    }
+
+    /** Sends the message from a clique to its parent once the messages from its children have arrived. */
+    @SuppressWarnings("serial")
+    private final class CollectTask extends CountedCompleter<Void> {
+
+        private final CliqueNode clique;
+
+        /** The parent of the clique, or {@code null} for the pivot. */
+        private final CliqueNode parent;
+
+        CollectTask(CollectTask completer, CliqueNode clique, CliqueNode parent) {
+            super(completer);
+            this.clique = clique;
+            this.parent = parent;
+        }
+
+        @Override
+        public void compute() {
+            List<CliqueNode> lightChildren = new ArrayList<>();
+
+            for (AbstractNode<String> neighbor : clique.getNeighbors()) {
+                if (neighbor == parent)
+                    continue;
+
+                CliqueNode child = (CliqueNode) neighbor;
+                // same condition as CliqueTreePropagation.collectMessage(CliqueNode, CliqueNode)
+                if (child.getMessageTo(clique) != null && !cliqueTree.inFocusedSubtree(child))
+                    continue;
+
+                if (isHeavy(child)) {
+                    addToPendingCount(1);
+                    new CollectTask(this, child, clique).fork();
+                } else {
+                    lightChildren.add(child);
+                }
+            }
+
+            for (CliqueNode child : lightChildren)
+                ctp.collectMessage(child, clique);
+
+            tryComplete();
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            if (parent != null)
+                ctp.sendMessage(clique, parent);
+        }
+    }
+
+    /** Sends the messages from a clique to its children and then distributes them further down. */
+    @SuppressWarnings("serial")
+    private final class DistributeTask extends CountedCompleter<Void> {
+
+        private final CliqueNode clique;
+
+        /** The parent of the clique, or {@code null} for the pivot. */
+        private final CliqueNode parent;
+
+        DistributeTask(DistributeTask completer, CliqueNode clique, CliqueNode parent) {
+            super(completer);
+            this.clique = clique;
+            this.parent = parent;
+        }
+
+        @Override
+        public void compute() {
+            List<CliqueNode> children = new ArrayList<>();
+            for (AbstractNode<String> neighbor : clique.getNeighbors()) {
+                if (neighbor != parent && cliqueTree.inFocusedSubtree((CliqueNode) neighbor))
+                    children.add((CliqueNode) neighbor);
+            }
+
+            // all the messages of this clique are written before any child task reads them
+            for (CliqueNode child : children)
+                ctp.sendMessage(clique, child);
+
+            List<CliqueNode> lightChildren = new ArrayList<>();
+            for (CliqueNode child : children) {
+                if (isHeavy(child)) {
+                    addToPendingCount(1);
+                    new DistributeTask(this, child, clique).fork();
+                } else {
+                    lightChildren.add(child);
+                }
+            }
+
+            for (CliqueNode child : lightChildren) {
+                for (AbstractNode<String> grandChild : child.getNeighbors()) {
+                    if (grandChild != clique)
+                        ctp.distributeMessage(child, (CliqueNode) grandChild);
+                }
+            }
+
+            tryComplete();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package voltric.inference;
+
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.util.WorkerThreads;
+import voltric.variables.DiscreteVariable;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the most probable configuration of a set of variables (usually the latent ones) for every instance of a
+ * data set. Instances are split among the CTPs of a {@link CliqueTreePropagationGroup}, which share the compiled clique
+ * tree of the model, and each one runs {@link CliqueTreePropagation#computeMpe(List, int[], int)}.
+ *
+ * <p>Assignments are written into a single row-major array: the state of {@code vars.get(j)} for the i-th instance is
+ * stored at position {@code i * vars.size() + j}.</p>
+ */
+public final class ParallelMpe {
+
+    private static final ForkJoinPool THREAD_POOL = WorkerThreads.newPool();
+
+    private ParallelMpe() {
+    }
+
+    /**
+     * Returns the most probable configuration of the argument variables for each instance of the data set.
+     *
+     * @param model the model used for inference.
+     * @param data the data set whose instances are assigned.
+     * @param vars the variables whose configuration is requested.
+     * @return the row-major array of assignments.
+     */
+    public static int[] computeAssignments(DiscreteBayesNet model, DiscreteData data, List<DiscreteVariable> vars) {
+        CliqueTreePropagationGroup ctps = createGroup(model);
+
+        int[] assignments = new int[data.getInstances().size() * vars.size()];
+        computeAssignments(ctps, data, vars, assignments, null);
+        return assignments;
+    }
+
+    /**
+     * Creates a group of CTPs for a model, one CTP per worker thread of the pool that runs the queries.
+     *
+     * @param model the model used for inference.
+     * @return the group of CTPs for {@code model}.
+     */
+    public static CliqueTreePropagationGroup createGroup(DiscreteBayesNet model) {
+        return CliqueTreePropagationGroup.constructFromModel(model, THREAD_POOL.getParallelism());
+    }
+
+    /**
+     * Writes the most probable configuration of the argument variables for each instance of the data set into
+     * {@code assignments}.
+     *
+     * @param ctps the group of CTPs used for inference.
+     * @param data the data set whose instances are assigned.
+     * @param vars the variables whose configuration is requested.
+     * @param assignments the row-major array where the assignments are written. Its length must be at least
+     *                    {@code data.getInstances().size() * vars.size()}.
+     * @param logProbabilities if not {@code null}, the log-probability of each instance's configuration together with
+     *                         its evidence is written into it.
+     */
+    public static void computeAssignments(CliqueTreePropagationGroup ctps,
+                                          DiscreteData data,
+                                          List<DiscreteVariable> vars,
+                                          int[] assignments,
+                                          double[] logProbabilities) {
+        int nInstances = data.getInstances().size();
+
+        if (assignments.length < nInstances * vars.size())
+            throw new IllegalArgumentException("The assignments array is too small for the data set");
+
+        if (logProbabilities != null && logProbabilities.length < nInstances)
+            throw new IllegalArgumentException("The log-probabilities array is too small for the data set");
+
+        if (!ctps.model.containsVars(vars))
+            throw new IllegalArgumentException("Some of the variables under query are not present in the model");
+
+        if (nInstances == 0)
+            return;
+
+        MpeComputation.Context context = new MpeComputation.Context(data, ctps, vars, assignments, logProbabilities);
+        THREAD_POOL.invoke(new MpeComputation(context, 0, nInstances));
+    }
+
+    @SuppressWarnings("serial")
+    private static class MpeComputation extends RecursiveAction {
+
+        static class Context {
+            final DiscreteData data;
+            final CliqueTreePropagationGroup ctps;
+            final List<DiscreteVariable> vars;
+            final int[] assignments;
+            final double[] logProbabilities;
+            final int splitThreshold;
+
+            Context(DiscreteData data, CliqueTreePropagationGroup ctps, List<DiscreteVariable> vars,
+                    int[] assignments, double[] logProbabilities) {
+                this.data = data;
+                this.ctps = ctps;
+                this.vars = vars;
+                this.assignments = assignments;
+                this.logProbabilities = logProbabilities;
+                this.splitThreshold = (int) Math.ceil(data.getInstances().size() / (double) ctps.capacity);
+            }
+        }
+
+        private final Context context;
+        private final int start;
+        private final int length;
+
+        MpeComputation(Context context, int start, int length) {
+            this.context = context;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            if (length <= context.splitThreshold) {
+                computeDirectly();
+                return;
+            }
+
+            int split = length / 2;
+            invokeAll(new MpeComputation(context, start, split),
+                    new MpeComputation(context, start + split, length - split));
+        }
+
+        private void computeDirectly() {
+            CliqueTreePropagation ctp = context.ctps.take();
+            int nVars = context.vars.size();
+
+            try {
+                for (int i = start; i < start + length; i++) {
+                    DiscreteDataInstance dataCase = context.data.getInstances().get(i);
+                    ctp.setEvidence(context.data.getVariables(), dataCase.getNumericValues());
+
+                    double logProbability = ctp.computeMpe(context.vars, context.assignments, i * nVars);
+                    if (context.logProbabilities != null)
+                        context.logProbabilities[i] = logProbability;
+                }
+            } finally {
+                context.ctps.put(ctp);
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package voltric.inference;
+
+import voltric.data.DiscreteData;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the posterior distributions of latent variables given the states of the manifest variables.
+ *
+ * <p>Computing empirical distributions that involve latent variables requires their posterior for each data instance,
+ * and the same evidence configurations are propagated again and again: repeated instances in a data set, and repeated
+ * calls for the same model while scoring variable pairs. Entries are keyed by the model (by identity), its
+ * {@link DiscreteBayesNet#getVersion() version}, the latent variable and the packed manifest states, so a change of
+ * the model makes its entries unreachable and they are evicted eventually. The model is only weakly referenced, so
+ * the cache does not keep discarded models alive.</p>
+ *
+ * <p>Manifest states must be aligned with {@link DiscreteBayesNet#getManifestVariables()}, and missing values are
+ * allowed. Posteriors are stored as plain arrays that are shared with the callers, so they must not be modified.</p>
+ */
+public final class PosteriorCache {
+
+    /** Default number of posteriors kept by the shared cache. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final PosteriorCache sharedCache = new PosteriorCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+
+    private final LinkedHashMap<Key, double[]> posteriors;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Creates an empty cache that keeps at most {@code capacity} posteriors.
+     *
+     * @param capacity the maximum number of posteriors kept by the cache.
+     */
+    public PosteriorCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of the cache must be positive");
+
+        this.capacity = capacity;
+        this.posteriors = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+                return size() > PosteriorCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by the empirical distribution computers.
+     *
+     * @return the shared cache.
+     */
+    public static PosteriorCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * Returns the cached posterior of a latent variable, or {@code null} if it is not present.
+     *
+     * @param model the model used to compute the posterior.
+     * @param latentVar the latent variable.
+     * @param manifestStates the states of the manifest variables of the model.
+     * @return the cached posterior, which must not be modified, or {@code null}.
+     */
+    public double[] get(DiscreteBayesNet model, DiscreteVariable latentVar, int[] manifestStates) {
+        Key key = new Key(model, latentVar, manifestStates);
+
+        synchronized (this) {
+            double[] posterior = this.posteriors.get(key);
+            if (posterior != null)
+                this.hits++;
+            else
+                this.misses++;
+            return posterior;
+        }
+    }
+
+    /**
+     * Stores the posterior of a latent variable.
+     *
+     * @param model the model used to compute the posterior.
+     * @param latentVar the latent variable.
+     * @param manifestStates the states of the manifest variables of the model.
+     * @param posterior the posterior, which is stored without copying it.
+     */
+    public void put(DiscreteBayesNet model, DiscreteVariable latentVar, int[] manifestStates, double[] posterior) {
+        if (posterior.length != latentVar.getCardinality())
+            throw new IllegalArgumentException("The posterior size does not match the cardinality of the variable");
+
+        Key key = new Key(model, latentVar, manifestStates);
+
+        synchronized (this) {
+            this.posteriors.put(key, posterior);
+        }
+    }
+
+    /**
+     * Returns the posteriors of the argument latent variables given the manifest states, propagating with the CTP only
+     * if some of them are not cached. The missing posteriors are stored in the cache.
+     *
+     * @param ctp the CTP of the model, which is only used on a cache miss.
+     * @param latentVars the latent variables.
+     * @param manifestStates the states of the manifest variables of the model.
+     * @return the posteriors, in the order of {@code latentVars}. They must not be modified.
+     */
+    public double[][] computePosteriors(CliqueTreePropagation ctp, List<DiscreteVariable> latentVars, int[] manifestStates) {
+        DiscreteBayesNet model = ctp.getBayesNet();
+        double[][] result = new double[latentVars.size()][];
+
+        boolean complete = true;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = get(model, latentVars.get(i), manifestStates);
+            complete &= result[i] != null;
+        }
+
+        if (complete)
+            return result;
+
+        ctp.setEvidence(model.getManifestVariables(), manifestStates);
+        ctp.propagate();
+
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == null) {
+                result[i] = ctp.computeBelief(latentVars.get(i)).getCells().clone();
+                put(model, latentVars.get(i), manifestStates, result[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes all the posteriors from the cache.
+     */
+    public synchronized void clear() {
+        this.posteriors.clear();
+    }
+
+    /**
+     * Returns the number of posteriors currently stored.
+     *
+     * @return the number of posteriors currently stored.
+     */
+    public synchronized int size() {
+        return this.posteriors.size();
+    }
+
+    /**
+     * Returns the maximum number of posteriors kept by the cache.
+     *
+     * @return the maximum number of posteriors kept by the cache.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of lookups that found a posterior.
+     *
+     * @return the number of lookups that found a posterior.
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a posterior.
+     *
+     * @return the number of lookups that did not find a posterior.
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /** Identifies a posterior: the model and its version, the latent variable and the packed manifest states. */
+    private static final class Key {
+
+        private final WeakReference<DiscreteBayesNet> model;
+
+        private final long version;
+
+        private final DiscreteVariable latentVar;
+
+        private final long[] evidence;
+
+        private final int hashCode;
+
+        Key(DiscreteBayesNet model, DiscreteVariable latentVar, int[] manifestStates) {
+            this.model = new WeakReference<>(model);
+            this.version = model.getVersion();
+            this.latentVar = latentVar;
+            this.evidence = pack(manifestStates);
+            this.hashCode = 31 * (31 * (31 * System.identityHashCode(model) + Long.hashCode(version))
+                    + latentVar.hashCode()) + Arrays.hashCode(evidence);
+        }
+
+        /** Packs the states into as few longs as possible, using 8 bits per state and 255 for missing values. */
+        private static long[] pack(int[] states) {
+            long[] packed = new long[(states.length + 7) / 8];
+            for (int i = 0; i < states.length; i++) {
+                int state = states[i];
+                if (state == DiscreteData.MISSING_VALUE)
+                    state = 255;
+                else if (state < 0 || state >= 255)
+                    throw new IllegalArgumentException("Invalid state: " + state);
+
+                packed[i / 8] |= ((long) state) << (8 * (i % 8));
+            }
+            return packed;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object)
+                return true;
+            if (!(object instanceof Key))
+                return false;
+
+            Key other = (Key) object;
+            DiscreteBayesNet model = this.model.get();
+            return model != null
+                    && model == other.model.get()
+                    && this.version == other.version
+                    && this.latentVar.equals(other.latentVar)
+                    && Arrays.equals(this.evidence, other.evidence);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package voltric.inference;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Map;
+
+/**
+ * An inference algorithm that {@link CliqueTreePropagation} can delegate to instead of propagating on its clique tree.
+ * Engines follow the same contract as {@link CliqueTreePropagation}: evidence is propagated with
+ * {@link #propagate(Map)}, after which single-variable and family beliefs can be queried.
+ */
+public interface PropagationEngine {
+
+    /**
+     * Propagates the evidence and returns its likelihood.
+     *
+     * @param evidence observed states of the observed variables.
+     * @return the likelihood of the evidence (or an approximation of it).
+     */
+    double propagate(Map<DiscreteVariable, Integer> evidence);
+
+    /**
+     * Returns the log-likelihood computed by the last propagation.
+     *
+     * @return the log-likelihood computed by the last propagation.
+     */
+    double getLogLikelihood();
+
+    /**
+     * Returns the posterior distribution of the argument variable.
+     *
+     * @param var the variable under query.
+     * @return the posterior distribution of {@code var}.
+     */
+    Function computeBelief(DiscreteVariable var);
+
+    /**
+     * Returns the posterior distribution of the family of the argument variable. The result involves the same
+     * variables as the variable's CPT, and observed variables are represented by an indicator.
+     *
+     * @param var the variable under query.
+     * @return the posterior distribution of the family of {@code var}.
+     */
+    Function computeFamilyBelief(DiscreteVariable var);
+
+    /**
+     * Adds the posterior distribution of the family of the argument variable, multiplied by a weight, to
+     * {@code target}, laid out like the cells of the variable's CPT from position {@code offset}. Engines may override
+     * it to accumulate without creating a {@link Function}.
+     *
+     * @param var the variable under query.
+     * @param weight the weight of the posterior.
+     * @param target the array where the posterior is accumulated.
+     * @param offset the position of the first cell of the family in {@code target}.
+     */
+    default void addFamilyBelief(DiscreteVariable var, double weight, double[] target, int offset) {
+        double[] cells = computeFamilyBelief(var).getCells();
+        for (int i = 0; i < cells.length; i++)
+            target[offset + i] += weight * cells[i];
+    }
+
+    /**
+     * Returns the network this engine was built for.
+     *
+     * @return the network this engine was built for.
+     */
+    DiscreteBayesNet getBayesNet();
+
+    /**
+     * Returns {@code true} if the beliefs and likelihood computed by this engine are exact.
+     *
+     * @return true if this engine is exact.
+     */
+    boolean isExact();
+
+    /**
+     * Returns a new engine with the same configuration for the argument network, which must have the same structure as
+     * the network of this engine.
+     *
+     * @param bayesNet the network of the new engine.
+     * @return a new engine for {@code bayesNet}.
+     */
+    PropagationEngine copy(DiscreteBayesNet bayesNet);
+}
@@ -0,0 +1,132 @@
+package voltric.inference;
+
+import voltric.graph.DirectedNode;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.Variable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A canonical description of the structure of a {@link DiscreteBayesNet}: its variables (with their cardinalities)
+ * and the parents of each one. Two networks with the same signature produce the same clique tree, no matter what
+ * their CPTs contain.
+ *
+ * <p>Variables are ordered by their creation index, so the signature does not depend on the order in which nodes and
+ * edges were added to the network. Variables are compared by reference because a {@link CliqueTree} keeps references
+ * to them; clones of a network share their variables and therefore share their signature.</p>
+ */
+public final class StructureSignature {
+
+    /** The variables of the network, sorted by their creation index. */
+    private final DiscreteVariable[] variables;
+
+    /** The names of the variables at the moment the signature was created. */
+    private final String[] names;
+
+    /**
+     * The structure encoded as a flat array: the cardinality of each variable followed, for each variable, by its
+     * number of parents and the positions of those parents in {@code variables}.
+     */
+    private final int[] structure;
+
+    private final int hashCode;
+
+    /**
+     * Computes the signature of the argument Bayesian network.
+     *
+     * @param bayesNet the network whose structure is described.
+     */
+    public StructureSignature(DiscreteBayesNet bayesNet) {
+        List<DiscreteVariable> variableList = bayesNet.getVariables();
+        this.variables = variableList.toArray(new DiscreteVariable[variableList.size()]);
+        Arrays.sort(this.variables);
+
+        int nVariables = this.variables.length;
+        this.names = new String[nVariables];
+
+        int[] parentCounts = new int[nVariables];
+        int[][] parents = new int[nVariables][];
+        int length = nVariables;
+
+        for (int i = 0; i < nVariables; i++) {
+            this.names[i] = this.variables[i].getName();
+
+            DiscreteBeliefNode node = bayesNet.getNode(this.variables[i]);
+            int[] parentPositions = new int[node.getParents().size()];
+            int j = 0;
+            for (DirectedNode<Variable> parent : node.getParents())
+                parentPositions[j++] = Arrays.binarySearch(this.variables, ((DiscreteBeliefNode) parent).getVariable());
+            Arrays.sort(parentPositions);
+
+            parents[i] = parentPositions;
+            parentCounts[i] = parentPositions.length;
+            length += 1 + parentPositions.length;
+        }
+
+        this.structure = new int[length];
+        int position = 0;
+        for (int i = 0; i < nVariables; i++)
+            this.structure[position++] = this.variables[i].getCardinality();
+
+        for (int i = 0; i < nVariables; i++) {
+            this.structure[position++] = parentCounts[i];
+            System.arraycopy(parents[i], 0, this.structure, position, parentCounts[i]);
+            position += parentCounts[i];
+        }
+
+        int result = Arrays.hashCode(this.structure);
+        result = 31 * result + Arrays.hashCode(this.names);
+        for (DiscreteVariable variable : this.variables)
+            result = 31 * result + System.identityHashCode(variable);
+        this.hashCode = result;
+    }
+
+    /**
+     * Returns the number of variables described by this signature.
+     *
+     * @return the number of variables described by this signature.
+     */
+    public int getNumberOfVariables() {
+        return this.variables.length;
+    }
+
+    /**
+     * Returns {@code true} if the object is a {@code StructureSignature} describing the same variables, cardinalities
+     * and parent sets.
+     *
+     * @param object the object to test equality against.
+     * @return true if {@code object} equals this.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object)
+            return true;
+
+        if (!(object instanceof StructureSignature))
+            return false;
+
+        StructureSignature signature = (StructureSignature) object;
+        if (this.hashCode != signature.hashCode || this.variables.length != signature.variables.length)
+            return false;
+
+        for (int i = 0; i < this.variables.length; i++)
+            if (this.variables[i] != signature.variables[i])
+                return false;
+
+        return Arrays.equals(this.structure, signature.structure)
+                && Arrays.equals(this.names, signature.names);
+    }
+
+    /**
+     * Returns the object's hashcode.
+     *
+     * @return the object's hashcode.
+     */
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+}
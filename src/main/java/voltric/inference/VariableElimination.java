@@ -0,0 +1,396 @@
+package voltric.inference;
+
+import voltric.data.DiscreteData;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers a single query, the likelihood of the evidence or the posterior distribution of some variables, by variable
+ * elimination. Unlike {@link CliqueTreePropagation}, it does not compile a clique tree and it only computes what the
+ * query needs, so it is the better choice when each evidence set is queried once.
+ *
+ * <p>Before eliminating, the network is pruned: variables that are not ancestors of the query or the evidence are
+ * barren and sum to one, and, for posterior queries, the factors that are not connected to the query once the
+ * evidence has been instantiated only contribute a constant that cancels on normalization.</p>
+ *
+ * <p>The pruned factors and the elimination order only depend on which variables are observed and queried, so they
+ * are cached for each such pattern, up to {@link #MAX_CACHED_PLANS} patterns. The CPTs are read at each query, so
+ * parameter changes need no action, but a new engine must be created after changing the structure of the network.
+ * Queries can be run concurrently.</p>
+ */
+public final class VariableElimination {
+
+    /** Maximum number of cached plans. The cache is emptied when it is reached. */
+    public static final int MAX_CACHED_PLANS = 4096;
+
+    private final DiscreteBayesNet bayesNet;
+
+    private final DiscreteBeliefNode[] nodes;
+
+    private final HashMap<DiscreteVariable, Integer> indexes;
+
+    /** The variable indexes of each family, in the order of the CPT. */
+    private final int[][] families;
+
+    private final ConcurrentHashMap<BitSet, Plan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an engine for the argument network.
+     *
+     * @param bayesNet the network under query.
+     */
+    public VariableElimination(DiscreteBayesNet bayesNet) {
+        this.bayesNet = bayesNet;
+
+        List<DiscreteBeliefNode> nodeList = bayesNet.getNodes();
+        int n = nodeList.size();
+
+        this.nodes = nodeList.toArray(new DiscreteBeliefNode[n]);
+        this.indexes = new HashMap<>(2 * n);
+        for (int i = 0; i < n; i++)
+            indexes.put(nodes[i].getVariable(), i);
+
+        this.families = new int[n][];
+        for (int f = 0; f < n; f++) {
+            List<DiscreteVariable> family = nodes[f].getCpt().getVariables();
+            families[f] = new int[family.size()];
+            for (int j = 0; j < family.size(); j++)
+                families[f][j] = indexes.get(family.get(j));
+        }
+    }
+
+    /**
+     * Returns the network under query.
+     *
+     * @return the network under query.
+     */
+    public DiscreteBayesNet getBayesNet() {
+        return bayesNet;
+    }
+
+    /**
+     * Returns the likelihood of the evidence.
+     *
+     * @param evidence observed states of the observed variables.
+     * @return the likelihood of the evidence.
+     */
+    public double computeLikelihood(Map<DiscreteVariable, Integer> evidence) {
+        return Math.exp(computeLogLikelihood(evidence));
+    }
+
+    /**
+     * Returns the log-likelihood of the evidence. Intermediate factors are rescaled, so it does not underflow even if
+     * the likelihood is lower than {@link Double#MIN_NORMAL}.
+     *
+     * @param evidence observed states of the observed variables.
+     * @return the log-likelihood of the evidence.
+     */
+    public double computeLogLikelihood(Map<DiscreteVariable, Integer> evidence) {
+        BitSet observed = checkEvidence(evidence);
+        Plan plan = getPlan(observed, new BitSet());
+
+        double[] logScale = new double[1];
+        Function result = eliminate(plan, evidence, logScale);
+        return logScale[0] + Math.log(result.sumUp());
+    }
+
+    /**
+     * Returns the log-likelihood of a data instance. Missing values are ignored, as in
+     * {@link CliqueTreePropagation#setEvidence(List, int[])}.
+     *
+     * @param variables the variables of the data set.
+     * @param states the states of the instance.
+     * @return the log-likelihood of the instance.
+     */
+    public double computeLogLikelihood(List<DiscreteVariable> variables, int[] states) {
+        return computeLogLikelihood(toEvidence(variables, states));
+    }
+
+    /**
+     * Returns the posterior distribution of a variable given the evidence.
+     *
+     * @param var the variable under query.
+     * @param evidence observed states of the observed variables.
+     * @return the posterior distribution of {@code var}.
+     */
+    public Function computeBelief(DiscreteVariable var, Map<DiscreteVariable, Integer> evidence) {
+        return computeBelief(Collections.singletonList(var), evidence);
+    }
+
+    /**
+     * Returns the joint posterior distribution of some variables given the evidence.
+     *
+     * @param vars the variables under query.
+     * @param evidence observed states of the observed variables.
+     * @return the joint posterior distribution of {@code vars}.
+     */
+    public Function computeBelief(Collection<DiscreteVariable> vars, Map<DiscreteVariable, Integer> evidence) {
+        if (vars.isEmpty())
+            throw new IllegalArgumentException("The collection of variables under query in empty");
+
+        if (!bayesNet.containsVars(vars))
+            throw new IllegalArgumentException("Some of the variables under query are not present in the model");
+
+        BitSet observed = checkEvidence(evidence);
+
+        ArrayList<DiscreteVariable> obsVars = new ArrayList<>();
+        ArrayList<Integer> obsVals = new ArrayList<>();
+        BitSet query = new BitSet();
+        for (DiscreteVariable var : vars) {
+            if (evidence.containsKey(var)) {
+                obsVars.add(var);
+                obsVals.add(evidence.get(var));
+            } else {
+                query.set(indexes.get(var));
+            }
+        }
+
+        Function obsBel = Function.createIndicatorFunction(obsVars, obsVals);
+        if (query.isEmpty())
+            return obsBel;
+
+        Function belief = eliminate(getPlan(observed, query), evidence, new double[1]);
+        double sum = belief.sumUp();
+        if (sum == 0)
+            throw new IllegalStateException("The evidence has zero probability");
+        belief.divide(sum);
+
+        return obsVars.isEmpty() ? belief : belief.times(obsBel);
+    }
+
+    /**
+     * Returns the number of observation and query patterns whose elimination plans are cached.
+     *
+     * @return the number of cached plans.
+     */
+    public int getNumberOfCachedPlans() {
+        return plans.size();
+    }
+
+    /**
+     * Converts a data instance into an evidence map.
+     */
+    private static Map<DiscreteVariable, Integer> toEvidence(List<DiscreteVariable> variables, int[] states) {
+        if (variables.size() != states.length)
+            throw new IllegalArgumentException("The variables and evidence sizes must coincide");
+
+        HashMap<DiscreteVariable, Integer> evidence = new HashMap<>();
+        for (int i = 0; i < states.length; i++)
+            if (states[i] != DiscreteData.MISSING_VALUE)
+                evidence.put(variables.get(i), states[i]);
+
+        return evidence;
+    }
+
+    private BitSet checkEvidence(Map<DiscreteVariable, Integer> evidence) {
+        BitSet observed = new BitSet(nodes.length);
+        for (Map.Entry<DiscreteVariable, Integer> entry : evidence.entrySet()) {
+            Integer index = indexes.get(entry.getKey());
+            if (index == null)
+                throw new IllegalArgumentException("The Bayes net does not contain the variable: " + entry.getKey().getName());
+
+            if (!entry.getKey().isValuePermitted(entry.getValue()))
+                throw new IllegalArgumentException("The state " + entry.getValue() + " is not valid for the variable: " + entry.getKey().getName());
+
+            observed.set(index);
+        }
+        return observed;
+    }
+
+    /**
+     * Multiplies the factors of the plan, with the evidence instantiated, and sums out the variables in the plan's
+     * order. Each intermediate factor is divided by its maximum, whose log is added to {@code logScale[0]}.
+     */
+    private Function eliminate(Plan plan, Map<DiscreteVariable, Integer> evidence, double[] logScale) {
+        LinkedList<Function> factors = new LinkedList<>();
+        for (int f : plan.factors) {
+            Function factor = nodes[f].getCpt();
+            for (int v : families[f]) {
+                DiscreteVariable var = nodes[v].getVariable();
+                Integer state = evidence.get(var);
+                if (state != null)
+                    factor = factor.project(var, state);
+            }
+            factors.add(factor);
+        }
+
+        for (DiscreteVariable var : plan.order) {
+            Function product = null;
+            for (Iterator<Function> iterator = factors.iterator(); iterator.hasNext(); ) {
+                Function factor = iterator.next();
+                if (factor.contains(var)) {
+                    product = product == null ? factor : product.times(factor);
+                    iterator.remove();
+                }
+            }
+
+            if (product == null)
+                continue;
+
+            Function message = product.sumOut(var);
+            double max = message.max();
+            if (max > 0 && max != 1.0) {
+                message.divide(max);
+                logScale[0] += Math.log(max);
+            }
+            factors.add(message);
+        }
+
+        Function result = Function.createIdentityFunction();
+        for (Function factor : factors)
+            result = result.times(factor);
+
+        return result;
+    }
+
+    private Plan getPlan(BitSet observed, BitSet query) {
+        int n = nodes.length;
+        BitSet key = new BitSet(2 * n);
+        key.or(observed);
+        for (int v = query.nextSetBit(0); v >= 0; v = query.nextSetBit(v + 1))
+            key.set(n + v);
+
+        Plan plan = plans.get(key);
+        if (plan == null) {
+            plan = createPlan(observed, query);
+            if (plans.size() >= MAX_CACHED_PLANS)
+                plans.clear();
+            plans.putIfAbsent(key, plan);
+        }
+        return plan;
+    }
+
+    private Plan createPlan(BitSet observed, BitSet query) {
+        int n = nodes.length;
+
+        // variables that are neither ancestors of the evidence nor of the query are barren
+        BitSet relevant = new BitSet(n);
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (int v = observed.nextSetBit(0); v >= 0; v = observed.nextSetBit(v + 1))
+            stack.push(v);
+        for (int v = query.nextSetBit(0); v >= 0; v = query.nextSetBit(v + 1))
+            stack.push(v);
+        while (!stack.isEmpty()) {
+            int v = stack.pop();
+            if (relevant.get(v))
+                continue;
+            relevant.set(v);
+            for (int parent : families[v])
+                if (!relevant.get(parent))
+                    stack.push(parent);
+        }
+
+        // the scope of each factor once the evidence is instantiated
+        ArrayList<Integer> factors = new ArrayList<>();
+        ArrayList<BitSet> scopes = new ArrayList<>();
+        for (int f = relevant.nextSetBit(0); f >= 0; f = relevant.nextSetBit(f + 1)) {
+            BitSet scope = new BitSet(n);
+            for (int v : families[f])
+                if (!observed.get(v))
+                    scope.set(v);
+            factors.add(f);
+            scopes.add(scope);
+        }
+
+        // for posterior queries, factors that are not connected to the query only scale the result
+        if (!query.isEmpty()) {
+            BitSet connected = (BitSet) query.clone();
+            boolean[] kept = new boolean[factors.size()];
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < factors.size(); i++) {
+                    if (!kept[i] && scopes.get(i).intersects(connected)) {
+                        kept[i] = true;
+                        connected.or(scopes.get(i));
+                        changed = true;
+                    }
+                }
+            }
+
+            ArrayList<Integer> keptFactors = new ArrayList<>();
+            ArrayList<BitSet> keptScopes = new ArrayList<>();
+            for (int i = 0; i < factors.size(); i++) {
+                if (kept[i]) {
+                    keptFactors.add(factors.get(i));
+                    keptScopes.add(scopes.get(i));
+                }
+            }
+            factors = keptFactors;
+            scopes = keptScopes;
+        }
+
+        int[] factorArray = new int[factors.size()];
+        for (int i = 0; i < factorArray.length; i++)
+            factorArray[i] = factors.get(i);
+
+        return new Plan(factorArray, computeOrder(scopes, query));
+    }
+
+    /**
+     * Greedy weighted min-degree order: the next variable is the one whose elimination produces the smallest table.
+     */
+    private List<DiscreteVariable> computeOrder(List<BitSet> factorScopes, BitSet query) {
+        LinkedList<BitSet> scopes = new LinkedList<>(factorScopes);
+
+        BitSet remaining = new BitSet(nodes.length);
+        for (BitSet scope : scopes)
+            remaining.or(scope);
+        remaining.andNot(query);
+
+        List<DiscreteVariable> order = new ArrayList<>(remaining.cardinality());
+        while (!remaining.isEmpty()) {
+            int best = -1;
+            double bestSize = Double.POSITIVE_INFINITY;
+            for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+                BitSet union = new BitSet(nodes.length);
+                for (BitSet scope : scopes)
+                    if (scope.get(v))
+                        union.or(scope);
+
+                double size = 1;
+                for (int u = union.nextSetBit(0); u >= 0; u = union.nextSetBit(u + 1))
+                    size *= nodes[u].getVariable().getCardinality();
+
+                if (size < bestSize) {
+                    bestSize = size;
+                    best = v;
+                }
+            }
+
+            BitSet union = new BitSet(nodes.length);
+            for (Iterator<BitSet> iterator = scopes.iterator(); iterator.hasNext(); ) {
+                BitSet scope = iterator.next();
+                if (scope.get(best)) {
+                    union.or(scope);
+                    iterator.remove();
+                }
+            }
+            union.clear(best);
+            scopes.add(union);
+
+            remaining.clear(best);
+            order.add(nodes[best].getVariable());
+        }
+
+        return order;
+    }
+
+    /** The factors that take part in a query and the order in which variables are eliminated. */
+    private static final class Plan {
+
+        private final int[] factors;
+
+        private final List<DiscreteVariable> order;
+
+        Plan(int[] factors, List<DiscreteVariable> order) {
+            this.factors = factors;
+            this.order = order;
+        }
+    }
+}
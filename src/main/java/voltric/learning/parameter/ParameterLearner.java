@@ -2,11 +2,15 @@ package voltric.learning.parameter;
 
 import voltric.data.DiscreteData;
 import voltric.learning.parameter.em.EM;
+import voltric.learning.parameter.em.HardEM;
 import voltric.learning.parameter.em.LocalEM;
 import voltric.learning.parameter.em.ParallelEM;
+import voltric.learning.parameter.em.ParallelLocalEM;
 import voltric.learning.parameter.em.config.EmConfig;
 import voltric.learning.parameter.em.config.LocalEmConfig;
 import voltric.learning.parameter.mle.StaticMLE;
+import voltric.learning.parameter.vb.SVB;
+import voltric.learning.parameter.vb.SvbConfig;
 import voltric.learning.score.ScoreType;
 import voltric.model.DiscreteBayesNet;
 
@@ -45,6 +49,19 @@ public class ParameterLearner {
         emLearner.learnModel(bayesNet, dataSet);
     }
 
+    /**
+     * Executes classification EM, whose E-step assigns the most probable states of the latent variables to each
+     * instance. It is much faster than the EM algorithm and its result is meant as a warm start for it.
+     *
+     * @param bayesNet the bayesian network whose parameters are going to be learned.
+     * @param dataSet the dataSet used to learn the Bayesian network.
+     * @param emConfig EM configuration parameters.
+     */
+    public static void computeHardEM(DiscreteBayesNet bayesNet, DiscreteData dataSet, EmConfig emConfig, ScoreType scoreType) {
+        HardEM emLearner = new HardEM(emConfig, scoreType);
+        emLearner.learnModel(bayesNet, dataSet);
+    }
+
     /**
      * Executes a variant of the EM algorithm known as the 'Local EM algorithm'. In this EM version, only a subset of the
      * model nodes change. Only the specified subset of nodes
@@ -58,6 +75,32 @@ public class ParameterLearner {
         localEmLearner.learnModel(bayesNet, dataSet);
     }
 
+    /**
+     * Parallel execution of the 'Local EM algorithm', where the data instances are split among several threads. Only
+     * the specified subset of nodes is updated.
+     *
+     * @param bayesNet the bayesian network whose parameters are going to be learned.
+     * @param dataSet the dataSet used to learn the Bayesian network.
+     * @param localEmConfig LocalEM configuration parameters.
+     */
+    public static void computeParallelLocalEM(DiscreteBayesNet bayesNet, DiscreteData dataSet, LocalEmConfig localEmConfig, ScoreType scoreType) {
+        ParallelLocalEM localEmLearner = new ParallelLocalEM(localEmConfig, scoreType);
+        localEmLearner.learnModel(bayesNet, dataSet);
+    }
+
+    /**
+     * Executes streaming variational Bayes, which learns the parameters in a single pass over the data set with
+     * Dirichlet priors on the CPTs. The parameters are the posterior means.
+     *
+     * @param bayesNet the bayesian network whose parameters are going to be learned.
+     * @param dataSet the dataSet used to learn the Bayesian network.
+     * @param svbConfig SVB configuration parameters.
+     */
+    public static void computeSVB(DiscreteBayesNet bayesNet, DiscreteData dataSet, SvbConfig svbConfig, ScoreType scoreType) {
+        SVB svbLearner = new SVB(svbConfig, scoreType);
+        svbLearner.learnModel(bayesNet, dataSet);
+    }
+
     /**
      * Executes the StaticMLE method, which learns the parameters of the Bayesian network whose associated data observations
      * are complete. Therefore no latent nodes or incomplete dataSets are accepted.
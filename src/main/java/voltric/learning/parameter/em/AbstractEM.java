@@ -3,12 +3,23 @@ package voltric.learning.parameter.em;
 import voltric.data.DiscreteData;
 import voltric.learning.LearningResult;
 import voltric.learning.parameter.DiscreteParameterLearning;
+import voltric.learning.parameter.em.config.EmAcceleration;
 import voltric.learning.parameter.em.config.EmConfig;
 import voltric.learning.parameter.em.initialization.EmInitialization;
+import voltric.learning.parameter.em.util.EmCheckpoint;
+import voltric.learning.parameter.em.util.EmListener;
+import voltric.learning.parameter.em.util.EmStepEvent;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.parameter.em.util.Squarem;
 import voltric.learning.score.ScoreType;
 import voltric.model.DiscreteBayesNet;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
 
 /**
  * Created by fernando on 4/04/17.
@@ -39,6 +50,24 @@ public abstract class AbstractEM implements DiscreteParameterLearning {
     /** The type of score used when learning the Bayesian network */
     protected ScoreType scoreType;
 
+    /** The scheme used to accelerate the convergence of the EM steps */
+    protected EmAcceleration acceleration;
+
+    /** The estimated number of EM steps saved by the acceleration in the last learning process */
+    protected int nStepsSaved;
+
+    /** The file where the state is periodically saved, or {@code null} */
+    protected Path checkpointFile;
+
+    /** The minimum number of EM steps between two checkpoints */
+    protected int checkpointInterval;
+
+    /** The number of EM steps elapsed when the last checkpoint was saved */
+    protected int lastCheckpointSteps;
+
+    /** The observers of the EM steps, which may be notified concurrently by the candidates of the restart strategies */
+    private final List<EmListener> listeners = new CopyOnWriteArrayList<>();
+
     /**
      * Default constructor
      */
@@ -60,13 +89,149 @@ public abstract class AbstractEM implements DiscreteParameterLearning {
         this.reuse = config.isReuse();
         this.dontUpdateNodes = config.getDontUpdateNodes();
         this.scoreType = scoreType;
+        this.acceleration = config.getAcceleration();
+        this.checkpointFile = config.getCheckpointFile();
+        this.checkpointInterval = config.getCheckpointInterval();
     }
 
     /** {@inheritDoc} */
     public abstract LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, DiscreteData dataSet);
 
+    /**
+     * Returns {@code true} if a checkpoint file is configured and enough steps have elapsed since the last checkpoint.
+     *
+     * @param nSteps the number of EM steps elapsed.
+     */
+    protected boolean isCheckpointDue(int nSteps) {
+        return this.checkpointFile != null && nSteps - this.lastCheckpointSteps >= this.checkpointInterval;
+    }
+
+    /**
+     * Saves a checkpoint. A failure is reported but does not stop the learning process, which would lose more work
+     * than the checkpoint.
+     *
+     * @param checkpoint the checkpoint.
+     */
+    protected void saveCheckpoint(EmCheckpoint checkpoint) {
+        try {
+            checkpoint.write(this.checkpointFile);
+            this.lastCheckpointSteps = checkpoint.getnSteps();
+        } catch (IOException e) {
+            warn("Cannot save the EM checkpoint to " + this.checkpointFile + ": " + e);
+        }
+    }
+
+    /**
+     * Adds an observer of the EM steps and of the warnings of this learner.
+     *
+     * @param listener the listener.
+     */
+    public void addListener(EmListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("The listener cannot be null");
+
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes an observer added with {@link #addListener}.
+     *
+     * @param listener the listener.
+     */
+    public void removeListener(EmListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Starts measuring an EM step, unless nobody listens.
+     *
+     * @return the timer of the step, or {@code null} if there are no listeners.
+     */
+    protected EmStepTimer startStepTimer() {
+        return this.listeners.isEmpty() ? null : EmStepTimer.start();
+    }
+
+    /**
+     * Notifies the listeners of the end of an EM step.
+     *
+     * @param event the measures of the step.
+     */
+    protected void fireStepFinished(EmStepEvent event) {
+        for (EmListener listener : this.listeners)
+            listener.stepFinished(event);
+    }
+
+    /**
+     * Reports a problem that does not stop learning to the listeners, or to the standard error if there are none.
+     *
+     * @param message the description of the problem.
+     */
+    protected void warn(String message) {
+        if (this.listeners.isEmpty()) {
+            System.err.println(message);
+            return;
+        }
+
+        for (EmListener listener : this.listeners)
+            listener.warning(message);
+    }
+
     @Override
     public ScoreType getScoreType() {
         return scoreType;
     }
+
+    /**
+     * Returns the number of EM steps of the last learning process.
+     *
+     * @return the number of EM steps of the last learning process.
+     */
+    public int getnSteps() {
+        return nSteps;
+    }
+
+    /**
+     * Returns the estimated number of EM steps saved by the acceleration in the last learning process.
+     *
+     * @return the estimated number of EM steps saved.
+     * @see Squarem#getEstimatedStepsSaved()
+     */
+    public int getnStepsSaved() {
+        return nStepsSaved;
+    }
+
+    /**
+     * Runs accelerated EM cycles on the model until the improvement of the score is not greater than the threshold or
+     * the maximum number of steps is reached. Each cycle of {@link Squarem} counts as the EM steps it runs, and when
+     * fewer steps than a cycle are left, plain EM steps are run instead so the maximum is not exceeded.
+     *
+     * @param model the model whose parameters are learned.
+     * @param emStep runs an EM step on {@code model} and returns the score of the parameters it started from.
+     * @return the score of the last cycle.
+     */
+    protected double runAccelerated(DiscreteBayesNet model, DoubleSupplier emStep) {
+        Squarem squarem = new Squarem(model, this.dontUpdateNodes, emStep);
+        int nStepsBefore = this.nSteps;
+
+        double previousScore = runAcceleratedCycle(squarem, nStepsBefore);
+
+        double score = previousScore;
+        while (this.nSteps < this.nMaxSteps) {
+            score = runAcceleratedCycle(squarem, nStepsBefore);
+
+            if (score - previousScore <= this.threshold)
+                break;
+            previousScore = score;
+        }
+
+        this.nStepsSaved = squarem.getEstimatedStepsSaved();
+        return score;
+    }
+
+    /** Runs a SQUAREM cycle, or a plain EM step if a cycle would exceed the maximum number of steps. */
+    private double runAcceleratedCycle(Squarem squarem, int nStepsBefore) {
+        double score = this.nMaxSteps - this.nSteps < Squarem.STEPS_PER_CYCLE ? squarem.step() : squarem.iterate();
+        this.nSteps = nStepsBefore + squarem.getNumberOfEmSteps();
+        return score;
+    }
 }
@@ -0,0 +1,226 @@
+package voltric.learning.parameter.em;
+
+import voltric.data.DiscreteData;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmAcceleration;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.distributed.EmWorker;
+import voltric.learning.parameter.em.distributed.ModelStructure;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.score.LearningScore;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * EM whose data is split in shards held by several workers, which may live in other processes or machines (see
+ * {@link voltric.learning.parameter.em.distributed.SocketEmWorker}), so the data set does not need to fit in the heap
+ * of a single JVM. Each step broadcasts the CPTs to the workers as a flat array, the workers run the E-step on their
+ * shards concurrently and return their expected counts and log-likelihoods, and the coordinator reduces them and runs
+ * the M-step as {@link ParallelEM} does.
+ *
+ * <p>Learning starts from a single point: the parameters of the input BN if they are reused, or random ones. The
+ * number of restarts and the initialization method are not used. The workers are not closed.</p>
+ */
+public class DistributedEM extends AbstractEM {
+
+    private final List<EmWorker> workers;
+
+    /** The total weight of the instances of all the shards in the last learning process. */
+    private double sampleSize;
+
+    public DistributedEM(EmConfig config, ScoreType scoreType, List<? extends EmWorker> workers) {
+        super(config, scoreType);
+
+        if (workers.isEmpty())
+            throw new IllegalArgumentException("There must be at least one worker");
+
+        this.workers = new ArrayList<>(workers);
+    }
+
+    /**
+     * Learns the parameters from the shards of the workers. The instances of the argument data set are not used, it
+     * is only checked to contain the manifest variables of the BN.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, DiscreteData dataSet) {
+
+        if(dataSet != null && !dataSet.getVariables().containsAll(bayesNet.getManifestVariables()))
+            throw new IllegalArgumentException("The Data set must contain all the manifest variables present in the Bayes net");
+
+        return learnModel(bayesNet);
+    }
+
+    /**
+     * Learns the parameters of a copy of the argument BN from the shards of the workers.
+     *
+     * @param bayesNet the input Bayes net, which is not modified.
+     * @return the learned BN and its score on the data of all the shards.
+     * @throws UncheckedIOException if a worker cannot be reached.
+     */
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet) {
+
+        // resets the number of EM steps
+        this.nSteps = 0;
+        this.nStepsSaved = 0;
+
+        DiscreteBayesNet model = createStartingPoint(bayesNet);
+        ModelStructure structure = ModelStructure.describe(model, this.dontUpdateNodes);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            List<Callable<Double>> initializations = new ArrayList<>();
+            for (EmWorker worker : workers)
+                initializations.add(() -> worker.initialize(structure));
+
+            this.sampleSize = 0;
+            for (double shardWeight : invokeAll(executor, initializations))
+                this.sampleSize += shardWeight;
+
+            double[][] workerCounts = new double[workers.size()][structure.getNumberOfStatistics()];
+
+            if (this.acceleration == EmAcceleration.SQUAREM) {
+                double score = runAccelerated(model, () -> emStep(model, structure, workerCounts, executor));
+                return new LearningResult<>(model, score, this.scoreType);
+            }
+
+            double previousScore = emStep(model, structure, workerCounts, executor);
+            this.nSteps++;
+
+            // runs EM steps until convergence
+            double score;
+            double improvement;
+            do {
+                score = emStep(model, structure, workerCounts, executor);
+                this.nSteps++;
+
+                improvement = score - previousScore;
+                previousScore = score;
+            } while (improvement > this.threshold
+                    && this.nSteps < this.nMaxSteps);
+
+            return new LearningResult<>(model, score, this.scoreType);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the total weight of the instances of all the shards in the last learning process.
+     *
+     * @return the total weight of the instances of the workers.
+     */
+    public double getSampleSize() {
+        return sampleSize;
+    }
+
+    private double emStep(DiscreteBayesNet model, ModelStructure structure, double[][] workerCounts, ExecutorService executor) {
+        EmStepTimer timer = startStepTimer();
+        List<DiscreteBeliefNode> nodes = model.getNodes();
+
+        // broadcasts the parameters
+        double[] parameters = new double[structure.getNumberOfParameters()];
+        int offset = 0;
+        for (DiscreteBeliefNode node : nodes) {
+            double[] cells = node.getCpt().getCells();
+            System.arraycopy(cells, 0, parameters, offset, cells.length);
+            offset += cells.length;
+        }
+
+        List<Callable<Double>> eSteps = new ArrayList<>();
+        for (int w = 0; w < workers.size(); w++) {
+            EmWorker worker = workers.get(w);
+            double[] counts = workerCounts[w];
+            eSteps.add(() -> worker.computeStatistics(parameters, counts));
+        }
+
+        // reduces the statistics of the workers
+        double logLikelihood = 0;
+        for (double workerLogLikelihood : invokeAll(executor, eSteps))
+            logLikelihood += workerLogLikelihood;
+
+        double[] counts = workerCounts[0];
+        for (int w = 1; w < workerCounts.length; w++) {
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += workerCounts[w][i];
+        }
+
+        if (timer != null)
+            timer.eStepFinished();
+
+        // updates parameters, adding 1 to each count as ParallelEM does
+        offset = 0;
+        for (DiscreteBeliefNode node : nodes) {
+            if (this.dontUpdateNodes != null && this.dontUpdateNodes.contains(node.getName()))
+                continue;
+
+            Function cpt = node.getCpt().clone();
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] = counts[offset + i] + 1;
+            offset += cells.length;
+
+            cpt.normalize(node.getVariable());
+            node.setCpt(cpt);
+        }
+
+        double score = LearningScore.calculateScore(this.sampleSize, model, logLikelihood, this.scoreType);
+
+        if (timer != null)
+            fireStepFinished(timer.finish(model, score, logLikelihood, Math.round(this.sampleSize)));
+
+        return score;
+    }
+
+    /**
+     * Copies the input BN with its parameters, which are replaced by random ones if they are not reused.
+     */
+    private DiscreteBayesNet createStartingPoint(DiscreteBayesNet bayesNet) {
+        DiscreteBayesNet model = bayesNet.copyWithParameters();
+
+        if (!this.reuse) {
+            for (DiscreteBeliefNode node : model.getNodes()) {
+                if (this.dontUpdateNodes == null || !this.dontUpdateNodes.contains(node.getName())) {
+                    Function cpt = node.getCpt();
+                    cpt.randomlyDistribute(node.getVariable());
+                    node.setCpt(cpt);
+                }
+            }
+        }
+
+        return model;
+    }
+
+    /** Runs the calls concurrently and returns their results, rethrowing the first failure. */
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> calls) {
+        List<T> results = new ArrayList<>(calls.size());
+        try {
+            for (Future<T> future : executor.invokeAll(calls))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw new UncheckedIOException((IOException) cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+}
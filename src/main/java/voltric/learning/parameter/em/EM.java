@@ -1,13 +1,17 @@
 package voltric.learning.parameter.em;
 
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import voltric.data.DiscreteData;
 import voltric.data.DiscreteDataInstance;
 import voltric.inference.CliqueTreePropagation;
 import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmAcceleration;
 import voltric.learning.parameter.em.config.EmConfig;
 import voltric.learning.parameter.em.initialization.ChickeringHeckerman;
 import voltric.learning.parameter.em.initialization.MultipleRestarts;
+import voltric.learning.parameter.em.util.ChickeringHeckermanTournament;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.parameter.em.util.ParallelEStep;
+import voltric.learning.parameter.em.util.RestartPortfolio;
 import voltric.learning.score.LearningScore;
 import voltric.learning.score.ScoreType;
 import voltric.model.DiscreteBayesNet;
@@ -16,6 +20,7 @@ import voltric.model.HLCM;
 import voltric.potential.Function;
 import voltric.variables.DiscreteVariable;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -40,10 +45,16 @@ public class EM extends AbstractSequentialEM {
 
         // resets the number of EM steps
         this.nSteps = 0;
+        this.nStepsSaved = 0;
 
         // selects a good starting point
         CliqueTreePropagation ctp = emStart(bayesNet, dataSet);
 
+        if (this.acceleration == EmAcceleration.SQUAREM) {
+            double score = runAccelerated(ctp.getBayesNet(), () -> emStep(ctp, dataSet));
+            return new LearningResult<>(ctp.getBayesNet(), score, this.scoreType);
+        }
+
         double previousScore = emStep(ctp, dataSet);
         this.nSteps++;
 
@@ -56,7 +67,7 @@ public class EM extends AbstractSequentialEM {
         } while (score - previousScore > this.threshold
                 && this.nSteps < this.nMaxSteps);
 
-        return new LearningResult<>(bayesNet, score, this.scoreType);
+        return new LearningResult<>(ctp.getBayesNet(), score, this.scoreType);
     }
 
     /** {@inheritDoc} */
@@ -65,6 +76,8 @@ public class EM extends AbstractSequentialEM {
         // gets the BN to be optimized
         DiscreteBayesNet bayesNet = ctp.getBayesNet();
 
+        EmStepTimer timer = startStepTimer();
+
         // sufficient statistics for each node
         HashMap<DiscreteVariable, Function> suffStats = new HashMap<DiscreteVariable, Function>();
 
@@ -100,6 +113,9 @@ public class EM extends AbstractSequentialEM {
 
         }
 
+        if (timer != null)
+            timer.eStepFinished();
+
         // updates parameters
         for (DiscreteBeliefNode node : bayesNet.getNodes()) {
 
@@ -111,19 +127,58 @@ public class EM extends AbstractSequentialEM {
             node.setCpt(cpt);
         }
 
-        return LearningScore.calculateScore(dataSet, bayesNet, loglikelihood, this.scoreType);
+        double score = LearningScore.calculateScore(dataSet, bayesNet, loglikelihood, this.scoreType);
+
+        if (timer != null)
+            fireStepFinished(timer.finish(bayesNet, score, loglikelihood, dataSet.getInstances().size()));
+
+        return score;
     }
 
     /** {@inheritDoc} */
     @Override
     protected CliqueTreePropagation chickeringHeckermanRestart(DiscreteBayesNet bayesNet, DiscreteData dataSet, ChickeringHeckerman chickeringHeckermanConfig) {
         // generates random starting points and CTPs for them
+        CliqueTreePropagation[] ctps = createStartingPoints(bayesNet);
+
+        // each round runs the candidates concurrently, on the pool of the library rather than the common one
+        ChickeringHeckermanTournament<CliqueTreePropagation> tournament =
+                new ChickeringHeckermanTournament<>(ParallelEStep.getForkJoinPool(), ctp -> emStep(ctp, dataSet), this.threshold, this.nMaxSteps);
+        CliqueTreePropagation best = tournament.run(Arrays.asList(ctps), chickeringHeckermanConfig.getNumInitIterations(), this.nSteps);
+        this.nSteps = tournament.getNumberOfSteps();
+
+        // returns the CTP for the best starting point
+        return best;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected CliqueTreePropagation multipleRestarts(DiscreteBayesNet bayesNet, DiscreteData dataSet, MultipleRestarts multipleRestarts) {
+        // generates random starting points and CTPs for them
+        CliqueTreePropagation[] ctps = createStartingPoints(bayesNet);
+
+        // the restarts run concurrently and the hopeless ones are culled early
+        RestartPortfolio<CliqueTreePropagation> portfolio =
+                new RestartPortfolio<>(ParallelEStep.getForkJoinPool(), ctp -> emStep(ctp, dataSet), this.threshold, this.nMaxSteps);
+        CliqueTreePropagation best = portfolio.run(Arrays.asList(ctps), multipleRestarts, this.nSteps);
+        this.nSteps = portfolio.getNumberOfSteps();
+
+        // returns the CTP for the best starting point
+        return best;
+    }
+
+    /**
+     * Generates the random starting points of the restarts and the CTPs for them. If the parameters of the input BN are
+     * reused, it is the first starting point.
+     *
+     * @param bayesNet the input Bayes net.
+     * @return the CTPs of the starting points.
+     */
+    private CliqueTreePropagation[] createStartingPoints(DiscreteBayesNet bayesNet) {
         CliqueTreePropagation[] ctps = new CliqueTreePropagation[this.nRestarts];
-        double[] lastStepScore = new double[this.nRestarts];
-        double[] currentScore = new double[this.nRestarts];
 
         for (int i = 0; i < this.nRestarts; i++) {
-            DiscreteBayesNet copy = bayesNet.clone();
+            DiscreteBayesNet copy = bayesNet.copyWithParameters();
 
             // in case we reuse the parameters of the input BN as a starting
             // point, we put it at the first place.
@@ -153,69 +208,6 @@ public class EM extends AbstractSequentialEM {
             }
         }
 
-        // We run several steps of emStep before killing starting points for two reasons:
-        // 1. the loglikelihood-related score being computed is always greater that of previous model.
-        // 2. When reuse, the reused model is kind of dominant because maybe it has already EMed.
-        this.nSteps += chickeringHeckermanConfig.getNumInitIterations();
-        for (int i = 0; i < this.nRestarts; i++) {
-            double score = 0;
-            for (int j = 0; j < chickeringHeckermanConfig.getNumInitIterations(); j++)
-                score = emStep(ctps[i], dataSet);
-
-            currentScore[i] = score;
-        }
-
-        // game starts, half ppl die in each round :-)
-        int nCandidates = this.nRestarts;
-        int nStepsPerRound = 1;
-
-        while (nCandidates > 1 && this.nSteps < this.nMaxSteps)
-        {
-            // runs EM on all starting points for several steps
-            for (int j = 0; j < nStepsPerRound; j++)
-            {
-                boolean noImprovements = true;
-                for (int i = 0; i < nCandidates; i++)
-                {
-                    lastStepScore[i] = currentScore[i];
-                    currentScore[i] = emStep(ctps[i], dataSet);
-
-                    if(currentScore[i] - lastStepScore[i] > this.threshold || lastStepScore[i] == Double.NEGATIVE_INFINITY)
-                        noImprovements = false;
-                }
-                this.nSteps++;
-
-                if(noImprovements)
-                    return ctps[0];
-
-            }
-
-            // sorts BNs in descending order with respect to the score
-            for (int i = 0; i < nCandidates - 1; i++) {
-                for (int j = i + 1; j < nCandidates; j++) {
-                    if (currentScore[i] < currentScore[j]) {
-                        CliqueTreePropagation tempCtp = ctps[i];
-                        ctps[i] = ctps[j];
-                        ctps[j] = tempCtp;
-
-                    }
-                }
-            }
-
-            // retains top half
-            nCandidates /= 2;
-
-            // doubles EM steps subject to maximum step constraint
-            nStepsPerRound = Math.min(nStepsPerRound * 2, this.nMaxSteps - this.nSteps);
-        }
-
-        // returns the CTP for the best starting point
-        return ctps[0];
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    protected CliqueTreePropagation multipleRestarts(DiscreteBayesNet bayesNet, DiscreteData dataSet, MultipleRestarts multipleRestarts){
-        throw new NotImplementedException();
+        return ctps;
     }
 }
@@ -0,0 +1,222 @@
+package voltric.learning.parameter.em;
+
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.inference.ParallelMpe;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.score.LearningScore;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Classification EM, also known as hard EM: the E-step assigns each instance the most probable configuration of the
+ * latent variables, computed by max-product propagation (see {@link ParallelMpe}), instead of their posterior
+ * distribution. The sufficient statistics are then integer counts of the completed instances, and the M-step sets the
+ * CPTs from them, adding 1 to each count as {@link ParallelEM} does so no probability is 0.
+ *
+ * <p>Each step is much cheaper than a soft EM step, since no family belief is computed, but the parameters are biased
+ * towards well-separated clusters. It is meant as a fast warm start for soft EM: learn with this class, then run
+ * {@link EM} or {@link ParallelEM} on the result with {@link EmConfig#isReuse()} set.</p>
+ *
+ * <p>A missing manifest value is summed out by the MPE query, and the families that contain it are not counted for
+ * that instance. Learning starts from a single point: the parameters of the input BN if they are reused, or random
+ * ones. The number of restarts and the initialization method are not used. Learning stops when no assignment changes,
+ * when the improvement of the classification log-likelihood is not greater than the threshold, or after the maximum
+ * number of steps. The returned score is that of the marginal log-likelihood, so it is comparable with soft EM.</p>
+ */
+public class HardEM extends AbstractEM {
+
+    public HardEM() {
+        super();
+    }
+
+    public HardEM(EmConfig config, ScoreType scoreType) {
+        super(config, scoreType);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, DiscreteData dataSet) {
+
+        if(!dataSet.getVariables().containsAll(bayesNet.getManifestVariables()))
+            throw new IllegalArgumentException("The Data set must contain all the manifest variables present in the Bayes net");
+
+        // resets the number of EM steps
+        this.nSteps = 0;
+        this.nStepsSaved = 0;
+
+        DiscreteBayesNet model = createStartingPoint(bayesNet);
+        CliqueTreePropagationGroup ctps = ParallelMpe.createGroup(model);
+
+        List<DiscreteVariable> latentVariables = model.getLatentVariables();
+        CountLayout layout = new CountLayout(model, dataSet, latentVariables);
+
+        int nInstances = dataSet.getInstances().size();
+        int[] assignments = new int[nInstances * latentVariables.size()];
+        int[] previousAssignments = new int[assignments.length];
+        double[] logProbabilities = new double[nInstances];
+        long[] counts = new long[layout.size];
+
+        double previousScore = Double.NEGATIVE_INFINITY;
+        while (this.nSteps < this.nMaxSteps) {
+            EmStepTimer timer = startStepTimer();
+
+            // E-step: completes each instance with its most probable latent states
+            ParallelMpe.computeAssignments(ctps, dataSet, latentVariables, assignments, logProbabilities);
+
+            double score = 0;
+            for (int i = 0; i < nInstances; i++)
+                score += logProbabilities[i] * dataSet.getWeight(dataSet.getInstances().get(i));
+
+            Arrays.fill(counts, 0);
+            layout.count(dataSet, assignments, counts);
+
+            if (timer != null)
+                timer.eStepFinished();
+
+            // M-step
+            updateParameters(model, layout, counts);
+            this.nSteps++;
+
+            if (timer != null)
+                fireStepFinished(timer.finish(model, score, score, nInstances));
+
+            boolean changed = this.nSteps == 1 || !Arrays.equals(assignments, previousAssignments);
+            if (!changed || score - previousScore <= this.threshold)
+                break;
+
+            previousScore = score;
+            System.arraycopy(assignments, 0, previousAssignments, 0, assignments.length);
+        }
+
+        double logLikelihood = LearningScore.calculateLogLikelihood(dataSet, model);
+        return new LearningResult<>(model, LearningScore.calculateScore(dataSet, model, logLikelihood, this.scoreType), this.scoreType);
+    }
+
+    /**
+     * Sets the CPTs that are updated from the counts, adding 1 to each one.
+     */
+    private static void updateParameters(DiscreteBayesNet model, CountLayout layout, long[] counts) {
+        for (int v = 0; v < layout.nodes.size(); v++) {
+            DiscreteBeliefNode node = layout.nodes.get(v);
+
+            Function cpt = node.getCpt().clone();
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] = counts[layout.offsets[v] + i] + 1;
+
+            cpt.normalize(node.getVariable());
+            node.setCpt(cpt);
+        }
+    }
+
+    /**
+     * Copies the input BN with its parameters, which are replaced by random ones if they are not reused.
+     */
+    private DiscreteBayesNet createStartingPoint(DiscreteBayesNet bayesNet) {
+        DiscreteBayesNet model = bayesNet.copyWithParameters();
+
+        if (!this.reuse) {
+            for (DiscreteBeliefNode node : model.getNodes()) {
+                if (this.dontUpdateNodes == null || !this.dontUpdateNodes.contains(node.getName())) {
+                    Function cpt = node.getCpt();
+                    cpt.randomlyDistribute(node.getVariable());
+                    node.setCpt(cpt);
+                }
+            }
+        }
+
+        return model;
+    }
+
+    /**
+     * The layout of the integer counts: the families of the nodes that are updated one after the other, each one like
+     * the cells of its CPT. The state of each family variable is read from the data or from the latent assignments.
+     */
+    private final class CountLayout {
+
+        final List<DiscreteBeliefNode> nodes = new ArrayList<>();
+
+        /** Position of the family of each node in the counts. */
+        final int[] offsets;
+
+        /** For each node and family variable, its data column, or -(j + 1) for the j-th latent variable. */
+        final int[][] sources;
+
+        /** For each node and family variable, its stride in the cells of the CPT. */
+        final int[][] magnitudes;
+
+        final int size;
+
+        CountLayout(DiscreteBayesNet model, DiscreteData dataSet, List<DiscreteVariable> latentVariables) {
+            for (DiscreteBeliefNode node : model.getNodes()) {
+                if (dontUpdateNodes == null || !dontUpdateNodes.contains(node.getName()))
+                    nodes.add(node);
+            }
+
+            this.offsets = new int[nodes.size()];
+            this.sources = new int[nodes.size()][];
+            this.magnitudes = new int[nodes.size()][];
+
+            int offset = 0;
+            for (int v = 0; v < nodes.size(); v++) {
+                List<DiscreteVariable> family = nodes.get(v).getCpt().getVariables();
+                sources[v] = new int[family.size()];
+                magnitudes[v] = new int[family.size()];
+
+                int magnitude = 1;
+                for (int k = family.size() - 1; k >= 0; k--) {
+                    DiscreteVariable variable = family.get(k);
+                    int latentIndex = latentVariables.indexOf(variable);
+                    sources[v][k] = latentIndex >= 0 ? -(latentIndex + 1) : dataSet.getVariables().indexOf(variable);
+                    magnitudes[v][k] = magnitude;
+                    magnitude *= variable.getCardinality();
+                }
+
+                offsets[v] = offset;
+                offset += magnitude;
+            }
+            this.size = offset;
+        }
+
+        /**
+         * Adds the weight of each completed instance to the cell of each family, skipping the families with a missing
+         * value.
+         */
+        void count(DiscreteData dataSet, int[] assignments, long[] counts) {
+            int nLatent = assignments.length / Math.max(1, dataSet.getInstances().size());
+
+            for (int i = 0; i < dataSet.getInstances().size(); i++) {
+                DiscreteDataInstance instance = dataSet.getInstances().get(i);
+                int[] values = instance.getNumericValues();
+                int weight = dataSet.getWeight(instance);
+
+                for (int v = 0; v < nodes.size(); v++) {
+                    int index = offsets[v];
+                    for (int k = 0; k < sources[v].length; k++) {
+                        int source = sources[v][k];
+                        int state = source >= 0 ? values[source] : assignments[i * nLatent - source - 1];
+                        if (state == DiscreteData.MISSING_VALUE) {
+                            index = -1;
+                            break;
+                        }
+                        index += state * magnitudes[v][k];
+                    }
+
+                    if (index >= 0)
+                        counts[index] += weight;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package voltric.learning.parameter.em;
+
+import voltric.data.DiscreteData;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.util.EmCheckpoint;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.parameter.em.util.SufficientStatistics;
+import voltric.learning.score.LearningScore;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+
+import java.util.Collections;
+
+/**
+ * Incremental EM (Neal & Hinton, 1998): the instances are split into blocks that cache their contribution to the
+ * expected sufficient statistics. Each partial E-step recomputes the statistics of a single block, replaces its old
+ * contribution to the running totals and is immediately followed by an M-step, so the parameters are updated many
+ * times per pass over the data and the algorithm usually converges in far fewer passes than {@link ParallelEM}.
+ *
+ * <p>The E-step of a block is split among the workers of the pool as in {@link ParallelEM}. A step is a full pass over
+ * the blocks, and its log-likelihood is that of the cached statistics, which were computed with the parameters of the
+ * moment each block was visited. The totals are recomputed from the caches at the beginning of each pass, so the
+ * rounding errors of the updates do not accumulate.</p>
+ */
+public class IncrementalEM extends ParallelEM {
+
+    /** The default number of blocks. */
+    public static final int DEFAULT_BLOCKS = 10;
+
+    /** The number of blocks the instances are split into. */
+    private final int nBlocks;
+
+    public IncrementalEM() {
+        this(new EmConfig(), ScoreType.LogLikelihood);
+    }
+
+    public IncrementalEM(EmConfig config, ScoreType scoreType) {
+        this(config, scoreType, DEFAULT_BLOCKS);
+    }
+
+    public IncrementalEM(EmConfig config, ScoreType scoreType, int nBlocks) {
+        super(config, scoreType);
+
+        if (nBlocks < 1)
+            throw new IllegalArgumentException("The number of blocks must be positive");
+
+        this.nBlocks = nBlocks;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected LearningResult<DiscreteBayesNet> learnFrom(CliqueTreePropagationGroup ctps, DiscreteData dataSet) {
+        DiscreteBayesNet model = ctps.model;
+
+        int nInstances = dataSet.getInstances().size();
+        int nBlocks = Math.max(1, Math.min(this.nBlocks, nInstances));
+        SufficientStatistics layout = new SufficientStatistics(model, this.dontUpdateNodes);
+        SufficientStatistics[] blockStats = new SufficientStatistics[nBlocks];
+
+        // the first pass is a standard E-step that fills the cache of every block
+        EmStepTimer timer = startStepTimer();
+        for (int b = 0; b < nBlocks; b++)
+            blockStats[b] = computeBlockStatistics(ctps, dataSet, layout, b, nBlocks);
+
+        SufficientStatistics totals = sum(layout, blockStats);
+        if (timer != null)
+            timer.eStepFinished();
+        updateParameters(model, totals);
+        this.nSteps++;
+
+        double previousScore = LearningScore.calculateScore(dataSet, model, totals.getLogLikelihoodAlternative(), this.scoreType);
+        if (timer != null)
+            fireStepFinished(timer.finish(model, previousScore, totals.getLogLikelihoodAlternative(), nInstances));
+        double score;
+        double improvement;
+        do {
+            timer = startStepTimer();
+            totals = sum(layout, blockStats);
+
+            // each partial E-step replaces the contribution of its block and is followed by an M-step
+            for (int b = 0; b < nBlocks; b++) {
+                SufficientStatistics stats = computeBlockStatistics(ctps, dataSet, layout, b, nBlocks);
+                totals.subtract(blockStats[b]);
+                totals.add(stats);
+                blockStats[b] = stats;
+
+                if (timer != null)
+                    timer.eStepFinished();
+                updateParameters(model, totals);
+                if (timer != null)
+                    timer.mStepFinished();
+            }
+            this.nSteps++;
+
+            score = LearningScore.calculateScore(dataSet, model, totals.getLogLikelihoodAlternative(), this.scoreType);
+            if (timer != null)
+                fireStepFinished(timer.finish(model, score, totals.getLogLikelihoodAlternative(), nInstances));
+            improvement = score - previousScore;
+            previousScore = score;
+
+            if (isCheckpointDue(this.nSteps))
+                saveCheckpoint(EmCheckpoint.create(EmCheckpoint.Stage.MAIN, Collections.singletonList(model),
+                        new double[]{previousScore}, this.nSteps, 0));
+        } while (improvement > this.threshold
+                && this.nSteps < this.nMaxSteps);
+
+        return new LearningResult<>(model, score, this.scoreType);
+    }
+
+    /**
+     * The caches of the blocks are not checkpointed, so the first pass after resuming is a standard E-step that fills
+     * them again, and the improvement is measured against its score.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected LearningResult<DiscreteBayesNet> continueFrom(CliqueTreePropagationGroup ctps, DiscreteData dataSet, double previousScore) {
+        return learnFrom(ctps, dataSet);
+    }
+
+    public int getnBlocks() {
+        return nBlocks;
+    }
+
+    private SufficientStatistics computeBlockStatistics(CliqueTreePropagationGroup ctps, DiscreteData dataSet,
+                                                        SufficientStatistics layout, int block, int nBlocks) {
+        int nInstances = dataSet.getInstances().size();
+        int start = (int) ((long) block * nInstances / nBlocks);
+        int end = (int) ((long) (block + 1) * nInstances / nBlocks);
+        return computeStatistics(ctps, dataSet, layout, start, end - start);
+    }
+
+    private static SufficientStatistics sum(SufficientStatistics layout, SufficientStatistics[] blockStats) {
+        SufficientStatistics totals = layout.createEmpty();
+        for (SufficientStatistics stats : blockStats)
+            totals.add(stats);
+        return totals;
+    }
+}
@@ -7,6 +7,7 @@ import voltric.learning.LearningResult;
 import voltric.learning.parameter.em.config.LocalEmConfig;
 import voltric.learning.parameter.em.initialization.ChickeringHeckerman;
 import voltric.learning.parameter.em.initialization.MultipleRestarts;
+import voltric.learning.parameter.em.util.EmStepTimer;
 import voltric.learning.parameter.em.util.MessagesForLocalEM;
 import voltric.learning.score.LearningScore;
 import voltric.learning.score.ScoreType;
@@ -86,6 +87,7 @@ public class LocalEM extends AbstractSequentialEM{
     @Override
     protected double emStep(CliqueTreePropagation ctp, DiscreteData dataSet) {
         DiscreteBayesNet bayesNet = ctp.getBayesNet();
+        EmStepTimer timer = startStepTimer();
         HashMap<DiscreteVariable, Function> suffStats = new HashMap<DiscreteVariable, Function>();
         double loglikelihood = 0.0;
 
@@ -117,6 +119,9 @@ public class LocalEM extends AbstractSequentialEM{
             loglikelihood += Math.log(likelihood) * weight;
         }
 
+        if (timer != null)
+            timer.eStepFinished();
+
         // updates parameters
         for (DiscreteVariable var : this.mutableVars) {
             Function cpt = suffStats.get(var);
@@ -124,7 +129,12 @@ public class LocalEM extends AbstractSequentialEM{
             bayesNet.getNode(var).setCpt(cpt);
         }
 
-        return LearningScore.calculateScore(dataSet, bayesNet, loglikelihood, this.scoreType);
+        double score = LearningScore.calculateScore(dataSet, bayesNet, loglikelihood, this.scoreType);
+
+        if (timer != null)
+            fireStepFinished(timer.finish(bayesNet, score, loglikelihood, dataSet.getInstances().size()));
+
+        return score;
     }
 
     /** {@inheritDoc} */
@@ -136,7 +146,7 @@ public class LocalEM extends AbstractSequentialEM{
         double[] currentScore = new double[this.nRestarts];
 
         for (int i = 0; i < this.nRestarts; i++) {
-            DiscreteBayesNet bayesNetCopy = bayesNet.clone();
+            DiscreteBayesNet bayesNetCopy = bayesNet.copyWithParameters();
 
             // finds mutable nodes in new BN
             ArrayList<DiscreteBeliefNode> mutableNodesCopy = new ArrayList<>();
@@ -150,8 +160,7 @@ public class LocalEM extends AbstractSequentialEM{
                 bayesNetCopy.randomlyParameterize(mutableNodesCopy);
             }
 
-            ctps[i] = this.templateCtp.clone();
-            ctps[i].setBayesNet(bayesNetCopy);
+            ctps[i] = this.templateCtp.clone(bayesNetCopy);
         }
 
         // We run several steps of emStep before killing starting points for two reasons:
@@ -221,7 +230,7 @@ public class LocalEM extends AbstractSequentialEM{
         double[] currentScore = new double[this.nRestarts];
 
         for (int i = 0; i < this.nRestarts; i++) {
-            DiscreteBayesNet bayesNetCopy = bayesNet.clone();
+            DiscreteBayesNet bayesNetCopy = bayesNet.copyWithParameters();
 
             // finds mutable nodes in new BN
             ArrayList<DiscreteBeliefNode> mutableNodesCopy = new ArrayList<>();
@@ -235,8 +244,7 @@ public class LocalEM extends AbstractSequentialEM{
                 bayesNetCopy.randomlyParameterize(mutableNodesCopy);
             }
 
-            ctps[i] = this.templateCtp.clone();
-            ctps[i].setBayesNet(bayesNetCopy);
+            ctps[i] = this.templateCtp.clone(bayesNetCopy);
         }
 
         this.nSteps += multipleRestarts.getNumInitIterations();
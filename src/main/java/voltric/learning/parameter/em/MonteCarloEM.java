@@ -0,0 +1,80 @@
+package voltric.learning.parameter.em;
+
+import voltric.inference.CliqueTreePropagation;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.inference.GibbsSampling;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo EM: a {@link ParallelEM} whose E-step estimates the expected sufficient statistics by Gibbs sampling
+ * instead of exact propagation. It is meant for large, dense latent models whose clique trees are too expensive.
+ *
+ * <p>Each worker thread runs its own chain with its own generator (see {@link GibbsSampling#copy}), and the expected
+ * counts of the threads are merged by the fork-join reduction of {@link ParallelEM}, so no locks are involved. Since
+ * the scores are estimates, the convergence threshold should be larger than the one used for exact EM.</p>
+ */
+public class MonteCarloEM extends ParallelEM {
+
+    /** The number of sweeps used for estimation for each data instance */
+    private final int nSamples;
+
+    /** The number of sweeps discarded for each data instance */
+    private final int burnIn;
+
+    /** Seeds the generator of each candidate model */
+    private final SplittableRandom seeds;
+
+    public MonteCarloEM() {
+        this(new EmConfig(), ScoreType.LogLikelihood);
+    }
+
+    public MonteCarloEM(EmConfig config, ScoreType scoreType) {
+        this(config, scoreType, GibbsSampling.DEFAULT_SAMPLES, GibbsSampling.DEFAULT_BURN_IN);
+    }
+
+    public MonteCarloEM(EmConfig config, ScoreType scoreType, int nSamples, int burnIn) {
+        this(config, scoreType, nSamples, burnIn, new SplittableRandom());
+    }
+
+    public MonteCarloEM(EmConfig config, ScoreType scoreType, int nSamples, int burnIn, long seed) {
+        this(config, scoreType, nSamples, burnIn, new SplittableRandom(seed));
+    }
+
+    private MonteCarloEM(EmConfig config, ScoreType scoreType, int nSamples, int burnIn, SplittableRandom seeds) {
+        super(config, scoreType);
+
+        if (nSamples < 1)
+            throw new IllegalArgumentException("The number of samples must be positive");
+
+        if (burnIn < 0)
+            throw new IllegalArgumentException("The burn-in cannot be negative");
+
+        this.nSamples = nSamples;
+        this.burnIn = burnIn;
+        this.seeds = seeds;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected CliqueTreePropagationGroup createCtps(DiscreteBayesNet model) {
+        return CliqueTreePropagationGroup.constructFromFactory(model,
+                m -> new CliqueTreePropagation(m, new GibbsSampling(m, nSamples, burnIn, nextSeed())),
+                getForkJoinPool().getParallelism());
+    }
+
+    private synchronized long nextSeed() {
+        return seeds.nextLong();
+    }
+
+    public int getnSamples() {
+        return nSamples;
+    }
+
+    public int getBurnIn() {
+        return burnIn;
+    }
+}
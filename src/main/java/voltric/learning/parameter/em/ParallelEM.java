@@ -1,15 +1,21 @@
 package voltric.learning.parameter.em;
 
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import voltric.data.DiscreteData;
 import voltric.data.DiscreteDataInstance;
 import voltric.graph.AbstractNode;
 import voltric.inference.CliqueTreePropagation;
 import voltric.inference.CliqueTreePropagationGroup;
 import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmAcceleration;
 import voltric.learning.parameter.em.config.EmConfig;
 import voltric.learning.parameter.em.initialization.ChickeringHeckerman;
 import voltric.learning.parameter.em.initialization.MultipleRestarts;
+import voltric.learning.parameter.em.util.ChickeringHeckermanTournament;
+import voltric.learning.parameter.em.util.EmCheckpoint;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.parameter.em.util.ParallelEStep;
+import voltric.learning.parameter.em.util.RestartPortfolio;
+import voltric.learning.parameter.em.util.SufficientStatistics;
 import voltric.learning.score.LearningScore;
 import voltric.learning.score.ScoreType;
 import voltric.model.DiscreteBayesNet;
@@ -17,17 +23,19 @@ import voltric.model.DiscreteBeliefNode;
 import voltric.potential.Function;
 import voltric.variables.DiscreteVariable;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by fernando on 1/04/17.
  */
-public class ParallelEM extends AbstractParallelEM {
-
-    private static ForkJoinPool threadPool = null;
+public class ParallelEM extends AbstractParallelEM implements Resumable {
 
     public ParallelEM(){
         super();
@@ -46,21 +54,127 @@ public class ParallelEM extends AbstractParallelEM {
 
         // resets the number of EM steps
         this.nSteps = 0;
+        this.nStepsSaved = 0;
+        this.lastCheckpointSteps = 0;
 
         // selects a good starting point
         CliqueTreePropagationGroup ctps = emStart(bayesNet, dataSet);
 
+        return learnFrom(ctps, dataSet);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The statistics of the E-step are reduced in a fixed order, so a resumed process gives the same result as an
+     * uninterrupted one on a pool with the same parallelism.</p>
+     */
+    @Override
+    public LearningResult<DiscreteBayesNet> resume(DiscreteBayesNet bayesNet, DiscreteData dataSet, Path checkpointFile) {
+        EmCheckpoint checkpoint;
+        try {
+            checkpoint = EmCheckpoint.read(checkpointFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if(!dataSet.getVariables().containsAll(bayesNet.getManifestVariables()))
+            throw new IllegalArgumentException("The Data set must contain all the manifest variables present in the Bayes net");
+
+        this.nSteps = checkpoint.getnSteps();
+        this.nStepsSaved = 0;
+        this.lastCheckpointSteps = this.nSteps;
+        return resume(bayesNet, dataSet, checkpoint);
+    }
+
+    /**
+     * Resumes the restart strategy or the main loop, once the number of steps has been restored. The accelerated steps
+     * are not checkpointed, so a process that uses {@link EmAcceleration#SQUAREM} resumes from the last round of its
+     * restart strategy.
+     *
+     * @param bayesNet a Bayes net with the structure of the one being learned.
+     * @param dataSet the data set.
+     * @param checkpoint the checkpoint.
+     * @return the learned BN and its score.
+     */
+    protected LearningResult<DiscreteBayesNet> resume(DiscreteBayesNet bayesNet, DiscreteData dataSet, EmCheckpoint checkpoint) {
+        List<CliqueTreePropagationGroup> ctps = new ArrayList<>();
+        for (DiscreteBayesNet model : checkpoint.restore(bayesNet))
+            ctps.add(createCtps(model));
+
+        switch (checkpoint.getStage()) {
+            case MAIN:
+                return continueFrom(ctps.get(0), dataSet, checkpoint.getScores()[0]);
+
+            case CHICKERING_HECKERMAN: {
+                if (!(this.initializationMethod instanceof ChickeringHeckerman))
+                    throw new IllegalArgumentException("The checkpoint was saved by another initialization method");
+
+                ChickeringHeckermanTournament<CliqueTreePropagationGroup> tournament = createTournament(dataSet);
+                CliqueTreePropagationGroup best = tournament.resume(ctps, checkpoint.getScores(), this.nSteps, checkpoint.getProgress());
+                this.nSteps = tournament.getNumberOfSteps();
+                return learnFrom(best, dataSet);
+            }
+
+            case MULTIPLE_RESTARTS: {
+                if (!(this.initializationMethod instanceof MultipleRestarts))
+                    throw new IllegalArgumentException("The checkpoint was saved by another initialization method");
+
+                RestartPortfolio<CliqueTreePropagationGroup> portfolio = createPortfolio(dataSet);
+                CliqueTreePropagationGroup best = portfolio.resume(ctps, checkpoint.getScores(),
+                        (MultipleRestarts) this.initializationMethod, this.nSteps, checkpoint.getProgress());
+                this.nSteps = portfolio.getNumberOfSteps();
+                return learnFrom(best, dataSet);
+            }
+
+            default:
+                throw new IllegalArgumentException("Unknown checkpoint stage " + checkpoint.getStage());
+        }
+    }
+
+    /**
+     * Runs EM steps from the starting point selected by the restart strategy until convergence.
+     *
+     * @param ctps the CTPs of the starting point.
+     * @param dataSet the data set.
+     * @return the learned BN and its score.
+     */
+    protected LearningResult<DiscreteBayesNet> learnFrom(CliqueTreePropagationGroup ctps, DiscreteData dataSet) {
+        if (this.acceleration == EmAcceleration.SQUAREM) {
+            double score = runAccelerated(ctps.model, () -> emStep(ctps, dataSet));
+            return new LearningResult<>(ctps.model, score, this.scoreType);
+        }
+
         double previousScore = emStep(ctps, dataSet);
         this.nSteps++;
 
-        // runs EM steps until convergence
-        //TODO: Esta mal implementado. El loop no coincide con el EM
+        return continueFrom(ctps, dataSet, previousScore);
+    }
+
+    /**
+     * Runs the EM steps of the main loop until convergence, saving checkpoints along the way.
+     *
+     * @param ctps the CTPs of the model being learned.
+     * @param dataSet the data set.
+     * @param previousScore the score the improvement is measured against.
+     * @return the learned BN and its score.
+     */
+    protected LearningResult<DiscreteBayesNet> continueFrom(CliqueTreePropagationGroup ctps, DiscreteData dataSet, double previousScore) {
+        // runs EM steps until the improvement over the previous step falls below the threshold
         double score;
+        boolean converged;
         do {
             score = emStep(ctps, dataSet);
             this.nSteps++;
-        } while (score - previousScore > this.threshold
-                && this.nSteps < this.nMaxSteps);
+
+            converged = score - previousScore <= this.threshold;
+            previousScore = score;
+
+            // the checkpoint holds the score the next step is measured against
+            if (isCheckpointDue(this.nSteps))
+                saveCheckpoint(EmCheckpoint.create(EmCheckpoint.Stage.MAIN, Collections.singletonList(ctps.model),
+                        new double[]{previousScore}, this.nSteps, 0));
+        } while (!converged && this.nSteps < this.nMaxSteps);
 
         return new LearningResult<>(ctps.model, score, this.scoreType);
     }
@@ -68,20 +182,61 @@ public class ParallelEM extends AbstractParallelEM {
     /** {@inheritDoc} */
     @Override
     protected double emStep(CliqueTreePropagationGroup ctps, DiscreteData dataSet) {
-        ForkComputation.Context context = new ForkComputation.Context(dataSet, ctps, this.dontUpdateNodes);
+        EmStepTimer timer = startStepTimer();
+
+        SufficientStatistics layout = new SufficientStatistics(ctps.model, this.dontUpdateNodes);
+        SufficientStatistics suffStats = computeStatistics(ctps, dataSet, layout, 0, dataSet.getInstances().size());
 
-        ForkComputation computation = new ForkComputation(context, 0, dataSet.getInstances().size());
-        getForkJoinPool().invoke(computation);
+        if (timer != null)
+            timer.eStepFinished();
 
         // updates parameters
-        for (AbstractNode node : ctps.model.getNodes()) {
-            DiscreteBeliefNode bNode = (DiscreteBeliefNode) node;
+        updateParameters(ctps.model, suffStats);
+
+        if (Math.abs(suffStats.getLogLikelihood()
+                - suffStats.getLogLikelihoodAlternative()) > 1e-6) {
+            warn(String.format(
+                    "Loglikelihood and Alternative loglikelihood do not match: %e vs %e. "
+                            + "Now it is using Alternative loglikelihood (%f).", suffStats.getLogLikelihood(),
+                    suffStats.getLogLikelihoodAlternative(), suffStats.getLogLikelihoodAlternative()));
+        }
+
+        double score = LearningScore.calculateScore(dataSet, ctps.model, suffStats.getLogLikelihoodAlternative(), this.scoreType);
 
-            if (this.dontUpdateNodes != null
-                    && this.dontUpdateNodes.contains(bNode.getName()))
-                continue;
+        if (timer != null)
+            fireStepFinished(timer.finish(ctps.model, score, suffStats.getLogLikelihoodAlternative(), dataSet.getInstances().size()));
 
-            Function cpt = computation.suffStats.get(bNode.getVariable());
+        return score;
+    }
+    
+    /**
+     * Computes the expected sufficient statistics of a range of instances in parallel with {@link ParallelEStep},
+     * setting the evidence of each instance with {@link #setEvidence}.
+     *
+     * @param ctps the group of CTPs of the model.
+     * @param dataSet the data set.
+     * @param layout statistics with the layout of the model, which are not modified.
+     * @param start the index of the first instance.
+     * @param length the number of instances.
+     * @return the statistics of the instances.
+     */
+    protected SufficientStatistics computeStatistics(CliqueTreePropagationGroup ctps, DiscreteData dataSet,
+                                                     SufficientStatistics layout, int start, int length) {
+        return ParallelEStep.computeStatistics(ctps, dataSet, layout, start, length, this::setEvidence);
+    }
+
+    /**
+     * M-step: sets the CPTs of the model from the expected counts, adding 1 to each of them.
+     *
+     * @param model the model whose parameters are updated.
+     * @param suffStats the expected sufficient statistics.
+     */
+    protected void updateParameters(DiscreteBayesNet model, SufficientStatistics suffStats) {
+        List<DiscreteVariable> variables = suffStats.getVariables();
+        for (int v = 0; v < variables.size(); v++) {
+            DiscreteBeliefNode bNode = model.getNode(variables.get(v));
+
+            Function cpt = suffStats.createCounts(v, model);
             // Add 1 to each entry to avoid 0 probability By Peixian Chen
             for(int i=0; i<cpt.getDomainSize(); i++)
             {
@@ -90,32 +245,98 @@ public class ParallelEM extends AbstractParallelEM {
             cpt.normalize(bNode.getVariable());
             bNode.setCpt(cpt);
         }
+    }
 
+    /**
+     * Sets the evidence of a data instance on a CTP before it is propagated in the E-step.
+     *
+     * @param ctp the CTP of the worker thread.
+     * @param dataSet the data set.
+     * @param dataCase the data instance.
+     */
+    protected void setEvidence(CliqueTreePropagation ctp, DiscreteData dataSet, DiscreteDataInstance dataCase) {
+        ctp.setEvidence(dataSet.getVariables(), dataCase.getNumericValues());
+    }
 
-        if (Math.abs(computation.loglikelihood
-                - computation.loglikelihoodAlternative) > 1e-6) {
-            System.out.printf(
-                    "Loglikelihood and Alternative loglikelihood do not match: "
-                            + "%e vs %e\n", computation.loglikelihood,
-                    computation.loglikelihoodAlternative);
-            System.out.printf(
-                    "Now it is using Alternative loglikelihood (%f).\n",
-                    computation.loglikelihoodAlternative);
-        }
+    /** {@inheritDoc} */
+    @Override
+    protected CliqueTreePropagationGroup chickeringHeckermanRestart(DiscreteBayesNet bayesNet, DiscreteData dataSet, ChickeringHeckerman chickeringHeckermanConfig) {
+        // generates random starting points and CTPs for them
+        CliqueTreePropagationGroup[] ctps = createStartingPoints(bayesNet);
 
-        return LearningScore.calculateScore(dataSet, ctps.model, computation.loglikelihoodAlternative, this.scoreType);
+        // each round runs the candidates concurrently
+        ChickeringHeckermanTournament<CliqueTreePropagationGroup> tournament = createTournament(dataSet);
+        CliqueTreePropagationGroup best = tournament.run(Arrays.asList(ctps), chickeringHeckermanConfig.getNumInitIterations(), this.nSteps);
+        this.nSteps = tournament.getNumberOfSteps();
+
+        // returns the CTP for the best starting point
+        return best;
     }
-    
+
+    /**
+     * Creates the group of CTPs used to run inference on a candidate model, one CTP per worker thread.
+     *
+     * @param model the candidate model.
+     * @return the group of CTPs for {@code model}.
+     */
+    protected CliqueTreePropagationGroup createCtps(DiscreteBayesNet model) {
+        return CliqueTreePropagationGroup.constructFromModel(model, getForkJoinPool().getParallelism());
+    }
+
     /** {@inheritDoc} */
     @Override
-    protected CliqueTreePropagationGroup chickeringHeckermanRestart(DiscreteBayesNet bayesNet, DiscreteData dataSet, ChickeringHeckerman chickeringHeckermanConfig) {
+    protected CliqueTreePropagationGroup multipleRestarts(DiscreteBayesNet bayesNet, DiscreteData dataSet, MultipleRestarts multipleRestarts) {
         // generates random starting points and CTPs for them
+        CliqueTreePropagationGroup[] ctps = createStartingPoints(bayesNet);
+
+        // the restarts run concurrently and the hopeless ones are culled early
+        RestartPortfolio<CliqueTreePropagationGroup> portfolio = createPortfolio(dataSet);
+        CliqueTreePropagationGroup best = portfolio.run(Arrays.asList(ctps), multipleRestarts, this.nSteps);
+        this.nSteps = portfolio.getNumberOfSteps();
+
+        // returns the CTP for the best starting point
+        return best;
+    }
+
+    private ChickeringHeckermanTournament<CliqueTreePropagationGroup> createTournament(DiscreteData dataSet) {
+        ChickeringHeckermanTournament<CliqueTreePropagationGroup> tournament =
+                new ChickeringHeckermanTournament<>(getForkJoinPool(), group -> emStep(group, dataSet), this.threshold, this.nMaxSteps);
+        tournament.setListener((candidates, scores, nSteps, progress) ->
+                checkpointRestarts(EmCheckpoint.Stage.CHICKERING_HECKERMAN, candidates, scores, nSteps, progress));
+        return tournament;
+    }
+
+    private RestartPortfolio<CliqueTreePropagationGroup> createPortfolio(DiscreteData dataSet) {
+        RestartPortfolio<CliqueTreePropagationGroup> portfolio =
+                new RestartPortfolio<>(getForkJoinPool(), group -> emStep(group, dataSet), this.threshold, this.nMaxSteps);
+        portfolio.setListener((candidates, scores, nSteps, progress) ->
+                checkpointRestarts(EmCheckpoint.Stage.MULTIPLE_RESTARTS, candidates, scores, nSteps, progress));
+        return portfolio;
+    }
+
+    private void checkpointRestarts(EmCheckpoint.Stage stage, List<CliqueTreePropagationGroup> candidates,
+                                    double[] scores, int nSteps, int progress) {
+        if (!isCheckpointDue(nSteps))
+            return;
+
+        List<DiscreteBayesNet> models = new ArrayList<>(candidates.size());
+        for (CliqueTreePropagationGroup candidate : candidates)
+            models.add(candidate.model);
+        saveCheckpoint(EmCheckpoint.create(stage, models, scores, nSteps, progress));
+    }
+
+    /**
+     * Generates the random starting points of the restarts and the CTPs for them. If the parameters of the input BN are
+     * reused, it is the first starting point.
+     *
+     * @param bayesNet the input Bayes net.
+     * @return the CTPs of the starting points.
+     */
+    private CliqueTreePropagationGroup[] createStartingPoints(DiscreteBayesNet bayesNet) {
         CliqueTreePropagationGroup[] ctps = new CliqueTreePropagationGroup[this.nRestarts];
-        double[] lastStepScore = new double[this.nRestarts];
-        double[] currentScore = new double[this.nRestarts];
 
         for (int i = 0; i < this.nRestarts; i++) {
-            DiscreteBayesNet copy = bayesNet.clone();
+            DiscreteBayesNet copy = bayesNet.copyWithParameters();
 
             // in case we reuse the parameters of the input BN as a starting
             // point, we put it at the first place.
@@ -133,194 +354,13 @@ public class ParallelEM extends AbstractParallelEM {
                 }
             }
 
-            ctps[i] = CliqueTreePropagationGroup.constructFromModel(copy, getForkJoinPool().getParallelism());
+            ctps[i] = createCtps(copy);
         }
 
-        // We run several steps of emStep before killing starting points for two reasons:
-        // 1. the loglikelihood computed is always that of previous model.
-        // 2. When reuse, the reused model is kind of dominant because maybe it has already EMed.
-        this.nSteps += chickeringHeckermanConfig.getNumInitIterations();
-        for (int i = 0; i < this.nRestarts; i++) {
-            double score = 0;
-            for (int j = 0; j < chickeringHeckermanConfig.getNumInitIterations(); j++)
-                score = emStep(ctps[i], dataSet);
-
-            currentScore[i] = score;
-        }
-
-        // game starts, half ppl die in each round :-)
-        int nCandidates = this.nRestarts;
-        int nStepsPerRound = 1;
-
-        while (nCandidates > 1 && this.nSteps < this.nMaxSteps) {
-            // runs EM on all starting points for several steps
-            for (int j = 0; j < nStepsPerRound; j++) {
-                boolean noImprovements = true;
-                for (int i = 0; i < nCandidates; i++) {
-                    lastStepScore[i] = currentScore[i];
-                    currentScore[i] = emStep(ctps[i], dataSet);
-
-                    if(currentScore[i] - lastStepScore[i] >this.threshold || lastStepScore[i] == Double.NEGATIVE_INFINITY)
-                        noImprovements = false;
-                }
-                this.nSteps++;
-
-                if (noImprovements) {
-                    return ctps[0];
-                }
-            }
-
-            // sorts BNs in descending order with respect to loglikelihoods
-            for (int i = 0; i < nCandidates - 1; i++) {
-                for (int j = i + 1; j < nCandidates; j++) {
-                    if (currentScore[i] < currentScore[j]) {
-                        CliqueTreePropagationGroup tempCtp = ctps[i];
-                        ctps[i] = ctps[j];
-                        ctps[j] = tempCtp;
-
-                    }
-                }
-            }
-
-            // retains top half
-            nCandidates /= 2;
-
-            // doubles EM steps subject to maximum step constraint
-            nStepsPerRound = Math.min(nStepsPerRound * 2, this.nMaxSteps - this.nSteps);
-        }
-
-        // returns the CTP for the best starting point
-        return ctps[0];
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    protected CliqueTreePropagationGroup multipleRestarts(DiscreteBayesNet bayesNet, DiscreteData dataSet, MultipleRestarts multipleRestarts) {
-        throw new NotImplementedException();
-    }
-
-    @SuppressWarnings("serial")
-    private static class ForkComputation extends RecursiveAction {
-        public static class Context {
-            // input
-            public final DiscreteData data;
-            public final CliqueTreePropagationGroup ctps;
-            public final HashSet<String> nonUpdateNodes;
-            public final int splitThreshold;
-
-            public Context(DiscreteData data, CliqueTreePropagationGroup ctps,
-                           HashSet<String> nonUpdateNodes) {
-                this.data = data;
-                this.ctps = ctps;
-                this.nonUpdateNodes = nonUpdateNodes;
-                splitThreshold = (int) Math.ceil(data.getInstances().size() / (double) ctps.capacity);
-            }
-        }
-
-        private final Context context;
-        private final int start;
-        private final int length;
-
-        // the result object is assumed to be accessed by a single thread only.
-
-        // sufficient statistics for each node
-        public final HashMap<DiscreteVariable, Function> suffStats =
-                new HashMap<DiscreteVariable, Function>();
-        private double loglikelihood = 0;
-
-        // loglikelihood that is computed in an alternative way. In particular,
-        // log is applied during the propagation rather than after propagation
-        // to avoid zero likelihood.
-        private double loglikelihoodAlternative = 0;
-
-        public ForkComputation(Context context, int start, int length) {
-            this.context = context;
-            this.start = start;
-            this.length = length;
-        }
-
-        @Override
-        protected void compute() {
-            if (length <= context.splitThreshold) {
-                computeDirectly();
-                return;
-            }
-
-            int split = length / 2;
-            ForkComputation c1 = new ForkComputation(context, start, split);
-            ForkComputation c2 =
-                    new ForkComputation(context, start + split, length - split);
-            invokeAll(c1, c2);
-
-            loglikelihood = c1.loglikelihood + c2.loglikelihood;
-            loglikelihoodAlternative =
-                    c1.loglikelihoodAlternative + c2.loglikelihoodAlternative;
-
-            for (DiscreteVariable v : context.ctps.model.getVariables()) {
-                if (context.nonUpdateNodes != null
-                        && context.nonUpdateNodes.contains(v.getName()))
-                    continue;
-
-                addToSufficientStatistics(suffStats, v, c1.suffStats.get(v));
-                addToSufficientStatistics(suffStats, v, c2.suffStats.get(v));
-            }
-        }
-
-        private void computeDirectly() {
-            CliqueTreePropagation ctp = context.ctps.take();
-
-            // computes datum by datum
-            for (int i = start; i < start + length; i++) {
-                DiscreteDataInstance dataCase = context.data.getInstances().get(i);
-                double weight = context.data.getWeight(dataCase);
-
-                // sets evidences
-                ctp.setEvidence(context.data.getVariables(), dataCase.getNumericValues());
-
-                // propagates
-                double likelihoodDataCase = ctp.propagate();
-                double loglikelihoodAlternativeDataCase =
-                        ctp.getLastLogLikelihood();
-
-                if(likelihoodDataCase <= Double.MIN_NORMAL)
-                    throw new InternalError("likelihoodDataCase should be > Double.MIN_NORMAL");
-
-                // updates sufficient statistics for each node
-                for (DiscreteVariable var : context.ctps.model.getVariables()) {
-
-                    if (context.nonUpdateNodes != null
-                            && context.nonUpdateNodes.contains(var.getName()))
-                        continue;
-
-                    Function fracWeight = ctp.computeFamilyBelief(var);
-
-                    fracWeight.multiply(weight);
-
-                    addToSufficientStatistics(suffStats, var, fracWeight);
-                }
-
-                loglikelihood += Math.log(likelihoodDataCase) * weight;
-                loglikelihoodAlternative +=
-                        loglikelihoodAlternativeDataCase * weight;
-            }
-
-            context.ctps.put(ctp);
-        }
-
-        private static void addToSufficientStatistics(
-                HashMap<DiscreteVariable, Function> stats, DiscreteVariable variable, Function f) {
-            if (stats.containsKey(variable)) {
-                stats.get(variable).plus(f);
-            } else {
-                stats.put(variable, f);
-            }
-        }
+        return ctps;
     }
 
     protected static ForkJoinPool getForkJoinPool() {
-        if (threadPool == null)
-            threadPool = new ForkJoinPool();
-
-        return threadPool;
+        return ParallelEStep.getForkJoinPool();
     }
 }
@@ -1,7 +1,125 @@
 package voltric.learning.parameter.em;
 
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.inference.CliqueTreePropagation;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.LocalEmConfig;
+import voltric.learning.parameter.em.util.EmCheckpoint;
+import voltric.learning.parameter.em.util.MessagesForLocalEM;
+import voltric.learning.parameter.em.util.SufficientStatistics;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
- * Created by fernando on 4/04/17.
+ * Parallel version of {@link LocalEM}: the instances are split among the workers of the fork-join pool as in
+ * {@link ParallelEM}. Each worker uses its own clone of the template CTP, whose focused subtree receives the messages
+ * of the repository before each instance is propagated, and accumulates the statistics of the mutable variables only.
+ * The statistics of the workers are reduced once per step.
+ *
+ * <p>As in {@link LocalEM}, only the CPTs of the mutable variables are updated and they are normalized without
+ * smoothing, so both algorithms learn the same parameters from the same starting point. Both run until the threshold
+ * or the maximum number of steps is reached; the number of continued steps of the {@link LocalEmConfig} is not
+ * used.</p>
  */
-public class ParallelLocalEM {
+public class ParallelLocalEM extends ParallelEM {
+
+    /**
+     * A repository of messages, which must be prepared beforehand. It is only read during learning, so the workers
+     * share it.
+     */
+    private Map<DiscreteDataInstance, Set<MessagesForLocalEM>> repository;
+
+    /**
+     * Specify that in M-step, whose Cpt will be updated.
+     */
+    protected DiscreteVariable[] mutableVars;
+
+    /**
+     * A template Ctp. The useful information conveyed is the cliquetree, especially the focused subtree contained,
+     * which is cloned for each worker.
+     */
+    protected CliqueTreePropagation templateCtp;
+
+    public ParallelLocalEM(LocalEmConfig config, ScoreType scoreType) {
+        super(config, scoreType);
+        this.repository = config.getRepository();
+        this.mutableVars = config.getMutableVars();
+        this.templateCtp = config.getTemplateCtp();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, DiscreteData dataSet) {
+        fixImmutableNodes(bayesNet);
+        return super.learnModel(bayesNet, dataSet);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected LearningResult<DiscreteBayesNet> resume(DiscreteBayesNet bayesNet, DiscreteData dataSet, EmCheckpoint checkpoint) {
+        fixImmutableNodes(bayesNet);
+        return super.resume(bayesNet, dataSet, checkpoint);
+    }
+
+    /**
+     * Copies the messages of the instance from the repository into the focused subtree before setting its evidence.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setEvidence(CliqueTreePropagation ctp, DiscreteData dataSet, DiscreteDataInstance dataCase) {
+        ctp.getCliqueTree().copyInMsgsFrom(this.repository.get(dataCase));
+        super.setEvidence(ctp, dataSet, dataCase);
+    }
+
+    /**
+     * M-step: sets the CPTs of the mutable variables from the expected counts, without smoothing.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected void updateParameters(DiscreteBayesNet model, SufficientStatistics suffStats) {
+        List<DiscreteVariable> variables = suffStats.getVariables();
+        for (int v = 0; v < variables.size(); v++) {
+            Function cpt = suffStats.createCounts(v, model);
+            cpt.normalize(variables.get(v));
+            model.getNode(variables.get(v)).setCpt(cpt);
+        }
+    }
+
+    /**
+     * The nodes that are not mutable are not randomized, updated nor accumulated by the workers.
+     */
+    private void fixImmutableNodes(DiscreteBayesNet bayesNet) {
+        Set<DiscreteVariable> mutable = new HashSet<>();
+        for (DiscreteVariable var : this.mutableVars)
+            mutable.add(var);
+
+        HashSet<String> fixedNodes = new HashSet<>();
+        for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+            if (!mutable.contains(node.getVariable()))
+                fixedNodes.add(node.getName());
+        }
+        this.dontUpdateNodes = fixedNodes;
+    }
+
+    /**
+     * Creates a group whose CTPs are clones of the template CTP, so they keep its focused subtree.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected CliqueTreePropagationGroup createCtps(DiscreteBayesNet model) {
+        return CliqueTreePropagationGroup.constructFromTemplate(this.templateCtp, model, getForkJoinPool().getParallelism());
+    }
 }
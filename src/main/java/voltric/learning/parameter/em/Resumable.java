@@ -0,0 +1,28 @@
+package voltric.learning.parameter.em;
+
+import voltric.data.DiscreteData;
+import voltric.learning.LearningResult;
+import voltric.model.DiscreteBayesNet;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * An EM learner that saves checkpoints (see {@link voltric.learning.parameter.em.config.EmConfig#setCheckpointFile})
+ * and can resume from them.
+ */
+public interface Resumable {
+
+    /**
+     * Resumes a learning process from the checkpoint saved in a file, running the remaining steps as if it had not been
+     * interrupted. The configuration must be that of the interrupted process.
+     *
+     * @param bayesNet a Bayes net with the structure of the one being learned, e.g. the input BN of the interrupted
+     *                 process. It is not modified.
+     * @param dataSet the data set of the interrupted process.
+     * @param checkpointFile the file of the checkpoint.
+     * @return the learned BN and its score.
+     * @throws UncheckedIOException if the checkpoint cannot be read.
+     */
+    LearningResult<DiscreteBayesNet> resume(DiscreteBayesNet bayesNet, DiscreteData dataSet, Path checkpointFile);
+}
@@ -0,0 +1,311 @@
+package voltric.learning.parameter.em;
+
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.inference.CliqueTreePropagation;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.StochasticEmConfig;
+import voltric.learning.parameter.em.util.EmStepTimer;
+import voltric.learning.parameter.em.util.SufficientStatistics;
+import voltric.learning.score.LearningScore;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Online EM, which learns from a stream of mini-batches instead of the whole data set (Cappé & Moulines, 2009).
+ *
+ * <p>The E-step of each mini-batch computes its expected sufficient statistics per instance, and the running
+ * statistics are interpolated towards them with the step size rho_t = (t + tau)^-kappa. The M-step then sets the CPTs
+ * from the running statistics, so the memory does not depend on the number of instances and the model can keep
+ * being updated as new data arrives (see {@link #update(CliqueTreePropagation, DiscreteData)}).</p>
+ *
+ * <p>Every few mini-batches the score of a held-out sample is evaluated, and learning stops when its improvement per
+ * instance is not greater than the threshold. An in-memory data set is split into the held-out sample and the
+ * mini-batches, which are drawn from the rest of the instances with replacement.</p>
+ */
+public class StochasticEM extends AbstractEM {
+
+    private final int batchSize;
+
+    private final double forgettingRate;
+
+    private final double delay;
+
+    private final int evaluationInterval;
+
+    private final int heldOutSize;
+
+    private final double smoothing;
+
+    private final Random random;
+
+    /** The running statistics, whose layout is that of the model being learned. */
+    private SufficientStatistics runningStats;
+
+    /** The number of mini-batches the running statistics have been updated with. */
+    private int nUpdates;
+
+    public StochasticEM() {
+        this(new StochasticEmConfig(), ScoreType.LogLikelihood);
+    }
+
+    public StochasticEM(StochasticEmConfig config, ScoreType scoreType) {
+        super(config, scoreType);
+        this.batchSize = config.getBatchSize();
+        this.forgettingRate = config.getForgettingRate();
+        this.delay = config.getDelay();
+        this.evaluationInterval = config.getEvaluationInterval();
+        this.heldOutSize = config.getHeldOutSize();
+        this.smoothing = config.getSmoothing();
+        this.random = new Random(config.getSeed());
+    }
+
+    /**
+     * Learns the parameters from an in-memory data set, drawing the mini-batches and a held-out sample from it. The
+     * returned score is computed on the whole data set.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, DiscreteData dataSet) {
+
+        if(!dataSet.getVariables().containsAll(bayesNet.getManifestVariables()))
+            throw new IllegalArgumentException("The Data set must contain all the manifest variables present in the Bayes net");
+
+        List<DiscreteDataInstance> instances = dataSet.getInstances();
+        int[] weights = new int[instances.size()];
+        for (int i = 0; i < weights.length; i++)
+            weights[i] = dataSet.getWeight(instances.get(i));
+
+        // the held-out instances are removed from the ones the mini-batches are drawn from
+        int totalWeight = Arrays.stream(weights).sum();
+        DiscreteData heldOut = new DiscreteData(dataSet.getVariables());
+        for (int k = 0; k < Math.min(heldOutSize, totalWeight / 2); k++) {
+            int i = drawInstance(weights, random.nextInt(totalWeight));
+            heldOut.add(copyInstance(instances.get(i)));
+            weights[i]--;
+            totalWeight--;
+        }
+
+        long[] cumulativeWeights = new long[weights.length];
+        long sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulativeWeights[i] = sum;
+        }
+        long trainingWeight = sum;
+
+        Iterator<DiscreteData> miniBatches = new Iterator<DiscreteData>() {
+            @Override
+            public boolean hasNext() {
+                return trainingWeight > 0;
+            }
+
+            @Override
+            public DiscreteData next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                DiscreteData miniBatch = new DiscreteData(dataSet.getVariables());
+                for (int k = 0; k < batchSize; k++) {
+                    long u = (long) (random.nextDouble() * trainingWeight);
+                    miniBatch.add(copyInstance(instances.get(searchInstance(cumulativeWeights, u))));
+                }
+                return miniBatch;
+            }
+        };
+
+        LearningResult<DiscreteBayesNet> result = learnModel(bayesNet, miniBatches, heldOut);
+        DiscreteBayesNet model = result.getBayesianNetwork();
+        double logLikelihood = LearningScore.calculateLogLikelihood(dataSet, model);
+        return new LearningResult<>(model, LearningScore.calculateScore(dataSet, model, logLikelihood, this.scoreType), this.scoreType);
+    }
+
+    /**
+     * Learns the parameters from a stream of mini-batches, which may be larger than the memory. Learning stops when
+     * the held-out score converges, when the stream ends or when the maximum number of mini-batches is reached. The
+     * input BN is not modified.
+     *
+     * @param bayesNet the input Bayes net, whose parameters are the starting point if they are reused.
+     * @param miniBatches the mini-batches, each one with all the manifest variables of the BN.
+     * @param heldOut the held-out sample used to check the convergence, or {@code null} to learn until the stream ends.
+     * @return the learned BN and its score on the held-out sample, or {@code NaN} if there is none.
+     */
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, Iterator<DiscreteData> miniBatches, DiscreteData heldOut) {
+
+        if(heldOut != null && !heldOut.getVariables().containsAll(bayesNet.getManifestVariables()))
+            throw new IllegalArgumentException("The held-out sample must contain all the manifest variables present in the Bayes net");
+
+        // resets the number of EM steps, which are mini-batches
+        this.nSteps = 0;
+        reset();
+
+        DiscreteBayesNet model = bayesNet.copyWithParameters();
+        if (!this.reuse)
+            randomlyParameterize(model);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(model);
+        boolean evaluate = heldOut != null && heldOut.getTotalWeight() > 0;
+        double previousScore = evaluate ? computeScore(ctp, heldOut) : Double.NaN;
+        double score = previousScore;
+
+        while (this.nSteps < this.nMaxSteps && miniBatches.hasNext()) {
+            update(ctp, miniBatches.next());
+            this.nSteps++;
+
+            if (evaluate && this.nSteps % evaluationInterval == 0) {
+                score = computeScore(ctp, heldOut);
+                if ((score - previousScore) / heldOut.getTotalWeight() <= this.threshold)
+                    break;
+                previousScore = score;
+            }
+        }
+
+        if (evaluate && this.nSteps % evaluationInterval != 0)
+            score = computeScore(ctp, heldOut);
+
+        return new LearningResult<>(model, score, this.scoreType);
+    }
+
+    /**
+     * Updates the parameters of the CTP's BN with a mini-batch: its statistics are interpolated into the running ones
+     * and the CPTs are set from them. It can be called after learning to keep updating the model with new data.
+     *
+     * @param ctp the CTP of the BN being learned.
+     * @param miniBatch the mini-batch.
+     * @return the log-likelihood of the mini-batch before the update.
+     */
+    public double update(CliqueTreePropagation ctp, DiscreteData miniBatch) {
+        DiscreteBayesNet model = ctp.getBayesNet();
+
+        if(!miniBatch.getVariables().containsAll(model.getManifestVariables()))
+            throw new IllegalArgumentException("The mini-batch must contain all the manifest variables present in the Bayes net");
+
+        double batchWeight = miniBatch.getTotalWeight();
+        if (batchWeight <= 0)
+            return 0;
+
+        if (runningStats == null)
+            runningStats = new SufficientStatistics(model, this.dontUpdateNodes);
+
+        // E-step on the mini-batch
+        EmStepTimer timer = startStepTimer();
+        SufficientStatistics batchStats = runningStats.createEmpty();
+        for (DiscreteDataInstance dataInstance : miniBatch.getInstances()) {
+            double weight = miniBatch.getWeight(dataInstance);
+
+            ctp.setEvidence(miniBatch.getVariables(), dataInstance.getNumericValues());
+            double likelihoodDataCase = ctp.propagate();
+            batchStats.addInstance(ctp, weight, likelihoodDataCase);
+        }
+        double logLikelihood = batchStats.getLogLikelihoodAlternative();
+
+        // moves the running statistics, which are per instance, towards those of the mini-batch
+        double stepSize = Math.pow(nUpdates + delay, -forgettingRate);
+        runningStats.scale(1 - stepSize);
+        batchStats.scale(stepSize / batchWeight);
+        runningStats.add(batchStats);
+        nUpdates++;
+
+        if (timer != null)
+            timer.eStepFinished();
+
+        // M-step
+        List<DiscreteVariable> variables = runningStats.getVariables();
+        for (int v = 0; v < variables.size(); v++) {
+            DiscreteBeliefNode node = model.getNode(variables.get(v));
+
+            Function cpt = runningStats.createCounts(v, model);
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] += smoothing;
+            cpt.normalize(node.getVariable());
+            node.setCpt(cpt);
+        }
+
+        // the score of a mini-batch is its log-likelihood, since the penalties depend on the size of the whole data
+        if (timer != null)
+            fireStepFinished(timer.finish(model, logLikelihood, logLikelihood, miniBatch.getInstances().size()));
+
+        return logLikelihood;
+    }
+
+    /**
+     * Forgets the running statistics, so the next update starts a new learning process.
+     */
+    public void reset() {
+        this.runningStats = null;
+        this.nUpdates = 0;
+    }
+
+    /**
+     * Returns the number of mini-batches the current model has been updated with.
+     *
+     * @return the number of updates since the last reset.
+     */
+    public int getNumberOfUpdates() {
+        return nUpdates;
+    }
+
+    private double computeScore(CliqueTreePropagation ctp, DiscreteData data) {
+        double logLikelihood = 0;
+        for (DiscreteDataInstance dataInstance : data.getInstances()) {
+            ctp.setEvidence(data.getVariables(), dataInstance.getNumericValues());
+            ctp.propagate();
+            logLikelihood += ctp.getLastLogLikelihood() * data.getWeight(dataInstance);
+        }
+        return LearningScore.calculateScore(data, ctp.getBayesNet(), logLikelihood, this.scoreType);
+    }
+
+    private void randomlyParameterize(DiscreteBayesNet model) {
+        if (this.dontUpdateNodes == null) {
+            model.randomlyParameterize();
+            return;
+        }
+
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            if (!this.dontUpdateNodes.contains(node.getName())) {
+                Function cpt = node.getCpt();
+                cpt.randomlyDistribute(node.getVariable());
+                node.setCpt(cpt);
+            }
+        }
+    }
+
+    /** Returns the index of the instance that contains the unit of weight {@code u}. */
+    private static int drawInstance(int[] weights, int u) {
+        int i = 0;
+        while (u >= weights[i]) {
+            u -= weights[i];
+            i++;
+        }
+        return i;
+    }
+
+    /** Returns the first index whose cumulative weight is greater than {@code u}, skipping the instances without weight. */
+    private static int searchInstance(long[] cumulativeWeights, long u) {
+        int low = 0, high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeWeights[middle] > u)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+
+    /** The instances of a data set belong to it, so they are copied into the mini-batches. */
+    private static DiscreteDataInstance copyInstance(DiscreteDataInstance instance) {
+        return new DiscreteDataInstance(instance.getNumericValues().clone());
+    }
+}
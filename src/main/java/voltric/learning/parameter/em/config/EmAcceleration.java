@@ -0,0 +1,17 @@
+package voltric.learning.parameter.em.config;
+
+/**
+ * The acceleration schemes of the EM algorithm.
+ */
+public enum EmAcceleration {
+
+    /** Plain EM steps. */
+    NONE,
+
+    /**
+     * Squared iterative methods (Varadhan & Roland, 2008): two EM steps are extrapolated along the squared direction
+     * of convergence, and the extrapolated parameters are stabilized with another EM step. The extrapolation is
+     * discarded if it decreases the score. See {@link voltric.learning.parameter.em.util.Squarem}.
+     */
+    SQUAREM
+}
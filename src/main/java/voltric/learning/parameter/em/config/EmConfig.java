@@ -3,6 +3,7 @@ package voltric.learning.parameter.em.config;
 import voltric.learning.parameter.em.initialization.ChickeringHeckerman;
 import voltric.learning.parameter.em.initialization.EmInitialization;
 
+import java.nio.file.Path;
 import java.util.HashSet;
 
 /**
@@ -28,6 +29,15 @@ public class EmConfig {
     /** The collection of nodes that shouldnt be updated by the EM algorithm */
     protected HashSet<String> dontUpdateNodes;
 
+    /** The scheme used to accelerate the convergence of the EM steps */
+    protected EmAcceleration acceleration = EmAcceleration.NONE;
+
+    /** The file where the state of the algorithm is periodically saved, or {@code null} not to save it */
+    protected Path checkpointFile = null;
+
+    /** The minimum number of EM steps between two checkpoints */
+    protected int checkpointInterval = 10;
+
     public EmConfig(){
         this.nRestarts = 64;
         this.threshold = 1e-4;
@@ -101,4 +111,32 @@ public class EmConfig {
     public void setDontUpdateNodes(HashSet<String> dontUpdateNodes) {
         this.dontUpdateNodes = dontUpdateNodes;
     }
+
+    public EmAcceleration getAcceleration() {
+        return acceleration;
+    }
+
+    public void setAcceleration(EmAcceleration acceleration) {
+        if (acceleration == null)
+            throw new IllegalArgumentException("The acceleration cannot be null");
+        this.acceleration = acceleration;
+    }
+
+    public Path getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    public void setCheckpointFile(Path checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be positive");
+        this.checkpointInterval = checkpointInterval;
+    }
 }
@@ -0,0 +1,116 @@
+package voltric.learning.parameter.em.config;
+
+/**
+ * Configuration of {@link voltric.learning.parameter.em.StochasticEM}. The inherited maximum number of steps is the
+ * maximum number of mini-batches, and the threshold is the minimum improvement of the held-out score per instance
+ * between two evaluations. The number of restarts and the initialization method are not used: if the parameters of
+ * the input BN are not reused, they are randomly initialized once.
+ */
+public class StochasticEmConfig extends EmConfig {
+
+    /** The number of instances of each mini-batch drawn from an in-memory data set. */
+    protected int batchSize = 256;
+
+    /**
+     * The exponent kappa of the step size rho_t = (t + tau)^-kappa of the t-th update. It must be in (0.5, 1] for the
+     * algorithm to converge, smaller values forget the old mini-batches faster.
+     */
+    protected double forgettingRate = 0.7;
+
+    /** The delay tau of the step size rho_t = (t + tau)^-kappa, at least 1, which dampens the first updates. */
+    protected double delay = 1;
+
+    /** The number of mini-batches between two evaluations of the held-out score. */
+    protected int evaluationInterval = 10;
+
+    /** The number of instances held out from an in-memory data set to check the convergence. */
+    protected int heldOutSize = 1000;
+
+    /** The expected count per instance added to each cell before normalizing, so no probability is 0. */
+    protected double smoothing = 1e-6;
+
+    /** The seed of the mini-batch sampling. */
+    protected long seed = 0;
+
+    public StochasticEmConfig(){
+        super();
+        this.reuse = false;
+        this.nMaxSteps = 10000;
+    }
+
+    public StochasticEmConfig(int batchSize, double forgettingRate, double delay, int evaluationInterval){
+        this();
+        setBatchSize(batchSize);
+        setForgettingRate(forgettingRate);
+        setDelay(delay);
+        setEvaluationInterval(evaluationInterval);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    public double getForgettingRate() {
+        return forgettingRate;
+    }
+
+    public void setForgettingRate(double forgettingRate) {
+        if (forgettingRate <= 0.5 || forgettingRate > 1)
+            throw new IllegalArgumentException("The forgetting rate must be in (0.5, 1]");
+        this.forgettingRate = forgettingRate;
+    }
+
+    public double getDelay() {
+        return delay;
+    }
+
+    public void setDelay(double delay) {
+        if (!(delay >= 1))
+            throw new IllegalArgumentException("The delay must be at least 1");
+        this.delay = delay;
+    }
+
+    public int getEvaluationInterval() {
+        return evaluationInterval;
+    }
+
+    public void setEvaluationInterval(int evaluationInterval) {
+        if (evaluationInterval < 1)
+            throw new IllegalArgumentException("The evaluation interval must be positive");
+        this.evaluationInterval = evaluationInterval;
+    }
+
+    public int getHeldOutSize() {
+        return heldOutSize;
+    }
+
+    public void setHeldOutSize(int heldOutSize) {
+        if (heldOutSize < 0)
+            throw new IllegalArgumentException("The held-out size cannot be negative");
+        this.heldOutSize = heldOutSize;
+    }
+
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    public void setSmoothing(double smoothing) {
+        if (!(smoothing >= 0))
+            throw new IllegalArgumentException("The smoothing cannot be negative");
+        this.smoothing = smoothing;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,33 @@
+package voltric.learning.parameter.em.distributed;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A worker of {@link voltric.learning.parameter.em.DistributedEM}, which holds a shard of the data and runs the
+ * E-step on it. Only primitive arrays are exchanged with the coordinator, laid out as described in
+ * {@link ModelStructure}, so the worker may live in another process or machine.
+ *
+ * <p>The coordinator calls the methods of a worker from a single thread at a time.</p>
+ */
+public interface EmWorker extends Closeable {
+
+    /**
+     * Prepares the worker for a model, which replaces the previous one.
+     *
+     * @param structure the structure of the model.
+     * @return the total weight of the instances of the shard.
+     * @throws IOException if the worker cannot be reached.
+     */
+    double initialize(ModelStructure structure) throws IOException;
+
+    /**
+     * Runs the E-step on the shard.
+     *
+     * @param parameters the cells of all the CPTs of the model.
+     * @param counts where the expected counts of the families that are updated are written.
+     * @return the log-likelihood of the shard with the argument parameters.
+     * @throws IOException if the worker cannot be reached.
+     */
+    double computeStatistics(double[] parameters, double[] counts) throws IOException;
+}
@@ -0,0 +1,240 @@
+package voltric.learning.parameter.em.distributed;
+
+import voltric.data.DiscreteData;
+import voltric.io.data.DataFileLoader;
+import voltric.learning.parameter.em.util.EmListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serves a data shard to the coordinators of {@link voltric.learning.parameter.em.DistributedEM}, which connect
+ * through a {@link SocketEmWorker}. The connections are served one after the other, each one by the E-step of a
+ * {@link ShardEStep}, which uses all the cores of the process.
+ *
+ * <p>The protocol has no authentication, so the server binds to the loopback interface unless another address is given,
+ * which should only be done on a trusted network. A request that fails, e.g. because the description of the model is
+ * inconsistent, is answered with an error and the connection goes on. A request that cannot be parsed, e.g. of an
+ * unknown type, closes its connection, and the server goes on with the next one. So does a coordinator that sends
+ * nothing for longer than the read timeout, since the connections are served one after the other. The problems are
+ * reported to the {@link EmListener}s of the server, or to the standard error if there are none.</p>
+ *
+ * <p>It can be run as a program with the path of the shard, the port and optionally the bind address as arguments.</p>
+ */
+public final class EmWorkerServer implements Closeable {
+
+    private final DiscreteData shard;
+
+    private final ServerSocket serverSocket;
+
+    /** The default time a connection may stay silent before it is closed, in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT = 60_000;
+
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    private final List<EmListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a server bound to the loopback interface. It does not accept connections until {@link #start()} or
+     * {@link #serve()}.
+     *
+     * @param shard the data shard.
+     * @param port the port, or 0 to use any free port (see {@link #getPort()}).
+     */
+    public EmWorkerServer(DiscreteData shard, int port) throws IOException {
+        this(shard, port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Creates a server bound to the argument address. It does not accept connections until {@link #start()} or
+     * {@link #serve()}.
+     *
+     * @param shard the data shard.
+     * @param port the port, or 0 to use any free port (see {@link #getPort()}).
+     * @param bindAddress the local address, or {@code null} for all the interfaces.
+     */
+    public EmWorkerServer(DiscreteData shard, int port, InetAddress bindAddress) throws IOException {
+        this.shard = shard;
+        this.serverSocket = new ServerSocket(port, 0, bindAddress);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: EmWorkerServer <data file> <port> [bind address]");
+            System.exit(1);
+        }
+
+        DiscreteData shard = DataFileLoader.loadDiscreteData(args[0]);
+        InetAddress bindAddress = args.length == 3 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        try (EmWorkerServer server = new EmWorkerServer(shard, Integer.parseInt(args[1]), bindAddress)) {
+            System.out.println("Serving " + shard.getInstances().size() + " instances on "
+                    + bindAddress.getHostAddress() + ":" + server.getPort());
+            server.serve();
+        }
+    }
+
+    /**
+     * Serves connections in a new daemon thread until the server is closed.
+     */
+    public void start() {
+        Thread thread = new Thread(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                if (!closed)
+                    warn("The server on port " + getPort() + " stopped: " + e);
+            }
+        }, "em-worker-server-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Serves connections in the calling thread until the server is closed.
+     */
+    public void serve() throws IOException {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (closed)
+                    return;
+                throw e;
+            }
+
+            try (Socket connection = socket) {
+                connection.setTcpNoDelay(true);
+                connection.setSoTimeout(readTimeout);
+                serve(connection);
+            } catch (EOFException e) {
+                // the coordinator went away without closing the worker
+            } catch (IOException e) {
+                // the connection is out of sync or broken, which does not concern the next ones
+                if (closed)
+                    return;
+                warn("Closing the connection of " + socket.getRemoteSocketAddress() + ": " + e);
+            }
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the time a connection may stay silent, waiting for a request or for the rest of one, before it is closed. It
+     * applies to the connections accepted afterwards.
+     *
+     * @param readTimeout the timeout in milliseconds, or 0 to wait forever.
+     */
+    public void setReadTimeout(int readTimeout) {
+        if (readTimeout < 0)
+            throw new IllegalArgumentException("The read timeout cannot be negative");
+
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Adds an observer of the problems of the server, which only receives {@link EmListener#warning(String)}.
+     *
+     * @param listener the listener.
+     */
+    public void addListener(EmListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("The listener cannot be null");
+
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes an observer added with {@link #addListener}.
+     *
+     * @param listener the listener.
+     */
+    public void removeListener(EmListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Stops accepting connections. The connection in progress, if any, is served until the coordinator closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    private void warn(String message) {
+        if (this.listeners.isEmpty()) {
+            System.err.println(message);
+            return;
+        }
+
+        for (EmListener listener : this.listeners)
+            listener.warning(message);
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        ShardEStep eStep = null;
+
+        while (true) {
+            byte request = in.readByte();
+            if (request == Protocol.CLOSE)
+                return;
+
+            try {
+                switch (request) {
+                    case Protocol.INITIALIZE:
+                        ModelStructure structure = ModelStructure.read(in);
+                        eStep = null;
+                        eStep = new ShardEStep(structure, shard);
+                        out.writeByte(Protocol.OK);
+                        out.writeDouble(eStep.getTotalWeight());
+                        break;
+
+                    case Protocol.COMPUTE_STATISTICS:
+                        if (eStep == null) {
+                            Protocol.skipDoubles(in);
+                            throw new IllegalStateException("The worker has not been initialized");
+                        }
+
+                        double[] parameters = Protocol.readDoubles(in, eStep.getNumberOfParameters());
+                        double[] counts = new double[eStep.getNumberOfStatistics()];
+                        double logLikelihood = eStep.computeStatistics(parameters, counts);
+                        out.writeByte(Protocol.OK);
+                        Protocol.writeDoubles(out, counts);
+                        out.writeDouble(logLikelihood);
+                        break;
+
+                    default:
+                        throw new IOException("Unknown request " + request);
+                }
+            } catch (RuntimeException e) {
+                // the request was read completely, so the connection can go on
+                out.writeByte(Protocol.ERROR);
+                out.writeUTF(e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+            out.flush();
+        }
+    }
+}
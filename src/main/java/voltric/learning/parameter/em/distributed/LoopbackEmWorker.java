@@ -0,0 +1,40 @@
+package voltric.learning.parameter.em.distributed;
+
+import voltric.data.DiscreteData;
+
+/**
+ * A worker that runs in the coordinator's process, without serializing the arrays. It is mainly a stand-in for the
+ * remote workers when testing, but it can also be combined with them to use the coordinator's machine.
+ */
+public final class LoopbackEmWorker implements EmWorker {
+
+    private final DiscreteData shard;
+
+    private ShardEStep eStep;
+
+    public LoopbackEmWorker(DiscreteData shard) {
+        this.shard = shard;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double initialize(ModelStructure structure) {
+        this.eStep = new ShardEStep(structure, shard);
+        return eStep.getTotalWeight();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double computeStatistics(double[] parameters, double[] counts) {
+        if (eStep == null)
+            throw new IllegalStateException("The worker has not been initialized");
+
+        return eStep.computeStatistics(parameters, counts);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+        this.eStep = null;
+    }
+}
@@ -0,0 +1,162 @@
+package voltric.learning.parameter.em.distributed;
+
+import voltric.learning.parameter.em.util.CptLayout;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.modelTypes.VariableType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes the structure of a model by names, so it can be rebuilt by a worker in another process over the variables
+ * of its data shard. Variables are compared by their creation index, which differs between processes, and so does the
+ * layout of the CPTs; hence the description keeps the variables of each CPT in the order of the coordinator's layout,
+ * which defines the layout of the parameter and statistic arrays exchanged with the workers:
+ *
+ * <ul>
+ *     <li>The parameters are the cells of the CPTs of all the nodes, one after the other in the order of the nodes.</li>
+ *     <li>The statistics are the expected counts of the families of the nodes that are updated, laid out like their
+ *     CPTs in the same order.</li>
+ * </ul>
+ */
+public final class ModelStructure {
+
+    /** The description of a node. */
+    static final class Node {
+        final String name;
+        final boolean latent;
+        final List<String> states;
+        /** The names of the variables of the CPT, in the order of its layout (the first one is the most significant). */
+        final List<String> cptVariables;
+        final boolean updated;
+
+        Node(String name, boolean latent, List<String> states, List<String> cptVariables, boolean updated) {
+            this.name = name;
+            this.latent = latent;
+            this.states = states;
+            this.cptVariables = cptVariables;
+            this.updated = updated;
+        }
+    }
+
+    private final List<Node> nodes;
+
+    private final int nParameters;
+
+    private final int nStatistics;
+
+    private ModelStructure(List<Node> nodes, int nParameters, int nStatistics) {
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.nParameters = nParameters;
+        this.nStatistics = nStatistics;
+    }
+
+    /**
+     * Describes the structure of a model.
+     *
+     * @param model the model.
+     * @param dontUpdateNodes the names of the nodes whose CPTs are not updated, or {@code null}.
+     * @return the description of the structure of {@code model}.
+     */
+    public static ModelStructure describe(DiscreteBayesNet model, Set<String> dontUpdateNodes) {
+        List<Node> nodes = new ArrayList<>();
+        int nParameters = 0;
+        int nStatistics = 0;
+
+        for (DiscreteBeliefNode beliefNode : model.getNodes()) {
+            DiscreteVariable variable = beliefNode.getVariable();
+            List<String> cptVariables = CptLayout.getVariableNames(beliefNode.getCpt());
+
+            boolean updated = dontUpdateNodes == null || !dontUpdateNodes.contains(beliefNode.getName());
+            nodes.add(new Node(variable.getName(), variable.getType() == VariableType.LATENT_VARIABLE,
+                    new ArrayList<>(variable.getStates()), cptVariables, updated));
+
+            int domainSize = beliefNode.getCpt().getDomainSize();
+            nParameters += domainSize;
+            if (updated)
+                nStatistics += domainSize;
+        }
+
+        return new ModelStructure(nodes, nParameters, nStatistics);
+    }
+
+    /**
+     * Returns the length of the parameter arrays.
+     *
+     * @return the number of cells of all the CPTs.
+     */
+    public int getNumberOfParameters() {
+        return nParameters;
+    }
+
+    /**
+     * Returns the length of the statistic arrays.
+     *
+     * @return the number of cells of the CPTs that are updated.
+     */
+    public int getNumberOfStatistics() {
+        return nStatistics;
+    }
+
+    List<Node> getNodes() {
+        return nodes;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            out.writeUTF(node.name);
+            out.writeBoolean(node.latent);
+            out.writeBoolean(node.updated);
+            writeStrings(out, node.states);
+            writeStrings(out, node.cptVariables);
+        }
+        out.writeInt(nParameters);
+        out.writeInt(nStatistics);
+    }
+
+    static ModelStructure read(DataInputStream in) throws IOException {
+        int nNodes = readSize(in);
+        // the lists grow as the elements are read, so a corrupt size cannot allocate more than what is received
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < nNodes; i++) {
+            String name = in.readUTF();
+            boolean latent = in.readBoolean();
+            boolean updated = in.readBoolean();
+            List<String> states = readStrings(in);
+            List<String> cptVariables = readStrings(in);
+            nodes.add(new Node(name, latent, states, cptVariables, updated));
+        }
+        int nParameters = in.readInt();
+        int nStatistics = in.readInt();
+        return new ModelStructure(nodes, nParameters, nStatistics);
+    }
+
+    private static int readSize(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0)
+            throw new IOException("Invalid size " + size);
+        return size;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings)
+            out.writeUTF(string);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = readSize(in);
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+            strings.add(in.readUTF());
+        return strings;
+    }
+}
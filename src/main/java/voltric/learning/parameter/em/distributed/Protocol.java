@@ -0,0 +1,84 @@
+package voltric.learning.parameter.em.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * The messages between {@link SocketEmWorker} and {@link EmWorkerServer}. Each request starts with its type and each
+ * reply with its status; an error reply carries the message of the exception thrown by the worker.
+ */
+final class Protocol {
+
+    static final byte INITIALIZE = 1;
+
+    static final byte COMPUTE_STATISTICS = 2;
+
+    static final byte CLOSE = 3;
+
+    static final byte OK = 0;
+
+    static final byte ERROR = 1;
+
+    private Protocol() {
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values)
+            out.writeDouble(value);
+    }
+
+    /**
+     * Reads an array whose length must be the expected one. The values of an array of another length are skipped
+     * without allocating it, so the request is consumed and the connection can go on.
+     *
+     * @throws IOException if the length is negative, which means that the connection is out of sync.
+     * @throws IllegalArgumentException if the length is not the expected one.
+     */
+    static double[] readDoubles(DataInputStream in, int expectedLength) throws IOException {
+        int length = readLength(in);
+        if (length != expectedLength) {
+            skipDoubles(in, length);
+            throw new IllegalArgumentException("Expected " + expectedLength + " values, received " + length);
+        }
+
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++)
+            values[i] = in.readDouble();
+        return values;
+    }
+
+    /** Skips an array whose values are not needed. */
+    static void skipDoubles(DataInputStream in) throws IOException {
+        skipDoubles(in, readLength(in));
+    }
+
+    /** Reads an array whose length must be that of the argument one. */
+    static void readDoubles(DataInputStream in, double[] values) throws IOException {
+        int length = readLength(in);
+        if (length != values.length)
+            throw new IOException("Expected " + values.length + " values, received " + length);
+
+        for (int i = 0; i < length; i++)
+            values[i] = in.readDouble();
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid array length " + length);
+        return length;
+    }
+
+    private static void skipDoubles(DataInputStream in, int length) throws IOException {
+        long remaining = 8L * length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+            if (skipped <= 0)
+                throw new EOFException();
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package voltric.learning.parameter.em.distributed;
+
+import voltric.data.DiscreteData;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.learning.parameter.em.util.CptLayout;
+import voltric.learning.parameter.em.util.ParallelEStep;
+import voltric.learning.parameter.em.util.SufficientStatistics;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.modelTypes.VariableType;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The E-step of a worker on its data shard. The model is rebuilt from its description over the variables of the
+ * shard, and the cells of each CPT are mapped between the layout of the coordinator and the local one. The instances
+ * are split among the threads of the process by {@link ParallelEStep}.
+ */
+final class ShardEStep {
+
+    private final DiscreteData shard;
+
+    private final ModelStructure structure;
+
+    private final DiscreteBayesNet model;
+
+    /** The local node of each node of the description. */
+    private final DiscreteBeliefNode[] nodes;
+
+    /** For each node, the local index of each cell of its CPT in the layout of the coordinator. */
+    private final int[][] permutations;
+
+    /** For each node, its index in the statistics layout, or -1 if it is not updated. */
+    private final int[] statisticIndices;
+
+    private final SufficientStatistics layout;
+
+    private final CliqueTreePropagationGroup ctps;
+
+    /**
+     * Rebuilds the model described by a coordinator over the variables of the shard.
+     *
+     * @param structure the description of the model, which comes from another process.
+     * @param shard the data shard.
+     * @throws IllegalArgumentException if the description is inconsistent or does not match the shard.
+     */
+    ShardEStep(ModelStructure structure, DiscreteData shard) {
+        this.shard = shard;
+        this.structure = structure;
+        validate(structure);
+
+        Map<String, DiscreteVariable> shardVariables = new HashMap<>();
+        for (DiscreteVariable variable : shard.getVariables())
+            shardVariables.put(variable.getName(), variable);
+
+        // the manifest variables are those of the shard, so its instances can be set as evidence
+        List<ModelStructure.Node> descriptions = structure.getNodes();
+        this.model = new DiscreteBayesNet();
+        this.nodes = new DiscreteBeliefNode[descriptions.size()];
+        Map<String, DiscreteBeliefNode> nodesByName = new HashMap<>();
+        Set<String> dontUpdateNodes = new HashSet<>();
+        for (int i = 0; i < nodes.length; i++) {
+            ModelStructure.Node description = descriptions.get(i);
+            DiscreteVariable variable;
+            if (description.latent) {
+                variable = new DiscreteVariable(description.name, description.states, VariableType.LATENT_VARIABLE);
+            } else {
+                variable = shardVariables.get(description.name);
+                if (variable == null)
+                    throw new IllegalArgumentException("The shard does not contain the manifest variable " + description.name);
+                if (!variable.getStates().equals(description.states))
+                    throw new IllegalArgumentException("The states of " + description.name + " do not match those of the shard");
+            }
+
+            nodes[i] = model.addNode(variable);
+            nodesByName.put(description.name, nodes[i]);
+            if (!description.updated)
+                dontUpdateNodes.add(description.name);
+        }
+
+        for (int i = 0; i < nodes.length; i++) {
+            for (String parent : descriptions.get(i).cptVariables) {
+                if (!parent.equals(descriptions.get(i).name))
+                    model.addEdge(nodes[i], nodesByName.get(parent));
+            }
+        }
+
+        this.permutations = new int[nodes.length][];
+        for (int i = 0; i < nodes.length; i++)
+            permutations[i] = CptLayout.computePermutation(descriptions.get(i).cptVariables, nodes[i].getCpt());
+
+        this.layout = new SufficientStatistics(model, dontUpdateNodes);
+        this.statisticIndices = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            statisticIndices[i] = layout.getVariables().indexOf(nodes[i].getVariable());
+
+        this.ctps = ParallelEStep.createGroup(model);
+    }
+
+    /**
+     * Checks that the description names each node once, that the CPT variables are nodes of the description and that
+     * the lengths of the arrays match the CPTs, before any of them is allocated.
+     */
+    private static void validate(ModelStructure structure) {
+        Map<String, ModelStructure.Node> descriptionsByName = new HashMap<>();
+        for (ModelStructure.Node description : structure.getNodes()) {
+            if (description.states.isEmpty())
+                throw new IllegalArgumentException("The variable " + description.name + " has no states");
+            if (descriptionsByName.put(description.name, description) != null)
+                throw new IllegalArgumentException("The node " + description.name + " is described twice");
+        }
+
+        long nParameters = 0;
+        long nStatistics = 0;
+        for (ModelStructure.Node description : structure.getNodes()) {
+            if (!description.cptVariables.contains(description.name))
+                throw new IllegalArgumentException("The CPT of " + description.name + " does not contain its variable");
+
+            long domainSize = 1;
+            for (String name : description.cptVariables) {
+                ModelStructure.Node variable = descriptionsByName.get(name);
+                if (variable == null)
+                    throw new IllegalArgumentException("The CPT of " + description.name + " contains the unknown variable " + name);
+
+                domainSize *= variable.states.size();
+                if (domainSize > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("The CPT of " + description.name + " is too large");
+            }
+
+            nParameters += domainSize;
+            if (description.updated)
+                nStatistics += domainSize;
+        }
+
+        if (nParameters != structure.getNumberOfParameters() || nStatistics != structure.getNumberOfStatistics())
+            throw new IllegalArgumentException("The number of parameters or statistics does not match the CPTs");
+    }
+
+    double getTotalWeight() {
+        return shard.getTotalWeight();
+    }
+
+    int getNumberOfParameters() {
+        return structure.getNumberOfParameters();
+    }
+
+    int getNumberOfStatistics() {
+        return structure.getNumberOfStatistics();
+    }
+
+    /**
+     * Sets the parameters of the local model and computes the expected counts of the shard.
+     *
+     * @param parameters the cells of all the CPTs, in the layout of the coordinator.
+     * @param counts where the expected counts are written, in the layout of the coordinator.
+     * @return the log-likelihood of the shard with the argument parameters.
+     */
+    double computeStatistics(double[] parameters, double[] counts) {
+        if (parameters.length != structure.getNumberOfParameters() || counts.length != structure.getNumberOfStatistics())
+            throw new IllegalArgumentException("The arrays do not match the model");
+
+        int offset = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            Function cpt = nodes[i].getCpt().clone();
+            double[] cells = cpt.getCells();
+            int[] permutation = permutations[i];
+            for (int j = 0; j < permutation.length; j++)
+                cells[permutation[j]] = parameters[offset + j];
+            offset += permutation.length;
+            nodes[i].setCpt(cpt);
+        }
+
+        SufficientStatistics suffStats = ParallelEStep.computeStatistics(ctps, shard, layout);
+
+        offset = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (statisticIndices[i] < 0)
+                continue;
+
+            double[] cells = suffStats.createCounts(statisticIndices[i], model).getCells();
+            int[] permutation = permutations[i];
+            for (int j = 0; j < permutation.length; j++)
+                counts[offset + j] = cells[permutation[j]];
+            offset += permutation.length;
+        }
+
+        return suffStats.getLogLikelihoodAlternative();
+    }
+}
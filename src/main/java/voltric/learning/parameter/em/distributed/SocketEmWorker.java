@@ -0,0 +1,74 @@
+package voltric.learning.parameter.em.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A worker in another process, reached through a socket connected to its {@link EmWorkerServer}. The connection stays
+ * open until the worker is closed.
+ */
+public final class SocketEmWorker implements EmWorker {
+
+    private final Socket socket;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a worker server.
+     *
+     * @param host the host of the server.
+     * @param port the port of the server.
+     * @throws IOException if the connection fails.
+     */
+    public SocketEmWorker(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double initialize(ModelStructure structure) throws IOException {
+        out.writeByte(Protocol.INITIALIZE);
+        structure.write(out);
+        out.flush();
+
+        readStatus();
+        return in.readDouble();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double computeStatistics(double[] parameters, double[] counts) throws IOException {
+        out.writeByte(Protocol.COMPUTE_STATISTICS);
+        Protocol.writeDoubles(out, parameters);
+        out.flush();
+
+        readStatus();
+        Protocol.readDoubles(in, counts);
+        return in.readDouble();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeByte(Protocol.CLOSE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void readStatus() throws IOException {
+        if (in.readByte() != Protocol.OK)
+            throw new IOException("The worker at " + socket.getRemoteSocketAddress() + " failed: " + in.readUTF());
+    }
+}
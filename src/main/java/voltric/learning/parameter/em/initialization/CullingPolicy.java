@@ -0,0 +1,22 @@
+package voltric.learning.parameter.em.initialization;
+
+/**
+ * Decides which of the random restarts of {@link MultipleRestarts} are killed at each culling point. The restarts are
+ * ranked by score, so a policy only has to decide how many of the best ones survive.
+ *
+ * @see SuccessiveHalving
+ * @see ScoreMarginCulling
+ */
+public interface CullingPolicy {
+
+    /** Policy that keeps all the restarts until the end of the pre-steps. */
+    CullingPolicy NONE = scores -> scores.length;
+
+    /**
+     * Returns the number of restarts that survive.
+     *
+     * @param scores the current scores of the restarts that are alive, in descending order.
+     * @return the number of restarts that survive, between 1 and {@code scores.length}.
+     */
+    int getNumberOfSurvivors(double[] scores);
+}
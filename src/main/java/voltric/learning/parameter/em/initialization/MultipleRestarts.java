@@ -1,19 +1,26 @@
 package voltric.learning.parameter.em.initialization;
 
 /**
- * TODO: Explain
+ * Runs a portfolio of random restarts and chooses the best one as the starting point. Every restart runs
+ * {@code numInitIterations} EM steps and then up to {@code nPreSteps} more, while the {@link CullingPolicy} kills the
+ * hopeless ones every {@code cullingInterval} steps. The restarts run concurrently.
  */
 public class MultipleRestarts extends EmInitialization {
 
     /** The number of preSteps to go in order to choose a good starting point. */
     private int nPreSteps;
 
+    /** Decides which restarts are killed at each culling point. */
+    private CullingPolicy cullingPolicy;
+
+    /** The number of pre-steps between two culling points. */
+    private int cullingInterval;
+
     /**
      * Default constructor. A {@code MultipleRestarts} instance is created with 1 init iteration and 10 pre-steps.
      */
     public MultipleRestarts(){
-        super(1); // numInitIterations
-        this.nPreSteps = 10;
+        this(10);
     }
 
     /**
@@ -22,20 +29,40 @@ public class MultipleRestarts extends EmInitialization {
      * @param nPreSteps the number of pre-steps.
      */
     public MultipleRestarts(int nPreSteps){
-        super(1); // numInitIterations
-        this.nPreSteps = nPreSteps;
+        this(nPreSteps, 1);
     }
 
     /**
      * Constructs a {@code MultipleRestarts} instance is created with an argument number of init iteration and an
-     * argument number of pre-steps.
+     * argument number of pre-steps. The restarts are halved after every pre-step.
      *
      * @param nPreSteps the number of pre-steps.
      * @param numInitIterations the number of init iterations.
      */
     public MultipleRestarts(int nPreSteps, int numInitIterations){
+        this(nPreSteps, numInitIterations, new SuccessiveHalving(), 1);
+    }
+
+    /**
+     * Constructs a {@code MultipleRestarts} instance with an argument culling policy.
+     *
+     * @param nPreSteps the number of pre-steps.
+     * @param numInitIterations the number of init iterations, which are run before the first culling point.
+     * @param cullingPolicy the policy that kills the hopeless restarts, or {@link CullingPolicy#NONE}.
+     * @param cullingInterval the number of pre-steps between two culling points.
+     */
+    public MultipleRestarts(int nPreSteps, int numInitIterations, CullingPolicy cullingPolicy, int cullingInterval){
         super(numInitIterations);
+
+        if (cullingPolicy == null)
+            throw new IllegalArgumentException("The culling policy cannot be null");
+
+        if (cullingInterval < 1)
+            throw new IllegalArgumentException("The culling interval must be positive");
+
         this.nPreSteps = nPreSteps;
+        this.cullingPolicy = cullingPolicy;
+        this.cullingInterval = cullingInterval;
     }
 
     /**
@@ -45,4 +72,20 @@ public class MultipleRestarts extends EmInitialization {
     public int getnPreSteps() {
         return nPreSteps;
     }
+
+    /**
+     * Returns the policy that kills the hopeless restarts.
+     * @return the policy that kills the hopeless restarts.
+     */
+    public CullingPolicy getCullingPolicy() {
+        return cullingPolicy;
+    }
+
+    /**
+     * Returns the number of pre-steps between two culling points.
+     * @return the number of pre-steps between two culling points.
+     */
+    public int getCullingInterval() {
+        return cullingInterval;
+    }
 }
@@ -0,0 +1,43 @@
+package voltric.learning.parameter.em.initialization;
+
+/**
+ * Culling policy that kills the restarts whose score trails the leader's by more than a margin.
+ *
+ * <p>All the restarts share the structure of the model, so the penalty of a penalized score is the same for all of them
+ * and the margin is a difference of log-likelihoods whatever the score type.</p>
+ */
+public class ScoreMarginCulling implements CullingPolicy {
+
+    /** The maximum distance to the leader's score. */
+    private double margin;
+
+    /**
+     * Main constructor.
+     *
+     * @param margin the maximum distance to the leader's score for a restart to survive.
+     */
+    public ScoreMarginCulling(double margin) {
+        if (margin < 0 || Double.isNaN(margin))
+            throw new IllegalArgumentException("The margin must be non-negative");
+
+        this.margin = margin;
+    }
+
+    /**
+     * Returns the maximum distance to the leader's score for a restart to survive.
+     *
+     * @return the maximum distance to the leader's score.
+     */
+    public double getMargin() {
+        return margin;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getNumberOfSurvivors(double[] scores) {
+        int nSurvivors = 1;
+        while (nSurvivors < scores.length && scores[0] - scores[nSurvivors] <= margin)
+            nSurvivors++;
+        return nSurvivors;
+    }
+}
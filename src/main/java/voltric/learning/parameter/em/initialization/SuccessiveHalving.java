@@ -0,0 +1,13 @@
+package voltric.learning.parameter.em.initialization;
+
+/**
+ * Culling policy that keeps the best half of the restarts at each culling point.
+ */
+public class SuccessiveHalving implements CullingPolicy {
+
+    /** {@inheritDoc} */
+    @Override
+    public int getNumberOfSurvivors(double[] scores) {
+        return Math.max(1, scores.length / 2);
+    }
+}
@@ -0,0 +1,127 @@
+package voltric.learning.parameter.em.util;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Runs the Chickering & Heckerman's tournament between starting points, with the candidates of each round running
+ * concurrently.
+ *
+ * <p>Every candidate runs the EM steps of a round as an independent task of a {@link ForkJoinPool}. The round ends when
+ * all of them have finished, then the candidates are ranked by score, the bottom half is discarded and the number of
+ * steps per round doubles. A candidate stops early in a round once a step does not improve its score by more than the
+ * threshold, and the tournament ends when that happens to all the candidates of a round.</p>
+ *
+ * <p>If the EM step is itself a fork-join computation on the same pool, the workers that are left idle when there are
+ * fewer candidates than workers steal its subtasks, so the last rounds are parallelized over the data instead.</p>
+ *
+ * @param <T> the type of the starting points, usually a CTP or a group of CTPs.
+ */
+public final class ChickeringHeckermanTournament<T> {
+
+    private final ForkJoinPool pool;
+
+    private final ToDoubleFunction<T> emStep;
+
+    private final double threshold;
+
+    private final int nMaxSteps;
+
+    private int nSteps;
+
+    private RoundListener<T> listener = null;
+
+    /**
+     * Creates a tournament.
+     *
+     * @param pool the pool where the candidates run.
+     * @param emStep runs an EM step on a starting point and returns the resulting score. It is called concurrently on
+     *               different starting points.
+     * @param threshold the minimum improvement of the score for a step not to be considered converged.
+     * @param nMaxSteps the maximum number of EM steps.
+     */
+    public ChickeringHeckermanTournament(ForkJoinPool pool, ToDoubleFunction<T> emStep, double threshold, int nMaxSteps) {
+        this.pool = pool;
+        this.emStep = emStep;
+        this.threshold = threshold;
+        this.nMaxSteps = nMaxSteps;
+    }
+
+    /**
+     * Runs the tournament.
+     *
+     * @param startingPoints the starting points. If some of them tie, the first one is preferred.
+     * @param nInitIterations the number of steps every starting point runs before the first round.
+     * @param nSteps the number of EM steps already elapsed.
+     * @return the winner.
+     */
+    public T run(List<T> startingPoints, int nInitIterations, int nSteps) {
+        RestartCandidates<T> candidates = new RestartCandidates<>(pool, emStep, threshold, startingPoints);
+
+        // We run several steps of emStep before killing starting points for two reasons:
+        // 1. the loglikelihood-related score being computed is always greater that of previous model.
+        // 2. When reuse, the reused model is kind of dominant because maybe it has already EMed.
+        this.nSteps = nSteps + nInitIterations;
+        candidates.runRound(nInitIterations, false);
+
+        // game starts, half ppl die in each round :-)
+        return play(candidates, 1);
+    }
+
+    /**
+     * Resumes a tournament from the state received by a {@link RoundListener}.
+     *
+     * @param candidates the candidates that are still alive, in their order.
+     * @param scores the score of each candidate.
+     * @param nSteps the number of EM steps elapsed.
+     * @param nStepsPerRound the number of steps of the next round.
+     * @return the winner.
+     */
+    public T resume(List<T> candidates, double[] scores, int nSteps, int nStepsPerRound) {
+        this.nSteps = nSteps;
+        return play(new RestartCandidates<>(pool, emStep, threshold, candidates, scores), nStepsPerRound);
+    }
+
+    /**
+     * Sets the listener that receives the state of the tournament before each round.
+     *
+     * @param listener the listener, or {@code null}.
+     */
+    public void setListener(RoundListener<T> listener) {
+        this.listener = listener;
+    }
+
+    private T play(RestartCandidates<T> candidates, int nStepsPerRound) {
+        while (candidates.size() > 1 && this.nSteps < this.nMaxSteps) {
+            if (listener != null)
+                listener.beforeRound(candidates.getStartingPoints(), candidates.getScores(), this.nSteps, nStepsPerRound);
+
+            this.nSteps += candidates.runRound(nStepsPerRound, true);
+            candidates.rank();
+
+            if (candidates.allConverged())
+                break;
+
+            // retains top half
+            candidates.retain(candidates.size() / 2);
+
+            // doubles EM steps subject to maximum step constraint
+            nStepsPerRound = Math.min(nStepsPerRound * 2, this.nMaxSteps - this.nSteps);
+        }
+
+        // returns the best starting point
+        return candidates.getFirst();
+    }
+
+    /**
+     * Returns the number of EM steps elapsed at the end of the last run, including the ones passed to
+     * {@link #run(List, int, int)}. Since the candidates run concurrently, a round counts as many steps as the longest
+     * candidate.
+     *
+     * @return the number of EM steps elapsed.
+     */
+    public int getNumberOfSteps() {
+        return nSteps;
+    }
+}
@@ -0,0 +1,82 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the cells of a CPT between layouts given by the order of its variables. The variables of a {@link Function} are
+ * sorted by their creation index, so the same model built in another process, or loaded again, may lay out its CPTs
+ * differently; the order of the variable names is enough to translate the cells.
+ */
+public final class CptLayout {
+
+    private CptLayout() {
+    }
+
+    /**
+     * Returns the names of the variables of a CPT in the order of its layout, the first one being the most significant.
+     *
+     * @param cpt the CPT.
+     * @return the names of its variables.
+     */
+    public static List<String> getVariableNames(Function cpt) {
+        List<String> names = new ArrayList<>();
+        for (DiscreteVariable variable : cpt.getVariables())
+            names.add(variable.getName());
+        return names;
+    }
+
+    /**
+     * Maps each cell of a CPT laid out with its variables in the argument order to the cell of {@code cpt} with the
+     * same states.
+     *
+     * @param order the names of the variables of the CPT, the first one being the most significant.
+     * @param cpt the CPT whose layout is the target.
+     * @return the index in {@code cpt} of each cell of the other layout.
+     * @throws IllegalArgumentException if the variables do not match.
+     */
+    public static int[] computePermutation(List<String> order, Function cpt) {
+        List<DiscreteVariable> variables = cpt.getVariables();
+        if (order.size() != variables.size())
+            throw new IllegalArgumentException("The CPT does not have the variables " + order);
+
+        int dimension = order.size();
+        int[] cardinalities = new int[dimension];
+        int[] magnitudes = new int[dimension];
+        for (int k = 0; k < dimension; k++) {
+            int index = -1;
+            for (int l = 0; l < variables.size(); l++) {
+                if (variables.get(l).getName().equals(order.get(k)))
+                    index = l;
+            }
+            if (index < 0)
+                throw new IllegalArgumentException("The CPT does not contain " + order.get(k));
+
+            cardinalities[k] = variables.get(index).getCardinality();
+            int magnitude = 1;
+            for (int l = index + 1; l < variables.size(); l++)
+                magnitude *= variables.get(l).getCardinality();
+            magnitudes[k] = magnitude;
+        }
+
+        // walks the cells in the order of the other layout, incrementing the states like an odometer
+        int[] permutation = new int[cpt.getDomainSize()];
+        int[] states = new int[dimension];
+        int index = 0;
+        for (int j = 0; j < permutation.length; j++) {
+            permutation[j] = index;
+            for (int k = dimension - 1; k >= 0; k--) {
+                states[k]++;
+                index += magnitudes[k];
+                if (states[k] < cardinalities[k])
+                    break;
+                index -= states[k] * magnitudes[k];
+                states[k] = 0;
+            }
+        }
+        return permutation;
+    }
+}
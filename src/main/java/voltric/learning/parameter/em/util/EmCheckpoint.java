@@ -0,0 +1,267 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of an EM learning process at a step boundary, saved to a compact binary file so the process can be
+ * resumed after a crash or a preemption (see {@link voltric.learning.parameter.em.Resumable}).
+ *
+ * <p>It holds the CPTs and the score of every candidate that is still alive (a single one in the main loop), the
+ * number of EM steps elapsed and the progress of the restart strategy. The random starting points are all generated
+ * before the first checkpoint, so no random state is needed to resume. Each CPT is saved with the names of its
+ * variables in the order of its layout, so the checkpoint can be restored on the same model built or loaded again in
+ * another process.</p>
+ *
+ * <p>The file is written to a temporary file first and then moved over the previous checkpoint, so a crash while
+ * writing leaves the previous one intact.</p>
+ */
+public final class EmCheckpoint {
+
+    /** The stage of the learning process. */
+    public enum Stage {
+        /** The tournament of {@link voltric.learning.parameter.em.initialization.ChickeringHeckerman}. */
+        CHICKERING_HECKERMAN,
+        /** The restarts of {@link voltric.learning.parameter.em.initialization.MultipleRestarts}. */
+        MULTIPLE_RESTARTS,
+        /** The EM steps after the restart strategy. */
+        MAIN
+    }
+
+    /** "VEMC" */
+    private static final int MAGIC = 0x56454D43;
+
+    private static final int VERSION = 1;
+
+    private final Stage stage;
+
+    private final int nSteps;
+
+    private final int progress;
+
+    private final double[] scores;
+
+    /** The names of the nodes, in the order of the parameters. */
+    private final List<String> nodeNames;
+
+    /** The names of the variables of each CPT, in the order of its layout. */
+    private final List<List<String>> cptVariables;
+
+    /** The cells of all the CPTs of each candidate. */
+    private final double[][] parameters;
+
+    private EmCheckpoint(Stage stage, int nSteps, int progress, double[] scores, List<String> nodeNames,
+                         List<List<String>> cptVariables, double[][] parameters) {
+        this.stage = stage;
+        this.nSteps = nSteps;
+        this.progress = progress;
+        this.scores = scores;
+        this.nodeNames = nodeNames;
+        this.cptVariables = cptVariables;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Creates a checkpoint of the argument candidates, which must have the same structure.
+     *
+     * @param stage the stage of the learning process.
+     * @param models the candidates that are still alive, in their current order.
+     * @param scores the score of each candidate.
+     * @param nSteps the number of EM steps elapsed.
+     * @param progress the progress of the restart strategy, whose meaning depends on the stage.
+     * @return the checkpoint.
+     */
+    public static EmCheckpoint create(Stage stage, List<DiscreteBayesNet> models, double[] scores, int nSteps, int progress) {
+        if (models.isEmpty() || models.size() != scores.length)
+            throw new IllegalArgumentException("There must be a score for each of the models");
+
+        List<String> nodeNames = new ArrayList<>();
+        List<List<String>> cptVariables = new ArrayList<>();
+        int nParameters = 0;
+        for (DiscreteBeliefNode node : models.get(0).getNodes()) {
+            nodeNames.add(node.getName());
+            cptVariables.add(CptLayout.getVariableNames(node.getCpt()));
+            nParameters += node.getCpt().getDomainSize();
+        }
+
+        double[][] parameters = new double[models.size()][nParameters];
+        for (int c = 0; c < models.size(); c++) {
+            int offset = 0;
+            for (String name : nodeNames) {
+                double[] cells = models.get(c).getNode(name).getCpt().getCells();
+                System.arraycopy(cells, 0, parameters[c], offset, cells.length);
+                offset += cells.length;
+            }
+        }
+
+        return new EmCheckpoint(stage, nSteps, progress, scores.clone(), nodeNames, cptVariables, parameters);
+    }
+
+    /**
+     * Restores the candidates on copies of the argument BN.
+     *
+     * @param bayesNet a BN with the structure of the checkpointed candidates.
+     * @return a copy of the BN with the parameters of each candidate, in their order.
+     * @throws IllegalArgumentException if the structure of the BN does not match the checkpoint.
+     */
+    public List<DiscreteBayesNet> restore(DiscreteBayesNet bayesNet) {
+        if (bayesNet.getNodes().size() != nodeNames.size())
+            throw new IllegalArgumentException("The Bayes net does not match the checkpoint");
+
+        int[][] permutations = new int[nodeNames.size()][];
+        int nParameters = 0;
+        for (int i = 0; i < nodeNames.size(); i++) {
+            DiscreteBeliefNode node = bayesNet.getNode(nodeNames.get(i));
+            if (node == null)
+                throw new IllegalArgumentException("The Bayes net does not contain the node " + nodeNames.get(i));
+            permutations[i] = CptLayout.computePermutation(cptVariables.get(i), node.getCpt());
+            nParameters += permutations[i].length;
+        }
+
+        if (nParameters != parameters[0].length)
+            throw new IllegalArgumentException("The cardinalities of the Bayes net do not match the checkpoint");
+
+        List<DiscreteBayesNet> models = new ArrayList<>(parameters.length);
+        for (double[] candidate : parameters) {
+            DiscreteBayesNet model = bayesNet.clone();
+            int offset = 0;
+            for (int i = 0; i < nodeNames.size(); i++) {
+                DiscreteBeliefNode node = model.getNode(nodeNames.get(i));
+                Function cpt = node.getCpt().clone();
+                double[] cells = cpt.getCells();
+                for (int j = 0; j < permutations[i].length; j++)
+                    cells[permutations[i][j]] = candidate[offset + j];
+                offset += permutations[i].length;
+                node.setCpt(cpt);
+            }
+            models.add(model);
+        }
+        return models;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public int getnSteps() {
+        return nSteps;
+    }
+
+    /**
+     * Returns the progress of the restart strategy: the number of steps of the next round of the tournament, or the
+     * number of pre-steps elapsed of the multiple restarts. It is not used in the main loop.
+     *
+     * @return the progress of the restart strategy.
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * Returns the score of each candidate. In the main loop, it is the score the improvement is measured against.
+     *
+     * @return the scores of the candidates.
+     */
+    public double[] getScores() {
+        return scores.clone();
+    }
+
+    /**
+     * Writes the checkpoint, replacing the file atomically if the file system supports it.
+     *
+     * @param file the file.
+     */
+    public void write(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(stage.ordinal());
+            out.writeInt(nSteps);
+            out.writeInt(progress);
+
+            out.writeInt(nodeNames.size());
+            for (int i = 0; i < nodeNames.size(); i++) {
+                out.writeUTF(nodeNames.get(i));
+                out.writeInt(cptVariables.get(i).size());
+                for (String variable : cptVariables.get(i))
+                    out.writeUTF(variable);
+            }
+
+            out.writeInt(parameters.length);
+            out.writeInt(parameters[0].length);
+            for (int c = 0; c < parameters.length; c++) {
+                out.writeDouble(scores[c]);
+                for (double cell : parameters[c])
+                    out.writeDouble(cell);
+            }
+        }
+
+        try {
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param file the file.
+     * @return the checkpoint.
+     */
+    public static EmCheckpoint read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not an EM checkpoint");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version);
+
+            int stageIndex = in.readByte();
+            if (stageIndex < 0 || stageIndex >= Stage.values().length)
+                throw new IOException("Unknown checkpoint stage " + stageIndex);
+            Stage stage = Stage.values()[stageIndex];
+            int nSteps = in.readInt();
+            int progress = in.readInt();
+
+            int nNodes = in.readInt();
+            List<String> nodeNames = new ArrayList<>(nNodes);
+            List<List<String>> cptVariables = new ArrayList<>(nNodes);
+            for (int i = 0; i < nNodes; i++) {
+                nodeNames.add(in.readUTF());
+                int nVariables = in.readInt();
+                List<String> variables = new ArrayList<>(nVariables);
+                for (int j = 0; j < nVariables; j++)
+                    variables.add(in.readUTF());
+                cptVariables.add(variables);
+            }
+
+            int nCandidates = in.readInt();
+            int nParameters = in.readInt();
+            double[] scores = new double[nCandidates];
+            double[][] parameters = new double[nCandidates][nParameters];
+            for (int c = 0; c < nCandidates; c++) {
+                scores[c] = in.readDouble();
+                for (int j = 0; j < nParameters; j++)
+                    parameters[c][j] = in.readDouble();
+            }
+
+            return new EmCheckpoint(stage, nSteps, progress, scores, nodeNames, cptVariables, parameters);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package voltric.learning.parameter.em.util;
+
+/**
+ * Observes the steps of an EM algorithm (see {@link voltric.learning.parameter.em.AbstractEM#addListener}). The
+ * candidates of the restart strategies may run concurrently, so the methods must be thread-safe.
+ *
+ * @see EmMetricsListener
+ */
+public interface EmListener {
+
+    /**
+     * Called after each EM step.
+     *
+     * @param event the measures of the step.
+     */
+    default void stepFinished(EmStepEvent event) {
+    }
+
+    /**
+     * Called when a problem that does not stop learning is detected, e.g. the two log-likelihoods of a step differ.
+     *
+     * @param message the description of the problem.
+     */
+    default void warning(String message) {
+    }
+}
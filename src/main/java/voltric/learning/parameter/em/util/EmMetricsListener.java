@@ -0,0 +1,241 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.util.LatencyHistogram;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates the events of one or more learning processes: histograms of the durations of the E-steps and the
+ * M-steps, the throughput of the E-steps, the allocation rate and, for a few convergence thresholds, the number of
+ * steps whose improvement of the score would be considered converged with them. The warnings are kept as well.
+ */
+public class EmMetricsListener implements EmListener {
+
+    /** The thresholds of {@link #EmMetricsListener()}: the powers of ten from 1 to 1e-8. */
+    private static final double[] DEFAULT_THRESHOLDS = {1, 1e-1, 1e-2, 1e-3, 1e-4, 1e-5, 1e-6, 1e-7, 1e-8};
+
+    private final LatencyHistogram eStepTimes = new LatencyHistogram();
+
+    private final LatencyHistogram mStepTimes = new LatencyHistogram();
+
+    private final AtomicLong nInstances = new AtomicLong();
+
+    private final AtomicLong eStepNanos = new AtomicLong();
+
+    private final AtomicLong stepNanos = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * The score of the last step of each candidate, to compute the improvements. The candidates are weakly referenced,
+     * so the listener does not keep alive the models of the learning processes that have finished.
+     */
+    private final Map<ModelKey, Double> lastScores = new HashMap<>();
+
+    /** The keys of {@link #lastScores} whose models have been collected. */
+    private final ReferenceQueue<DiscreteBayesNet> collectedModels = new ReferenceQueue<>();
+
+    /** The convergence thresholds whose steps are counted, in increasing order. */
+    private final double[] thresholds;
+
+    /** The number of improvements that are not greater than each threshold. */
+    private final long[] nConverged;
+
+    private long nImprovements = 0;
+
+    private final List<String> warnings = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Creates a listener that counts the converged steps for the powers of ten from 1 to 1e-8.
+     */
+    public EmMetricsListener() {
+        this(DEFAULT_THRESHOLDS);
+    }
+
+    /**
+     * Creates a listener that counts the converged steps for the argument thresholds.
+     *
+     * @param thresholds the convergence thresholds of {@link #getConvergedFraction(double)}.
+     */
+    public EmMetricsListener(double... thresholds) {
+        this.thresholds = thresholds.clone();
+        Arrays.sort(this.thresholds);
+        this.nConverged = new long[thresholds.length];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void stepFinished(EmStepEvent event) {
+        eStepTimes.record(event.getEStepNanos());
+        mStepTimes.record(event.getMStepNanos());
+        nInstances.addAndGet(event.getnInstances());
+        eStepNanos.addAndGet(event.getEStepNanos());
+        stepNanos.addAndGet(event.getEStepNanos() + event.getMStepNanos());
+        if (event.getAllocatedBytes() > 0)
+            allocatedBytes.addAndGet(event.getAllocatedBytes());
+
+        synchronized (lastScores) {
+            for (Reference<?> key; (key = collectedModels.poll()) != null; )
+                lastScores.remove(key);
+
+            Double lastScore = lastScores.put(new ModelKey(event.getModel(), collectedModels), event.getScore());
+            if (lastScore != null) {
+                double improvement = event.getScore() - lastScore;
+                nImprovements++;
+                for (int t = thresholds.length - 1; t >= 0 && improvement <= thresholds[t]; t--)
+                    nConverged[t]++;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void warning(String message) {
+        warnings.add(message);
+    }
+
+    public LatencyHistogram getEStepTimes() {
+        return eStepTimes;
+    }
+
+    public LatencyHistogram getMStepTimes() {
+        return mStepTimes;
+    }
+
+    /**
+     * Returns the number of steps received.
+     *
+     * @return the number of steps.
+     */
+    public long getnSteps() {
+        return eStepTimes.getCount();
+    }
+
+    /**
+     * Returns the number of data instances propagated per second of E-step, over all the steps.
+     *
+     * @return the throughput of the E-steps.
+     */
+    public double getRowsPerSecond() {
+        long nanos = eStepNanos.get();
+        return nanos == 0 ? 0 : nInstances.get() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    /**
+     * Returns the bytes allocated per second of EM step, over all the steps.
+     *
+     * @return the allocation rate in bytes per second.
+     */
+    public double getAllocationRate() {
+        long nanos = stepNanos.get();
+        return nanos == 0 ? 0 : allocatedBytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    /**
+     * Returns the number of improvements measured, i.e. the steps that followed another step of the same candidate.
+     *
+     * @return the number of improvements.
+     */
+    public long getnImprovements() {
+        synchronized (lastScores) {
+            return nImprovements;
+        }
+    }
+
+    /**
+     * Returns the thresholds whose converged steps are counted.
+     *
+     * @return the thresholds, in increasing order.
+     */
+    public double[] getThresholds() {
+        return thresholds.clone();
+    }
+
+    /**
+     * Returns the fraction of the improvements that are not greater than the argument threshold, i.e. the steps that
+     * would be considered converged with it.
+     *
+     * @param threshold one of the thresholds of the listener.
+     * @return the fraction of converged steps, or 0 if there are none.
+     */
+    public double getConvergedFraction(double threshold) {
+        int t = Arrays.binarySearch(thresholds, threshold);
+        if (t < 0)
+            throw new IllegalArgumentException("The listener does not count the steps for the threshold " + threshold);
+
+        synchronized (lastScores) {
+            return nImprovements == 0 ? 0 : nConverged[t] / (double) nImprovements;
+        }
+    }
+
+    public List<String> getWarnings() {
+        synchronized (warnings) {
+            return new ArrayList<>(warnings);
+        }
+    }
+
+    /**
+     * Forgets all the measures.
+     */
+    public void reset() {
+        eStepTimes.reset();
+        mStepTimes.reset();
+        nInstances.set(0);
+        eStepNanos.set(0);
+        stepNanos.set(0);
+        allocatedBytes.set(0);
+        synchronized (lastScores) {
+            lastScores.clear();
+            nImprovements = 0;
+            Arrays.fill(nConverged, 0);
+        }
+        warnings.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("steps=%d rows/s=%.0f allocation=%.1fMB/s warnings=%d%n  eStep: %s%n  mStep: %s",
+                getnSteps(), getRowsPerSecond(), getAllocationRate() / (1 << 20), warnings.size(), eStepTimes, mStepTimes);
+    }
+
+    /**
+     * A weak reference to a model that compares by identity, since the models of different candidates may be equal.
+     */
+    private static final class ModelKey extends WeakReference<DiscreteBayesNet> {
+
+        private final int hashCode;
+
+        ModelKey(DiscreteBayesNet model, ReferenceQueue<DiscreteBayesNet> queue) {
+            super(model, queue);
+            this.hashCode = System.identityHashCode(model);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object)
+                return true;
+
+            if (!(object instanceof ModelKey))
+                return false;
+
+            DiscreteBayesNet model = get();
+            return model != null && model == ((ModelKey) object).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.model.DiscreteBayesNet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The measures of an EM step. The score and the log-likelihood are those of the parameters the step started from, as
+ * returned by the EM step; the model is the candidate being learned, whose parameters have already been updated.
+ */
+public final class EmStepEvent {
+
+    private final DiscreteBayesNet model;
+
+    private final double score;
+
+    private final double logLikelihood;
+
+    private final long nInstances;
+
+    private final long eStepNanos;
+
+    private final long mStepNanos;
+
+    private final long allocatedBytes;
+
+    /**
+     * @param model the model whose parameters were updated.
+     * @param score the score of the parameters the step started from.
+     * @param logLikelihood the log-likelihood of the parameters the step started from.
+     * @param nInstances the number of data instances propagated by the E-step.
+     * @param eStepNanos the duration of the E-step in nanoseconds.
+     * @param mStepNanos the duration of the M-step in nanoseconds.
+     * @param allocatedBytes the bytes allocated during the step, or -1 if they are not measured.
+     */
+    public EmStepEvent(DiscreteBayesNet model, double score, double logLikelihood, long nInstances,
+                       long eStepNanos, long mStepNanos, long allocatedBytes) {
+        this.model = model;
+        this.score = score;
+        this.logLikelihood = logLikelihood;
+        this.nInstances = nInstances;
+        this.eStepNanos = eStepNanos;
+        this.mStepNanos = mStepNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public DiscreteBayesNet getModel() {
+        return model;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    public long getnInstances() {
+        return nInstances;
+    }
+
+    public long getEStepNanos() {
+        return eStepNanos;
+    }
+
+    public long getMStepNanos() {
+        return mStepNanos;
+    }
+
+    /**
+     * Returns the bytes allocated by all the threads of the JVM during the step, or -1 if the JVM does not measure
+     * them. When several candidates run concurrently, their steps overlap and the allocations are counted by all of
+     * them.
+     *
+     * @return the allocated bytes, or -1.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the number of data instances propagated per second by the E-step.
+     *
+     * @return the throughput of the E-step.
+     */
+    public double getRowsPerSecond() {
+        return eStepNanos == 0 ? 0 : nInstances * (double) TimeUnit.SECONDS.toNanos(1) / eStepNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("score=%f loglikelihood=%f instances=%d eStep=%.3fms mStep=%.3fms rows/s=%.0f allocated=%dB",
+                score, logLikelihood, nInstances, eStepNanos / 1e6, mStepNanos / 1e6, getRowsPerSecond(), allocatedBytes);
+    }
+}
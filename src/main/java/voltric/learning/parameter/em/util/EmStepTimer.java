@@ -0,0 +1,111 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.util.WorkerThreads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures the phases of an EM step for an {@link EmStepEvent}. The allocations are those of the calling thread and of
+ * the workers of the pools of the library (see {@link WorkerThreads}), where the E-step may run. Other threads of the
+ * JVM are not counted, but the steps of other learners that run on those pools at the same time are, and the
+ * allocations of a worker that terminates during the step are lost.
+ */
+public final class EmStepTimer {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long startAllocatedBytes;
+
+    private long phaseStart;
+
+    private boolean inEStep;
+
+    private long eStepNanos;
+
+    private long mStepNanos;
+
+    private EmStepTimer() {
+        this.startAllocatedBytes = getAllocatedBytes();
+        this.phaseStart = System.nanoTime();
+        this.inEStep = true;
+    }
+
+    /**
+     * Starts measuring a step, which begins with its E-step.
+     *
+     * @return the timer of the step.
+     */
+    public static EmStepTimer start() {
+        return new EmStepTimer();
+    }
+
+    /**
+     * Marks the end of an E-step, which is also the beginning of an M-step.
+     */
+    public void eStepFinished() {
+        endPhase();
+        this.inEStep = false;
+    }
+
+    /**
+     * Marks the end of an M-step, which is also the beginning of an E-step. It is only needed when a step interleaves
+     * several partial E-steps and M-steps, whose durations are added.
+     */
+    public void mStepFinished() {
+        endPhase();
+        this.inEStep = true;
+    }
+
+    /**
+     * Marks the end of the step and creates its event.
+     *
+     * @param model the model whose parameters were updated.
+     * @param score the score of the parameters the step started from.
+     * @param logLikelihood the log-likelihood of the parameters the step started from.
+     * @param nInstances the number of data instances propagated by the E-step.
+     * @return the event of the step.
+     */
+    public EmStepEvent finish(DiscreteBayesNet model, double score, double logLikelihood, long nInstances) {
+        endPhase();
+        long allocatedBytes = startAllocatedBytes < 0 ? -1 : Math.max(0, getAllocatedBytes() - startAllocatedBytes);
+        return new EmStepEvent(model, score, logLikelihood, nInstances, eStepNanos, mStepNanos, allocatedBytes);
+    }
+
+    private void endPhase() {
+        long now = System.nanoTime();
+        if (inEStep)
+            eStepNanos += now - phaseStart;
+        else
+            mStepNanos += now - phaseStart;
+        this.phaseStart = now;
+    }
+
+    private static long getAllocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+
+        Set<Long> ids = new HashSet<>(WorkerThreads.getWorkerIds());
+        ids.add(Thread.currentThread().getId());
+
+        long[] threadIds = new long[ids.size()];
+        int i = 0;
+        for (long id : ids)
+            threadIds[i++] = id;
+
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threadIds)) {
+            // the threads that died in between are reported as -1
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+}
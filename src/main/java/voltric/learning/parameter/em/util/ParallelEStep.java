@@ -0,0 +1,169 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.inference.CliqueTreePropagation;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.model.DiscreteBayesNet;
+import voltric.util.WorkerThreads;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The fork-join E-step shared by the parallel learners. A range of instances is split in halves until each piece can be
+ * given to a CTP of the group, each leaf accumulates the statistics of its instances in its own {@link SufficientStatistics},
+ * and the results are added up the same tree of splits.
+ *
+ * <p>The reduction does not depend on which worker ran each leaf, so the statistics are the same in every run with the
+ * same data, model and group capacity.</p>
+ */
+public final class ParallelEStep {
+
+    /**
+     * Sets the evidence of a data instance on a CTP before it is propagated.
+     */
+    @FunctionalInterface
+    public interface EvidenceSetter {
+
+        /**
+         * Sets the evidence of a data instance on a CTP.
+         *
+         * @param ctp the CTP of the worker thread.
+         * @param dataSet the data set.
+         * @param dataCase the data instance.
+         */
+        void setEvidence(CliqueTreePropagation ctp, DiscreteData dataSet, DiscreteDataInstance dataCase);
+    }
+
+    /** Sets the values of the instance for all the variables of the data set. */
+    public static final EvidenceSetter DATA_EVIDENCE =
+            (ctp, dataSet, dataCase) -> ctp.setEvidence(dataSet.getVariables(), dataCase.getNumericValues());
+
+    private static final ForkJoinPool THREAD_POOL = WorkerThreads.newPool();
+
+    private ParallelEStep() {
+    }
+
+    /**
+     * Returns the pool that runs the E-steps.
+     *
+     * @return the pool that runs the E-steps.
+     */
+    public static ForkJoinPool getForkJoinPool() {
+        return THREAD_POOL;
+    }
+
+    /**
+     * Creates a group of CTPs for a model, one CTP per worker thread of the pool.
+     *
+     * @param model the model.
+     * @return the group of CTPs for {@code model}.
+     */
+    public static CliqueTreePropagationGroup createGroup(DiscreteBayesNet model) {
+        return CliqueTreePropagationGroup.constructFromModel(model, THREAD_POOL.getParallelism());
+    }
+
+    /**
+     * Computes the expected sufficient statistics of all the instances of a data set.
+     *
+     * @param ctps the group of CTPs of the model.
+     * @param dataSet the data set.
+     * @param layout statistics with the layout of the model, which are not modified.
+     * @return the statistics of the instances.
+     */
+    public static SufficientStatistics computeStatistics(CliqueTreePropagationGroup ctps, DiscreteData dataSet,
+                                                         SufficientStatistics layout) {
+        return computeStatistics(ctps, dataSet, layout, 0, dataSet.getInstances().size(), DATA_EVIDENCE);
+    }
+
+    /**
+     * Computes the expected sufficient statistics of a range of instances.
+     *
+     * @param ctps the group of CTPs of the model.
+     * @param dataSet the data set.
+     * @param layout statistics with the layout of the model, which are not modified.
+     * @param start the index of the first instance.
+     * @param length the number of instances.
+     * @param evidenceSetter sets the evidence of each instance.
+     * @return the statistics of the instances.
+     */
+    public static SufficientStatistics computeStatistics(CliqueTreePropagationGroup ctps, DiscreteData dataSet,
+                                                         SufficientStatistics layout, int start, int length,
+                                                         EvidenceSetter evidenceSetter) {
+        if (length <= 0)
+            return layout.createEmpty();
+
+        int splitThreshold = (int) Math.ceil(length / (double) ctps.capacity);
+        return THREAD_POOL.invoke(new ForkComputation(ctps, dataSet, layout, evidenceSetter, splitThreshold, start, length));
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ForkComputation extends RecursiveTask<SufficientStatistics> {
+
+        private final CliqueTreePropagationGroup ctps;
+        private final DiscreteData data;
+        private final SufficientStatistics layout;
+        private final EvidenceSetter evidenceSetter;
+        private final int splitThreshold;
+        private final int start;
+        private final int length;
+
+        ForkComputation(CliqueTreePropagationGroup ctps, DiscreteData data, SufficientStatistics layout,
+                        EvidenceSetter evidenceSetter, int splitThreshold, int start, int length) {
+            this.ctps = ctps;
+            this.data = data;
+            this.layout = layout;
+            this.evidenceSetter = evidenceSetter;
+            this.splitThreshold = splitThreshold;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        protected SufficientStatistics compute() {
+            if (length <= splitThreshold)
+                return computeDirectly();
+
+            int split = length / 2;
+            ForkComputation c1 = new ForkComputation(ctps, data, layout, evidenceSetter, splitThreshold, start, split);
+            ForkComputation c2 = new ForkComputation(ctps, data, layout, evidenceSetter, splitThreshold,
+                    start + split, length - split);
+            invokeAll(c1, c2);
+
+            // the left half is reduced with the right one, whichever thread ran them
+            SufficientStatistics suffStats = c1.join();
+            suffStats.add(c2.join());
+            return suffStats;
+        }
+
+        private SufficientStatistics computeDirectly() {
+            SufficientStatistics suffStats = layout.createEmpty();
+
+            CliqueTreePropagation ctp = ctps.take();
+            try {
+                // computes datum by datum
+                for (int i = start; i < start + length; i++) {
+                    DiscreteDataInstance dataCase = data.getInstances().get(i);
+                    double weight = data.getWeight(dataCase);
+
+                    // sets evidences
+                    evidenceSetter.setEvidence(ctp, data, dataCase);
+
+                    // propagates
+                    double likelihoodDataCase = ctp.propagate();
+
+                    if (likelihoodDataCase <= Double.MIN_NORMAL)
+                        throw new InternalError("likelihoodDataCase should be > Double.MIN_NORMAL");
+
+                    // updates sufficient statistics for each node
+                    suffStats.addInstance(ctp, weight, likelihoodDataCase);
+                }
+            } finally {
+                ctps.put(ctp);
+            }
+
+            return suffStats;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package voltric.learning.parameter.em.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The starting points of a restart strategy that are still alive, together with their scores. The EM steps of a round
+ * run concurrently, each candidate as an independent task of a {@link ForkJoinPool}, and the round returns once all of
+ * them have finished, so the candidates can be ranked and culled in between.
+ *
+ * <p>If the EM step is itself a fork-join computation on the same pool, the workers that are left idle when there are
+ * fewer candidates than workers steal its subtasks.</p>
+ *
+ * @param <T> the type of the starting points, usually a CTP or a group of CTPs.
+ */
+final class RestartCandidates<T> {
+
+    private final ForkJoinPool pool;
+
+    private final ToDoubleFunction<T> emStep;
+
+    private final double threshold;
+
+    private List<Candidate> candidates;
+
+    /**
+     * @param pool the pool where the candidates run.
+     * @param emStep runs an EM step on a starting point and returns the resulting score. It is called concurrently on
+     *               different starting points.
+     * @param threshold the minimum improvement of the score for a step not to be considered converged.
+     * @param startingPoints the starting points. If some of them tie, the first one is preferred.
+     */
+    RestartCandidates(ForkJoinPool pool, ToDoubleFunction<T> emStep, double threshold, List<T> startingPoints) {
+        this(pool, emStep, threshold, startingPoints, new double[startingPoints.size()]);
+    }
+
+    /**
+     * Creates candidates that have already run some steps, e.g. to resume from a checkpoint.
+     *
+     * @param scores the current score of each starting point.
+     */
+    RestartCandidates(ForkJoinPool pool, ToDoubleFunction<T> emStep, double threshold, List<T> startingPoints, double[] scores) {
+        if (startingPoints.isEmpty())
+            throw new IllegalArgumentException("There must be at least one starting point");
+        if (scores.length != startingPoints.size())
+            throw new IllegalArgumentException("There must be a score for each starting point");
+
+        this.pool = pool;
+        this.emStep = emStep;
+        this.threshold = threshold;
+        this.candidates = new ArrayList<>(startingPoints.size());
+        for (int i = 0; i < scores.length; i++) {
+            Candidate candidate = new Candidate(startingPoints.get(i));
+            candidate.score = scores[i];
+            candidates.add(candidate);
+        }
+    }
+
+    int size() {
+        return candidates.size();
+    }
+
+    /**
+     * Runs at most {@code nRoundSteps} EM steps on every candidate and waits for them. If {@code checkConvergence} is
+     * set, a candidate stops once a step does not improve its score by more than the threshold.
+     *
+     * @return the number of steps of the longest candidate.
+     */
+    int runRound(int nRoundSteps, boolean checkConvergence) {
+        if (nRoundSteps <= 0)
+            return 0;
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates)
+            tasks.add(ForkJoinTask.adapt(() -> candidate.runSteps(nRoundSteps, checkConvergence)));
+
+        pool.invoke(new Round(tasks));
+
+        int nSteps = 0;
+        for (Candidate candidate : candidates)
+            nSteps = Math.max(nSteps, candidate.nRoundSteps);
+        return nSteps;
+    }
+
+    /** Returns {@code true} if all the candidates stopped because they converged in the last round. */
+    boolean allConverged() {
+        for (Candidate candidate : candidates) {
+            if (!candidate.converged)
+                return false;
+        }
+        return true;
+    }
+
+    /** Sorts the candidates in descending order with respect to the score, keeping the order of ties. */
+    void rank() {
+        candidates.sort(Comparator.comparingDouble((Candidate c) -> c.score).reversed());
+    }
+
+    /** Returns the scores of the candidates, in their current order. */
+    double[] getScores() {
+        double[] scores = new double[candidates.size()];
+        for (int i = 0; i < scores.length; i++)
+            scores[i] = candidates.get(i).score;
+        return scores;
+    }
+
+    /** Retains the first {@code n} candidates. */
+    void retain(int n) {
+        if (n < 1 || n > candidates.size())
+            throw new IllegalArgumentException("Cannot retain " + n + " of " + candidates.size() + " candidates");
+
+        candidates = new ArrayList<>(candidates.subList(0, n));
+    }
+
+    /** Returns the starting points of the candidates, in their current order. */
+    List<T> getStartingPoints() {
+        List<T> startingPoints = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates)
+            startingPoints.add(candidate.startingPoint);
+        return startingPoints;
+    }
+
+    /** Returns the first candidate, which is the best one after {@link #rank()}. */
+    T getFirst() {
+        return candidates.get(0).startingPoint;
+    }
+
+    private final class Candidate {
+
+        private final T startingPoint;
+
+        private double score = 0;
+
+        /** Number of steps run in the last round. */
+        private int nRoundSteps;
+
+        /** Whether the last step of the last round did not improve the score. */
+        private boolean converged;
+
+        private Candidate(T startingPoint) {
+            this.startingPoint = startingPoint;
+        }
+
+        private void runSteps(int nRoundSteps, boolean checkConvergence) {
+            this.nRoundSteps = 0;
+            this.converged = false;
+
+            for (int j = 0; j < nRoundSteps; j++) {
+                double lastStepScore = score;
+                score = emStep.applyAsDouble(startingPoint);
+                this.nRoundSteps++;
+
+                if (checkConvergence && score - lastStepScore <= threshold && lastStepScore != Double.NEGATIVE_INFINITY) {
+                    converged = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Barrier of a round: forks the tasks of the candidates and joins them all. */
+    @SuppressWarnings("serial")
+    private static final class Round extends RecursiveAction {
+
+        private final List<ForkJoinTask<?>> tasks;
+
+        private Round(List<ForkJoinTask<?>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+}
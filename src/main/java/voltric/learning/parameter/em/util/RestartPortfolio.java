@@ -0,0 +1,130 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.learning.parameter.em.initialization.CullingPolicy;
+import voltric.learning.parameter.em.initialization.MultipleRestarts;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Runs the random restarts of {@link MultipleRestarts} concurrently and returns the best one.
+ *
+ * <p>Every restart runs its EM steps as an independent task of a {@link ForkJoinPool}. After the init iterations and
+ * then every {@link MultipleRestarts#getCullingInterval()} pre-steps all of them wait for each other, they are ranked by
+ * score and the {@link CullingPolicy} decides how many of the best ones survive. A restart stops early once a step does
+ * not improve its score by more than the threshold, and the portfolio ends when that happens to all the restarts, when
+ * only one is left or when the pre-steps are over.</p>
+ *
+ * @param <T> the type of the starting points, usually a CTP or a group of CTPs.
+ */
+public final class RestartPortfolio<T> {
+
+    private final ForkJoinPool pool;
+
+    private final ToDoubleFunction<T> emStep;
+
+    private final double threshold;
+
+    private final int nMaxSteps;
+
+    private int nSteps;
+
+    private RoundListener<T> listener = null;
+
+    /**
+     * Creates a portfolio.
+     *
+     * @param pool the pool where the restarts run.
+     * @param emStep runs an EM step on a starting point and returns the resulting score. It is called concurrently on
+     *               different starting points.
+     * @param threshold the minimum improvement of the score for a step not to be considered converged.
+     * @param nMaxSteps the maximum number of EM steps.
+     */
+    public RestartPortfolio(ForkJoinPool pool, ToDoubleFunction<T> emStep, double threshold, int nMaxSteps) {
+        this.pool = pool;
+        this.emStep = emStep;
+        this.threshold = threshold;
+        this.nMaxSteps = nMaxSteps;
+    }
+
+    /**
+     * Runs the restarts.
+     *
+     * @param startingPoints the starting points. If some of them tie, the first one is preferred.
+     * @param config the number of steps and the culling policy.
+     * @param nSteps the number of EM steps already elapsed.
+     * @return the best starting point.
+     */
+    public T run(List<T> startingPoints, MultipleRestarts config, int nSteps) {
+        RestartCandidates<T> candidates = new RestartCandidates<>(pool, emStep, threshold, startingPoints);
+
+        this.nSteps = nSteps + candidates.runRound(Math.min(config.getNumInitIterations(), nMaxSteps - nSteps), false);
+
+        return play(candidates, config, 0);
+    }
+
+    /**
+     * Resumes the restarts from the state received by a {@link RoundListener}.
+     *
+     * @param candidates the restarts that are still alive, in their order.
+     * @param scores the score of each restart.
+     * @param config the number of steps and the culling policy.
+     * @param nSteps the number of EM steps elapsed.
+     * @param nPreSteps the number of pre-steps elapsed.
+     * @return the best starting point.
+     */
+    public T resume(List<T> candidates, double[] scores, MultipleRestarts config, int nSteps, int nPreSteps) {
+        this.nSteps = nSteps;
+        return play(new RestartCandidates<>(pool, emStep, threshold, candidates, scores), config, nPreSteps);
+    }
+
+    /**
+     * Sets the listener that receives the state of the restarts before each culling.
+     *
+     * @param listener the listener, or {@code null}.
+     */
+    public void setListener(RoundListener<T> listener) {
+        this.listener = listener;
+    }
+
+    private T play(RestartCandidates<T> candidates, MultipleRestarts config, int nPreSteps) {
+        CullingPolicy cullingPolicy = config.getCullingPolicy();
+
+        while (nPreSteps < config.getnPreSteps() && this.nSteps < this.nMaxSteps) {
+            if (listener != null)
+                listener.beforeRound(candidates.getStartingPoints(), candidates.getScores(), this.nSteps, nPreSteps);
+
+            candidates.rank();
+            candidates.retain(cullingPolicy.getNumberOfSurvivors(candidates.getScores()));
+
+            int nRoundSteps = Math.min(config.getCullingInterval(), config.getnPreSteps() - nPreSteps);
+            nRoundSteps = Math.min(nRoundSteps, this.nMaxSteps - this.nSteps);
+
+            // a single restart is the starting point, the main loop runs its remaining steps
+            if (candidates.size() == 1)
+                break;
+
+            this.nSteps += candidates.runRound(nRoundSteps, true);
+            nPreSteps += nRoundSteps;
+
+            if (candidates.allConverged())
+                break;
+        }
+
+        // returns the best starting point
+        candidates.rank();
+        return candidates.getFirst();
+    }
+
+    /**
+     * Returns the number of EM steps elapsed at the end of the last run, including the ones passed to
+     * {@link #run(List, MultipleRestarts, int)}. Since the restarts run concurrently, a round counts as many steps as
+     * the longest restart.
+     *
+     * @return the number of EM steps elapsed.
+     */
+    public int getNumberOfSteps() {
+        return nSteps;
+    }
+}
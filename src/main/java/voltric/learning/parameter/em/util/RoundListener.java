@@ -0,0 +1,24 @@
+package voltric.learning.parameter.em.util;
+
+import java.util.List;
+
+/**
+ * Receives the state of a restart strategy before each of its rounds, e.g. to save a checkpoint. The state is enough
+ * to resume the strategy (see {@link ChickeringHeckermanTournament#resume} and {@link RestartPortfolio#resume}).
+ *
+ * @param <T> the type of the starting points, usually a CTP or a group of CTPs.
+ */
+@FunctionalInterface
+public interface RoundListener<T> {
+
+    /**
+     * Called before a round, when no EM step is running.
+     *
+     * @param candidates the candidates that are still alive, in their current order.
+     * @param scores the score of each candidate.
+     * @param nSteps the number of EM steps elapsed.
+     * @param progress the progress of the strategy: the number of steps of the round in the tournament, or the number
+     *                 of pre-steps elapsed in the multiple restarts.
+     */
+    void beforeRound(List<T> candidates, double[] scores, int nSteps, int progress);
+}
@@ -0,0 +1,212 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.DoubleSupplier;
+
+/**
+ * SQUAREM acceleration of the EM algorithm (Varadhan & Roland, 2008, scheme S3), which wraps an existing EM step.
+ *
+ * <p>Each cycle runs two EM steps from the current parameters t0, obtaining t1 and t2, and extrapolates along
+ * r = t1 - t0 and v = t2 - 2 t1 + t0 to t' = t0 - 2a r + a^2 v with the step length a = -|r| / |v|. The step length
+ * is at most -1, which makes t' = t2, and at least -{@code maxStepLength}. The parameters of t' are clipped to be
+ * positive and normalized, and a third EM step stabilizes them. If the score of t' is lower than that of t1, the
+ * extrapolation is discarded, the parameters are set back to t2 and the maximum step length is reduced; if the step
+ * length reached the maximum, the maximum grows.</p>
+ *
+ * <p>The parameters are the cells of the CPTs that are updated. Since the EM step returns the score of the parameters
+ * it starts from, every score needed by the safeguard comes from a step that is run anyway.</p>
+ */
+public final class Squarem {
+
+    /** The number of EM steps of a cycle of {@link #iterate()}. */
+    public static final int STEPS_PER_CYCLE = 3;
+
+    /** The initial maximum step length. */
+    public static final double DEFAULT_MAX_STEP_LENGTH = 1;
+
+    /** The factor the maximum step length grows by when it is reached. */
+    private static final double STEP_LENGTH_FACTOR = 4;
+
+    /** The minimum value of a cell of an extrapolated CPT. */
+    private static final double MIN_PROBABILITY = 1e-10;
+
+    private final List<DiscreteBeliefNode> nodes;
+
+    private final DoubleSupplier emStep;
+
+    private final double[] theta0;
+
+    private final double[] theta1;
+
+    private final double[] theta2;
+
+    private double maxStepLength = DEFAULT_MAX_STEP_LENGTH;
+
+    private int nEmSteps = 0;
+
+    private int nAccepted = 0;
+
+    private int nRejected = 0;
+
+    private double nStepsSaved = 0;
+
+    /**
+     * Creates the accelerator.
+     *
+     * @param model the model whose parameters are learned, which the EM step updates.
+     * @param dontUpdateNodes the names of the nodes whose CPTs are not updated, or {@code null}.
+     * @param emStep runs an EM step on {@code model} and returns the score of the parameters it started from.
+     */
+    public Squarem(DiscreteBayesNet model, Set<String> dontUpdateNodes, DoubleSupplier emStep) {
+        this.nodes = new ArrayList<>();
+        int nParameters = 0;
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            if (dontUpdateNodes == null || !dontUpdateNodes.contains(node.getName())) {
+                nodes.add(node);
+                nParameters += node.getCpt().getDomainSize();
+            }
+        }
+
+        this.emStep = emStep;
+        this.theta0 = new double[nParameters];
+        this.theta1 = new double[nParameters];
+        this.theta2 = new double[nParameters];
+    }
+
+    /**
+     * Runs a cycle, which costs three EM steps unless the two first ones do not change the parameters.
+     *
+     * @return the score of the best parameters evaluated in the cycle.
+     */
+    public double iterate() {
+        read(theta0);
+        runEmStep();
+        read(theta1);
+        double score1 = runEmStep();
+        read(theta2);
+
+        // r = t1 - t0 and v = t2 - 2 t1 + t0
+        double rNorm = 0, vNorm = 0;
+        for (int i = 0; i < theta0.length; i++) {
+            double r = theta1[i] - theta0[i];
+            double v = theta2[i] - 2 * theta1[i] + theta0[i];
+            rNorm += r * r;
+            vNorm += v * v;
+        }
+
+        // the parameters no longer change
+        if (vNorm == 0)
+            return score1;
+
+        double stepLength = Math.max(-Math.sqrt(rNorm / vNorm), -maxStepLength);
+        stepLength = Math.min(stepLength, -1);
+
+        // the extrapolated parameters are written in theta1, t2 is kept for the fallback
+        double[] extrapolated = theta1;
+        for (int i = 0; i < theta0.length; i++) {
+            double r = theta1[i] - theta0[i];
+            double v = theta2[i] - 2 * theta1[i] + theta0[i];
+            extrapolated[i] = theta0[i] - 2 * stepLength * r + stepLength * stepLength * v;
+        }
+        write(extrapolated);
+
+        // stabilizes the extrapolation, which returns its score
+        double score = runEmStep();
+
+        if (Double.isNaN(score) || score < score1) {
+            write(theta2);
+            maxStepLength = Math.max(DEFAULT_MAX_STEP_LENGTH, maxStepLength / STEP_LENGTH_FACTOR);
+            nRejected++;
+            return score1;
+        }
+
+        if (stepLength == -maxStepLength)
+            maxStepLength *= STEP_LENGTH_FACTOR;
+
+        // to first order, t' is 2|a| plain steps away from t0, plus the stabilization step
+        nStepsSaved += -2 * stepLength - 2;
+        nAccepted++;
+        return score;
+    }
+
+    /**
+     * Runs a single plain EM step, e.g. when the budget of steps left is smaller than a cycle.
+     *
+     * @return the score of the parameters the step started from.
+     */
+    public double step() {
+        return runEmStep();
+    }
+
+    /**
+     * Returns the number of EM steps run.
+     *
+     * @return the number of EM steps run.
+     */
+    public int getNumberOfEmSteps() {
+        return nEmSteps;
+    }
+
+    /**
+     * Returns the number of extrapolations that were accepted.
+     *
+     * @return the number of accepted extrapolations.
+     */
+    public int getNumberOfAcceptedSteps() {
+        return nAccepted;
+    }
+
+    /**
+     * Returns the number of extrapolations that decreased the score and were replaced by plain EM steps.
+     *
+     * @return the number of rejected extrapolations.
+     */
+    public int getNumberOfRejectedSteps() {
+        return nRejected;
+    }
+
+    /**
+     * Returns a first-order estimate of the number of plain EM steps saved: an accepted extrapolation with step length
+     * a covers about 2|a| + 1 plain steps with 3 EM steps.
+     *
+     * @return the estimated number of EM steps saved.
+     */
+    public int getEstimatedStepsSaved() {
+        return (int) Math.round(nStepsSaved);
+    }
+
+    private double runEmStep() {
+        nEmSteps++;
+        return emStep.getAsDouble();
+    }
+
+    private void read(double[] theta) {
+        int offset = 0;
+        for (DiscreteBeliefNode node : nodes) {
+            double[] cells = node.getCpt().getCells();
+            System.arraycopy(cells, 0, theta, offset, cells.length);
+            offset += cells.length;
+        }
+    }
+
+    /** Sets the CPTs to the argument parameters, clipped to be positive and normalized. */
+    private void write(double[] theta) {
+        int offset = 0;
+        for (DiscreteBeliefNode node : nodes) {
+            Function cpt = node.getCpt().clone();
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] = Math.max(theta[offset + i], MIN_PROBABILITY);
+            offset += cells.length;
+
+            cpt.normalize(node.getVariable());
+            node.setCpt(cpt);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package voltric.learning.parameter.em.util;
+
+import voltric.inference.CliqueTreePropagation;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Expected sufficient statistics of the E-step, held in a single flat array.
+ *
+ * <p>The families of the variables whose CPTs are updated are laid out one after the other, each one like the cells of
+ * its CPT, so a CTP can add its family beliefs in place (see
+ * {@link CliqueTreePropagation#addFamilyBelief(DiscreteVariable, double, double[], int)}) and two accumulators are
+ * merged by adding their arrays. The layout (variables and offsets) is computed once per model and shared by all the
+ * accumulators created with {@link #createEmpty()}, so each task of a parallel E-step only allocates its array.</p>
+ *
+ * <p>The log-likelihoods of the instances are accumulated as well, both the one returned by the propagation and the one
+ * computed in log space.</p>
+ */
+public final class SufficientStatistics {
+
+    /** Variables whose CPTs are updated. */
+    private final List<DiscreteVariable> variables;
+
+    /** Position of the family of each variable in {@code counts}. */
+    private final int[] offsets;
+
+    private final double[] counts;
+
+    private double logLikelihood = 0;
+
+    private double logLikelihoodAlternative = 0;
+
+    /**
+     * Creates empty statistics for the CPTs of the argument model that are updated.
+     *
+     * @param model the model whose parameters are learned.
+     * @param dontUpdateNodes the names of the nodes whose CPTs are not updated, or {@code null}.
+     */
+    public SufficientStatistics(DiscreteBayesNet model, Set<String> dontUpdateNodes) {
+        List<DiscreteVariable> mutableVariables = new ArrayList<>();
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            if (dontUpdateNodes == null || !dontUpdateNodes.contains(node.getName()))
+                mutableVariables.add(node.getVariable());
+        }
+
+        this.variables = Collections.unmodifiableList(mutableVariables);
+        this.offsets = new int[mutableVariables.size() + 1];
+        for (int i = 0; i < mutableVariables.size(); i++)
+            offsets[i + 1] = offsets[i] + model.getNode(mutableVariables.get(i)).getCpt().getDomainSize();
+
+        this.counts = new double[offsets[offsets.length - 1]];
+    }
+
+    private SufficientStatistics(SufficientStatistics layout) {
+        this.variables = layout.variables;
+        this.offsets = layout.offsets;
+        this.counts = new double[layout.counts.length];
+    }
+
+    /**
+     * Returns empty statistics with the same layout.
+     *
+     * @return empty statistics with the same layout.
+     */
+    public SufficientStatistics createEmpty() {
+        return new SufficientStatistics(this);
+    }
+
+    /**
+     * Adds the statistics of a data instance, whose evidence has already been propagated by the CTP.
+     *
+     * @param ctp the CTP, which must belong to a model with the same structure.
+     * @param weight the weight of the instance.
+     * @param likelihood the likelihood returned by the propagation.
+     */
+    public void addInstance(CliqueTreePropagation ctp, double weight, double likelihood) {
+        for (int i = 0; i < variables.size(); i++)
+            ctp.addFamilyBelief(variables.get(i), weight, counts, offsets[i]);
+
+        logLikelihood += Math.log(likelihood) * weight;
+        logLikelihoodAlternative += ctp.getLastLogLikelihood() * weight;
+    }
+
+    /**
+     * Adds the argument statistics, which must have the same layout, to these ones.
+     *
+     * @param other the statistics being added.
+     */
+    public void add(SufficientStatistics other) {
+        if (other.offsets != this.offsets)
+            throw new IllegalArgumentException("Both statistics must have the same layout");
+
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+
+        logLikelihood += other.logLikelihood;
+        logLikelihoodAlternative += other.logLikelihoodAlternative;
+    }
+
+    /**
+     * Subtracts the argument statistics, which must have the same layout, from these ones.
+     *
+     * @param other the statistics being subtracted.
+     */
+    public void subtract(SufficientStatistics other) {
+        if (other.offsets != this.offsets)
+            throw new IllegalArgumentException("Both statistics must have the same layout");
+
+        for (int i = 0; i < counts.length; i++)
+            counts[i] -= other.counts[i];
+
+        logLikelihood -= other.logLikelihood;
+        logLikelihoodAlternative -= other.logLikelihoodAlternative;
+    }
+
+    /**
+     * Multiplies the counts and the log-likelihoods by a factor, so statistics can be interpolated with
+     * {@link #add(SufficientStatistics)}.
+     *
+     * @param factor the factor.
+     */
+    public void scale(double factor) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] *= factor;
+
+        logLikelihood *= factor;
+        logLikelihoodAlternative *= factor;
+    }
+
+    /**
+     * Returns the variables whose CPTs are updated, in the order of their families.
+     *
+     * @return the variables whose CPTs are updated.
+     */
+    public List<DiscreteVariable> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns a new function with the expected counts of the family of the i-th variable, laid out like its CPT.
+     *
+     * @param i the index of the variable in {@link #getVariables()}.
+     * @param model the model the CPT belongs to.
+     * @return the expected counts of the family.
+     */
+    public Function createCounts(int i, DiscreteBayesNet model) {
+        Function function = Function.createFunction(model.getNode(variables.get(i)).getCpt().getVariables());
+        System.arraycopy(counts, offsets[i], function.getCells(), 0, offsets[i + 1] - offsets[i]);
+        return function;
+    }
+
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    public double getLogLikelihoodAlternative() {
+        return logLikelihoodAlternative;
+    }
+}
@@ -1,7 +1,306 @@
 package voltric.learning.parameter.vb;
 
+import org.apache.commons.math3.special.Gamma;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.DiscreteParameterLearning;
+import voltric.learning.parameter.em.util.ParallelEStep;
+import voltric.learning.parameter.em.util.SufficientStatistics;
+import voltric.learning.score.LearningScore;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
 /**
- * Created by fernando on 4/04/17.
+ * Streaming variational Bayes (Broderick et al., 2013) with Dirichlet priors on the rows of the CPTs. The posterior is
+ * a product of Dirichlet distributions, and each mini-batch updates it by using the current posterior as its prior,
+ * so a single pass over the data is enough and the memory only depends on the size of the model and of a mini-batch.
+ *
+ * <p>The posterior of a mini-batch is computed by mean-field VB: the local E-step propagates each instance on a copy of
+ * the model whose CPTs hold the expected log-parameters exp(E[log theta]) = exp(digamma(alpha) - digamma(sum alpha)),
+ * with the fork-join E-step of {@link ParallelEStep}, and the expected counts are added to the Dirichlet parameters
+ * of the prior. Both steps are repeated until the log-likelihood of the mini-batch converges. The learned BN holds the
+ * posterior means.</p>
+ *
+ * <p>The expected log-parameters do not sum up to one, so the E-step relies on inference engines that sum out the
+ * unobserved variables exactly, as all the exact engines of {@link voltric.inference.CliqueTreePropagation} do.</p>
  */
-public class SVB {
+public class SVB implements DiscreteParameterLearning {
+
+    private final int batchSize;
+
+    private final double priorCount;
+
+    private final int nLocalIterations;
+
+    private final double localThreshold;
+
+    private final boolean reuse;
+
+    private final HashSet<String> dontUpdateNodes;
+
+    private final ScoreType scoreType;
+
+    private final Random random;
+
+    /** The BN whose CPTs hold the posterior means. */
+    private DiscreteBayesNet model;
+
+    /** The BN whose CPTs hold the expected log-parameters, which is propagated by the E-step. */
+    private DiscreteBayesNet variationalModel;
+
+    private CliqueTreePropagationGroup ctps;
+
+    private SufficientStatistics layout;
+
+    /** The Dirichlet parameters of the CPT of each variable of the layout, laid out like it. */
+    private double[][] posterior;
+
+    /** The number of mini-batches the posterior has been updated with. */
+    private int nBatches;
+
+    public SVB() {
+        this(new SvbConfig(), ScoreType.LogLikelihood);
+    }
+
+    public SVB(SvbConfig config, ScoreType scoreType) {
+        this.batchSize = config.getBatchSize();
+        this.priorCount = config.getPriorCount();
+        this.nLocalIterations = config.getnLocalIterations();
+        this.localThreshold = config.getLocalThreshold();
+        this.reuse = config.isReuse();
+        this.dontUpdateNodes = config.getDontUpdateNodes();
+        this.scoreType = scoreType;
+        this.random = new Random(config.getSeed());
+    }
+
+    /**
+     * Learns the parameters in a single pass over an in-memory data set, whose instances are streamed in mini-batches
+     * in a random order. The returned score is computed on the whole data set.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, DiscreteData dataSet) {
+
+        if(!dataSet.getVariables().containsAll(bayesNet.getManifestVariables()))
+            throw new IllegalArgumentException("The Data set must contain all the manifest variables present in the Bayes net");
+
+        // consecutive instances of a data set are usually sorted, so they are shuffled
+        List<DiscreteDataInstance> instances = new ArrayList<>(dataSet.getInstances());
+        Collections.shuffle(instances, random);
+
+        initialize(bayesNet);
+        for (int start = 0; start < instances.size(); start += batchSize) {
+            DiscreteData miniBatch = new DiscreteData(dataSet.getVariables());
+            for (int i = start; i < Math.min(start + batchSize, instances.size()); i++) {
+                DiscreteDataInstance instance = instances.get(i);
+                miniBatch.add(new DiscreteDataInstance(instance.getNumericValues().clone()), dataSet.getWeight(instance));
+            }
+            update(miniBatch);
+        }
+
+        double logLikelihood = LearningScore.calculateLogLikelihood(dataSet, model);
+        return new LearningResult<>(model, LearningScore.calculateScore(dataSet, model, logLikelihood, this.scoreType), this.scoreType);
+    }
+
+    /**
+     * Learns the parameters from a stream of mini-batches, which may be larger than the memory, until it ends. The
+     * input BN is not modified.
+     *
+     * @param bayesNet the input Bayes net.
+     * @param miniBatches the mini-batches, each one with all the manifest variables of the BN.
+     * @return the learned BN, whose score is {@code NaN} since the data is not kept.
+     */
+    public LearningResult<DiscreteBayesNet> learnModel(DiscreteBayesNet bayesNet, Iterator<DiscreteData> miniBatches) {
+        initialize(bayesNet);
+        while (miniBatches.hasNext())
+            update(miniBatches.next());
+
+        return new LearningResult<>(model, Double.NaN, this.scoreType);
+    }
+
+    /**
+     * Starts a new learning process on a copy of the argument BN, whose posterior is the prior.
+     *
+     * @param bayesNet the input Bayes net, which is not modified.
+     */
+    public void initialize(DiscreteBayesNet bayesNet) {
+        this.model = bayesNet.copyWithParameters();
+        this.variationalModel = bayesNet.copyWithParameters();
+        this.nBatches = 0;
+
+        // the prior is symmetric, so the first E-step starts from other parameters to break the symmetry of the latent states
+        if (!this.reuse) {
+            for (DiscreteBeliefNode node : variationalModel.getNodes()) {
+                if (this.dontUpdateNodes == null || !this.dontUpdateNodes.contains(node.getName())) {
+                    Function cpt = node.getCpt();
+                    cpt.randomlyDistribute(node.getVariable());
+                    node.setCpt(cpt);
+                }
+            }
+        }
+
+        this.layout = new SufficientStatistics(variationalModel, this.dontUpdateNodes);
+        List<DiscreteVariable> variables = layout.getVariables();
+        this.posterior = new double[variables.size()][];
+        for (int v = 0; v < variables.size(); v++) {
+            DiscreteBeliefNode node = model.getNode(variables.get(v));
+            posterior[v] = new double[node.getCpt().getDomainSize()];
+            Arrays.fill(posterior[v], priorCount);
+            setPosteriorMeans(node, posterior[v]);
+        }
+
+        this.ctps = ParallelEStep.createGroup(variationalModel);
+    }
+
+    /**
+     * Updates the posterior with a mini-batch, using the current posterior as its prior. The learned BN (see
+     * {@link #getModel()}) is updated with the new posterior means.
+     *
+     * @param miniBatch the mini-batch.
+     * @return the log-likelihood of the mini-batch under the expected log-parameters of the last local iteration.
+     * @throws IllegalStateException if no learning process has been started.
+     */
+    public double update(DiscreteData miniBatch) {
+        if (model == null)
+            throw new IllegalStateException("The learning process has not been initialized");
+
+        if(!miniBatch.getVariables().containsAll(model.getManifestVariables()))
+            throw new IllegalArgumentException("The mini-batch must contain all the manifest variables present in the Bayes net");
+
+        double batchWeight = miniBatch.getTotalWeight();
+        if (batchWeight <= 0)
+            return 0;
+
+        List<DiscreteVariable> variables = layout.getVariables();
+        double[][] local = new double[variables.size()][];
+        double logLikelihood = Double.NaN;
+
+        for (int iteration = 0; iteration < nLocalIterations; iteration++) {
+            SufficientStatistics stats = ParallelEStep.computeStatistics(ctps, miniBatch, layout);
+
+            // the local posterior is the prior of the mini-batch plus its expected counts
+            for (int v = 0; v < variables.size(); v++) {
+                double[] counts = stats.createCounts(v, variationalModel).getCells();
+                local[v] = posterior[v].clone();
+                for (int i = 0; i < counts.length; i++)
+                    local[v][i] += counts[i];
+
+                setExpectedLogParameters(variationalModel.getNode(variables.get(v)), local[v]);
+            }
+
+            double previousLogLikelihood = logLikelihood;
+            logLikelihood = stats.getLogLikelihoodAlternative();
+            if (Math.abs(logLikelihood - previousLogLikelihood) / batchWeight <= localThreshold)
+                break;
+        }
+
+        // posterior-as-prior: the expected log-parameters already start the next mini-batch
+        this.posterior = local;
+        for (int v = 0; v < variables.size(); v++)
+            setPosteriorMeans(model.getNode(variables.get(v)), posterior[v]);
+        this.nBatches++;
+
+        return logLikelihood;
+    }
+
+    /**
+     * Returns the BN of the current learning process, whose CPTs hold the posterior means.
+     *
+     * @return the learned BN, or {@code null} if no learning process has been started.
+     */
+    public DiscreteBayesNet getModel() {
+        return model;
+    }
+
+    /**
+     * Returns the Dirichlet parameters of the posterior of a CPT, laid out like it.
+     *
+     * @param variable the variable of the CPT.
+     * @return a function with the Dirichlet parameters of each cell.
+     * @throws IllegalArgumentException if the CPT of the variable is not learned.
+     */
+    public Function getPosterior(DiscreteVariable variable) {
+        int v = layout == null ? -1 : layout.getVariables().indexOf(variable);
+        if (v < 0)
+            throw new IllegalArgumentException("The CPT of " + variable.getName() + " is not learned");
+
+        Function function = Function.createFunction(model.getNode(variable).getCpt().getVariables());
+        System.arraycopy(posterior[v], 0, function.getCells(), 0, posterior[v].length);
+        return function;
+    }
+
+    /**
+     * Returns the number of mini-batches the posterior has been updated with.
+     *
+     * @return the number of updates since the learning process started.
+     */
+    public int getnBatches() {
+        return nBatches;
+    }
+
+    @Override
+    public ScoreType getScoreType() {
+        return scoreType;
+    }
+
+    private static void setPosteriorMeans(DiscreteBeliefNode node, double[] alpha) {
+        Function cpt = node.getCpt().clone();
+        System.arraycopy(alpha, 0, cpt.getCells(), 0, alpha.length);
+        cpt.normalize(node.getVariable());
+        node.setCpt(cpt);
+    }
+
+    /**
+     * Sets the CPT to exp(digamma(alpha) - digamma(sum alpha)), where the sum is over the states of the node's variable
+     * in each row.
+     */
+    private static void setExpectedLogParameters(DiscreteBeliefNode node, double[] alpha) {
+        Function cpt = node.getCpt().clone();
+        double[] cells = cpt.getCells();
+
+        List<DiscreteVariable> variables = cpt.getVariables();
+        int variableIndex = variables.indexOf(node.getVariable());
+        int cardinality = node.getVariable().getCardinality();
+        int magnitude = 1;
+        for (int l = variableIndex + 1; l < variables.size(); l++)
+            magnitude *= variables.get(l).getCardinality();
+
+        // walks the rows as Function.normalize(DiscreteVariable) does
+        int nRows = cells.length / cardinality;
+        int carry = 0;
+        int residual = 0;
+        for (int row = 0; row < nRows; row++) {
+            int first = carry + residual;
+
+            double sum = 0;
+            for (int j = 0, index = first; j < cardinality; j++, index += magnitude)
+                sum += alpha[index];
+
+            double digammaSum = Gamma.digamma(sum);
+            for (int j = 0, index = first; j < cardinality; j++, index += magnitude)
+                cells[index] = Math.exp(Gamma.digamma(alpha[index]) - digammaSum);
+
+            residual++;
+            if (residual == magnitude) {
+                carry += magnitude * cardinality;
+                residual = 0;
+            }
+        }
+
+        node.setCpt(cpt);
+    }
 }
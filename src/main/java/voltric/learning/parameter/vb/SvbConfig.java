@@ -0,0 +1,106 @@
+package voltric.learning.parameter.vb;
+
+import java.util.HashSet;
+
+/**
+ * Configuration of {@link SVB}.
+ */
+public class SvbConfig {
+
+    /** The number of instances of each mini-batch drawn from an in-memory data set. */
+    protected int batchSize = 1000;
+
+    /** The parameter of the symmetric Dirichlet prior of every row of every CPT. */
+    protected double priorCount = 1.0;
+
+    /** The maximum number of local iterations (E-step and posterior update) per mini-batch. */
+    protected int nLocalIterations = 20;
+
+    /** The minimum change per instance of the mini-batch's log-likelihood to keep iterating on it. */
+    protected double localThreshold = 1e-4;
+
+    /**
+     * The flag indicates whether the parameters of the input BN are the starting point of the first E-step, instead
+     * of random ones. The prior is symmetric either way.
+     */
+    protected boolean reuse = false;
+
+    /** The collection of nodes whose CPTs are not learned */
+    protected HashSet<String> dontUpdateNodes = new HashSet<>();
+
+    /** The seed of the order in which the instances of an in-memory data set are streamed. */
+    protected long seed = 0;
+
+    public SvbConfig(){
+    }
+
+    public SvbConfig(int batchSize, double priorCount, int nLocalIterations){
+        setBatchSize(batchSize);
+        setPriorCount(priorCount);
+        setnLocalIterations(nLocalIterations);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    public double getPriorCount() {
+        return priorCount;
+    }
+
+    public void setPriorCount(double priorCount) {
+        if (!(priorCount > 0))
+            throw new IllegalArgumentException("The prior count must be positive");
+        this.priorCount = priorCount;
+    }
+
+    public int getnLocalIterations() {
+        return nLocalIterations;
+    }
+
+    public void setnLocalIterations(int nLocalIterations) {
+        if (nLocalIterations < 1)
+            throw new IllegalArgumentException("The number of local iterations must be positive");
+        this.nLocalIterations = nLocalIterations;
+    }
+
+    public double getLocalThreshold() {
+        return localThreshold;
+    }
+
+    public void setLocalThreshold(double localThreshold) {
+        if (!(localThreshold >= 0))
+            throw new IllegalArgumentException("The local threshold cannot be negative");
+        this.localThreshold = localThreshold;
+    }
+
+    public boolean isReuse() {
+        return reuse;
+    }
+
+    public void setReuse(boolean reuse) {
+        this.reuse = reuse;
+    }
+
+    public HashSet<String> getDontUpdateNodes() {
+        return dontUpdateNodes;
+    }
+
+    public void setDontUpdateNodes(HashSet<String> dontUpdateNodes) {
+        this.dontUpdateNodes = dontUpdateNodes;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -3,10 +3,13 @@ package voltric.learning.score;
 import voltric.data.DiscreteData;
 import voltric.data.DiscreteDataInstance;
 import voltric.inference.CliqueTree;
-import voltric.inference.CliqueTreePropagation;
+import voltric.inference.VariableElimination;
 import voltric.model.DiscreteBayesNet;
 
 /**
+ * Sequential scoring of a model. See {@link ParallelLearningScore} for large data sets or for scoring several models
+ * against the same data.
+ *
  * Created by fernando on 8/08/17.
  */
 public class LearningScore {
@@ -20,18 +23,33 @@ public class LearningScore {
         }
     }
 
+    /**
+     * Computes the score when the data set is not available, e.g. when it is split among several processes.
+     *
+     * @param sampleSize the total weight of the instances.
+     */
+    public static double calculateScore(double sampleSize, DiscreteBayesNet bayesNet, double logLikelihood, ScoreType scoreType){
+        switch (scoreType){
+            case LogLikelihood: return logLikelihood;
+            case BIC: return logLikelihood - bayesNet.computeDimension() * Math.log(sampleSize) / 2.0;
+            case AIC: return calculateAIC(bayesNet, logLikelihood);
+            default: throw new IllegalArgumentException("Illegal Score type");
+        }
+    }
+
+    /**
+     * Computes the log-likelihood of the data set. Only the likelihood of each instance is needed, so it uses
+     * {@link VariableElimination}, which prunes the barren variables, instead of a full clique tree propagation. Both
+     * are exact, so the result agrees with {@link ParallelLearningScore} up to rounding.
+     */
     public static double calculateLogLikelihood(DiscreteData dataSet, DiscreteBayesNet bayesNet){
         double loglikelihood = 0.0;
-        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        VariableElimination ve = new VariableElimination(bayesNet);
 
         for (DiscreteDataInstance dataInstance : dataSet.getInstances()) {
             double weight = dataSet.getWeight(dataInstance);
-            // sets evidences
-            ctp.setEvidence(dataSet.getVariables(), dataInstance.getNumericValues());
-            // propagates evidence
-            double likelihoodDataInstance = ctp.propagate();
             // LogLikelihood & weight
-            loglikelihood += Math.log(likelihoodDataInstance) * weight;
+            loglikelihood += ve.computeLogLikelihood(dataSet.getVariables(), dataInstance.getNumericValues()) * weight;
         }
         return loglikelihood;
     }
@@ -0,0 +1,187 @@
+package voltric.learning.score;
+
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.inference.CliqueTreePropagation;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.learning.parameter.em.util.ParallelEStep;
+import voltric.model.DiscreteBayesNet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel version of {@link LearningScore}. The data instances are split across the fork-join pool of
+ * {@link ParallelEStep}, so scoring and the E-step do not compete with two pools, and each thread propagates with its
+ * own {@link CliqueTreePropagation} (see {@link CliqueTreePropagationGroup}).
+ *
+ * <p>The log-likelihood of each instance is computed in log space during the propagation, so it does not underflow,
+ * and the weighted terms are added with compensated (Kahan-Babuska) summation, so the result does not depend on how
+ * the work was split, up to the last bits.</p>
+ *
+ * <p>{@link #calculateScores(DiscreteData, List, ScoreType)} scores several models against the same data in a single
+ * pass: each task reads a block of instances once and propagates it in all the models, which is the usual case when
+ * comparing candidate models on held-out data.</p>
+ */
+public class ParallelLearningScore {
+
+    /** Blocks smaller than this number of instances are never split. */
+    private static final int MIN_SPLIT_THRESHOLD = 32;
+
+    public static double calculateLogLikelihood(DiscreteData dataSet, DiscreteBayesNet bayesNet){
+        return calculateLogLikelihoods(dataSet, Collections.singletonList(bayesNet))[0];
+    }
+
+    public static double calculateBIC(DiscreteData data, DiscreteBayesNet bayesNet){
+        return LearningScore.calculateBIC(data, bayesNet, calculateLogLikelihood(data, bayesNet));
+    }
+
+    public static double calculateAIC(DiscreteData data, DiscreteBayesNet bayesNet){
+        return LearningScore.calculateAIC(bayesNet, calculateLogLikelihood(data, bayesNet));
+    }
+
+    public static double calculateScore(DiscreteData data, DiscreteBayesNet bayesNet, ScoreType scoreType){
+        return LearningScore.calculateScore(data, bayesNet, calculateLogLikelihood(data, bayesNet), scoreType);
+    }
+
+    /**
+     * Computes the score of each model with a single pass over the data.
+     *
+     * @param data the data set. All its variables must belong to each model.
+     * @param models the models to be scored.
+     * @param scoreType the type of score.
+     * @return the scores, in the order of {@code models}.
+     */
+    public static double[] calculateScores(DiscreteData data, List<DiscreteBayesNet> models, ScoreType scoreType){
+        double[] logLikelihoods = calculateLogLikelihoods(data, models);
+
+        double[] scores = new double[models.size()];
+        for(int i = 0; i < scores.length; i++)
+            scores[i] = LearningScore.calculateScore(data, models.get(i), logLikelihoods[i], scoreType);
+        return scores;
+    }
+
+    /**
+     * Computes the log-likelihood of each model with a single pass over the data.
+     *
+     * @param data the data set. All its variables must belong to each model.
+     * @param models the models whose log-likelihood is computed.
+     * @return the log-likelihoods, in the order of {@code models}.
+     */
+    public static double[] calculateLogLikelihoods(DiscreteData data, List<DiscreteBayesNet> models){
+        if(models.isEmpty())
+            return new double[0];
+
+        ForkJoinPool pool = ParallelEStep.getForkJoinPool();
+        int capacity = pool.getParallelism();
+
+        List<CliqueTreePropagationGroup> ctps = new ArrayList<>(models.size());
+        for(DiscreteBayesNet model: models)
+            ctps.add(CliqueTreePropagationGroup.constructFromModel(model, capacity));
+
+        int nInstances = data.getInstances().size();
+        int splitThreshold = Math.max(MIN_SPLIT_THRESHOLD, (int) Math.ceil(nInstances / (double) capacity));
+
+        ScoreComputation computation = new ScoreComputation(data, ctps, splitThreshold, 0, nInstances);
+        return pool.invoke(computation).getSums();
+    }
+
+    @SuppressWarnings("serial")
+    private static class ScoreComputation extends RecursiveTask<CompensatedSums> {
+
+        private final DiscreteData data;
+        private final List<CliqueTreePropagationGroup> ctps;
+        private final int splitThreshold;
+        private final int start;
+        private final int length;
+
+        ScoreComputation(DiscreteData data, List<CliqueTreePropagationGroup> ctps, int splitThreshold, int start, int length) {
+            this.data = data;
+            this.ctps = ctps;
+            this.splitThreshold = splitThreshold;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        protected CompensatedSums compute() {
+            if (length <= splitThreshold)
+                return computeDirectly();
+
+            int split = length / 2;
+            ScoreComputation c1 = new ScoreComputation(data, ctps, splitThreshold, start, split);
+            ScoreComputation c2 = new ScoreComputation(data, ctps, splitThreshold, start + split, length - split);
+            c2.fork();
+            CompensatedSums result = c1.compute();
+            result.add(c2.join());
+            return result;
+        }
+
+        private CompensatedSums computeDirectly() {
+            CompensatedSums sums = new CompensatedSums(ctps.size());
+
+            CliqueTreePropagation[] threadCtps = new CliqueTreePropagation[ctps.size()];
+            try {
+                for (int m = 0; m < threadCtps.length; m++)
+                    threadCtps[m] = ctps.get(m).take();
+
+                // Each instance is read once and propagated in all the models
+                for (int i = start; i < start + length; i++) {
+                    DiscreteDataInstance dataCase = data.getInstances().get(i);
+                    double weight = data.getWeight(dataCase);
+
+                    for (int m = 0; m < threadCtps.length; m++) {
+                        threadCtps[m].setEvidence(data.getVariables(), dataCase.getNumericValues());
+                        threadCtps[m].propagate();
+                        sums.add(m, threadCtps[m].getLastLogLikelihood() * weight);
+                    }
+                }
+            } finally {
+                // the CTPs that were taken are put back even if a propagation fails
+                for (int m = 0; m < threadCtps.length && threadCtps[m] != null; m++)
+                    ctps.get(m).put(threadCtps[m]);
+            }
+
+            return sums;
+        }
+    }
+
+    /** One Kahan-Babuska (Neumaier) sum per model. Partial sums of two blocks are merged with their compensations. */
+    private static class CompensatedSums {
+
+        private final double[] sums;
+        private final double[] compensations;
+
+        CompensatedSums(int size) {
+            this.sums = new double[size];
+            this.compensations = new double[size];
+        }
+
+        void add(int index, double value) {
+            double sum = sums[index];
+            double newSum = sum + value;
+            if (Math.abs(sum) >= Math.abs(value))
+                compensations[index] += (sum - newSum) + value;
+            else
+                compensations[index] += (value - newSum) + sum;
+            sums[index] = newSum;
+        }
+
+        void add(CompensatedSums other) {
+            for (int i = 0; i < sums.length; i++) {
+                add(i, other.sums[i]);
+                compensations[i] += other.compensations[i];
+            }
+        }
+
+        double[] getSums() {
+            double[] result = new double[sums.length];
+            for (int i = 0; i < result.length; i++)
+                result[i] = sums[i] + compensations[i];
+            return result;
+        }
+    }
+}
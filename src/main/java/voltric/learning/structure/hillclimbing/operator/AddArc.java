@@ -2,6 +2,7 @@ package voltric.learning.structure.hillclimbing.operator;
 
 import voltric.data.DiscreteData;
 import voltric.graph.Edge;
+import voltric.inference.InferenceBudget;
 import voltric.learning.LearningResult;
 import voltric.learning.parameter.DiscreteParameterLearning;
 import voltric.learning.structure.type.StructureType;
@@ -32,6 +33,9 @@ public class AddArc implements HcOperator{
     /** Maximum number of parent nodes. */
     private int maxNumberOfParents;
 
+    /** Candidate models whose predicted inference cost exceeds this budget are discarded before learning them. */
+    private InferenceBudget inferenceBudget = InferenceBudget.UNLIMITED;
+
     /**
      * Main constructor.
      *
@@ -67,6 +71,16 @@ public class AddArc implements HcOperator{
             this.edgeBlackList.put(key, new ArrayList<>());
     }
 
+    /**
+     * Sets the budget of the candidate models. Those whose predicted inference cost exceeds it are discarded without
+     * learning their parameters, whatever the policy of the budget.
+     *
+     * @param inferenceBudget the budget of the candidate models.
+     */
+    public void setInferenceBudget(InferenceBudget inferenceBudget) {
+        this.inferenceBudget = inferenceBudget;
+    }
+
     /** {@inheritDoc} */
     public LearningResult<DiscreteBayesNet> apply(DiscreteBayesNet seedNet, DiscreteData data, DiscreteParameterLearning parameterLearning){
 
@@ -102,10 +116,13 @@ public class AddArc implements HcOperator{
 
                                 Edge<Variable> newEdge = clonedNet.addEdge(fromNode, toNode);
 
-                                LearningResult<DiscreteBayesNet> newEdgeResult = parameterLearning.learnModel(clonedNet, data);
-                                if (newEdgeResult.getScoreValue() > bestEdgeScore) {
-                                    bestEdgeScore = newEdgeResult.getScoreValue();
-                                    bestEdgeModel = newEdgeResult.getBayesianNetwork();
+                                // Candidates that are too expensive are discarded before allocating their potentials
+                                if (this.inferenceBudget.admits(clonedNet)) {
+                                    LearningResult<DiscreteBayesNet> newEdgeResult = parameterLearning.learnModel(clonedNet, data);
+                                    if (newEdgeResult.getScoreValue() > bestEdgeScore) {
+                                        bestEdgeScore = newEdgeResult.getScoreValue();
+                                        bestEdgeModel = newEdgeResult.getBayesianNetwork();
+                                    }
                                 }
 
                                 // The edge is removed for the next iteration to have the initial BN
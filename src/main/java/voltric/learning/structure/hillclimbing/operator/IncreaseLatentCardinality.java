@@ -1,6 +1,7 @@
 package voltric.learning.structure.hillclimbing.operator;
 
 import voltric.data.DiscreteData;
+import voltric.inference.InferenceBudget;
 import voltric.learning.LearningResult;
 import voltric.learning.parameter.DiscreteParameterLearning;
 import voltric.model.DiscreteBayesNet;
@@ -22,6 +23,9 @@ public class IncreaseLatentCardinality implements HcOperator{
     /** The maximum allowed cardinality value. */
     private int maxCardinality;
 
+    /** Candidate models whose predicted inference cost exceeds this budget are discarded before learning them. */
+    private InferenceBudget inferenceBudget = InferenceBudget.UNLIMITED;
+
     /**
      * Main constructor.
      *
@@ -42,6 +46,16 @@ public class IncreaseLatentCardinality implements HcOperator{
         this(new ArrayList<>(), maxCardinality);
     }
 
+    /**
+     * Sets the budget of the candidate models. Those whose predicted inference cost exceeds it are discarded without
+     * learning their parameters, whatever the policy of the budget.
+     *
+     * @param inferenceBudget the budget of the candidate models.
+     */
+    public void setInferenceBudget(InferenceBudget inferenceBudget) {
+        this.inferenceBudget = inferenceBudget;
+    }
+
     /** {@inheritDoc} */
     @Override
     public LearningResult<DiscreteBayesNet> apply(DiscreteBayesNet seedNet, DiscreteData data, DiscreteParameterLearning parameterLearning) {
@@ -65,11 +79,14 @@ public class IncreaseLatentCardinality implements HcOperator{
 
                 clonedNet = clonedNet.increaseCardinality(latentVar, 1);
 
-                // After the LV has increased its cardinality, the resulting model is learned. If its score is improved, the LV is stored
-                double newScore = parameterLearning.learnModel(clonedNet, data).getScoreValue();
-                if (newScore > bestScore) {
-                    bestLatentVar = latentVar;
-                    bestScore = newScore;
+                // After the LV has increased its cardinality, the resulting model is learned. If its score is improved, the LV is stored.
+                // Candidates that are too expensive are discarded before allocating their potentials.
+                if (this.inferenceBudget.admits(clonedNet)) {
+                    double newScore = parameterLearning.learnModel(clonedNet, data).getScoreValue();
+                    if (newScore > bestScore) {
+                        bestLatentVar = latentVar;
+                        bestScore = newScore;
+                    }
                 }
 
                 // The cardinality is reversed for the next iteration to have the initial BN.
@@ -2,6 +2,7 @@ package voltric.learning.structure.hillclimbing.operator;
 
 import voltric.data.DiscreteData;
 import voltric.graph.Edge;
+import voltric.inference.InferenceBudget;
 import voltric.learning.LearningResult;
 import voltric.learning.parameter.DiscreteParameterLearning;
 import voltric.learning.structure.type.StructureType;
@@ -32,6 +33,9 @@ public class ReverseArc implements HcOperator{
     /** Maximum number of parents nodes. */
     private int maxNumberOfParents;
 
+    /** Candidate models whose predicted inference cost exceeds this budget are discarded before learning them. */
+    private InferenceBudget inferenceBudget = InferenceBudget.UNLIMITED;
+
     /**
      * Main constructor.
      *
@@ -98,6 +102,16 @@ public class ReverseArc implements HcOperator{
         this(blackList, edgeBlackList, structureType, Integer.MAX_VALUE);
     }
 
+    /**
+     * Sets the budget of the candidate models. Those whose predicted inference cost exceeds it are discarded without
+     * learning their parameters, whatever the policy of the budget.
+     *
+     * @param inferenceBudget the budget of the candidate models.
+     */
+    public void setInferenceBudget(InferenceBudget inferenceBudget) {
+        this.inferenceBudget = inferenceBudget;
+    }
+
     /** {@inheritDoc} */
     @Override
     public LearningResult<DiscreteBayesNet> apply(DiscreteBayesNet seedNet, DiscreteData data, DiscreteParameterLearning parameterLearning) {
@@ -128,10 +142,13 @@ public class ReverseArc implements HcOperator{
                 try {
                     Edge<Variable> reversedEdge = clonedNet.reverseEdge(edge);
 
-                    LearningResult<DiscreteBayesNet> newEdgeResult = parameterLearning.learnModel(clonedNet, data);
-                    if (newEdgeResult.getScoreValue() > bestEdgeScore) {
-                        bestEdgeScore = newEdgeResult.getScoreValue();
-                        bestEdgeModel = newEdgeResult.getBayesianNetwork();
+                    // Candidates that are too expensive are discarded before allocating their potentials
+                    if (this.inferenceBudget.admits(clonedNet)) {
+                        LearningResult<DiscreteBayesNet> newEdgeResult = parameterLearning.learnModel(clonedNet, data);
+                        if (newEdgeResult.getScoreValue() > bestEdgeScore) {
+                            bestEdgeScore = newEdgeResult.getScoreValue();
+                            bestEdgeModel = newEdgeResult.getBayesianNetwork();
+                        }
                     }
 
                     // Independently, the edge is once again reversed for the next iteration to have the initial BN
@@ -24,6 +24,9 @@ public abstract class AbstractBayesNet<L extends AbstractBeliefNode,M extends Ab
     /** The network's DAG */
     protected DirectedAcyclicGraph<Variable> dag;
 
+    /** Incremented on every change of the structure or the parameters, so that derived results can detect them. */
+    private volatile long version;
+
     /**
      * Default constructor. It creates an empty Bayesian network with a default name.
      */
@@ -46,6 +49,24 @@ public abstract class AbstractBayesNet<L extends AbstractBeliefNode,M extends Ab
         this.dag = new DirectedAcyclicGraph<>();
     }
 
+    /**
+     * Returns the version of this network. It changes whenever nodes, edges or CPTs are added, removed or replaced,
+     * so results computed from the network (e.g. cached posteriors) can be discarded when it differs.
+     *
+     * @return the version of this network.
+     */
+    public long getVersion(){
+        return this.version;
+    }
+
+    /**
+     * Marks this network as modified. It is called by the methods that change the network, and it must be called
+     * after modifying the cells of a CPT in place.
+     */
+    public void incrementVersion(){
+        this.version++;
+    }
+
     /**
      * Returns the collection of manifest nodes.
      *
@@ -146,6 +167,7 @@ public abstract class AbstractBayesNet<L extends AbstractBeliefNode,M extends Ab
      * @return the edge that was added to this BN.
      */
     public Edge<Variable> addEdge(AbstractBeliefNode head, AbstractBeliefNode tail) {
+        incrementVersion();
         return this.dag.addEdge(head, tail);
     }
 
@@ -155,6 +177,7 @@ public abstract class AbstractBayesNet<L extends AbstractBeliefNode,M extends Ab
      * @param edge edge to be removed from this BN.
      */
     public void removeEdge(Edge<Variable> edge) {
+        incrementVersion();
         this.dag.removeEdge(edge);
     }
 
@@ -164,6 +187,7 @@ public abstract class AbstractBayesNet<L extends AbstractBeliefNode,M extends Ab
      * @param edge the BN's edge to be reversed.
      */
     public Edge<Variable> reverseEdge(Edge<Variable> edge) {
+        incrementVersion();
         return this.dag.reverseEdge(edge);
     }
 
@@ -100,6 +100,7 @@ public class DiscreteBayesNet extends AbstractBayesNet<DiscreteBeliefNode, Discr
 
         // Node added to the DAG
         this.dag.addNode(node);
+        incrementVersion();
 
         return node;
     }
@@ -113,6 +114,7 @@ public class DiscreteBayesNet extends AbstractBayesNet<DiscreteBeliefNode, Discr
      * @param node node to be removed from this BN.
      */
     public final void removeNode(DiscreteBeliefNode node) {
+        incrementVersion();
         this.dag.removeNode(node);
     }
 
@@ -265,6 +267,19 @@ public class DiscreteBayesNet extends AbstractBayesNet<DiscreteBeliefNode, Discr
         return new DiscreteBayesNet(this);
     }
 
+    /**
+     * Creates a copy of this Bayesian network that also has a copy of each CPT. The copy returned by {@link #clone()}
+     * has the same structure but default CPTs.
+     *
+     * @return a copy of this network with its parameters.
+     */
+    public DiscreteBayesNet copyWithParameters() {
+        DiscreteBayesNet copy = this.clone();
+        for (DiscreteBeliefNode node : this.getNodes())
+            copy.getNode(node.getVariable()).setCpt(node.getCpt().clone());
+        return copy;
+    }
+
     /** {@inheritDoc} */
     public String toString(int amount) {
         // amount cannot be non-negative
@@ -189,6 +189,7 @@ public class DiscreteBeliefNode extends AbstractBeliefNode {
      */
     protected final void randomlyParameterize() {
         this.cpt.randomlyDistribute(this.getVariable());
+        this.bayesianNetwork.incrementVersion();
     }
 
     /**
@@ -205,6 +206,7 @@ public class DiscreteBeliefNode extends AbstractBeliefNode {
             throw new IllegalArgumentException("Invalid CPT");
 
         this.cpt = cpt;
+        this.bayesianNetwork.incrementVersion();
     }
 
     /**
@@ -966,6 +966,20 @@ public class Function implements Cloneable, Potential {
         return (indexOf(variable) < 0 ? false : true);
     }
 
+    /**
+     * Returns the distance between the cells of two consecutive states of the
+     * specified variable in the one-dimensional array of cells, or 0 if this
+     * function does not involve it.
+     *
+     * @param variable
+     *            variable whose magnitude is returned.
+     * @return the magnitude of the specified variable, or 0 if it is absent.
+     */
+    public final int getMagnitude(DiscreteVariable variable) {
+        int index = indexOf(variable);
+        return index < 0 ? 0 : _magnitudes[index];
+    }
+
     /**
      * Returns <code>true</code> if this function contains zero cell. This
      * method will be used to decide whether the function can be a dividend.
@@ -1255,6 +1269,35 @@ public class Function implements Cloneable, Potential {
         return minCell;
     }
 
+    /**
+     * Returns the maximum cell in this function.
+     *
+     * @return the maximum cell in this function.
+     */
+    public final double max() {
+        return _cells[argMax()];
+    }
+
+    /**
+     * Returns the index of the maximum cell in the internal one-dimensional
+     * array. Ties are resolved in favor of the lowest index. The states of
+     * the variables can be recovered with {@link #computeStates(int, int[])}.
+     *
+     * @return the index of the maximum cell.
+     */
+    public final int argMax() {
+        int argMax = 0;
+
+        int domainSize = getDomainSize();
+        for (int i = 1; i < domainSize; i++) {
+            if (_cells[i] > _cells[argMax]) {
+                argMax = i;
+            }
+        }
+
+        return argMax;
+    }
+
     /**
      * <p>
      * Normalizes this function such that its cells sum up to one, and returns
@@ -1804,6 +1847,76 @@ public class Function implements Cloneable, Potential {
         return summedOut;
     }
 
+    /**
+     * Returns a function with the specified variable maxed out from this
+     * function, that is, each cell of the result is the maximum of the cells
+     * of this function that agree with it on the remaining variables.
+     *
+     * @param variable
+     *            variable to be maxed out.
+     * @return a function with the specified variable maxed out.
+     */
+    public Function maxOut(DiscreteVariable variable) {
+
+        int variableIndex = indexOf(variable);
+
+        // argument variable must be involved in this function
+        if(variableIndex < 0)
+            throw new IllegalArgumentException("Invalid argument variable. It does not belong to this function");
+
+        int cardinality = variable.getCardinality();
+        int newDimension = getDimension() - 1;
+        int newDomainSize = getDomainSize() / cardinality;
+
+        double[] cells = new double[newDomainSize];
+
+        // traverses the subdomain as in sumOut(DiscreteVariable)
+        int magnitude = _magnitudes[variableIndex];
+        int magnitude2 = magnitude * cardinality;
+        int carry = 0;
+        int residual = 0;
+
+        for (int i = 0; i < newDomainSize; i++) {
+            // computes the index
+            int index = carry + residual;
+
+            // computes max
+            double max = _cells[index];
+            for (int j = 1; j < cardinality; j++) {
+                index += magnitude;
+                if (_cells[index] > max)
+                    max = _cells[index];
+            }
+            cells[i] = max;
+
+            // next element in original domain
+            residual++;
+
+            if (residual == magnitude) {
+                // carries in
+                carry += magnitude2;
+                residual = 0;
+            }
+        }
+
+        // fields for new function
+        DiscreteVariable[] variables = new DiscreteVariable[newDimension];
+        System.arraycopy(_variables, 0, variables, 0, variableIndex);
+        System.arraycopy(_variables, variableIndex + 1, variables,
+                variableIndex, newDimension - variableIndex);
+
+        int[] magnitudes = new int[newDimension];
+        System.arraycopy(_magnitudes, variableIndex + 1, magnitudes,
+                variableIndex, newDimension - variableIndex);
+
+        // scales down the magnitudes for X1, X2, ..., X(k-1) by |Xk|
+        for (int i = 0; i < variableIndex; i++) {
+            magnitudes[i] = _magnitudes[i] / cardinality;
+        }
+
+        return createFunction(variables, cells, magnitudes);
+    }
+
     /**
      * <p>
      * Returns the sum of the cells in this function.
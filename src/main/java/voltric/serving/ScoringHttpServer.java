@@ -0,0 +1,280 @@
+package voltric.serving;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import voltric.data.DiscreteData;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exposes a {@link ScoringService} over HTTP on the loopback interface, using the JDK's built-in server. All the
+ * messages are plain text:
+ *
+ * <ul>
+ *     <li>{@code GET /models}: one line per model with its name, followed by the names of its manifest variables and
+ *     the names of its latent variables, separated by tabs and "|".</li>
+ *     <li>{@code POST /score/<model>[?mpe=true]}: the body has one row per line with comma-separated state indices of
+ *     the manifest variables, in the order of {@code /models}, and "?" or an empty field for missing values. If the
+ *     first line contains the variable names instead, the columns are matched by name and the absent variables are
+ *     missing. The response is CSV: the log-likelihood of each row, the posterior probability of each state of each
+ *     latent variable and, if requested, the MPE state of each latent variable.</li>
+ *     <li>{@code GET /metrics}: throughput and latency histograms of the service.</li>
+ * </ul>
+ *
+ * Invalid requests are answered with status 400, unknown models and paths with 404.
+ */
+public final class ScoringHttpServer {
+
+    private final ScoringService service;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server bound to the loopback interface. It does not accept connections until {@link #start()}.
+     *
+     * @param service the service that scores the requests.
+     * @param port the port, or 0 to use any free port (see {@link #getPort()}).
+     * @param nThreads the number of threads that handle connections.
+     */
+    public ScoringHttpServer(ScoringService service, int port, int nThreads) throws IOException {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be positive");
+
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(nThreads);
+        this.server.setExecutor(executor);
+
+        this.server.createContext("/models", exchange -> handle(exchange, "GET", this::handleModels));
+        this.server.createContext("/score/", exchange -> handle(exchange, "POST", this::handleScore));
+        this.server.createContext("/metrics", exchange -> handle(exchange, "GET", this::handleMetrics));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting at most {@code delaySeconds} for the exchanges in progress. The service is not closed.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private interface Handler {
+        String handle(HttpExchange exchange) throws IOException, InterruptedException;
+    }
+
+    private static void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        int status = 200;
+        String response;
+
+        try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+                status = 405;
+                response = "Method not allowed, use " + method + "\n";
+            } else {
+                response = handler.handle(exchange);
+            }
+        } catch (ModelNotFoundException e) {
+            status = 404;
+            response = e.getMessage() + "\n";
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            response = e.getMessage() + "\n";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 503;
+            response = "Interrupted\n";
+        } catch (RuntimeException e) {
+            status = 500;
+            response = e + "\n";
+        }
+
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private String handleModels(HttpExchange exchange) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : service.getModelNames()) {
+            DiscreteBayesNet model;
+            try {
+                model = service.getModel(name);
+            } catch (IllegalArgumentException e) {
+                // unregistered in the meantime
+                continue;
+            }
+
+            builder.append(name)
+                    .append('\t').append(joinNames(model.getManifestVariables()))
+                    .append('\t').append('|')
+                    .append('\t').append(joinNames(model.getLatentVariables()))
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    private String handleMetrics(HttpExchange exchange) {
+        return "requests=" + service.getCompletedRequests() + "\n"
+                + "rows=" + service.getScoredRows() + "\n"
+                + "batches=" + service.getDispatchedBatches() + "\n"
+                + String.format("throughput=%.1f rows/s%n", service.getThroughput())
+                + "requestLatency=" + service.getRequestLatencies() + "\n"
+                + "chunkLatency=" + service.getChunkLatencies() + "\n";
+    }
+
+    private String handleScore(HttpExchange exchange) throws IOException, InterruptedException {
+        String name = exchange.getRequestURI().getPath().substring("/score/".length());
+        if (!service.getModelNames().contains(name))
+            throw new ModelNotFoundException("There is no model registered as: " + name);
+
+        String query = exchange.getRequestURI().getQuery();
+        boolean computeMpe = query != null && query.contains("mpe=true");
+
+        DiscreteBayesNet model = service.getModel(name);
+        int[][] rows = parseRows(exchange, model.getManifestVariables());
+
+        ScoringResult result = service.score(name, rows, computeMpe);
+        return format(result);
+    }
+
+    private static int[][] parseRows(HttpExchange exchange, List<DiscreteVariable> manifestVariables) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty())
+                    lines.add(line);
+            }
+        }
+
+        // position of each column in the rows, which is the identity unless there is a header
+        int nColumns = manifestVariables.size();
+        int[] positions = null;
+        int firstRow = 0;
+
+        if (!lines.isEmpty() && isHeader(lines.get(0))) {
+            String[] header = lines.get(0).split(",", -1);
+            nColumns = header.length;
+            positions = new int[nColumns];
+            for (int c = 0; c < nColumns; c++) {
+                positions[c] = indexOfName(manifestVariables, header[c].trim());
+                if (positions[c] < 0)
+                    throw new IllegalArgumentException("The model does not have a manifest variable named: " + header[c].trim());
+            }
+            firstRow = 1;
+        }
+
+        int[][] rows = new int[lines.size() - firstRow][];
+        for (int r = 0; r < rows.length; r++) {
+            String[] fields = lines.get(firstRow + r).split(",", -1);
+            if (fields.length != nColumns)
+                throw new IllegalArgumentException("Row " + (r + 1) + " has " + fields.length + " values instead of " + nColumns);
+
+            int[] row = new int[manifestVariables.size()];
+            Arrays.fill(row, DiscreteData.MISSING_VALUE);
+            for (int c = 0; c < nColumns; c++)
+                row[positions == null ? c : positions[c]] = parseState(fields[c].trim(), r + 1);
+            rows[r] = row;
+        }
+        return rows;
+    }
+
+    private static boolean isHeader(String line) {
+        for (String field : line.split(",", -1)) {
+            String value = field.trim();
+            if (!value.isEmpty() && !value.equals("?") && !value.chars().allMatch(Character::isDigit))
+                return true;
+        }
+        return false;
+    }
+
+    private static int indexOfName(List<DiscreteVariable> variables, String name) {
+        for (int i = 0; i < variables.size(); i++) {
+            if (variables.get(i).getName().equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int parseState(String field, int row) {
+        if (field.isEmpty() || field.equals("?"))
+            return DiscreteData.MISSING_VALUE;
+
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Row " + row + " has an invalid state: " + field);
+        }
+    }
+
+    private static String format(ScoringResult result) {
+        List<DiscreteVariable> latentVariables = result.getLatentVariables();
+        StringBuilder builder = new StringBuilder("logLikelihood");
+        for (DiscreteVariable latentVar : latentVariables) {
+            for (String state : latentVar.getStates())
+                builder.append(",P(").append(latentVar.getName()).append('=').append(state).append(')');
+        }
+        if (result.hasAssignments()) {
+            for (DiscreteVariable latentVar : latentVariables)
+                builder.append(",MPE(").append(latentVar.getName()).append(')');
+        }
+        builder.append('\n');
+
+        for (int i = 0; i < result.size(); i++) {
+            builder.append(result.getLogLikelihood(i));
+            for (double probability : result.getPosteriors(i))
+                builder.append(',').append(probability);
+            if (result.hasAssignments()) {
+                for (int state : result.getAssignment(i))
+                    builder.append(',').append(state);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static String joinNames(List<DiscreteVariable> variables) {
+        StringBuilder builder = new StringBuilder();
+        for (DiscreteVariable variable : variables) {
+            if (builder.length() > 0)
+                builder.append(',');
+            builder.append(variable.getName());
+        }
+        return builder.toString();
+    }
+
+    /** Answered with status 404. */
+    @SuppressWarnings("serial")
+    private static final class ModelNotFoundException extends IllegalArgumentException {
+        ModelNotFoundException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package voltric.serving;
+
+import voltric.variables.DiscreteVariable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of scoring a batch of rows with a {@link ScoringService}: for each row, its log-likelihood, the posterior
+ * distribution of each latent variable of the model and, if requested, the most probable configuration of the latent
+ * variables.
+ *
+ * <p>The posteriors of a row are concatenated in the order of {@link #getLatentVariables()}: the probability of state
+ * {@code s} of the j-th latent variable is {@code getPosteriors(i)[getPosteriorOffset(j) + s]}.</p>
+ */
+public final class ScoringResult {
+
+    private final List<DiscreteVariable> latentVariables;
+
+    /** Offset of each latent variable within the posteriors of a row. */
+    private final int[] offsets;
+
+    /** Number of posterior probabilities of each row. */
+    private final int rowWidth;
+
+    private final double[] logLikelihoods;
+
+    private final double[] posteriors;
+
+    /** The MPE configuration of the latent variables of each row, or {@code null} if it was not requested */
+    private final int[] assignments;
+
+    ScoringResult(List<DiscreteVariable> latentVariables, int nRows, boolean computeMpe) {
+        this.latentVariables = Collections.unmodifiableList(latentVariables);
+        this.offsets = new int[latentVariables.size()];
+
+        int width = 0;
+        for (int j = 0; j < offsets.length; j++) {
+            offsets[j] = width;
+            width += latentVariables.get(j).getCardinality();
+        }
+        this.rowWidth = width;
+
+        this.logLikelihoods = new double[nRows];
+        this.posteriors = new double[nRows * rowWidth];
+        this.assignments = computeMpe ? new int[nRows * latentVariables.size()] : null;
+    }
+
+    public int size() {
+        return logLikelihoods.length;
+    }
+
+    public List<DiscreteVariable> getLatentVariables() {
+        return latentVariables;
+    }
+
+    public boolean hasAssignments() {
+        return assignments != null;
+    }
+
+    public double getLogLikelihood(int row) {
+        return logLikelihoods[row];
+    }
+
+    /**
+     * Returns the offset of a latent variable within the posteriors of a row.
+     *
+     * @param latentIndex the index of the variable in {@link #getLatentVariables()}.
+     * @return the offset of the variable.
+     */
+    public int getPosteriorOffset(int latentIndex) {
+        return offsets[latentIndex];
+    }
+
+    /**
+     * Returns the posterior distribution of a latent variable for a row.
+     *
+     * @param row the index of the row.
+     * @param latentIndex the index of the variable in {@link #getLatentVariables()}.
+     * @return a copy of the posterior distribution.
+     */
+    public double[] getPosterior(int row, int latentIndex) {
+        double[] posterior = new double[latentVariables.get(latentIndex).getCardinality()];
+        System.arraycopy(posteriors, row * rowWidth + offsets[latentIndex], posterior, 0, posterior.length);
+        return posterior;
+    }
+
+    /**
+     * Returns the posteriors of all the latent variables for a row, concatenated in the order of
+     * {@link #getLatentVariables()}.
+     *
+     * @param row the index of the row.
+     * @return a copy of the posteriors of the row.
+     */
+    public double[] getPosteriors(int row) {
+        double[] rowPosteriors = new double[rowWidth];
+        System.arraycopy(posteriors, row * rowWidth, rowPosteriors, 0, rowWidth);
+        return rowPosteriors;
+    }
+
+    /**
+     * Returns the most probable configuration of the latent variables for a row.
+     *
+     * @param row the index of the row.
+     * @return the states of the latent variables, in the order of {@link #getLatentVariables()}.
+     * @throws IllegalStateException if the MPE was not requested.
+     */
+    public int[] getAssignment(int row) {
+        if (assignments == null)
+            throw new IllegalStateException("The MPE configurations were not requested");
+
+        int nLatents = latentVariables.size();
+        int[] assignment = new int[nLatents];
+        System.arraycopy(assignments, row * nLatents, assignment, 0, nLatents);
+        return assignment;
+    }
+
+    void setLogLikelihood(int row, double logLikelihood) {
+        logLikelihoods[row] = logLikelihood;
+    }
+
+    void setPosterior(int row, int latentIndex, double[] posterior) {
+        System.arraycopy(posterior, 0, posteriors, row * rowWidth + offsets[latentIndex], posterior.length);
+    }
+
+    int[] getAssignmentsArray() {
+        return assignments;
+    }
+}
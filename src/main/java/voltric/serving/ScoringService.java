@@ -0,0 +1,465 @@
+package voltric.serving;
+
+import voltric.inference.CliqueTreePropagation;
+import voltric.inference.CliqueTreePropagationGroup;
+import voltric.model.DiscreteBayesNet;
+import voltric.util.LatencyHistogram;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable service that scores rows of manifest evidence with learned models: for each row it returns the
+ * log-likelihood, the posterior distributions of the latent variables and, optionally, their most probable
+ * configuration (see {@link ScoringResult}).
+ *
+ * <p>Models are registered once by name and keep a {@link CliqueTreePropagationGroup}, so each worker thread compiles
+ * its CTP only once. Requests from different callers are queued and a dispatcher groups them in micro-batches: it
+ * waits for at most {@code maxDelay} after the first pending request, or until {@code maxBatchSize} rows are pending,
+ * and then splits the rows of each model in chunks that are scored by the worker pool. This keeps the workers busy
+ * even when each caller sends a handful of rows.</p>
+ *
+ * <p>Rows are aligned with {@link DiscreteBayesNet#getManifestVariables()} of the model, with
+ * {@link voltric.data.DiscreteData#MISSING_VALUE} for missing values. Requests can be used in-process with
+ * {@link #submit(String, int[][], boolean)} or over HTTP with {@link ScoringHttpServer}.</p>
+ */
+public final class ScoringService implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    public static final long DEFAULT_MAX_DELAY_MICROS = 500;
+
+    /** Chunks smaller than this number of rows are not split further among the workers. */
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    private final int nThreads;
+
+    private final int maxBatchSize;
+
+    private final long maxDelayNanos;
+
+    private final Map<String, RegisteredModel> models = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+
+    private final ExecutorService workers;
+
+    private final Thread dispatcher;
+
+    private volatile boolean closed = false;
+
+    /** Time from the submission of a request to its completion. */
+    private final LatencyHistogram requestLatencies = new LatencyHistogram();
+
+    /** Time spent scoring each chunk of rows. */
+    private final LatencyHistogram chunkLatencies = new LatencyHistogram();
+
+    private final AtomicLong scoredRows = new AtomicLong();
+
+    private final AtomicLong completedRequests = new AtomicLong();
+
+    private final AtomicLong dispatchedBatches = new AtomicLong();
+
+    private final long startTime = System.nanoTime();
+
+    public ScoringService() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    /**
+     * Creates a service and starts its threads.
+     *
+     * @param nThreads the number of worker threads.
+     * @param maxBatchSize the number of pending rows that triggers a batch without waiting.
+     * @param maxDelayMicros the maximum time a request waits for other requests to be batched with, in microseconds.
+     */
+    public ScoringService(int nThreads, int maxBatchSize, long maxDelayMicros) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be positive");
+
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be positive");
+
+        if (maxDelayMicros < 0)
+            throw new IllegalArgumentException("The maximum delay cannot be negative");
+
+        this.nThreads = nThreads;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "scoring-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.dispatcher = new Thread(this::dispatch, "scoring-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Registers a model under a name, replacing the previous model with the same name. Requests already submitted for
+     * the previous model are scored with it.
+     *
+     * <p>The model must not be modified while it is registered.</p>
+     *
+     * @param name the name used by the requests.
+     * @param model the model.
+     */
+    public void registerModel(String name, DiscreteBayesNet model) {
+        models.put(name, new RegisteredModel(model, CliqueTreePropagationGroup.constructFromModel(model, nThreads)));
+    }
+
+    /**
+     * Removes a model. Requests already submitted for it are still scored.
+     *
+     * @param name the name of the model.
+     * @return {@code true} if the model was registered.
+     */
+    public boolean unregisterModel(String name) {
+        return models.remove(name) != null;
+    }
+
+    public Set<String> getModelNames() {
+        return Collections.unmodifiableSet(models.keySet());
+    }
+
+    /**
+     * Returns a registered model.
+     *
+     * @param name the name of the model.
+     * @return the model.
+     * @throws IllegalArgumentException if no model is registered under the name.
+     */
+    public DiscreteBayesNet getModel(String name) {
+        return getRegisteredModel(name).model;
+    }
+
+    /**
+     * Queues a batch of rows to be scored with a model.
+     *
+     * @param modelName the name of the model.
+     * @param rows the rows, aligned with the manifest variables of the model.
+     * @param computeMpe whether the MPE configuration of the latent variables is computed.
+     * @return a future that completes with the result, or exceptionally if the evidence of some row is not valid.
+     * @throws IllegalArgumentException if the model is not registered or the rows do not have the right length.
+     * @throws IllegalStateException if the service has been closed.
+     */
+    public CompletableFuture<ScoringResult> submit(String modelName, int[][] rows, boolean computeMpe) {
+        if (closed)
+            throw new IllegalStateException("The scoring service has been closed");
+
+        RegisteredModel registeredModel = getRegisteredModel(modelName);
+
+        int nManifests = registeredModel.manifestVariables.size();
+        for (int[] row : rows) {
+            if (row.length != nManifests)
+                throw new IllegalArgumentException("Each row must have a value for each of the " + nManifests + " manifest variables");
+        }
+
+        PendingRequest request = new PendingRequest(registeredModel, rows, computeMpe);
+        if (rows.length == 0) {
+            request.complete();
+            return request.future;
+        }
+
+        queue.add(request);
+
+        // close() may have drained the queue before the request was added
+        if (closed && queue.remove(request))
+            request.fail(new IllegalStateException("The scoring service has been closed"));
+
+        return request.future;
+    }
+
+    /**
+     * Scores a batch of rows and waits for the result. See {@link #submit(String, int[][], boolean)}.
+     */
+    public ScoringResult score(String modelName, int[][] rows, boolean computeMpe) throws InterruptedException {
+        try {
+            return submit(modelName, rows, computeMpe).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    public LatencyHistogram getRequestLatencies() {
+        return requestLatencies;
+    }
+
+    public LatencyHistogram getChunkLatencies() {
+        return chunkLatencies;
+    }
+
+    public long getScoredRows() {
+        return scoredRows.get();
+    }
+
+    public long getCompletedRequests() {
+        return completedRequests.get();
+    }
+
+    public long getDispatchedBatches() {
+        return dispatchedBatches.get();
+    }
+
+    /**
+     * Returns the average number of rows scored per second since the service was created.
+     *
+     * @return the throughput in rows per second.
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? scoredRows.get() / seconds : 0;
+    }
+
+    /**
+     * Stops accepting requests, fails the queued ones and stops the threads. Chunks that are being scored are finished.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        workers.shutdown();
+
+        List<PendingRequest> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (PendingRequest request : pending)
+            request.fail(new IllegalStateException("The scoring service has been closed"));
+    }
+
+    private RegisteredModel getRegisteredModel(String name) {
+        RegisteredModel registeredModel = models.get(name);
+        if (registeredModel == null)
+            throw new IllegalArgumentException("There is no model registered as: " + name);
+        return registeredModel;
+    }
+
+    /** Loop of the dispatcher thread: collects micro-batches and hands their chunks to the workers. */
+    private void dispatch() {
+        List<PendingRequest> batch = new ArrayList<>();
+
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                int nRows = batch.get(0).rows.length;
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (nRows < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRequest request = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (request == null)
+                        break;
+                    batch.add(request);
+                    nRows += request.rows.length;
+                }
+            } catch (InterruptedException e) {
+                // closed while waiting
+            }
+
+            if (!batch.isEmpty()) {
+                dispatchedBatches.incrementAndGet();
+                submitChunks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /** Splits the rows of the batch, grouped by model, in chunks for the workers. */
+    private void submitChunks(List<PendingRequest> batch) {
+        Map<RegisteredModel, List<PendingRequest>> requestsByModel = new LinkedHashMap<>();
+        for (PendingRequest request : batch)
+            requestsByModel.computeIfAbsent(request.model, m -> new ArrayList<>()).add(request);
+
+        for (Map.Entry<RegisteredModel, List<PendingRequest>> entry : requestsByModel.entrySet()) {
+            int nRows = 0;
+            for (PendingRequest request : entry.getValue())
+                nRows += request.rows.length;
+
+            int chunkSize = Math.max(MIN_CHUNK_SIZE, (nRows + nThreads - 1) / nThreads);
+
+            Chunk chunk = new Chunk(entry.getKey());
+            for (PendingRequest request : entry.getValue()) {
+                int start = 0;
+                while (start < request.rows.length) {
+                    int length = Math.min(request.rows.length - start, chunkSize - chunk.size);
+                    chunk.add(request, start, length);
+                    start += length;
+
+                    if (chunk.size == chunkSize) {
+                        execute(chunk);
+                        chunk = new Chunk(entry.getKey());
+                    }
+                }
+            }
+            if (chunk.size > 0)
+                execute(chunk);
+        }
+    }
+
+    private void execute(Chunk chunk) {
+        try {
+            workers.execute(chunk);
+        } catch (RejectedExecutionException e) {
+            chunk.fail(new IllegalStateException("The scoring service has been closed"));
+        }
+    }
+
+    private static final class RegisteredModel {
+
+        final DiscreteBayesNet model;
+
+        final CliqueTreePropagationGroup ctps;
+
+        final List<DiscreteVariable> manifestVariables;
+
+        final List<DiscreteVariable> latentVariables;
+
+        RegisteredModel(DiscreteBayesNet model, CliqueTreePropagationGroup ctps) {
+            this.model = model;
+            this.ctps = ctps;
+            this.manifestVariables = model.getManifestVariables();
+            this.latentVariables = model.getLatentVariables();
+        }
+    }
+
+    private final class PendingRequest {
+
+        final RegisteredModel model;
+
+        final int[][] rows;
+
+        final ScoringResult result;
+
+        final CompletableFuture<ScoringResult> future = new CompletableFuture<>();
+
+        /** Rows that have not been scored yet. The request is completed when it reaches zero. */
+        final AtomicInteger remainingRows;
+
+        final long submissionTime = System.nanoTime();
+
+        /** Set by the first completion, so that the counters are updated once and before the caller is woken. */
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        PendingRequest(RegisteredModel model, int[][] rows, boolean computeMpe) {
+            this.model = model;
+            this.rows = rows;
+            this.result = new ScoringResult(model.latentVariables, rows.length, computeMpe);
+            this.remainingRows = new AtomicInteger(rows.length);
+        }
+
+        void rowsScored(int nRows) {
+            if (remainingRows.addAndGet(-nRows) == 0)
+                complete();
+        }
+
+        void complete() {
+            if (finished.compareAndSet(false, true)) {
+                requestLatencies.record(System.nanoTime() - submissionTime);
+                completedRequests.incrementAndGet();
+                future.complete(result);
+            }
+        }
+
+        void fail(Throwable cause) {
+            if (finished.compareAndSet(false, true))
+                future.completeExceptionally(cause);
+        }
+    }
+
+    /** Consecutive rows of one or more requests for the same model, scored by a single worker. */
+    private final class Chunk implements Runnable {
+
+        final RegisteredModel model;
+
+        final List<PendingRequest> requests = new ArrayList<>();
+
+        final List<int[]> ranges = new ArrayList<>();
+
+        int size = 0;
+
+        Chunk(RegisteredModel model) {
+            this.model = model;
+        }
+
+        void add(PendingRequest request, int start, int length) {
+            requests.add(request);
+            ranges.add(new int[]{start, length});
+            size += length;
+        }
+
+        void fail(Throwable cause) {
+            for (PendingRequest request : requests)
+                request.fail(cause);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            CliqueTreePropagation ctp = model.ctps.take();
+
+            try {
+                for (int r = 0; r < requests.size(); r++) {
+                    PendingRequest request = requests.get(r);
+                    int[] range = ranges.get(r);
+
+                    // a failed request is not scored any further
+                    if (request.future.isDone())
+                        continue;
+
+                    try {
+                        score(ctp, request, range[0], range[1]);
+                        request.rowsScored(range[1]);
+                    } catch (RuntimeException e) {
+                        request.fail(e);
+                    }
+                }
+            } finally {
+                model.ctps.put(ctp);
+                chunkLatencies.record(System.nanoTime() - start);
+            }
+        }
+
+        private void score(CliqueTreePropagation ctp, PendingRequest request, int start, int length) {
+            List<DiscreteVariable> latentVariables = model.latentVariables;
+            ScoringResult result = request.result;
+            int[] assignments = result.getAssignmentsArray();
+
+            for (int i = start; i < start + length; i++) {
+                ctp.setEvidence(model.manifestVariables, request.rows[i]);
+                ctp.propagate();
+                result.setLogLikelihood(i, ctp.getLastLogLikelihood());
+
+                for (int j = 0; j < latentVariables.size(); j++)
+                    result.setPosterior(i, j, ctp.computeBelief(latentVariables.get(j)).getCells());
+
+                if (assignments != null)
+                    ctp.computeMpe(latentVariables, assignments, i * latentVariables.size());
+            }
+
+            scoredRows.addAndGet(length);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package voltric.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds, with log-linear buckets: each power of two is divided into
+ * {@value #SUB_BUCKETS} buckets, so percentiles are reported with a relative error below 1/{@value #SUB_BUCKETS}.
+ * Recording a value is a couple of atomic increments, so it can be called on every request.
+ */
+public final class LatencyHistogram {
+
+    /** Number of linear buckets each power of two is divided into. Must be a power of two. */
+    private static final int SUB_BUCKETS = 16;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /** Values below SUB_BUCKETS have their own bucket, then one group of SUB_BUCKETS buckets per power of two. */
+    private static final int N_BUCKETS = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(N_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the number of recorded latencies.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies in nanoseconds, or 0 if there are none.
+     *
+     * @return the mean latency in nanoseconds.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * Returns the maximum recorded latency in nanoseconds, or 0 if there are none.
+     *
+     * @return the maximum latency in nanoseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the latency below which the argument fraction of the recorded latencies fall, or 0 if
+     * there are none.
+     *
+     * @param quantile the fraction of latencies, in [0, 1]; e.g. 0.99 for the 99th percentile.
+     * @return the quantile in nanoseconds.
+     */
+    public long getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("The quantile must be in [0, 1]");
+
+        long n = count.get();
+        if (n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long accumulated = 0;
+        for (int bucket = 0; bucket < N_BUCKETS; bucket++) {
+            accumulated += counts.get(bucket);
+            if (accumulated >= rank)
+                return Math.min(upperBoundOf(bucket), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Removes all the recorded latencies. Latencies recorded concurrently with the reset may be partially kept.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < N_BUCKETS; bucket++)
+            counts.set(bucket, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        // position of the highest bit, at least SUB_BUCKET_BITS
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long upperBound = ((SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+        // the buckets of the highest power of two overflow
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                getCount(),
+                getMean() / TimeUnit.MILLISECONDS.toNanos(1),
+                toMillis(getQuantile(0.5)),
+                toMillis(getQuantile(0.9)),
+                toMillis(getQuantile(0.99)),
+                toMillis(getMax()));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,48 @@
+package voltric.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Creates the fork-join pools of the library and keeps track of their worker threads, so the work they do on behalf of
+ * a caller can be measured, e.g. the bytes allocated by a parallel E-step.
+ */
+public final class WorkerThreads {
+
+    private static final Set<Thread> WORKERS = ConcurrentHashMap.newKeySet();
+
+    private WorkerThreads() {
+    }
+
+    /**
+     * Creates a pool with one worker per available processor, whose workers are tracked.
+     *
+     * @return a new pool.
+     */
+    public static ForkJoinPool newPool() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            WORKERS.add(worker);
+            return worker;
+        }, null, false);
+    }
+
+    /**
+     * Returns the ids of the live workers of the pools created by {@link #newPool()}. The workers that have terminated
+     * are forgotten.
+     *
+     * @return the ids of the live workers.
+     */
+    public static List<Long> getWorkerIds() {
+        WORKERS.removeIf(worker -> worker.getState() == Thread.State.TERMINATED);
+
+        List<Long> ids = new ArrayList<>(WORKERS.size());
+        for (Thread worker : WORKERS)
+            ids.add(worker.getId());
+        return ids;
+    }
+}
@@ -3,6 +3,7 @@ package voltric.util.empiricaldist;
 import voltric.data.DiscreteData;
 import voltric.data.DiscreteDataInstance;
 import voltric.inference.CliqueTreePropagation;
+import voltric.inference.PosteriorCache;
 import voltric.model.DiscreteBayesNet;
 import voltric.potential.Function;
 import voltric.variables.DiscreteVariable;
@@ -77,28 +78,27 @@ public class StatefulEmpDistComputer {
 
     private void createLatentPosts(DiscreteData dataSet, DiscreteBayesNet bayesNet){
 
-        Map<DiscreteVariable, Map<DiscreteDataInstance, Function>> latentPosts = new HashMap<>();
+        PosteriorCache cache = PosteriorCache.getSharedCache();
 
         CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
 
         //Map<DiscreteVariable, Integer> varIdx = dataSet.createVariableToIndexMap();
 
         List<DiscreteVariable> manifestVars = bayesNet.getManifestVariables();
-        int nManifestVars = manifestVars.size();
+        List<DiscreteVariable> latentVars = bayesNet.getLatentVariables();
 
         for(DiscreteDataInstance dataCase : dataSet.getInstances()){
             // projected data instance states
             int[] manifestStates = dataCase.project(manifestVars).getNumericValues();
 
-            // set evidence and propagate
-            ctp.setEvidence(manifestVars, manifestStates);
-            ctp.propagate();
+            // propagates only if the posteriors of this evidence are not cached
+            double[][] posts = cache.computePosteriors(ctp, latentVars, manifestStates);
 
             // for each of the chosen latent variables
-            for(DiscreteVariable latentVar : bayesNet.getLatentVariables()){
-                // compute P(Y|d)
-                Function post = ctp.computeBelief(latentVar);
-                Map<DiscreteDataInstance, Function> localLatentPosts = this.latentPosts.get(latentVar);
+            for(int i = 0; i < latentVars.size(); i++){
+                // P(Y|d)
+                Function post = StatelessEmpDistComputer.toFunction(latentVars.get(i), posts[i]);
+                Map<DiscreteDataInstance, Function> localLatentPosts = this.latentPosts.get(latentVars.get(i));
                 localLatentPosts.put(dataCase, post);
             }
         }
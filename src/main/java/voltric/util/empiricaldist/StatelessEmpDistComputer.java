@@ -3,6 +3,8 @@ package voltric.util.empiricaldist;
 import voltric.data.DiscreteData;
 import voltric.data.DiscreteDataInstance;
 import voltric.inference.CliqueTreePropagation;
+import voltric.inference.PosteriorCache;
+import voltric.inference.VariableElimination;
 import voltric.model.DiscreteBayesNet;
 import voltric.potential.Function;
 import voltric.variables.DiscreteVariable;
@@ -158,26 +160,7 @@ public class StatelessEmpDistComputer {
         for(DiscreteVariable latentVar: bayesNet.getLatentVariables())
             latentPosts.put(latentVar, new HashMap<>());
 
-        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
-
-        List<DiscreteVariable> manifestVars = bayesNet.getManifestVariables();
-
-        for(DiscreteDataInstance dataCase : dataSet.getInstances()){
-            // Project dataCase to the manifest variables space
-            DiscreteDataInstance projectedDataCase = dataCase.project(manifestVars);
-
-            // set evidence and propagate
-            ctp.setEvidence(manifestVars, projectedDataCase.getNumericValues());
-            ctp.propagate();
-
-            // for each of the chosen latent variables
-            for(DiscreteVariable latentVar : latentPosts.keySet()){
-                // compute P(Y|d)
-                Function post = ctp.computeBelief(latentVar);
-                Map<DiscreteDataInstance, Function> localLatentPosts = latentPosts.get(latentVar);
-                localLatentPosts.put(dataCase, post);
-            }
-        }
+        createLatentPosts(latentPosts, dataSet, bayesNet);
 
         return latentPosts;
     }
@@ -268,31 +251,62 @@ public class StatelessEmpDistComputer {
      *
      * Note: This Map needs to be properly initialized. Only the latent variables that appear in the Map as keys will be calculated.
      *
+     * The posteriors are looked up in the shared {@link PosteriorCache} first, so repeated evidence configurations and
+     * repeated calls for the same unchanged model don't propagate again.
+     *
      * @param latentPosts the Map that is going to be filled.
      * @param dataSet the dataSet.
      * @param bayesNet the bayesNet that contains the latent variables.
      */
     private static void createLatentPosts(Map<DiscreteVariable, Map<DiscreteDataInstance, Function>> latentPosts, DiscreteData dataSet, DiscreteBayesNet bayesNet){
 
-        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
-
+        PosteriorCache cache = PosteriorCache.getSharedCache();
         List<DiscreteVariable> manifestVars = bayesNet.getManifestVariables();
+        List<DiscreteVariable> latentVars = new ArrayList<>(latentPosts.keySet());
+
+        // Both engines are only created if some posterior is not cached
+        VariableElimination ve = null;
+        CliqueTreePropagation ctp = null;
 
         for(DiscreteDataInstance dataCase : dataSet.getInstances()){
             // Project dataCase to the manifest variables space
-            DiscreteDataInstance projectedDataCase = dataCase.project(manifestVars);
-
-            // set evidence and propagate
-            ctp.setEvidence(manifestVars, projectedDataCase.getNumericValues());
-            ctp.propagate();
-
-            // for each of the chosen latent variables
-            for(DiscreteVariable latentVar : latentPosts.keySet()){
-                // compute P(Y|d)
-                Function post = ctp.computeBelief(latentVar);
-                Map<DiscreteDataInstance, Function> localLatentPosts = latentPosts.get(latentVar);
-                localLatentPosts.put(dataCase, post);
+            int[] states = dataCase.project(manifestVars).getNumericValues();
+
+            double[][] posts;
+            if(latentVars.size() == 1){
+                // A single posterior per data case doesn't need a full propagation
+                DiscreteVariable latentVar = latentVars.get(0);
+                double[] post = cache.get(bayesNet, latentVar, states);
+                if(post == null){
+                    if(ve == null)
+                        ve = new VariableElimination(bayesNet);
+                    post = ve.computeBelief(latentVar, toEvidence(manifestVars, states)).getCells().clone();
+                    cache.put(bayesNet, latentVar, states, post);
+                }
+                posts = new double[][]{post};
+            } else {
+                if(ctp == null)
+                    ctp = new CliqueTreePropagation(bayesNet);
+                posts = cache.computePosteriors(ctp, latentVars, states);
             }
+
+            // for each of the chosen latent variables, P(Y|d)
+            for(int i = 0; i < latentVars.size(); i++)
+                latentPosts.get(latentVars.get(i)).put(dataCase, toFunction(latentVars.get(i), posts[i]));
         }
     }
+
+    private static Map<DiscreteVariable, Integer> toEvidence(List<DiscreteVariable> variables, int[] states){
+        Map<DiscreteVariable, Integer> evidence = new HashMap<>();
+        for(int i = 0; i < states.length; i++)
+            if(states[i] != DiscreteData.MISSING_VALUE)
+                evidence.put(variables.get(i), states[i]);
+        return evidence;
+    }
+
+    static Function toFunction(DiscreteVariable variable, double[] cells){
+        Function function = Function.createFunction(Collections.singletonList(variable));
+        System.arraycopy(cells, 0, function.getCells(), 0, cells.length);
+        return function;
+    }
 }
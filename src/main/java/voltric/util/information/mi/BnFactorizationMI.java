@@ -3,6 +3,7 @@ package voltric.util.information.mi;
 import voltric.data.DiscreteData;
 import voltric.data.DiscreteDataInstance;
 import voltric.inference.CliqueTreePropagation;
+import voltric.inference.VariableElimination;
 import voltric.variables.DiscreteVariable;
 
 import java.util.ArrayList;
@@ -25,6 +26,14 @@ public class BnFactorizationMI {
     }
 
     public static double computePairwise(List<DiscreteVariable> x, List<DiscreteVariable> y, CliqueTreePropagation ctp, DiscreteData data){
+        return computePairwise(x, y, new VariableElimination(ctp.getBayesNet()), data);
+    }
+
+    /**
+     * Each probability is a single likelihood query, so they are answered by variable elimination, which only
+     * involves the ancestors of the queried variables.
+     */
+    public static double computePairwise(List<DiscreteVariable> x, List<DiscreteVariable> y, VariableElimination ve, DiscreteData data){
 
         // Projectamos los datos a la dimension XY
         List<DiscreteVariable> xy = new ArrayList<>();
@@ -36,14 +45,11 @@ public class BnFactorizationMI {
         double mi = 0;
 
         for(DiscreteDataInstance xyInstance : projectedData.getInstances()){
-            ctp.setEvidence(xy, xyInstance.getNumericValues());
-            double Pxy = ctp.propagate();
+            double Pxy = computeLikelihood(ve, xy, xyInstance.getNumericValues());
 
-            ctp.setEvidence(x, xyInstance.project(x).getNumericValues());
-            double Px = ctp.propagate();
+            double Px = computeLikelihood(ve, x, xyInstance.project(x).getNumericValues());
 
-            ctp.setEvidence(y, xyInstance.project(y).getNumericValues());
-            double Py = ctp.propagate();
+            double Py = computeLikelihood(ve, y, xyInstance.project(y).getNumericValues());
 
             mi += Pxy * Math.log(Pxy / (Px * Py));
         }
@@ -77,6 +83,10 @@ public class BnFactorizationMI {
     }
 
     public static double computeConditional(List<DiscreteVariable> x, List<DiscreteVariable> y, List<DiscreteVariable> condVars, CliqueTreePropagation ctp, DiscreteData data){
+        return computeConditional(x, y, condVars, new VariableElimination(ctp.getBayesNet()), data);
+    }
+
+    public static double computeConditional(List<DiscreteVariable> x, List<DiscreteVariable> y, List<DiscreteVariable> condVars, VariableElimination ve, DiscreteData data){
 
         List<DiscreteVariable> z = condVars; // Redundant variable that helps understanding the method
 
@@ -98,17 +108,13 @@ public class BnFactorizationMI {
         double cmi = 0;
 
         for(DiscreteDataInstance xyzInstance : xyzData.getInstances()){
-            ctp.setEvidence(xyz, xyzInstance.getNumericValues());
-            double Pxyz = ctp.propagate();
+            double Pxyz = computeLikelihood(ve, xyz, xyzInstance.getNumericValues());
 
-            ctp.setEvidence(xz, xyzInstance.project(xz).getNumericValues());
-            double Pxz = ctp.propagate();
+            double Pxz = computeLikelihood(ve, xz, xyzInstance.project(xz).getNumericValues());
 
-            ctp.setEvidence(yz, xyzInstance.project(yz).getNumericValues());
-            double Pyz = ctp.propagate();
+            double Pyz = computeLikelihood(ve, yz, xyzInstance.project(yz).getNumericValues());
 
-            ctp.setEvidence(z, xyzInstance.project(z).getNumericValues());
-            double Pz = ctp.propagate();
+            double Pz = computeLikelihood(ve, z, xyzInstance.project(z).getNumericValues());
 
             cmi += Pxyz * Math.log((Pz * Pxyz) / (Pxz * Pyz));
         }
@@ -116,4 +122,7 @@ public class BnFactorizationMI {
         return cmi;
     }
 
+    private static double computeLikelihood(VariableElimination ve, List<DiscreteVariable> vars, int[] states){
+        return Math.exp(ve.computeLogLikelihood(vars, states));
+    }
 }
@@ -0,0 +1,374 @@
+package voltric;
+
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.modelTypes.VariableType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Small models and data sets for the tests, generated from a seeded {@link Random} so each test is reproducible, and
+ * exact answers computed by enumerating the joint distribution.
+ */
+public final class TestModels {
+
+    private TestModels() {
+    }
+
+    /**
+     * Creates a latent tree: the latent variables form a chain and each one has its own manifest children.
+     *
+     * @param random the generator of the parameters.
+     * @param nLatent the number of latent variables.
+     * @param manifestsPerLatent the number of manifest children of each latent variable.
+     * @return a randomly parameterized latent tree.
+     */
+    public static DiscreteBayesNet latentTree(Random random, int nLatent, int manifestsPerLatent) {
+        DiscreteBayesNet bayesNet = new DiscreteBayesNet();
+
+        DiscreteBeliefNode previous = null;
+        for (int l = 0; l < nLatent; l++) {
+            DiscreteBeliefNode latent = bayesNet.addNode(
+                    new DiscreteVariable(2 + l % 2, VariableType.LATENT_VARIABLE, "L" + l));
+            if (previous != null)
+                bayesNet.addEdge(latent, previous);
+
+            for (int m = 0; m < manifestsPerLatent; m++) {
+                DiscreteBeliefNode manifest = bayesNet.addNode(
+                        new DiscreteVariable(2 + m % 2, VariableType.MANIFEST_VARIABLE, "X" + l + "_" + m));
+                bayesNet.addEdge(manifest, latent);
+            }
+            previous = latent;
+        }
+
+        parameterize(bayesNet, random);
+        return bayesNet;
+    }
+
+    /**
+     * Creates a network with an undirected cycle, so its clique tree has cliques of three variables: two latent parents
+     * of a latent variable with manifest children, and manifest children of the two parents as well.
+     *
+     * @param random the generator of the parameters.
+     * @return a randomly parameterized network that is not a tree.
+     */
+    public static DiscreteBayesNet loopyNetwork(Random random) {
+        DiscreteBayesNet bayesNet = new DiscreteBayesNet();
+
+        DiscreteBeliefNode a = bayesNet.addNode(new DiscreteVariable(2, VariableType.LATENT_VARIABLE, "A"));
+        DiscreteBeliefNode b = bayesNet.addNode(new DiscreteVariable(3, VariableType.LATENT_VARIABLE, "B"));
+        DiscreteBeliefNode c = bayesNet.addNode(new DiscreteVariable(2, VariableType.LATENT_VARIABLE, "C"));
+        bayesNet.addEdge(b, a);
+        bayesNet.addEdge(c, a);
+        bayesNet.addEdge(c, b);
+
+        DiscreteBeliefNode[] parents = {a, b, c, c};
+        for (int i = 0; i < parents.length; i++) {
+            DiscreteBeliefNode manifest = bayesNet.addNode(
+                    new DiscreteVariable(2 + i % 2, VariableType.MANIFEST_VARIABLE, "X" + i));
+            bayesNet.addEdge(manifest, parents[i]);
+        }
+
+        parameterize(bayesNet, random);
+        return bayesNet;
+    }
+
+    /**
+     * Sets random CPTs drawn from the argument generator.
+     *
+     * @param bayesNet the network.
+     * @param random the generator.
+     */
+    public static void parameterize(DiscreteBayesNet bayesNet, Random random) {
+        for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+            Function cpt = node.getCpt().clone();
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] = 0.1 + random.nextDouble();
+            cpt.normalize(node.getVariable());
+            node.setCpt(cpt);
+        }
+    }
+
+    /**
+     * Samples a data set over the manifest variables of the network.
+     *
+     * @param bayesNet the network.
+     * @param nInstances the number of instances sampled.
+     * @param random the generator.
+     * @param missingRate the probability of each manifest value being missing.
+     * @return the data set.
+     */
+    public static DiscreteData sample(DiscreteBayesNet bayesNet, int nInstances, Random random, double missingRate) {
+        List<DiscreteVariable> variables = variables(bayesNet);
+        List<DiscreteVariable> manifests = bayesNet.getManifestVariables();
+        DiscreteData data = new DiscreteData(manifests);
+
+        for (int n = 0; n < nInstances; n++) {
+            int[] states = new int[variables.size()];
+            Arrays.fill(states, -1);
+
+            // every parent is sampled before its children
+            boolean complete = false;
+            while (!complete) {
+                complete = true;
+                for (int v = 0; v < variables.size(); v++) {
+                    if (states[v] >= 0)
+                        continue;
+
+                    DiscreteBeliefNode node = bayesNet.getNode(variables.get(v));
+                    List<DiscreteVariable> family = node.getCpt().getVariables();
+                    int[] familyStates = new int[family.size()];
+                    boolean ready = true;
+                    for (int k = 0; k < family.size() && ready; k++) {
+                        familyStates[k] = states[variables.indexOf(family.get(k))];
+                        ready = family.get(k).equals(node.getVariable()) || familyStates[k] >= 0;
+                    }
+
+                    if (!ready) {
+                        complete = false;
+                        continue;
+                    }
+
+                    int position = family.indexOf(node.getVariable());
+                    double u = random.nextDouble();
+                    int state = 0;
+                    for (; state < node.getVariable().getCardinality() - 1; state++) {
+                        familyStates[position] = state;
+                        u -= value(node.getCpt(), familyStates);
+                        if (u < 0)
+                            break;
+                    }
+                    states[v] = state;
+                }
+            }
+
+            int[] values = new int[manifests.size()];
+            for (int m = 0; m < values.length; m++) {
+                values[m] = random.nextDouble() < missingRate
+                        ? DiscreteData.MISSING_VALUE
+                        : states[variables.indexOf(manifests.get(m))];
+            }
+            data.add(new DiscreteDataInstance(values));
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns the probability of the evidence, summing the joint distribution over all the other variables.
+     *
+     * @param bayesNet the network.
+     * @param evidenceVariables the observed variables.
+     * @param evidence their states, with {@link DiscreteData#MISSING_VALUE} for unobserved ones.
+     * @return the probability of the evidence.
+     */
+    public static double likelihood(DiscreteBayesNet bayesNet, List<DiscreteVariable> evidenceVariables, int[] evidence) {
+        double[] joint = joint(bayesNet, evidenceVariables, evidence, null);
+        return joint[0];
+    }
+
+    /**
+     * Returns the posterior distribution of a variable given the evidence, by enumeration.
+     *
+     * @param bayesNet the network.
+     * @param evidenceVariables the observed variables.
+     * @param evidence their states, with {@link DiscreteData#MISSING_VALUE} for unobserved ones.
+     * @param query the variable whose posterior is computed.
+     * @return the posterior of {@code query}.
+     */
+    public static double[] posterior(DiscreteBayesNet bayesNet, List<DiscreteVariable> evidenceVariables, int[] evidence,
+                                     DiscreteVariable query) {
+        double[] joint = joint(bayesNet, evidenceVariables, evidence, query);
+        double[] posterior = Arrays.copyOfRange(joint, 1, joint.length);
+        for (int i = 0; i < posterior.length; i++)
+            posterior[i] /= joint[0];
+        return posterior;
+    }
+
+    /**
+     * Returns the posterior distribution of the family of a variable given the evidence, laid out like the cells of
+     * its CPT, by enumeration.
+     *
+     * @param bayesNet the network.
+     * @param evidenceVariables the observed variables.
+     * @param evidence their states, with {@link DiscreteData#MISSING_VALUE} for unobserved ones.
+     * @param query the variable whose family posterior is computed.
+     * @return the posterior of the family of {@code query}.
+     */
+    public static double[] familyPosterior(DiscreteBayesNet bayesNet, List<DiscreteVariable> evidenceVariables,
+                                           int[] evidence, DiscreteVariable query) {
+        List<DiscreteVariable> family = bayesNet.getNode(query).getCpt().getVariables();
+
+        // the family states override the evidence, so observed members are appended after it
+        List<DiscreteVariable> variables = new ArrayList<>(evidenceVariables);
+        variables.addAll(family);
+        int[] states = Arrays.copyOf(evidence, variables.size());
+
+        double total = likelihood(bayesNet, evidenceVariables, evidence);
+        double[] posterior = new double[bayesNet.getNode(query).getCpt().getDomainSize()];
+        int[] familyStates = new int[family.size()];
+        for (int cell = 0; cell < posterior.length; cell++) {
+            int rest = cell;
+            for (int k = family.size() - 1; k >= 0; k--) {
+                familyStates[k] = rest % family.get(k).getCardinality();
+                rest /= family.get(k).getCardinality();
+            }
+
+            boolean consistent = true;
+            for (int k = 0; k < family.size() && consistent; k++) {
+                int e = evidenceVariables.indexOf(family.get(k));
+                consistent = e < 0 || evidence[e] == DiscreteData.MISSING_VALUE || evidence[e] == familyStates[k];
+            }
+
+            if (consistent) {
+                System.arraycopy(familyStates, 0, states, evidence.length, familyStates.length);
+                posterior[cell] = likelihood(bayesNet, variables, states) / total;
+            }
+        }
+        return posterior;
+    }
+
+    /**
+     * Returns the log-likelihood of a data set, by enumeration.
+     *
+     * @param bayesNet the network.
+     * @param data the data set.
+     * @return the weighted log-likelihood of the instances.
+     */
+    public static double logLikelihood(DiscreteBayesNet bayesNet, DiscreteData data) {
+        double logLikelihood = 0;
+        for (DiscreteDataInstance instance : data.getInstances())
+            logLikelihood += data.getWeight(instance)
+                    * Math.log(likelihood(bayesNet, data.getVariables(), instance.getNumericValues()));
+        return logLikelihood;
+    }
+
+    /**
+     * Computes the expected counts of a family by enumeration, laid out like its CPT.
+     *
+     * @param bayesNet the network.
+     * @param data the data set.
+     * @param variable the variable of the family.
+     * @return a copy of the CPT of {@code variable} whose cells are the expected counts.
+     */
+    public static Function expectedCounts(DiscreteBayesNet bayesNet, DiscreteData data, DiscreteVariable variable) {
+        Function counts = bayesNet.getNode(variable).getCpt().clone();
+        double[] cells = counts.getCells();
+        Arrays.fill(cells, 0);
+
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            double[] posterior = familyPosterior(bayesNet, data.getVariables(), instance.getNumericValues(), variable);
+            for (int i = 0; i < cells.length; i++)
+                cells[i] += data.getWeight(instance) * posterior[i];
+        }
+        return counts;
+    }
+
+    /**
+     * Runs an EM step by enumeration: the expected counts of each family, plus a pseudo-count, are normalized.
+     *
+     * @param bayesNet the network, which is not modified.
+     * @param data the data set.
+     * @param pseudoCount the count added to each cell before normalizing.
+     * @return a copy of the network with the updated parameters.
+     */
+    public static DiscreteBayesNet emStep(DiscreteBayesNet bayesNet, DiscreteData data, double pseudoCount) {
+        DiscreteBayesNet result = bayesNet.copyWithParameters();
+        for (DiscreteBeliefNode node : result.getNodes()) {
+            Function cpt = expectedCounts(bayesNet, data, node.getVariable());
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] += pseudoCount;
+
+            cpt.normalize(node.getVariable());
+            node.setCpt(cpt);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the largest absolute difference between the cells of the CPTs of two networks with the same variables.
+     *
+     * @param expected the first network.
+     * @param actual the second network.
+     * @return the largest absolute difference.
+     */
+    public static double maxParameterDifference(DiscreteBayesNet expected, DiscreteBayesNet actual) {
+        double difference = 0;
+        for (DiscreteBeliefNode node : expected.getNodes()) {
+            double[] expectedCells = node.getCpt().getCells();
+            double[] actualCells = actual.getNode(node.getVariable()).getCpt().getCells();
+            for (int i = 0; i < expectedCells.length; i++)
+                difference = Math.max(difference, Math.abs(expectedCells[i] - actualCells[i]));
+        }
+        return difference;
+    }
+
+    /**
+     * Sums the joint probability of every configuration consistent with the evidence. The first cell is the total and
+     * the following ones split it by the state of {@code query}, if any.
+     */
+    private static double[] joint(DiscreteBayesNet bayesNet, List<DiscreteVariable> evidenceVariables, int[] evidence,
+                                  DiscreteVariable query) {
+        List<DiscreteVariable> variables = variables(bayesNet);
+        int queryIndex = query == null ? -1 : variables.indexOf(query);
+        double[] result = new double[1 + (query == null ? 0 : query.getCardinality())];
+
+        int[] states = new int[variables.size()];
+        while (true) {
+            boolean consistent = true;
+            for (int e = 0; e < evidenceVariables.size() && consistent; e++) {
+                int index = variables.indexOf(evidenceVariables.get(e));
+                consistent = index < 0 || evidence[e] == DiscreteData.MISSING_VALUE || states[index] == evidence[e];
+            }
+
+            if (consistent) {
+                double probability = 1;
+                for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+                    List<DiscreteVariable> family = node.getCpt().getVariables();
+                    int[] familyStates = new int[family.size()];
+                    for (int k = 0; k < familyStates.length; k++)
+                        familyStates[k] = states[variables.indexOf(family.get(k))];
+                    probability *= value(node.getCpt(), familyStates);
+                }
+
+                result[0] += probability;
+                if (queryIndex >= 0)
+                    result[1 + states[queryIndex]] += probability;
+            }
+
+            // next configuration
+            int v = 0;
+            while (v < states.length && ++states[v] == variables.get(v).getCardinality()) {
+                states[v] = 0;
+                v++;
+            }
+            if (v == states.length)
+                return result;
+        }
+    }
+
+    /** Returns the cell of a function for the states of its variables, the first one being the most significant. */
+    private static double value(Function function, int[] states) {
+        int index = 0;
+        List<DiscreteVariable> variables = function.getVariables();
+        for (int k = 0; k < states.length; k++)
+            index = index * variables.get(k).getCardinality() + states[k];
+        return function.getCells()[index];
+    }
+
+    private static List<DiscreteVariable> variables(DiscreteBayesNet bayesNet) {
+        List<DiscreteVariable> variables = new ArrayList<>();
+        for (DiscreteBeliefNode node : bayesNet.getNodes())
+            variables.add(node.getVariable());
+        return variables;
+    }
+}
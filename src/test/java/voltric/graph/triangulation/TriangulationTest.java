@@ -0,0 +1,104 @@
+package voltric.graph.triangulation;
+
+import org.junit.Test;
+import voltric.graph.UndirectedGraph;
+import voltric.graph.UndirectedNode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TriangulationTest {
+
+    @Test
+    public void pathHasTreewidthOne() {
+        UndirectedGraph<String> graph = graph(new String[][]{{"a", "b"}, {"b", "c"}, {"c", "d"}});
+
+        for (EliminationHeuristic heuristic : EliminationHeuristic.values()) {
+            EliminationOrder<String> order = Triangulation.triangulate(graph, content -> 2, heuristic);
+            assertEquals(heuristic, order.getHeuristic());
+            assertEquals(1, order.getTreewidth());
+            assertEquals(4, order.getMaxCliqueTableSize());
+        }
+    }
+
+    @Test
+    public void cycleNeedsOneFillInEdge() {
+        UndirectedGraph<String> graph = graph(new String[][]{{"a", "b"}, {"b", "c"}, {"c", "d"}, {"d", "a"}});
+
+        for (EliminationHeuristic heuristic : EliminationHeuristic.values()) {
+            EliminationOrder<String> order = Triangulation.triangulate(graph, content -> 2, heuristic);
+            assertEquals(4, order.getOrder().size());
+            assertEquals(new HashSet<>(order.getOrder()).size(), order.getOrder().size());
+            assertEquals(3, order.getMaxCliqueSize());
+            assertEquals(2, order.getTreewidth());
+            assertEquals(8, order.getMaxCliqueTableSize());
+
+            // the cliques of the four eliminations: two of three nodes, then two and one
+            assertEquals(8 + 8 + 4 + 2, order.getTotalTableSize());
+        }
+    }
+
+    @Test
+    public void chordalGraphIsNotFilledIn() {
+        // two triangles sharing the edge b-c
+        UndirectedGraph<String> graph = graph(new String[][]{{"a", "b"}, {"a", "c"}, {"b", "c"}, {"b", "d"}, {"c", "d"}});
+
+        EliminationOrder<String> order = Triangulation.triangulate(graph, content -> 3, EliminationHeuristic.MIN_FILL);
+        assertEquals(3, order.getMaxCliqueSize());
+        assertEquals(27, order.getMaxCliqueTableSize());
+    }
+
+    @Test
+    public void weightedMinFillAvoidsLargeCliques() {
+        // a cycle where "big" has many states: eliminating it first would create the clique of largest table
+        UndirectedGraph<String> graph = graph(new String[][]{{"big", "b"}, {"b", "c"}, {"c", "d"}, {"d", "big"}});
+        Map<String, Integer> cardinalities = new HashMap<>();
+        cardinalities.put("big", 10);
+        cardinalities.put("b", 2);
+        cardinalities.put("c", 2);
+        cardinalities.put("d", 2);
+
+        EliminationOrder<String> order = Triangulation.triangulate(graph, cardinalities::get,
+                EliminationHeuristic.WEIGHTED_MIN_FILL);
+        assertEquals(40, order.getMaxCliqueTableSize());
+
+        EliminationOrder<String> best = Triangulation.triangulate(graph, cardinalities::get);
+        assertTrue(best.getTotalTableSize() <= order.getTotalTableSize());
+    }
+
+    @Test
+    public void tableSizesSaturate() {
+        int n = 70;
+        String[][] edges = new String[n * (n - 1) / 2][];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++)
+                edges[e++] = new String[]{"v" + i, "v" + j};
+        }
+
+        EliminationOrder<String> order = Triangulation.triangulate(graph(edges), content -> 2);
+        assertEquals(n, order.getMaxCliqueSize());
+        assertEquals(Long.MAX_VALUE, order.getMaxCliqueTableSize());
+        assertEquals(Long.MAX_VALUE, order.getTotalTableSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCardinalities() {
+        Triangulation.triangulate(graph(new String[][]{{"a", "b"}}), content -> 0);
+    }
+
+    private static UndirectedGraph<String> graph(String[][] edges) {
+        UndirectedGraph<String> graph = new UndirectedGraph<>();
+        Map<String, UndirectedNode<String>> nodes = new HashMap<>();
+        for (String[] edge : edges) {
+            for (String content : edge)
+                nodes.computeIfAbsent(content, graph::addNode);
+            graph.addEdge(nodes.get(edge[0]), nodes.get(edge[1]));
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,96 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class CliqueTreeCacheTest {
+
+    @Test
+    public void copiesOfANetworkShareTheirCompilation() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteBayesNet copy = bayesNet.copyWithParameters();
+        TestModels.parameterize(copy, new Random(2));
+
+        CliqueTreeCache cache = new CliqueTreeCache(4);
+        CliqueTree first = cache.compile(bayesNet);
+        CliqueTree second = cache.compile(copy);
+
+        assertNotSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void differentStructuresAreCompiledSeparately() {
+        CliqueTreeCache cache = new CliqueTreeCache(4);
+        cache.compile(TestModels.loopyNetwork(new Random(1)));
+        cache.compile(TestModels.latentTree(new Random(1), 2, 2));
+
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void signatureIgnoresTheParameters() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteBayesNet copy = bayesNet.copyWithParameters();
+        TestModels.parameterize(copy, new Random(2));
+
+        assertEquals(new StructureSignature(bayesNet), new StructureSignature(copy));
+        assertNotEquals(new StructureSignature(bayesNet),
+                new StructureSignature(TestModels.loopyNetwork(new Random(1))));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedStructure() {
+        CliqueTreeCache cache = new CliqueTreeCache(1);
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        cache.compile(bayesNet);
+        cache.compile(TestModels.latentTree(new Random(1), 2, 2));
+        cache.compile(bayesNet);
+
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void rejectsCliquesLargerThanTheLimit() {
+        CliqueTreeCache cache = new CliqueTreeCache(4);
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+
+        // the largest clique holds A, B and C
+        assertNull(cache.compile(bayesNet, 11));
+        assertNull(cache.compile(bayesNet, 11));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void cachedTreesPropagateExactly() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        CliqueTreeCache cache = new CliqueTreeCache(4);
+        new CliqueTreePropagation(bayesNet, cache);
+
+        DiscreteBayesNet copy = bayesNet.copyWithParameters();
+        TestModels.parameterize(copy, new Random(3));
+        CliqueTreePropagation ctp = new CliqueTreePropagation(copy, cache);
+
+        List<DiscreteVariable> manifests = copy.getManifestVariables();
+        int[] evidence = {1, 0, -1, 1};
+        ctp.setEvidence(manifests, evidence);
+
+        assertEquals(1, cache.getHits());
+        assertEquals(TestModels.likelihood(copy, manifests, evidence), ctp.propagate(), 1e-12);
+    }
+}
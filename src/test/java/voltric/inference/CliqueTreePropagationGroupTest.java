@@ -0,0 +1,86 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.model.DiscreteBayesNet;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CliqueTreePropagationGroupTest {
+
+    @Test
+    public void threadKeepsItsCtp() {
+        CliqueTreePropagationGroup group = CliqueTreePropagationGroup.constructFromModel(
+                TestModels.loopyNetwork(new Random(1)), 2);
+
+        CliqueTreePropagation first = group.take();
+        group.put(first);
+        CliqueTreePropagation second = group.take();
+        group.put(second);
+
+        assertSame(first, second);
+        assertSame(group.model, first.getBayesNet());
+    }
+
+    @Test
+    public void reentrantTakeReturnsAnotherCtp() {
+        CliqueTreePropagationGroup group = CliqueTreePropagationGroup.constructFromModel(
+                TestModels.loopyNetwork(new Random(1)), 1);
+
+        CliqueTreePropagation cached = group.take();
+        CliqueTreePropagation temporary = group.take();
+        assertNotSame(cached, temporary);
+
+        group.put(temporary);
+        group.put(cached);
+        assertSame(cached, group.take());
+    }
+
+    @Test
+    public void threadsDoNotShareCtps() throws InterruptedException {
+        CliqueTreePropagationGroup group = CliqueTreePropagationGroup.constructFromModel(
+                TestModels.loopyNetwork(new Random(1)), 2);
+        CliqueTreePropagation mine = group.take();
+
+        AtomicReference<CliqueTreePropagation> theirs = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            CliqueTreePropagation ctp = group.take();
+            theirs.set(ctp);
+            group.put(ctp);
+        });
+        thread.start();
+        thread.join();
+
+        assertNotNull(theirs.get());
+        assertNotSame(mine, theirs.get());
+    }
+
+    @Test
+    public void constructorCtpBecomesTheCallersCtp() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(2), 2, 2);
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        CliqueTreePropagationGroup group = new CliqueTreePropagationGroup(ctp, 1);
+
+        assertSame(ctp, group.take());
+    }
+
+    @Test
+    public void templateClonesUseTheGroupModel() {
+        DiscreteBayesNet template = TestModels.loopyNetwork(new Random(3));
+        DiscreteBayesNet model = template.copyWithParameters();
+        CliqueTreePropagationGroup group = CliqueTreePropagationGroup.constructFromTemplate(
+                new CliqueTreePropagation(template), model, 1);
+
+        assertSame(model, group.take().getBayesNet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        CliqueTreePropagationGroup.constructFromModel(TestModels.loopyNetwork(new Random(1)), 0);
+    }
+}
@@ -0,0 +1,39 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CliqueTreePropagationTest {
+
+    @Test
+    public void addFamilyBeliefMatchesEnumerationOnACliqueTree() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(bayesNet, 20, new Random(2), 0.3);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        assertFalse(ctp.usesLatentTreeEngine());
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            ctp.setEvidence(data.getVariables(), evidence);
+            ctp.propagate();
+
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                double[] expected = TestModels.familyPosterior(bayesNet, data.getVariables(), evidence, variable);
+                double[] target = new double[expected.length + 1];
+                ctp.addFamilyBelief(variable, 2, target, 1);
+
+                for (int i = 0; i < expected.length; i++)
+                    assertEquals(2 * expected[i], target[i + 1], 1e-12);
+            }
+        }
+    }
+}
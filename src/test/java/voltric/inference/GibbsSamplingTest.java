@@ -0,0 +1,98 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+import voltric.variables.modelTypes.VariableType;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GibbsSamplingTest {
+
+    @Test
+    public void closeToExactOnALoopyNetwork() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(bayesNet, 5, new Random(2), 0.25);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet, new GibbsSampling(bayesNet, 20000, 200, 3));
+        assertTrue(ctp.isApproximate());
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            ctp.setEvidence(data.getVariables(), evidence);
+
+            double likelihood = ctp.propagate();
+            assertEquals(1, likelihood / TestModels.likelihood(bayesNet, data.getVariables(), evidence), 0.1);
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeBelief(variable).getCells(), 0.03);
+                assertArrayEquals(TestModels.familyPosterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeFamilyBelief(variable).getCells(), 0.03);
+            }
+        }
+    }
+
+    @Test
+    public void mixesOverStronglyCoupledLatentVariables() {
+        // the second latent variable copies the first one almost surely, which traps single-site Gibbs sampling
+        DiscreteBayesNet bayesNet = new DiscreteBayesNet();
+        DiscreteBeliefNode first = bayesNet.addNode(new DiscreteVariable(2, VariableType.LATENT_VARIABLE, "L0"));
+        DiscreteBeliefNode second = bayesNet.addNode(new DiscreteVariable(2, VariableType.LATENT_VARIABLE, "L1"));
+        bayesNet.addEdge(second, first);
+        for (int m = 0; m < 2; m++) {
+            bayesNet.addEdge(bayesNet.addNode(new DiscreteVariable(2, VariableType.MANIFEST_VARIABLE, "X" + m)), first);
+            bayesNet.addEdge(bayesNet.addNode(new DiscreteVariable(2, VariableType.MANIFEST_VARIABLE, "Y" + m)), second);
+        }
+        TestModels.parameterize(bayesNet, new Random(4));
+
+        Function copy = second.getCpt().clone();
+        double[] cells = copy.getCells();
+        for (int c = 0; c < cells.length; c++) {
+            // the cells are indexed by (L1, L0) or (L0, L1), and the diagonal is the same in both layouts
+            cells[c] = c == 0 || c == 3 ? 0.9999 : 0.0001;
+        }
+        second.setCpt(copy);
+
+        DiscreteData data = TestModels.sample(bayesNet, 3, new Random(5), 0);
+        GibbsSampling gibbs = new GibbsSampling(bayesNet, 5000, 100, 6);
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet, gibbs);
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            ctp.setEvidence(data.getVariables(), evidence);
+            ctp.propagate();
+
+            assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, first.getVariable()),
+                    ctp.computeBelief(first.getVariable()).getCells(), 0.02);
+        }
+    }
+
+    @Test
+    public void sameSeedSameEstimates() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(7));
+        DiscreteData data = TestModels.sample(bayesNet, 1, new Random(8), 0);
+        int[] evidence = data.getInstances().get(0).getNumericValues();
+
+        double[][] beliefs = new double[2][];
+        for (int run = 0; run < 2; run++) {
+            CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet, new GibbsSampling(bayesNet, 100, 10, 9));
+            ctp.setEvidence(data.getVariables(), evidence);
+            ctp.propagate();
+            beliefs[run] = ctp.computeFamilyBelief(bayesNet.getLatentVariables().get(2)).getCells();
+        }
+
+        assertArrayEquals(beliefs[0], beliefs[1], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoSamples() {
+        new GibbsSampling(TestModels.loopyNetwork(new Random(1)), 0, 0);
+    }
+}
@@ -0,0 +1,92 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.graph.AbstractNode;
+import voltric.graph.Edge;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InferenceCostEstimatorTest {
+
+    @Test
+    public void predictsTheCliqueTreeOfALoopyNetwork() {
+        checkAgainstCliqueTree(TestModels.loopyNetwork(new Random(1)));
+    }
+
+    @Test
+    public void predictsTheCliqueTreeOfALatentTree() {
+        checkAgainstCliqueTree(TestModels.latentTree(new Random(2), 4, 3));
+    }
+
+    @Test
+    public void emptyNetworkCostsNothing() {
+        InferenceCost cost = InferenceCostEstimator.estimate(new DiscreteBayesNet());
+
+        assertEquals(0, cost.getNumberOfCliques());
+        assertEquals(0, cost.getEstimatedBytes());
+    }
+
+    @Test
+    public void budgetAdmitsTheCostsWithinIt() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(3));
+        InferenceCost cost = InferenceCostEstimator.estimate(bayesNet);
+
+        assertTrue(new InferenceBudget(cost.getEstimatedBytes(), InferenceBudget.Policy.REJECT).admits(cost));
+        assertFalse(new InferenceBudget(cost.getEstimatedBytes() - 1, InferenceBudget.Policy.REJECT).admits(cost));
+        assertFalse(new InferenceBudget(Long.MAX_VALUE, cost.getFlopsPerPropagation() - 1,
+                InferenceBudget.Policy.REJECT).admits(cost));
+        assertTrue(InferenceBudget.UNLIMITED.admits(bayesNet));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetRejectsNonPositiveLimits() {
+        new InferenceBudget(0, InferenceBudget.Policy.REJECT);
+    }
+
+    /** Compares the prediction with the sizes of the clique tree that is actually built. */
+    private static void checkAgainstCliqueTree(DiscreteBayesNet bayesNet) {
+        CliqueTreeCache cache = new CliqueTreeCache(4);
+        InferenceCost cost = InferenceCostEstimator.estimate(bayesNet, cache);
+        CliqueTree cliqueTree = cache.compile(bayesNet);
+
+        long maxTable = 0, totalTable = 0;
+        for (AbstractNode<String> node : cliqueTree.getNodes()) {
+            long size = ((CliqueNode) node).getCardinality();
+            maxTable = Math.max(maxTable, size);
+            totalTable += size;
+        }
+
+        // a message is sent in each direction of every edge
+        long maxMessage = 0, totalMessage = 0;
+        for (Edge<String> edge : cliqueTree.getEdges()) {
+            Set<DiscreteVariable> separator = new LinkedHashSet<>(((CliqueNode) edge.getHead()).getVariables());
+            separator.retainAll(((CliqueNode) edge.getTail()).getVariables());
+
+            long size = 1;
+            for (DiscreteVariable variable : separator)
+                size *= variable.getCardinality();
+            maxMessage = Math.max(maxMessage, size);
+            totalMessage += 2 * size;
+        }
+
+        assertEquals(cliqueTree.getNodes().size(), cost.getNumberOfCliques());
+        assertEquals(maxTable, cost.getMaxCliqueTableSize());
+        assertEquals(totalTable, cost.getTotalCliqueTableSize());
+        assertEquals(maxMessage, cost.getMaxMessageSize());
+        assertEquals(totalMessage, cost.getTotalMessageSize());
+        assertEquals((totalTable + totalMessage) * Double.BYTES, cost.getEstimatedBytes());
+        assertTrue(cost.getFlopsPerPropagation() >= totalTable);
+
+        // the estimate shares the triangulation with the compilation
+        assertEquals(1, cache.getMisses());
+    }
+}
@@ -0,0 +1,117 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatentTreePropagationTest {
+
+    @Test
+    public void selectedForTreesOnly() {
+        assertTrue(LatentTreePropagation.isApplicable(TestModels.latentTree(new Random(1), 3, 2)));
+        assertFalse(LatentTreePropagation.isApplicable(TestModels.loopyNetwork(new Random(1))));
+
+        assertTrue(new CliqueTreePropagation(TestModels.latentTree(new Random(1), 3, 2)).usesLatentTreeEngine());
+        assertFalse(new CliqueTreePropagation(TestModels.loopyNetwork(new Random(1))).usesLatentTreeEngine());
+    }
+
+    @Test
+    public void matchesEnumeration() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(2), 3, 3);
+        DiscreteData data = TestModels.sample(bayesNet, 20, new Random(3), 0.3);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            ctp.setEvidence(data.getVariables(), evidence);
+
+            double likelihood = TestModels.likelihood(bayesNet, data.getVariables(), evidence);
+            assertEquals(likelihood, ctp.propagate(), 1e-12);
+            assertEquals(Math.log(likelihood), ctp.getLastLogLikelihood(), 1e-10);
+
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeBelief(variable).getCells(), 1e-10);
+                assertArrayEquals(TestModels.familyPosterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeFamilyBelief(variable).getCells(), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void matchesEnumerationWithUnnormalizedCpts() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(8), 2, 3);
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(9), 0.3);
+
+        // as the expected log-parameters of variational Bayes, the rows do not sum up to one
+        Random random = new Random(10);
+        for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+            Function cpt = node.getCpt().clone();
+            double[] cells = cpt.getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] *= 0.2 + random.nextDouble();
+            node.setCpt(cpt);
+        }
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        assertTrue(ctp.usesLatentTreeEngine());
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            ctp.setEvidence(data.getVariables(), evidence);
+
+            double likelihood = TestModels.likelihood(bayesNet, data.getVariables(), evidence);
+            assertEquals(1, ctp.propagate() / likelihood, 1e-12);
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(TestModels.familyPosterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeFamilyBelief(variable).getCells(), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void addFamilyBeliefMatchesComputeFamilyBelief() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(4), 2, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 5, new Random(5), 0.3);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            ctp.setEvidence(data.getVariables(), instance.getNumericValues());
+            ctp.propagate();
+
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                double[] expected = ctp.computeFamilyBelief(variable).getCells();
+                double[] target = new double[expected.length + 1];
+                ctp.addFamilyBelief(variable, 2, target, 1);
+
+                for (int i = 0; i < expected.length; i++)
+                    assertEquals(2 * expected[i], target[i + 1], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void seesParameterUpdates() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(6), 2, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 1, new Random(7), 0);
+        int[] evidence = data.getInstances().get(0).getNumericValues();
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        ctp.setEvidence(data.getVariables(), evidence);
+        ctp.propagate();
+
+        TestModels.parameterize(bayesNet, new Random(8));
+        assertEquals(TestModels.likelihood(bayesNet, data.getVariables(), evidence), ctp.propagate(), 1e-12);
+    }
+}
@@ -0,0 +1,110 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoopyBeliefPropagationTest {
+
+    @Test
+    public void exactOnTrees() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(1), 3, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(2), 0.2);
+
+        LoopyBeliefPropagation lbp = new LoopyBeliefPropagation(bayesNet);
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            double likelihood = lbp.propagate(evidenceMap(data.getVariables(), evidence));
+
+            assertTrue(lbp.hasConverged());
+            assertEquals(TestModels.likelihood(bayesNet, data.getVariables(), evidence), likelihood, 1e-6);
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, variable),
+                        lbp.computeBelief(variable).getCells(), 1e-4);
+                assertArrayEquals(TestModels.familyPosterior(bayesNet, data.getVariables(), evidence, variable),
+                        lbp.computeFamilyBelief(variable).getCells(), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void closeToExactOnALoopyNetwork() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(3));
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(4), 0);
+
+        LoopyBeliefPropagation lbp = new LoopyBeliefPropagation(bayesNet);
+        assertFalse(lbp.isExact());
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            double likelihood = lbp.propagate(evidenceMap(data.getVariables(), evidence));
+
+            assertEquals(1, likelihood / TestModels.likelihood(bayesNet, data.getVariables(), evidence), 0.2);
+            for (DiscreteVariable variable : bayesNet.getLatentVariables()) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, variable),
+                        lbp.computeBelief(variable).getCells(), 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void ctpIsExactWithoutABudget() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(5));
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(6), 0.2);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        assertFalse(ctp.isApproximate());
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            ctp.setEvidence(data.getVariables(), evidence);
+
+            assertEquals(TestModels.likelihood(bayesNet, data.getVariables(), evidence), ctp.propagate(), 1e-12);
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeBelief(variable).getCells(), 1e-10);
+                assertArrayEquals(TestModels.familyPosterior(bayesNet, data.getVariables(), evidence, variable),
+                        ctp.computeFamilyBelief(variable).getCells(), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void budgetFallsBackOnlyWhenApproximationIsAllowed() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(7));
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet,
+                new InferenceBudget(1, InferenceBudget.Policy.APPROXIMATE));
+        assertTrue(ctp.isApproximate());
+
+        CliqueTreePropagation exact = new CliqueTreePropagation(bayesNet,
+                new InferenceBudget(Long.MAX_VALUE, InferenceBudget.Policy.APPROXIMATE));
+        assertFalse(exact.isApproximate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetRejectsLargeNetworks() {
+        new CliqueTreePropagation(TestModels.loopyNetwork(new Random(7)),
+                new InferenceBudget(1, InferenceBudget.Policy.REJECT));
+    }
+
+    private static Map<DiscreteVariable, Integer> evidenceMap(List<DiscreteVariable> variables, int[] states) {
+        Map<DiscreteVariable, Integer> evidence = new HashMap<>();
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] != DiscreteData.MISSING_VALUE)
+                evidence.put(variables.get(i), states[i]);
+        }
+        return evidence;
+    }
+}
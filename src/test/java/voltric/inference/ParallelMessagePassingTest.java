@@ -0,0 +1,43 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelMessagePassingTest {
+
+    @Test
+    public void parallelMessagesGiveTheSameBeliefs() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(2), 0.2);
+
+        CliqueTreePropagation sequential = new CliqueTreePropagation(bayesNet);
+        sequential.setParallelThreshold(Long.MAX_VALUE);
+        CliqueTreePropagation parallel = new CliqueTreePropagation(bayesNet);
+        parallel.setParallelThreshold(1);
+
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            sequential.setEvidence(data.getVariables(), instance.getNumericValues());
+            parallel.setEvidence(data.getVariables(), instance.getNumericValues());
+
+            assertEquals(sequential.propagate(), parallel.propagate(), 1e-15);
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(sequential.computeFamilyBelief(variable).getCells(),
+                        parallel.computeFamilyBelief(variable).getCells(), 1e-15);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveThresholds() {
+        new CliqueTreePropagation(TestModels.loopyNetwork(new Random(1))).setParallelThreshold(0);
+    }
+}
@@ -0,0 +1,95 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelMpeTest {
+
+    @Test
+    public void latentTreeAssignmentsAreTheMostProbable() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(1), 3, 2);
+        checkAgainstEnumeration(bayesNet, TestModels.sample(bayesNet, 40, new Random(2), 0.2));
+    }
+
+    @Test
+    public void loopyNetworkAssignmentsAreTheMostProbable() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(3));
+        checkAgainstEnumeration(bayesNet, TestModels.sample(bayesNet, 40, new Random(4), 0.2));
+    }
+
+    @Test
+    public void singleCtpAgreesWithTheBatch() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(5));
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(6), 0);
+        List<DiscreteVariable> latents = bayesNet.getLatentVariables();
+
+        int[] assignments = ParallelMpe.computeAssignments(bayesNet, data, latents);
+
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        for (int i = 0; i < data.getInstances().size(); i++) {
+            ctp.setEvidence(data.getVariables(), data.getInstances().get(i).getNumericValues());
+            assertArrayEquals(Arrays.copyOfRange(assignments, i * latents.size(), (i + 1) * latents.size()),
+                    ctp.computeMpe(latents));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallArrays() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(5));
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(6), 0);
+        ParallelMpe.computeAssignments(ParallelMpe.createGroup(bayesNet), data, bayesNet.getLatentVariables(),
+                new int[5], null);
+    }
+
+    /** Compares the assignments with the best configuration of the latent variables found by enumeration. */
+    private static void checkAgainstEnumeration(DiscreteBayesNet bayesNet, DiscreteData data) {
+        List<DiscreteVariable> latents = bayesNet.getLatentVariables();
+        int nInstances = data.getInstances().size();
+        int[] assignments = new int[nInstances * latents.size()];
+        double[] logProbabilities = new double[nInstances];
+        ParallelMpe.computeAssignments(ParallelMpe.createGroup(bayesNet), data, latents, assignments, logProbabilities);
+
+        List<DiscreteVariable> variables = new ArrayList<>(data.getVariables());
+        variables.addAll(latents);
+
+        for (int i = 0; i < nInstances; i++) {
+            int[] evidence = Arrays.copyOf(data.getInstances().get(i).getNumericValues(), variables.size());
+            int offset = data.getVariables().size();
+
+            double best = -1;
+            int[] bestStates = null;
+            int[] states = new int[latents.size()];
+            do {
+                System.arraycopy(states, 0, evidence, offset, states.length);
+                double probability = TestModels.likelihood(bayesNet, variables, evidence);
+                if (probability > best) {
+                    best = probability;
+                    bestStates = states.clone();
+                }
+            } while (next(states, latents));
+
+            assertArrayEquals(bestStates, Arrays.copyOfRange(assignments, i * latents.size(), (i + 1) * latents.size()));
+            assertEquals(Math.log(best), logProbabilities[i], 1e-10);
+        }
+    }
+
+    private static boolean next(int[] states, List<DiscreteVariable> variables) {
+        for (int v = 0; v < states.length; v++) {
+            if (++states[v] < variables.get(v).getCardinality())
+                return true;
+            states[v] = 0;
+        }
+        return false;
+    }
+}
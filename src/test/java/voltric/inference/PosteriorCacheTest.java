@@ -0,0 +1,104 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PosteriorCacheTest {
+
+    @Test
+    public void computesAndCachesThePosteriors() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(1), 2, 3);
+        DiscreteData data = TestModels.sample(bayesNet, 1, new Random(2), 0.3);
+        int[] evidence = data.getInstances().get(0).getNumericValues();
+        List<DiscreteVariable> latents = bayesNet.getLatentVariables();
+
+        PosteriorCache cache = new PosteriorCache(16);
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        double[][] first = cache.computePosteriors(ctp, latents, evidence);
+        double[][] second = cache.computePosteriors(ctp, latents, evidence.clone());
+
+        for (int i = 0; i < latents.size(); i++) {
+            assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, latents.get(i)),
+                    first[i], 1e-10);
+            assertSame(first[i], second[i]);
+        }
+        assertEquals(latents.size(), cache.getHits());
+        assertEquals(latents.size(), cache.size());
+    }
+
+    @Test
+    public void parameterChangesInvalidateTheEntries() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(3), 1, 3);
+        DiscreteVariable latent = bayesNet.getLatentVariables().get(0);
+        int[] evidence = {0, 1, 0};
+
+        PosteriorCache cache = new PosteriorCache(16);
+        cache.put(bayesNet, latent, evidence, new double[]{0.5, 0.5});
+        assertNotNull(cache.get(bayesNet, latent, evidence));
+
+        TestModels.parameterize(bayesNet, new Random(4));
+        assertNull(cache.get(bayesNet, latent, evidence));
+    }
+
+    @Test
+    public void equalModelsDoNotShareEntries() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(5), 1, 3);
+        DiscreteBayesNet copy = bayesNet.copyWithParameters();
+        DiscreteVariable latent = bayesNet.getLatentVariables().get(0);
+        int[] evidence = {1, 1, 0};
+
+        PosteriorCache cache = new PosteriorCache(16);
+        cache.put(bayesNet, latent, evidence, new double[]{0.5, 0.5});
+        assertNull(cache.get(copy, latent, evidence));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedPosterior() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(6), 1, 2);
+        DiscreteVariable latent = bayesNet.getLatentVariables().get(0);
+
+        PosteriorCache cache = new PosteriorCache(1);
+        cache.put(bayesNet, latent, new int[]{0, 0}, new double[]{0.5, 0.5});
+        cache.put(bayesNet, latent, new int[]{0, 1}, new double[]{0.5, 0.5});
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get(bayesNet, latent, new int[]{0, 0}));
+    }
+
+    @Test
+    public void doesNotKeepModelsAlive() throws InterruptedException {
+        PosteriorCache cache = new PosteriorCache(16);
+        WeakReference<DiscreteBayesNet> reference = cacheAPosterior(cache);
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPosteriorsOfTheWrongSize() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(7), 1, 2);
+        new PosteriorCache(1).put(bayesNet, bayesNet.getLatentVariables().get(0), new int[]{0, 0}, new double[3]);
+    }
+
+    private static WeakReference<DiscreteBayesNet> cacheAPosterior(PosteriorCache cache) {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(8), 1, 2);
+        cache.put(bayesNet, bayesNet.getLatentVariables().get(0), new int[]{0, 0}, new double[]{0.5, 0.5});
+        return new WeakReference<>(bayesNet);
+    }
+}
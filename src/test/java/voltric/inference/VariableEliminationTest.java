@@ -0,0 +1,91 @@
+package voltric.inference;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.learning.score.LearningScore;
+import voltric.model.DiscreteBayesNet;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class VariableEliminationTest {
+
+    @Test
+    public void matchesEnumeration() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(bayesNet, 20, new Random(2), 0.3);
+
+        VariableElimination ve = new VariableElimination(bayesNet);
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] evidence = instance.getNumericValues();
+            Map<DiscreteVariable, Integer> evidenceMap = evidenceMap(data.getVariables(), evidence);
+
+            double likelihood = TestModels.likelihood(bayesNet, data.getVariables(), evidence);
+            assertEquals(likelihood, ve.computeLikelihood(evidenceMap), 1e-12);
+            assertEquals(Math.log(likelihood), ve.computeLogLikelihood(data.getVariables(), evidence), 1e-10);
+
+            for (DiscreteVariable variable : bayesNet.getVariables()) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), evidence, variable),
+                        ve.computeBelief(variable, evidenceMap).getCells(), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void jointBeliefMarginalizesToTheSingleBeliefs() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(3));
+        DiscreteData data = TestModels.sample(bayesNet, 1, new Random(4), 0);
+        Map<DiscreteVariable, Integer> evidence = evidenceMap(data.getVariables(),
+                data.getInstances().get(0).getNumericValues());
+
+        VariableElimination ve = new VariableElimination(bayesNet);
+        List<DiscreteVariable> latents = bayesNet.getLatentVariables();
+        Function joint = ve.computeBelief(Arrays.asList(latents.get(0), latents.get(1)), evidence);
+
+        assertEquals(1, joint.sumUp(), 1e-12);
+        for (DiscreteVariable latent : latents.subList(0, 2)) {
+            assertArrayEquals(ve.computeBelief(latent, evidence).getCells(),
+                    joint.marginalize(latent).getCells(), 1e-12);
+        }
+    }
+
+    @Test
+    public void plansAreCachedByPattern() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(5), 2, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 10, new Random(6), 0);
+
+        VariableElimination ve = new VariableElimination(bayesNet);
+        for (DiscreteDataInstance instance : data.getInstances())
+            ve.computeLogLikelihood(data.getVariables(), instance.getNumericValues());
+
+        // every instance observes the same variables
+        assertEquals(1, ve.getNumberOfCachedPlans());
+    }
+
+    @Test
+    public void learningScoreMatchesEnumeration() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(7));
+        DiscreteData data = TestModels.sample(bayesNet, 30, new Random(8), 0.2);
+
+        assertEquals(TestModels.logLikelihood(bayesNet, data), LearningScore.calculateLogLikelihood(data, bayesNet), 1e-9);
+    }
+
+    private static Map<DiscreteVariable, Integer> evidenceMap(List<DiscreteVariable> variables, int[] states) {
+        Map<DiscreteVariable, Integer> evidence = new HashMap<>();
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] != DiscreteData.MISSING_VALUE)
+                evidence.put(variables.get(i), states[i]);
+        }
+        return evidence;
+    }
+}
@@ -0,0 +1,102 @@
+package voltric.learning.parameter.em;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.distributed.EmWorker;
+import voltric.learning.parameter.em.distributed.EmWorkerServer;
+import voltric.learning.parameter.em.distributed.LoopbackEmWorker;
+import voltric.learning.parameter.em.distributed.SocketEmWorker;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static voltric.learning.parameter.em.ParallelEMTest.config;
+
+public class DistributedEMTest {
+
+    @Test
+    public void loopbackShardsLearnLikeParallelEM() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(truth, 300, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+
+        EmConfig config = config(8);
+        config.setThreshold(-Double.MAX_VALUE);
+        List<EmWorker> workers = new ArrayList<>();
+        for (DiscreteData shard : shards(data, 3))
+            workers.add(new LoopbackEmWorker(shard));
+        DistributedEM distributed = new DistributedEM(config, ScoreType.BIC, workers);
+        LearningResult<DiscreteBayesNet> result = distributed.learnModel(start, data);
+
+        ParallelEM parallel = new ParallelEM(config, ScoreType.BIC);
+        LearningResult<DiscreteBayesNet> expected = parallel.learnModel(start, data);
+
+        assertEquals(data.getTotalWeight(), distributed.getSampleSize(), 0);
+        assertEquals(parallel.getnSteps(), distributed.getnSteps());
+        assertEquals(expected.getScoreValue(), result.getScoreValue(), 1e-8);
+        assertEquals(0, TestModels.maxParameterDifference(expected.getBayesianNetwork(), result.getBayesianNetwork()), 1e-10);
+    }
+
+    @Test
+    public void socketWorkersLearnLikeLoopbackOnes() throws IOException {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(4), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 200, new Random(5), 0.1);
+        List<DiscreteData> shards = shards(data, 2);
+
+        List<EmWorker> loopbackWorkers = new ArrayList<>();
+        for (DiscreteData shard : shards)
+            loopbackWorkers.add(new LoopbackEmWorker(shard));
+        DiscreteBayesNet expected = new DistributedEM(config(10), ScoreType.LogLikelihood, loopbackWorkers)
+                .learnModel(truth).getBayesianNetwork();
+
+        List<EmWorkerServer> servers = new ArrayList<>();
+        List<EmWorker> socketWorkers = new ArrayList<>();
+        try {
+            for (DiscreteData shard : shards) {
+                EmWorkerServer server = new EmWorkerServer(shard, 0);
+                servers.add(server);
+                server.start();
+                socketWorkers.add(new SocketEmWorker(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort()));
+            }
+            DiscreteBayesNet actual = new DistributedEM(config(10), ScoreType.LogLikelihood, socketWorkers)
+                    .learnModel(truth).getBayesianNetwork();
+
+            assertEquals(0, TestModels.maxParameterDifference(expected, actual), 0);
+        } finally {
+            for (EmWorker worker : socketWorkers)
+                worker.close();
+            for (EmWorkerServer server : servers)
+                server.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyListOfWorkers() {
+        new DistributedEM(config(10), ScoreType.LogLikelihood, Collections.<EmWorker>emptyList());
+    }
+
+    /** Splits the instances of a data set, with their weights, into consecutive shards. */
+    private static List<DiscreteData> shards(DiscreteData data, int nShards) {
+        List<DiscreteDataInstance> instances = data.getInstances();
+        List<DiscreteData> shards = new ArrayList<>();
+        for (int s = 0; s < nShards; s++) {
+            DiscreteData shard = new DiscreteData(data.getVariables());
+            for (int i = s * instances.size() / nShards; i < (s + 1) * instances.size() / nShards; i++)
+                shard.add(new DiscreteDataInstance(instances.get(i).getNumericValues().clone()), data.getWeight(instances.get(i)));
+            shards.add(shard);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,204 @@
+package voltric.learning.parameter.em;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.util.EmListener;
+import voltric.learning.parameter.em.util.EmStepEvent;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HardEMTest {
+
+    @Test
+    public void stepMatchesTheCompletionByEnumeration() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(1), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 200, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+
+        List<Double> scores = new ArrayList<>();
+        HardEM em = new HardEM(ParallelEMTest.config(1), ScoreType.LogLikelihood);
+        em.addListener(new EmListener() {
+            @Override
+            public void stepFinished(EmStepEvent event) {
+                scores.add(event.getScore());
+            }
+        });
+        DiscreteBayesNet result = em.learnModel(start, data).getBayesianNetwork();
+
+        // each instance is completed with its most probable latent states, the missing values being summed out
+        List<DiscreteVariable> latents = start.getLatentVariables();
+        List<DiscreteVariable> variables = new ArrayList<>(data.getVariables());
+        variables.addAll(latents);
+        DiscreteBayesNet expected = start.copyWithParameters();
+        for (DiscreteBeliefNode node : expected.getNodes())
+            Arrays.fill(node.getCpt().getCells(), 1);
+
+        double expectedScore = 0;
+        for (DiscreteDataInstance instance : data.getInstances()) {
+            int[] states = Arrays.copyOf(instance.getNumericValues(), variables.size());
+            int[] best = null;
+            double bestProbability = -1;
+            for (int[] assignment : assignments(latents)) {
+                System.arraycopy(assignment, 0, states, data.getVariables().size(), assignment.length);
+                double probability = TestModels.likelihood(start, variables, states);
+                if (probability > bestProbability) {
+                    bestProbability = probability;
+                    best = assignment;
+                }
+            }
+
+            System.arraycopy(best, 0, states, data.getVariables().size(), best.length);
+            expectedScore += data.getWeight(instance) * Math.log(bestProbability);
+            for (DiscreteBeliefNode node : expected.getNodes())
+                addToFamily(node.getCpt(), variables, states, data.getWeight(instance));
+        }
+        for (DiscreteBeliefNode node : expected.getNodes())
+            node.getCpt().normalize(node.getVariable());
+
+        assertEquals(1, em.getnSteps());
+        assertEquals(expectedScore, scores.get(0), 1e-9);
+        assertEquals(0, TestModels.maxParameterDifference(expected, result), 1e-10);
+    }
+
+    @Test
+    public void classificationObjectiveNeverDecreases() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(4));
+        DiscreteData data = TestModels.sample(truth, 300, new Random(5), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(6));
+
+        // adding one to each count is a Dirichlet prior, so what improves is the score plus the log-prior of the
+        // parameters it was computed with, i.e. those of the previous step
+        EmConfig config = ParallelEMTest.config(50);
+        config.setThreshold(-Double.MAX_VALUE);
+        List<Double> objectives = new ArrayList<>();
+        double[] logPrior = {logPrior(start)};
+        HardEM em = new HardEM(config, ScoreType.LogLikelihood);
+        em.addListener(new EmListener() {
+            @Override
+            public void stepFinished(EmStepEvent event) {
+                objectives.add(event.getScore() + logPrior[0]);
+                logPrior[0] = logPrior(event.getModel());
+            }
+        });
+        em.learnModel(start, data);
+
+        // the run stops when no assignment changes
+        assertTrue(em.getnSteps() < 50);
+        assertEquals(em.getnSteps(), objectives.size());
+        for (int i = 1; i < objectives.size(); i++)
+            assertTrue(objectives.get(i) >= objectives.get(i - 1) - 1e-9);
+    }
+
+    @Test
+    public void returnsTheLogLikelihoodWithoutModifyingTheInput() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(7), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 200, new Random(8), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(9));
+        DiscreteBayesNet input = start.copyWithParameters();
+
+        LearningResult<DiscreteBayesNet> result = new HardEM(ParallelEMTest.config(20), ScoreType.LogLikelihood)
+                .learnModel(start, data);
+
+        assertEquals(TestModels.logLikelihood(result.getBayesianNetwork(), data), result.getScoreValue(), 1e-9);
+        assertEquals(0, TestModels.maxParameterDifference(input, start), 0);
+    }
+
+    @Test
+    public void frozenNodesAreKept() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(10), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 200, new Random(11), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(12));
+
+        // the parameters are randomized, except those of the frozen nodes
+        EmConfig config = ParallelEMTest.config(20);
+        config.setReuse(false);
+        config.setDontUpdateNodes(new HashSet<>(Collections.singleton("X0_1")));
+        DiscreteBayesNet result = new HardEM(config, ScoreType.LogLikelihood)
+                .learnModel(start, data).getBayesianNetwork();
+
+        assertArrayEquals(start.getNode("X0_1").getCpt().getCells(),
+                result.getNode("X0_1").getCpt().getCells(), 0);
+    }
+
+    @Test
+    public void warmStartsParallelEM() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(13), 2, 4);
+        DiscreteData data = TestModels.sample(truth, 500, new Random(14), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(15));
+
+        DiscreteBayesNet hard = new HardEM(ParallelEMTest.config(50), ScoreType.LogLikelihood)
+                .learnModel(start, data).getBayesianNetwork();
+        DiscreteBayesNet soft = new ParallelEM(ParallelEMTest.config(50), ScoreType.LogLikelihood)
+                .learnModel(hard, data).getBayesianNetwork();
+
+        assertTrue(TestModels.logLikelihood(soft, data) >= TestModels.logLikelihood(hard, data));
+    }
+
+    @Test
+    public void startingPointsCopyTheParameters() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(16), 2, 2);
+        DiscreteBayesNet copy = bayesNet.copyWithParameters();
+
+        assertEquals(0, TestModels.maxParameterDifference(bayesNet, copy), 0);
+        for (DiscreteBeliefNode node : bayesNet.getNodes())
+            assertTrue(node.getCpt() != copy.getNode(node.getVariable()).getCpt());
+    }
+
+    /** Every joint state of the variables, the last one varying fastest. */
+    private static List<int[]> assignments(List<DiscreteVariable> variables) {
+        List<int[]> assignments = new ArrayList<>();
+        int[] states = new int[variables.size()];
+        while (true) {
+            assignments.add(states.clone());
+            int k = variables.size() - 1;
+            while (k >= 0 && ++states[k] == variables.get(k).getCardinality())
+                states[k--] = 0;
+            if (k < 0)
+                return assignments;
+        }
+    }
+
+    /** Adds the weight to the cell of the family in a completed instance, unless one of its values is missing. */
+    private static void addToFamily(Function counts, List<DiscreteVariable> variables, int[] states, int weight) {
+        int cell = 0;
+        for (DiscreteVariable variable : counts.getVariables()) {
+            int state = states[variables.indexOf(variable)];
+            if (state == DiscreteData.MISSING_VALUE)
+                return;
+            cell = cell * variable.getCardinality() + state;
+        }
+        counts.getCells()[cell] += weight;
+    }
+
+    private static double logPrior(DiscreteBayesNet bayesNet) {
+        double logPrior = 0;
+        for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+            for (double cell : node.getCpt().getCells())
+                logPrior += Math.log(cell);
+        }
+        return logPrior;
+    }
+}
@@ -0,0 +1,86 @@
+package voltric.learning.parameter.em;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.util.EmListener;
+import voltric.learning.parameter.em.util.EmStepEvent;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static voltric.learning.parameter.em.ParallelEMTest.config;
+
+public class IncrementalEMTest {
+
+    @Test
+    public void singleBlockIsParallelEM() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(truth, 200, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+
+        IncrementalEM incremental = new IncrementalEM(config(5), ScoreType.LogLikelihood, 1);
+        DiscreteBayesNet incrementalModel = incremental.learnModel(start, data).getBayesianNetwork();
+        ParallelEM parallel = new ParallelEM(config(5), ScoreType.LogLikelihood);
+        DiscreteBayesNet parallelModel = parallel.learnModel(start, data).getBayesianNetwork();
+
+        assertEquals(parallel.getnSteps(), incremental.getnSteps());
+        assertEquals(0, TestModels.maxParameterDifference(parallelModel, incrementalModel), 1e-12);
+    }
+
+    @Test
+    public void firstPassScoresTheStartingPoint() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(4), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 300, new Random(5), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(6));
+
+        List<Double> logLikelihoods = new ArrayList<>();
+        IncrementalEM em = new IncrementalEM(config(10), ScoreType.LogLikelihood, 7);
+        em.addListener(new EmListener() {
+            @Override
+            public void stepFinished(EmStepEvent event) {
+                logLikelihoods.add(event.getLogLikelihood());
+            }
+        });
+        em.learnModel(start, data);
+
+        assertEquals(em.getnSteps(), logLikelihoods.size());
+        assertEquals(TestModels.logLikelihood(start, data), logLikelihoods.get(0), 1e-9);
+    }
+
+    @Test
+    public void convergesFasterToTheSameLogLikelihood() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(7), 2, 4);
+        DiscreteData data = TestModels.sample(truth, 1000, new Random(8), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(9));
+
+        // the same number of passes over the data
+        DiscreteBayesNet incremental = new IncrementalEM(config(3), ScoreType.LogLikelihood, 10)
+                .learnModel(start, data).getBayesianNetwork();
+        DiscreteBayesNet parallel = new ParallelEM(config(3), ScoreType.LogLikelihood)
+                .learnModel(start, data).getBayesianNetwork();
+        assertTrue(TestModels.logLikelihood(incremental, data) > TestModels.logLikelihood(parallel, data));
+
+        // both have the same fixed points
+        LearningResult<DiscreteBayesNet> incrementalResult = new IncrementalEM(config(500), ScoreType.LogLikelihood, 10)
+                .learnModel(start, data);
+        LearningResult<DiscreteBayesNet> parallelResult = new ParallelEM(config(500), ScoreType.LogLikelihood)
+                .learnModel(start, data);
+        assertEquals(TestModels.logLikelihood(parallelResult.getBayesianNetwork(), data),
+                TestModels.logLikelihood(incrementalResult.getBayesianNetwork(), data), 1e-3 * data.getTotalWeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveNumbersOfBlocks() {
+        new IncrementalEM(config(10), ScoreType.LogLikelihood, 0);
+    }
+}
@@ -0,0 +1,251 @@
+package voltric.learning.parameter.em;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.inference.CliqueTreePropagation;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.EmAcceleration;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.initialization.ChickeringHeckerman;
+import voltric.learning.parameter.em.util.EmCheckpoint;
+import voltric.learning.parameter.em.util.EmListener;
+import voltric.learning.parameter.em.util.EmStepEvent;
+import voltric.learning.score.LearningScore;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelEMTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void stepMatchesEnumeration() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(truth, 100, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+
+        // unlike EM, ParallelEM adds one to each expected count
+        DiscreteBayesNet parallel = start.copyWithParameters();
+        ParallelEM parallelEm = new ParallelEM(config(1), ScoreType.LogLikelihood);
+        double parallelScore = parallelEm.emStep(parallelEm.createCtps(parallel), data);
+        assertEquals(0, TestModels.maxParameterDifference(TestModels.emStep(start, data, 1), parallel), 1e-10);
+
+        DiscreteBayesNet sequential = start.copyWithParameters();
+        double sequentialScore = new EM(config(1), ScoreType.LogLikelihood)
+                .emStep(new CliqueTreePropagation(sequential), data);
+        assertEquals(0, TestModels.maxParameterDifference(TestModels.emStep(start, data, 0), sequential), 1e-10);
+
+        double logLikelihood = TestModels.logLikelihood(start, data);
+        assertEquals(logLikelihood, parallelScore, 1e-9);
+        assertEquals(logLikelihood, sequentialScore, 1e-9);
+    }
+
+    @Test
+    public void scoreIsTheLogLikelihoodOfTheStepStart() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(4), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 200, new Random(5), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(6));
+        double initialLogLikelihood = TestModels.logLikelihood(start, data);
+
+        List<Double> logLikelihoods = new ArrayList<>();
+        ParallelEM em = new ParallelEM(config(1), ScoreType.LogLikelihood);
+        em.addListener(new EmListener() {
+            @Override
+            public void stepFinished(EmStepEvent event) {
+                logLikelihoods.add(event.getLogLikelihood());
+            }
+        });
+        em.learnModel(start, data);
+
+        assertEquals(initialLogLikelihood, logLikelihoods.get(0), 1e-9);
+    }
+
+    @Test
+    public void logLikelihoodNeverDecreases() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(7));
+        DiscreteData data = TestModels.sample(truth, 200, new Random(8), 0.2);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(9));
+
+        List<Double> logLikelihoods = new ArrayList<>();
+        ParallelEM em = new ParallelEM(config(30), ScoreType.LogLikelihood);
+        em.addListener(new EmListener() {
+            @Override
+            public void stepFinished(EmStepEvent event) {
+                logLikelihoods.add(event.getLogLikelihood());
+            }
+        });
+        LearningResult<DiscreteBayesNet> result = em.learnModel(start, data);
+
+        assertEquals(em.getnSteps(), logLikelihoods.size());
+        for (int i = 1; i < logLikelihoods.size(); i++)
+            assertTrue(logLikelihoods.get(i) >= logLikelihoods.get(i - 1) - 1e-9);
+        assertTrue(LearningScore.calculateLogLikelihood(data, result.getBayesianNetwork()) >= logLikelihoods.get(0));
+    }
+
+    @Test
+    public void runsAreReproducible() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(10));
+        DiscreteData data = TestModels.sample(truth, 300, new Random(11), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(12));
+
+        DiscreteBayesNet first = new ParallelEM(config(20), ScoreType.BIC)
+                .learnModel(start.copyWithParameters(), data).getBayesianNetwork();
+        DiscreteBayesNet second = new ParallelEM(config(20), ScoreType.BIC)
+                .learnModel(start.copyWithParameters(), data).getBayesianNetwork();
+
+        for (int i = 0; i < first.getNodes().size(); i++) {
+            assertArrayEquals(first.getNodes().get(i).getCpt().getCells(),
+                    second.getNode(first.getNodes().get(i).getVariable()).getCpt().getCells(), 0);
+        }
+    }
+
+    @Test
+    public void squaremStaysWithinTheStepBudget() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(15), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 300, new Random(16), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(17));
+
+        // the budgets are not multiples of the steps of a cycle
+        for (int nMaxSteps : new int[]{4, 10, 11}) {
+            EmConfig config = config(nMaxSteps);
+            config.setThreshold(-Double.MAX_VALUE);
+            config.setAcceleration(EmAcceleration.SQUAREM);
+            ParallelEM em = new ParallelEM(config, ScoreType.LogLikelihood);
+            em.learnModel(start, data);
+
+            assertEquals(nMaxSteps, em.getnSteps());
+        }
+    }
+
+    @Test
+    public void squaremIsNotWorseThanPlainSteps() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(18), 2, 4);
+        DiscreteData data = TestModels.sample(truth, 500, new Random(19), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(20));
+
+        EmConfig config = config(30);
+        config.setAcceleration(EmAcceleration.SQUAREM);
+        ParallelEM accelerated = new ParallelEM(config, ScoreType.LogLikelihood);
+        DiscreteBayesNet acceleratedModel = accelerated.learnModel(start, data).getBayesianNetwork();
+        ParallelEM plain = new ParallelEM(config(30), ScoreType.LogLikelihood);
+        DiscreteBayesNet plainModel = plain.learnModel(start, data).getBayesianNetwork();
+
+        assertTrue(accelerated.getnSteps() <= 30);
+        assertTrue(TestModels.logLikelihood(acceleratedModel, data) >= TestModels.logLikelihood(plainModel, data) - 1e-6);
+    }
+
+    @Test
+    public void resumedRunMatchesTheUninterruptedOne() throws IOException {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(21));
+        DiscreteData data = TestModels.sample(truth, 200, new Random(22), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(23));
+        Path checkpointFile = folder.getRoot().toPath().resolve("em.checkpoint");
+
+        // the interrupted run saves a checkpoint every 5 steps and stops at 12
+        EmConfig interruptedConfig = config(12);
+        interruptedConfig.setThreshold(-Double.MAX_VALUE);
+        interruptedConfig.setCheckpointFile(checkpointFile);
+        interruptedConfig.setCheckpointInterval(5);
+        new ParallelEM(interruptedConfig, ScoreType.LogLikelihood).learnModel(start, data);
+        assertEquals(10, EmCheckpoint.read(checkpointFile).getnSteps());
+
+        EmConfig config = config(20);
+        config.setThreshold(-Double.MAX_VALUE);
+        ParallelEM resumed = new ParallelEM(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> resumedResult = resumed.resume(start, data, checkpointFile);
+        ParallelEM uninterrupted = new ParallelEM(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> uninterruptedResult = uninterrupted.learnModel(start, data);
+
+        assertEquals(uninterrupted.getnSteps(), resumed.getnSteps());
+        assertEquals(uninterruptedResult.getScoreValue(), resumedResult.getScoreValue(), 0);
+        assertEquals(0, TestModels.maxParameterDifference(uninterruptedResult.getBayesianNetwork(),
+                resumedResult.getBayesianNetwork()), 0);
+    }
+
+    @Test
+    public void stopsWhenTheImprovementOverThePreviousStepIsBelowTheThreshold() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(24), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 300, new Random(25), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(26));
+
+        EmConfig config = config(500);
+        config.setThreshold(1e-3);
+        List<Double> scores = new ArrayList<>();
+        ParallelEM em = new ParallelEM(config, ScoreType.LogLikelihood);
+        em.addListener(new EmListener() {
+            @Override
+            public void stepFinished(EmStepEvent event) {
+                scores.add(event.getScore());
+            }
+        });
+        em.learnModel(start, data);
+
+        // the initialization step is not part of the convergence test
+        int last = scores.size() - 1;
+        assertTrue(em.getnSteps() < 500);
+        assertTrue(scores.get(last) - scores.get(last - 1) <= 1e-3);
+        for (int i = 2; i < last; i++)
+            assertTrue(scores.get(i) - scores.get(i - 1) > 1e-3);
+    }
+
+    @Test
+    public void resumedRunConvergesLikeTheUninterruptedOne() throws IOException {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(27), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 300, new Random(28), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(29));
+        Path checkpointFile = folder.getRoot().toPath().resolve("em.checkpoint");
+
+        EmConfig interruptedConfig = config(8);
+        interruptedConfig.setThreshold(1e-4);
+        interruptedConfig.setCheckpointFile(checkpointFile);
+        interruptedConfig.setCheckpointInterval(5);
+        new ParallelEM(interruptedConfig, ScoreType.LogLikelihood).learnModel(start, data);
+
+        EmConfig config = config(500);
+        config.setThreshold(1e-4);
+        ParallelEM resumed = new ParallelEM(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> resumedResult = resumed.resume(start, data, checkpointFile);
+        ParallelEM uninterrupted = new ParallelEM(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> uninterruptedResult = uninterrupted.learnModel(start, data);
+
+        assertTrue(uninterrupted.getnSteps() > 8 && uninterrupted.getnSteps() < 500);
+        assertEquals(uninterrupted.getnSteps(), resumed.getnSteps());
+        assertEquals(uninterruptedResult.getScoreValue(), resumedResult.getScoreValue(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDataWithoutTheManifestVariables() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(13), 2, 2);
+        DiscreteData data = TestModels.sample(TestModels.latentTree(new Random(13), 1, 2), 10, new Random(14), 0);
+        new ParallelEM(config(10), ScoreType.BIC).learnModel(bayesNet, data);
+    }
+
+    /** A single restart from the parameters of the input network, so the runs are deterministic. */
+    static EmConfig config(int nMaxSteps) {
+        return new EmConfig(1, 1e-8, nMaxSteps, new ChickeringHeckerman(1), true, new HashSet<>());
+    }
+}
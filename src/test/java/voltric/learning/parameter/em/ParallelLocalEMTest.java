@@ -0,0 +1,108 @@
+package voltric.learning.parameter.em;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.data.DiscreteDataInstance;
+import voltric.graph.AbstractNode;
+import voltric.inference.CliqueNode;
+import voltric.inference.CliqueTreeCache;
+import voltric.inference.CliqueTreePropagation;
+import voltric.learning.parameter.em.config.EmConfig;
+import voltric.learning.parameter.em.config.LocalEmConfig;
+import voltric.learning.parameter.em.util.MessagesForLocalEM;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.variables.DiscreteVariable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static voltric.learning.parameter.em.ParallelEMTest.config;
+
+/**
+ * The focused subtree is the whole clique tree and the repository has no messages, so local EM is plain EM restricted
+ * to the mutable variables.
+ */
+public class ParallelLocalEMTest {
+
+    @Test
+    public void localStepUpdatesOnlyTheMutableVariables() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(truth, 100, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+        List<DiscreteVariable> mutableVars = mutableVars(start);
+
+        DiscreteBayesNet model = start.copyWithParameters();
+        CliqueTreePropagation ctp = templateCtp(start).clone();
+        ctp.setBayesNet(model);
+        new LocalEM(localConfig(config(1), data, mutableVars, start), ScoreType.LogLikelihood).emStep(ctp, data);
+
+        DiscreteBayesNet expected = TestModels.emStep(start, data, 0);
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            DiscreteBayesNet source = mutableVars.contains(node.getVariable()) ? expected : start;
+            assertArrayEquals(source.getNode(node.getVariable()).getCpt().getCells(), node.getCpt().getCells(), 1e-10);
+        }
+    }
+
+    @Test
+    public void learnsTheSameParametersAsLocalEM() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(4));
+        DiscreteData data = TestModels.sample(truth, 200, new Random(5), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(6));
+        List<DiscreteVariable> mutableVars = mutableVars(start);
+
+        // a Chickering-Heckerman step on the only candidate and at least two steps of the main loop
+        EmConfig config = config(3);
+        config.setThreshold(-Double.MAX_VALUE);
+        ParallelLocalEM parallel = new ParallelLocalEM(localConfig(config, data, mutableVars, start), ScoreType.LogLikelihood);
+        DiscreteBayesNet parallelModel = parallel.learnModel(start, data).getBayesianNetwork();
+
+        DiscreteBayesNet sequentialModel = start.copyWithParameters();
+        CliqueTreePropagation ctp = templateCtp(start).clone();
+        ctp.setBayesNet(sequentialModel);
+        LocalEM sequential = new LocalEM(localConfig(config, data, mutableVars, start), ScoreType.LogLikelihood);
+        for (int i = 0; i < parallel.getnSteps(); i++)
+            sequential.emStep(ctp, data);
+
+        assertEquals(3, parallel.getnSteps());
+        assertEquals(0, TestModels.maxParameterDifference(sequentialModel, parallelModel), 1e-12);
+    }
+
+    /** The latent variables and the first manifest one. */
+    private static List<DiscreteVariable> mutableVars(DiscreteBayesNet bayesNet) {
+        Set<DiscreteVariable> mutableVars = new LinkedHashSet<>(bayesNet.getLatentVariables());
+        mutableVars.add(bayesNet.getManifestVariables().get(0));
+        return Arrays.asList(mutableVars.toArray(new DiscreteVariable[0]));
+    }
+
+    private static LocalEmConfig localConfig(EmConfig config, DiscreteData data, List<DiscreteVariable> mutableVars,
+                                             DiscreteBayesNet bayesNet) {
+        Map<DiscreteDataInstance, Set<MessagesForLocalEM>> repository = new HashMap<>();
+        for (DiscreteDataInstance instance : data.getInstances())
+            repository.put(instance, Collections.emptySet());
+
+        return new LocalEmConfig(config, repository, 0, mutableVars.toArray(new DiscreteVariable[0]), templateCtp(bayesNet));
+    }
+
+    /** A CTP whose focused subtree is the whole clique tree, compiled by a private cache that is not shared. */
+    private static CliqueTreePropagation templateCtp(DiscreteBayesNet bayesNet) {
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet, new CliqueTreeCache(1));
+        Set<CliqueNode> focusedSubtree = new LinkedHashSet<>();
+        for (AbstractNode<String> node : ctp.getCliqueTree().getNodes())
+            focusedSubtree.add((CliqueNode) node);
+        ctp.getCliqueTree().setFocusedSubtree(focusedSubtree);
+        return ctp;
+    }
+}
@@ -0,0 +1,136 @@
+package voltric.learning.parameter.em;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.inference.CliqueTreePropagation;
+import voltric.learning.LearningResult;
+import voltric.learning.parameter.em.config.StochasticEmConfig;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StochasticEMTest {
+
+    @Test
+    public void firstUpdateIsAnEmStep() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(truth, 100, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+
+        // the step size of the first update is 1, so the running statistics are those of the mini-batch
+        StochasticEmConfig config = new StochasticEmConfig(100, 0.7, 1, 1);
+        config.setSmoothing(0);
+        DiscreteBayesNet model = start.copyWithParameters();
+        double logLikelihood = new StochasticEM(config, ScoreType.LogLikelihood).update(new CliqueTreePropagation(model), data);
+
+        assertEquals(TestModels.logLikelihood(start, data), logLikelihood, 1e-9);
+        assertEquals(0, TestModels.maxParameterDifference(TestModels.emStep(start, data, 0), model), 1e-10);
+    }
+
+    @Test
+    public void updatesInterpolateTheStatistics() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(4), 2, 3);
+        DiscreteData first = TestModels.sample(truth, 50, new Random(5), 0.1);
+        DiscreteData second = TestModels.sample(truth, 80, new Random(6), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(7));
+
+        double forgettingRate = 0.7, smoothing = 1e-3;
+        StochasticEmConfig config = new StochasticEmConfig(10, forgettingRate, 1, 1);
+        config.setSmoothing(smoothing);
+        StochasticEM em = new StochasticEM(config, ScoreType.LogLikelihood);
+        DiscreteBayesNet model = start.copyWithParameters();
+        CliqueTreePropagation ctp = new CliqueTreePropagation(model);
+
+        em.update(ctp, first);
+        DiscreteBayesNet afterFirst = model.copyWithParameters();
+        em.update(ctp, second);
+        assertEquals(2, em.getNumberOfUpdates());
+
+        // the statistics per instance are moved towards those of the second mini-batch with step size 2^-kappa
+        double stepSize = Math.pow(2, -forgettingRate);
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            Function expected = TestModels.expectedCounts(start, first, node.getVariable());
+            double[] cells = expected.getCells();
+            double[] secondCounts = TestModels.expectedCounts(afterFirst, second, node.getVariable()).getCells();
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = (1 - stepSize) * cells[i] / first.getTotalWeight()
+                        + stepSize * secondCounts[i] / second.getTotalWeight() + smoothing;
+            }
+            expected.normalize(node.getVariable());
+
+            assertArrayEquals(expected.getCells(), node.getCpt().getCells(), 1e-10);
+        }
+
+        em.reset();
+        assertEquals(0, em.getNumberOfUpdates());
+    }
+
+    @Test
+    public void learnsFromAStreamWithoutModifyingTheInput() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(8), 2, 3);
+        List<DiscreteData> miniBatches = new ArrayList<>();
+        for (int b = 0; b < 30; b++)
+            miniBatches.add(TestModels.sample(truth, 50, new Random(100 + b), 0.1));
+        DiscreteData test = TestModels.sample(truth, 500, new Random(9), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(10));
+        DiscreteBayesNet input = start.copyWithParameters();
+
+        StochasticEmConfig config = new StochasticEmConfig(50, 0.7, 1, 1);
+        config.setReuse(true);
+        StochasticEM em = new StochasticEM(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> result = em.learnModel(input, miniBatches.iterator(), null);
+
+        assertEquals(miniBatches.size(), em.getnSteps());
+        assertTrue(Double.isNaN(result.getScoreValue()));
+        assertEquals(0, TestModels.maxParameterDifference(start, input), 0);
+        assertTrue(TestModels.logLikelihood(result.getBayesianNetwork(), test) > TestModels.logLikelihood(start, test));
+    }
+
+    @Test
+    public void approachesTheLogLikelihoodOfEM() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(11), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 2000, new Random(12), 0.1);
+
+        StochasticEmConfig config = new StochasticEmConfig(200, 0.7, 1, 5);
+        config.setReuse(true);
+        config.setHeldOutSize(200);
+        config.setnMaxSteps(500);
+        StochasticEM em = new StochasticEM(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> result = em.learnModel(truth, data);
+
+        double emLogLikelihood = new ParallelEM(ParallelEMTest.config(200), ScoreType.LogLikelihood)
+                .learnModel(truth, data).getScoreValue();
+        assertEquals(TestModels.logLikelihood(result.getBayesianNetwork(), data), result.getScoreValue(), 1e-9);
+        assertTrue(em.getnSteps() <= 500);
+        assertEquals(emLogLikelihood / data.getTotalWeight(), result.getScoreValue() / data.getTotalWeight(), 0.02);
+    }
+
+    @Test
+    public void runsAreReproducible() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(13));
+        DiscreteData data = TestModels.sample(truth, 300, new Random(14), 0.1);
+
+        StochasticEmConfig config = new StochasticEmConfig(20, 0.7, 1, 2);
+        config.setHeldOutSize(50);
+        // the seed drives the mini-batch sampling, the random initialization is not seeded
+        config.setReuse(true);
+        config.setSeed(15);
+        DiscreteBayesNet first = new StochasticEM(config, ScoreType.BIC).learnModel(truth, data).getBayesianNetwork();
+        DiscreteBayesNet second = new StochasticEM(config, ScoreType.BIC).learnModel(truth, data).getBayesianNetwork();
+
+        assertEquals(0, TestModels.maxParameterDifference(first, second), 0);
+    }
+}
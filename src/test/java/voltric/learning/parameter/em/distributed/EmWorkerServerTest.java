@@ -0,0 +1,167 @@
+package voltric.learning.parameter.em.distributed;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.learning.parameter.em.util.EmListener;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EmWorkerServerTest {
+
+    private DiscreteBayesNet bayesNet;
+
+    private DiscreteData shard;
+
+    private EmWorkerServer server;
+
+    private final List<String> warnings = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        bayesNet = TestModels.latentTree(new Random(1), 2, 2);
+        shard = TestModels.sample(bayesNet, 50, new Random(2), 0.1);
+        server = new EmWorkerServer(shard, 0);
+        server.addListener(new EmListener() {
+            @Override
+            public void warning(String message) {
+                warnings.add(message);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void computesTheStatisticsOfTheShard() throws IOException {
+        ModelStructure structure = ModelStructure.describe(bayesNet, null);
+        double[] parameters = parameters(structure);
+
+        double[] expectedCounts = new double[structure.getNumberOfStatistics()];
+        LoopbackEmWorker loopback = new LoopbackEmWorker(shard);
+        loopback.initialize(structure);
+        double expectedLogLikelihood = loopback.computeStatistics(parameters, expectedCounts);
+
+        try (SocketEmWorker worker = connect()) {
+            assertEquals(shard.getTotalWeight(), worker.initialize(structure), 0);
+
+            double[] counts = new double[structure.getNumberOfStatistics()];
+            assertEquals(expectedLogLikelihood, worker.computeStatistics(parameters, counts), 0);
+            assertArrayEquals(expectedCounts, counts, 0);
+        }
+    }
+
+    @Test
+    public void failedRequestsAreAnsweredWithAnError() throws IOException {
+        ModelStructure structure = ModelStructure.describe(bayesNet, null);
+        double[] counts = new double[structure.getNumberOfStatistics()];
+
+        try (SocketEmWorker worker = connect()) {
+            assertFails(() -> worker.computeStatistics(parameters(structure), counts), "not been initialized");
+
+            worker.initialize(structure);
+            assertFails(() -> worker.computeStatistics(new double[1], counts), "Expected");
+
+            // the connection goes on after the errors
+            double logLikelihood = worker.computeStatistics(parameters(structure), counts);
+            assertTrue(logLikelihood < 0);
+        }
+    }
+
+    @Test
+    public void unknownRequestClosesOnlyItsConnection() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(42);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            try {
+                in.readByte();
+                fail("The connection should have been closed");
+            } catch (EOFException | SocketException e) {
+                // expected
+            }
+        }
+
+        ModelStructure structure = ModelStructure.describe(bayesNet, null);
+        try (SocketEmWorker worker = connect()) {
+            assertEquals(shard.getTotalWeight(), worker.initialize(structure), 0);
+        }
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).contains("Unknown request 42"));
+    }
+
+    @Test
+    public void silentConnectionIsClosedAfterTheReadTimeout() throws IOException {
+        server.setReadTimeout(200);
+
+        // the silent coordinator holds the server until the timeout
+        try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            ModelStructure structure = ModelStructure.describe(bayesNet, null);
+            try (SocketEmWorker worker = connect()) {
+                assertEquals(shard.getTotalWeight(), worker.initialize(structure), 0);
+            }
+
+            assertEquals(-1, silent.getInputStream().read());
+        }
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).contains("timed out"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeReadTimeouts() {
+        server.setReadTimeout(-1);
+    }
+
+    private SocketEmWorker connect() throws IOException {
+        return new SocketEmWorker(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+    }
+
+    /** The CPTs of the network, flattened in the order of the nodes. */
+    private double[] parameters(ModelStructure structure) {
+        double[] parameters = new double[structure.getNumberOfParameters()];
+        int offset = 0;
+        for (DiscreteBeliefNode node : bayesNet.getNodes()) {
+            double[] cells = node.getCpt().getCells();
+            System.arraycopy(cells, 0, parameters, offset, cells.length);
+            offset += cells.length;
+        }
+        return parameters;
+    }
+
+    private static void assertFails(Request request, String message) {
+        try {
+            request.run();
+            fail("The request should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private interface Request {
+        void run() throws IOException;
+    }
+}
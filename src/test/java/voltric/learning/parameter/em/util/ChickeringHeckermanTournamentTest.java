@@ -0,0 +1,122 @@
+package voltric.learning.parameter.em.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChickeringHeckermanTournamentTest {
+
+    /** The initial distance of the candidates to their limits, so they do not converge. */
+    static final double GAP = 10;
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void bestCandidateWinsAndHalvesAreCounted() {
+        List<ScoreCurve> candidates = candidates(8, GAP, new Random(1));
+        ChickeringHeckermanTournament<ScoreCurve> tournament =
+                new ChickeringHeckermanTournament<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        ScoreCurve winner = tournament.run(candidates, 2, 3);
+
+        assertSame(best(candidates), winner);
+        // 2 init steps, then rounds of 1, 2 and 4 steps with 8, 4 and 2 candidates
+        assertEquals(3 + 2 + 1 + 2 + 4, tournament.getNumberOfSteps());
+        assertEquals(2 + 1 + 2 + 4, winner.getnSteps());
+    }
+
+    @Test
+    public void stopsAtTheMaximumNumberOfSteps() {
+        List<ScoreCurve> candidates = candidates(8, GAP, new Random(2));
+        ChickeringHeckermanTournament<ScoreCurve> tournament =
+                new ChickeringHeckermanTournament<>(pool, ScoreCurve::step, 1e-8, 5);
+
+        tournament.run(candidates, 2, 0);
+
+        assertEquals(5, tournament.getNumberOfSteps());
+        for (ScoreCurve candidate : candidates)
+            assertTrue(candidate.getnSteps() <= 5);
+    }
+
+    @Test
+    public void endsWhenAllTheCandidatesConverge() {
+        List<ScoreCurve> candidates = candidates(8, 0, new Random(3));
+        ChickeringHeckermanTournament<ScoreCurve> tournament =
+                new ChickeringHeckermanTournament<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        ScoreCurve winner = tournament.run(candidates, 2, 0);
+
+        assertSame(best(candidates), winner);
+        assertEquals(2 + 1, tournament.getNumberOfSteps());
+        for (ScoreCurve candidate : candidates)
+            assertEquals(2 + 1, candidate.getnSteps());
+    }
+
+    @Test
+    public void resumedTournamentMatchesTheUninterruptedOne() {
+        List<ScoreCurve> candidates = candidates(8, GAP, new Random(4));
+        ChickeringHeckermanTournament<ScoreCurve> tournament =
+                new ChickeringHeckermanTournament<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        // records the state before the second round, as a checkpoint would
+        List<List<ScoreCurve>> savedCandidates = new ArrayList<>();
+        List<double[]> savedScores = new ArrayList<>();
+        List<int[]> savedSteps = new ArrayList<>();
+        tournament.setListener((startingPoints, scores, nSteps, progress) -> {
+            savedCandidates.add(startingPoints);
+            savedScores.add(scores);
+            savedSteps.add(new int[]{nSteps, progress});
+        });
+        ScoreCurve winner = tournament.run(candidates, 2, 0);
+
+        List<ScoreCurve> copies = new ArrayList<>();
+        for (ScoreCurve candidate : savedCandidates.get(1))
+            copies.add(copyAfterSteps(candidate, savedSteps.get(1)[0]));
+        ChickeringHeckermanTournament<ScoreCurve> resumed =
+                new ChickeringHeckermanTournament<>(pool, ScoreCurve::step, 1e-8, 100);
+        ScoreCurve resumedWinner = resumed.resume(copies, savedScores.get(1), savedSteps.get(1)[0], savedSteps.get(1)[1]);
+
+        assertEquals(winner.getLimit(), resumedWinner.getLimit(), 0);
+        assertEquals(winner.getnSteps(), resumedWinner.getnSteps());
+        assertEquals(tournament.getNumberOfSteps(), resumed.getNumberOfSteps());
+    }
+
+    /** Creates candidates with distinct limits, in random order. */
+    static List<ScoreCurve> candidates(int n, double gap, Random random) {
+        List<ScoreCurve> candidates = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            candidates.add(new ScoreCurve(-100 - 10 * i, gap));
+        Collections.shuffle(candidates, random);
+        return candidates;
+    }
+
+    static ScoreCurve best(List<ScoreCurve> candidates) {
+        ScoreCurve best = candidates.get(0);
+        for (ScoreCurve candidate : candidates) {
+            if (candidate.getLimit() > best.getLimit())
+                best = candidate;
+        }
+        return best;
+    }
+
+    private static ScoreCurve copyAfterSteps(ScoreCurve candidate, int nSteps) {
+        ScoreCurve copy = new ScoreCurve(candidate.getLimit(), GAP);
+        for (int i = 0; i < nSteps; i++)
+            copy.step();
+        return copy;
+    }
+}
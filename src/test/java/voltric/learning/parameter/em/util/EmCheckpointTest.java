@@ -0,0 +1,74 @@
+package voltric.learning.parameter.em.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import voltric.TestModels;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EmCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void candidatesSurviveTheRoundTrip() throws IOException {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteBayesNet first = bayesNet.copyWithParameters();
+        DiscreteBayesNet second = bayesNet.copyWithParameters();
+        TestModels.parameterize(second, new Random(2));
+
+        Path file = folder.getRoot().toPath().resolve("em.checkpoint");
+        EmCheckpoint.create(EmCheckpoint.Stage.CHICKERING_HECKERMAN, Arrays.asList(first, second),
+                new double[]{-10.5, -12.25}, 7, 4).write(file);
+        EmCheckpoint checkpoint = EmCheckpoint.read(file);
+
+        assertEquals(EmCheckpoint.Stage.CHICKERING_HECKERMAN, checkpoint.getStage());
+        assertEquals(7, checkpoint.getnSteps());
+        assertEquals(4, checkpoint.getProgress());
+        assertArrayEquals(new double[]{-10.5, -12.25}, checkpoint.getScores(), 0);
+
+        // a network built again, as in another process, whose variables are matched by name
+        List<DiscreteBayesNet> models = checkpoint.restore(TestModels.loopyNetwork(new Random(3)));
+        assertEquals(2, models.size());
+        assertSameParameters(first, models.get(0));
+        assertSameParameters(second, models.get(1));
+        assertEquals(0, Files.list(folder.getRoot().toPath()).filter(path -> path.toString().endsWith(".tmp")).count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANetworkWithAnotherStructure() {
+        EmCheckpoint checkpoint = EmCheckpoint.create(EmCheckpoint.Stage.MAIN,
+                Arrays.asList(TestModels.latentTree(new Random(4), 2, 2)), new double[]{-1}, 1, 0);
+        checkpoint.restore(TestModels.latentTree(new Random(5), 2, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingScores() {
+        EmCheckpoint.create(EmCheckpoint.Stage.MAIN, Arrays.asList(TestModels.latentTree(new Random(6), 1, 2)),
+                new double[0], 1, 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFilesThatAreNotCheckpoints() throws IOException {
+        Path file = folder.newFile("other").toPath();
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        EmCheckpoint.read(file);
+    }
+
+    private static void assertSameParameters(DiscreteBayesNet expected, DiscreteBayesNet actual) {
+        for (DiscreteBeliefNode node : expected.getNodes())
+            assertArrayEquals(node.getCpt().getCells(), actual.getNode(node.getName()).getCpt().getCells(), 0);
+    }
+}
@@ -0,0 +1,88 @@
+package voltric.learning.parameter.em.util;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.model.DiscreteBayesNet;
+
+import java.lang.ref.WeakReference;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EmMetricsListenerTest {
+
+    @Test
+    public void improvementsAreMeasuredPerCandidate() {
+        // the candidates are equal but distinct, as the copies of the restart strategies
+        DiscreteBayesNet first = TestModels.latentTree(new Random(1), 1, 2);
+        DiscreteBayesNet second = first.copyWithParameters();
+        EmMetricsListener listener = new EmMetricsListener(3, 1);
+
+        listener.stepFinished(event(first, -10));
+        listener.stepFinished(event(second, -20));
+        listener.stepFinished(event(first, -8));
+        listener.stepFinished(event(second, -15));
+        listener.stepFinished(event(first, -7.5));
+
+        assertEquals(5, listener.getnSteps());
+        // the improvements are 2, 5 and 0.5
+        assertEquals(3, listener.getnImprovements());
+        assertArrayEquals(new double[]{1, 3}, listener.getThresholds(), 0);
+        assertEquals(1 / 3.0, listener.getConvergedFraction(1), 1e-15);
+        assertEquals(2 / 3.0, listener.getConvergedFraction(3), 1e-15);
+
+        listener.reset();
+        assertEquals(0, listener.getnSteps());
+        assertEquals(0, listener.getnImprovements());
+        assertEquals(0, listener.getConvergedFraction(1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsThresholdsThatAreNotCounted() {
+        new EmMetricsListener().getConvergedFraction(0.5);
+    }
+
+    @Test
+    public void ratesAreComputedOverAllTheSteps() {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(2), 1, 2);
+        EmMetricsListener listener = new EmMetricsListener();
+
+        long halfSecond = TimeUnit.MILLISECONDS.toNanos(500);
+        listener.stepFinished(new EmStepEvent(model, -1, -1, 100, halfSecond, halfSecond, 1000));
+        listener.stepFinished(new EmStepEvent(model, -1, -1, 300, halfSecond, halfSecond, -1));
+        listener.warning("warning");
+
+        assertEquals(400, listener.getRowsPerSecond(), 1e-9);
+        assertEquals(500, listener.getAllocationRate(), 1e-9);
+        assertEquals(1, listener.getWarnings().size());
+    }
+
+    @Test
+    public void doesNotKeepModelsAlive() throws InterruptedException {
+        EmMetricsListener listener = new EmMetricsListener();
+        WeakReference<DiscreteBayesNet> reference = listenToAModel(listener);
+
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+
+        // the entry of the collected model is purged by the next step
+        listener.stepFinished(event(TestModels.latentTree(new Random(3), 1, 2), -1));
+        assertEquals(0, listener.getnImprovements());
+    }
+
+    private static WeakReference<DiscreteBayesNet> listenToAModel(EmMetricsListener listener) {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(4), 1, 2);
+        listener.stepFinished(event(model, -2));
+        return new WeakReference<>(model);
+    }
+
+    private static EmStepEvent event(DiscreteBayesNet model, double score) {
+        return new EmStepEvent(model, score, score, 10, 1000, 100, -1);
+    }
+}
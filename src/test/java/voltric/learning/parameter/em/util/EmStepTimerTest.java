@@ -0,0 +1,69 @@
+package voltric.learning.parameter.em.util;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.model.DiscreteBayesNet;
+import voltric.util.WorkerThreads;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class EmStepTimerTest {
+
+    private static final int ALLOCATION = 8 << 20;
+
+    /** Keeps the allocations from being optimized away. */
+    private static volatile Object sink;
+
+    @Test
+    public void phasesAreTimedSeparately() throws InterruptedException {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(1), 1, 2);
+
+        EmStepTimer timer = EmStepTimer.start();
+        Thread.sleep(20);
+        timer.eStepFinished();
+        Thread.sleep(20);
+        EmStepEvent event = timer.finish(model, -2, -1, 10);
+
+        assertSame(model, event.getModel());
+        assertEquals(-2, event.getScore(), 0);
+        assertEquals(-1, event.getLogLikelihood(), 0);
+        assertEquals(10, event.getnInstances());
+        assertTrue(event.getEStepNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(event.getMStepNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void allocationsOfThePoolWorkersAreCounted() throws ExecutionException, InterruptedException {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(2), 1, 2);
+        assumeTrue(EmStepTimer.start().finish(model, 0, 0, 0).getAllocatedBytes() >= 0);
+
+        ForkJoinPool pool = WorkerThreads.newPool();
+        try {
+            EmStepTimer timer = EmStepTimer.start();
+            pool.submit(() -> sink = new byte[ALLOCATION]).get();
+            assertTrue(timer.finish(model, 0, 0, 0).getAllocatedBytes() >= ALLOCATION);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void allocationsOfOtherThreadsAreNotCounted() throws InterruptedException {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(3), 1, 2);
+        assumeTrue(EmStepTimer.start().finish(model, 0, 0, 0).getAllocatedBytes() >= 0);
+
+        EmStepTimer timer = EmStepTimer.start();
+        Thread thread = new Thread(() -> sink = new byte[ALLOCATION]);
+        thread.start();
+        thread.join();
+        assertTrue(timer.finish(model, 0, 0, 0).getAllocatedBytes() < ALLOCATION);
+    }
+}
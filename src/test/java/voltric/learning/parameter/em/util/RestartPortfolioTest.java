@@ -0,0 +1,98 @@
+package voltric.learning.parameter.em.util;
+
+import org.junit.After;
+import org.junit.Test;
+import voltric.learning.parameter.em.initialization.CullingPolicy;
+import voltric.learning.parameter.em.initialization.MultipleRestarts;
+import voltric.learning.parameter.em.initialization.ScoreMarginCulling;
+import voltric.learning.parameter.em.initialization.SuccessiveHalving;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static voltric.learning.parameter.em.util.ChickeringHeckermanTournamentTest.GAP;
+import static voltric.learning.parameter.em.util.ChickeringHeckermanTournamentTest.best;
+import static voltric.learning.parameter.em.util.ChickeringHeckermanTournamentTest.candidates;
+
+public class RestartPortfolioTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void successiveHalvingKeepsTheBest() {
+        List<ScoreCurve> candidates = candidates(8, GAP, new Random(1));
+        RestartPortfolio<ScoreCurve> portfolio = new RestartPortfolio<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        ScoreCurve winner = portfolio.run(candidates, new MultipleRestarts(10, 1, new SuccessiveHalving(), 2), 0);
+
+        assertSame(best(candidates), winner);
+        // 1 init step, then 2 pre-steps with 4 restarts and 2 with 2, after which a single restart is left
+        assertEquals(1 + 2 + 2, portfolio.getNumberOfSteps());
+        assertEquals(1 + 2 + 2, winner.getnSteps());
+    }
+
+    @Test
+    public void marginCullingKillsTheTrailingRestarts() {
+        List<ScoreCurve> candidates = candidates(8, GAP, new Random(2));
+        RestartPortfolio<ScoreCurve> portfolio = new RestartPortfolio<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        // the limits are 10 apart, so the leader and the restart right behind it survive
+        ScoreCurve winner = portfolio.run(candidates, new MultipleRestarts(6, 1, new ScoreMarginCulling(15), 3), 0);
+
+        assertSame(best(candidates), winner);
+        assertEquals(1 + 6, portfolio.getNumberOfSteps());
+        int nSurvivors = 0;
+        for (ScoreCurve candidate : candidates) {
+            if (candidate.getnSteps() == 1 + 6)
+                nSurvivors++;
+            else
+                assertEquals(1, candidate.getnSteps());
+        }
+        assertEquals(2, nSurvivors);
+    }
+
+    @Test
+    public void noCullingRunsAllThePreSteps() {
+        List<ScoreCurve> candidates = candidates(4, GAP, new Random(3));
+        RestartPortfolio<ScoreCurve> portfolio = new RestartPortfolio<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        ScoreCurve winner = portfolio.run(candidates, new MultipleRestarts(5, 2, CullingPolicy.NONE, 2), 4);
+
+        assertSame(best(candidates), winner);
+        assertEquals(4 + 2 + 5, portfolio.getNumberOfSteps());
+        for (ScoreCurve candidate : candidates)
+            assertEquals(2 + 5, candidate.getnSteps());
+    }
+
+    @Test
+    public void stopsAtTheMaximumNumberOfSteps() {
+        List<ScoreCurve> candidates = candidates(8, GAP, new Random(4));
+        RestartPortfolio<ScoreCurve> portfolio = new RestartPortfolio<>(pool, ScoreCurve::step, 1e-8, 6);
+
+        portfolio.run(candidates, new MultipleRestarts(20, 4, CullingPolicy.NONE, 3), 1);
+
+        assertEquals(6, portfolio.getNumberOfSteps());
+        for (ScoreCurve candidate : candidates)
+            assertTrue(candidate.getnSteps() <= 5);
+    }
+
+    @Test
+    public void endsWhenAllTheRestartsConverge() {
+        List<ScoreCurve> candidates = candidates(8, 0, new Random(5));
+        RestartPortfolio<ScoreCurve> portfolio = new RestartPortfolio<>(pool, ScoreCurve::step, 1e-8, 100);
+
+        ScoreCurve winner = portfolio.run(candidates, new MultipleRestarts(10, 1, CullingPolicy.NONE, 3), 0);
+
+        assertSame(best(candidates), winner);
+        assertEquals(1 + 1, portfolio.getNumberOfSteps());
+    }
+}
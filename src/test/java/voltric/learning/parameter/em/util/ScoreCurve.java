@@ -0,0 +1,38 @@
+package voltric.learning.parameter.em.util;
+
+/**
+ * A fake starting point whose score approaches a limit as it runs EM steps, so a restart strategy can be checked
+ * without learning a model.
+ */
+final class ScoreCurve {
+
+    private final double limit;
+
+    private final double gap;
+
+    private int nSteps;
+
+    /**
+     * @param limit the score the steps converge to.
+     * @param gap the distance to the limit before the first step. Each step halves it, so it never converges if it is
+     *            positive and always does if it is 0.
+     */
+    ScoreCurve(double limit, double gap) {
+        this.limit = limit;
+        this.gap = gap;
+    }
+
+    /** Runs a step and returns the new score. It is called from the worker threads of the pool. */
+    double step() {
+        nSteps++;
+        return limit - gap * Math.pow(0.5, nSteps);
+    }
+
+    double getLimit() {
+        return limit;
+    }
+
+    int getnSteps() {
+        return nSteps;
+    }
+}
@@ -0,0 +1,126 @@
+package voltric.learning.parameter.em.util;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SquaremTest {
+
+    @Test
+    public void extrapolationJumpsToTheFixedPointOfALinearStep() {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(1), 2, 2);
+        DiscreteBayesNet start = model.copyWithParameters();
+        DiscreteBayesNet fixedPoint = model.copyWithParameters();
+        TestModels.parameterize(fixedPoint, new Random(2));
+        Squarem squarem = new Squarem(model, null, () -> halveTheDistance(model, fixedPoint, null));
+
+        // the first cycle is limited to the step length -1, which gives t2, and is stabilized by a third step
+        squarem.iterate();
+        assertEquals(0, TestModels.maxParameterDifference(interpolate(fixedPoint, start, 0.125), model), 1e-12);
+
+        // the maximum step length grew, so the second one lands on the fixed point
+        squarem.iterate();
+        assertEquals(0, TestModels.maxParameterDifference(fixedPoint, model), 1e-12);
+        assertEquals(2 * Squarem.STEPS_PER_CYCLE, squarem.getNumberOfEmSteps());
+        assertEquals(2, squarem.getNumberOfAcceptedSteps());
+        assertEquals(0, squarem.getNumberOfRejectedSteps());
+        assertEquals(2, squarem.getEstimatedStepsSaved());
+    }
+
+    @Test
+    public void worseExtrapolationFallsBackToTwoSteps() {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(3), 2, 2);
+        DiscreteBayesNet start = model.copyWithParameters();
+        DiscreteBayesNet fixedPoint = model.copyWithParameters();
+        TestModels.parameterize(fixedPoint, new Random(4));
+
+        // a score that decreases at every step rejects any extrapolation
+        int[] nCalls = {0};
+        Squarem squarem = new Squarem(model, null, () -> {
+            halveTheDistance(model, fixedPoint, null);
+            return -++nCalls[0];
+        });
+
+        assertEquals(-2, squarem.iterate(), 0);
+        assertEquals(0, TestModels.maxParameterDifference(interpolate(fixedPoint, start, 0.25), model), 1e-12);
+        assertEquals(0, squarem.getNumberOfAcceptedSteps());
+        assertEquals(1, squarem.getNumberOfRejectedSteps());
+    }
+
+    @Test
+    public void cycleEndsWhenTheParametersDoNotChange() {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(5), 1, 2);
+        Squarem squarem = new Squarem(model, null, () -> -1);
+
+        assertEquals(-1, squarem.iterate(), 0);
+        assertEquals(2, squarem.getNumberOfEmSteps());
+        assertEquals(-1, squarem.step(), 0);
+        assertEquals(3, squarem.getNumberOfEmSteps());
+    }
+
+    @Test
+    public void frozenNodesAreNotExtrapolated() {
+        DiscreteBayesNet model = TestModels.latentTree(new Random(6), 2, 2);
+        DiscreteBayesNet fixedPoint = model.copyWithParameters();
+        TestModels.parameterize(fixedPoint, new Random(7));
+        DiscreteBeliefNode frozen = model.getNodes().get(0);
+        double[] frozenCells = frozen.getCpt().getCells().clone();
+
+        Set<String> dontUpdateNodes = Collections.singleton(frozen.getName());
+        Squarem squarem = new Squarem(model, dontUpdateNodes, () -> halveTheDistance(model, fixedPoint, dontUpdateNodes));
+        squarem.iterate();
+        squarem.iterate();
+
+        assertArrayEquals(frozenCells, frozen.getCpt().getCells(), 0);
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            if (node != frozen)
+                assertArrayEquals(fixedPoint.getNode(node.getVariable()).getCpt().getCells(), node.getCpt().getCells(), 1e-12);
+        }
+    }
+
+    /**
+     * A linear EM step that halves the distance of the CPTs to those of the fixed point, scored by minus the squared
+     * distance.
+     */
+    private static double halveTheDistance(DiscreteBayesNet model, DiscreteBayesNet fixedPoint, Set<String> dontUpdateNodes) {
+        double score = 0;
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            if (dontUpdateNodes != null && dontUpdateNodes.contains(node.getName()))
+                continue;
+
+            double[] cells = node.getCpt().getCells();
+            double[] target = fixedPoint.getNode(node.getVariable()).getCpt().getCells();
+            for (int i = 0; i < cells.length; i++)
+                score -= (cells[i] - target[i]) * (cells[i] - target[i]);
+        }
+        DiscreteBayesNet next = interpolate(fixedPoint, model, 0.5);
+        for (DiscreteBeliefNode node : model.getNodes()) {
+            if (dontUpdateNodes == null || !dontUpdateNodes.contains(node.getName()))
+                node.setCpt(next.getNode(node.getVariable()).getCpt());
+        }
+        return score;
+    }
+
+    /** Returns a copy of {@code to} whose CPTs are {@code from + weight (to - from)}. */
+    private static DiscreteBayesNet interpolate(DiscreteBayesNet from, DiscreteBayesNet to, double weight) {
+        DiscreteBayesNet result = to.copyWithParameters();
+        for (DiscreteBeliefNode node : result.getNodes()) {
+            Function cpt = node.getCpt().clone();
+            double[] cells = cpt.getCells();
+            double[] origin = from.getNode(node.getVariable()).getCpt().getCells();
+            for (int i = 0; i < cells.length; i++)
+                cells[i] = origin[i] + weight * (cells[i] - origin[i]);
+            node.setCpt(cpt);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+package voltric.learning.parameter.vb;
+
+import org.apache.commons.math3.special.Gamma;
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.learning.LearningResult;
+import voltric.learning.score.ScoreType;
+import voltric.model.DiscreteBayesNet;
+import voltric.model.DiscreteBeliefNode;
+import voltric.potential.Function;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SVBTest {
+
+    @Test
+    public void firstMiniBatchAddsTheExpectedCountsToThePrior() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(1), 2, 3);
+        DiscreteData data = TestModels.sample(truth, 60, new Random(2), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(3));
+
+        // a single local iteration from the parameters of the input BN
+        SvbConfig config = new SvbConfig(60, 0.5, 1);
+        config.setReuse(true);
+        SVB svb = new SVB(config, ScoreType.LogLikelihood);
+        svb.initialize(start);
+        double logLikelihood = svb.update(data);
+
+        assertEquals(TestModels.logLikelihood(start, data), logLikelihood, 1e-9);
+        for (DiscreteBeliefNode node : start.getNodes()) {
+            double[] expected = TestModels.expectedCounts(start, data, node.getVariable()).getCells();
+            for (int i = 0; i < expected.length; i++)
+                expected[i] += 0.5;
+
+            Function posterior = svb.getPosterior(node.getVariable());
+            assertArrayEquals(expected, posterior.getCells(), 1e-10);
+            posterior.normalize(node.getVariable());
+            assertArrayEquals(posterior.getCells(), svb.getModel().getNode(node.getVariable()).getCpt().getCells(), 1e-12);
+        }
+    }
+
+    @Test
+    public void posteriorIsThePriorOfTheNextMiniBatch() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(4), 2, 2);
+        DiscreteData first = TestModels.sample(truth, 40, new Random(5), 0.1);
+        DiscreteData second = TestModels.sample(truth, 30, new Random(6), 0.1);
+
+        SvbConfig config = new SvbConfig(100, 1, 1);
+        config.setReuse(true);
+        SVB svb = new SVB(config, ScoreType.LogLikelihood);
+        svb.initialize(truth);
+        svb.update(first);
+
+        // the E-step of the second mini-batch uses the expected log-parameters of the first posterior
+        DiscreteBayesNet variationalModel = truth.copyWithParameters();
+        for (DiscreteBeliefNode node : variationalModel.getNodes())
+            node.setCpt(expectedLogParameters(svb.getPosterior(node.getVariable()), node));
+        Function[] firstPosteriors = new Function[truth.getNodes().size()];
+        for (int n = 0; n < firstPosteriors.length; n++)
+            firstPosteriors[n] = svb.getPosterior(truth.getNodes().get(n).getVariable());
+
+        svb.update(second);
+
+        assertEquals(2, svb.getnBatches());
+        for (int n = 0; n < firstPosteriors.length; n++) {
+            DiscreteBeliefNode node = truth.getNodes().get(n);
+            double[] expected = firstPosteriors[n].getCells();
+            double[] counts = TestModels.expectedCounts(variationalModel, second, node.getVariable()).getCells();
+            for (int i = 0; i < expected.length; i++)
+                expected[i] += counts[i];
+
+            assertArrayEquals(expected, svb.getPosterior(node.getVariable()).getCells(), 1e-9);
+        }
+    }
+
+    @Test
+    public void singlePassImprovesTheLogLikelihood() {
+        DiscreteBayesNet truth = TestModels.loopyNetwork(new Random(7));
+        DiscreteData data = TestModels.sample(truth, 500, new Random(8), 0.1);
+        DiscreteBayesNet start = truth.copyWithParameters();
+        TestModels.parameterize(start, new Random(9));
+
+        SvbConfig config = new SvbConfig(100, 1, 20);
+        config.setReuse(true);
+        SVB svb = new SVB(config, ScoreType.LogLikelihood);
+        LearningResult<DiscreteBayesNet> result = svb.learnModel(start, data);
+
+        // the mini-batches are made of distinct instances with their weights
+        assertEquals((data.getInstances().size() + 99) / 100, svb.getnBatches());
+        assertEquals(TestModels.logLikelihood(result.getBayesianNetwork(), data), result.getScoreValue(), 1e-9);
+        assertTrue(result.getScoreValue() > TestModels.logLikelihood(start, data));
+    }
+
+    @Test
+    public void frozenNodesKeepTheirParameters() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(10), 2, 2);
+        DiscreteData data = TestModels.sample(truth, 100, new Random(11), 0.1);
+        DiscreteBeliefNode frozen = truth.getNodes().get(0);
+
+        SvbConfig config = new SvbConfig(50, 1, 5);
+        HashSet<String> dontUpdateNodes = new HashSet<>();
+        dontUpdateNodes.add(frozen.getName());
+        config.setDontUpdateNodes(dontUpdateNodes);
+        DiscreteBayesNet model = new SVB(config, ScoreType.LogLikelihood).learnModel(truth, data).getBayesianNetwork();
+
+        assertArrayEquals(frozen.getCpt().getCells(), model.getNode(frozen.getVariable()).getCpt().getCells(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsUpdatesBeforeInitializing() {
+        DiscreteBayesNet truth = TestModels.latentTree(new Random(12), 1, 2);
+        new SVB().update(TestModels.sample(truth, 10, new Random(13), 0));
+    }
+
+    /**
+     * Returns exp(digamma(alpha) - digamma(sum alpha)) for the cells of a Dirichlet posterior laid out like the CPT of
+     * the node. The sum of the row of each cell is recovered from the posterior mean.
+     */
+    private static Function expectedLogParameters(Function posterior, DiscreteBeliefNode node) {
+        Function means = posterior.clone();
+        means.normalize(node.getVariable());
+
+        Function result = node.getCpt().clone();
+        double[] alpha = posterior.getCells();
+        for (int i = 0; i < alpha.length; i++) {
+            double rowSum = alpha[i] / means.getCells()[i];
+            result.getCells()[i] = Math.exp(Gamma.digamma(alpha[i]) - Gamma.digamma(rowSum));
+        }
+        return result;
+    }
+}
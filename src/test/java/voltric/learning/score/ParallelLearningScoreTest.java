@@ -0,0 +1,59 @@
+package voltric.learning.score;
+
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.model.DiscreteBayesNet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelLearningScoreTest {
+
+    @Test
+    public void logLikelihoodMatchesEnumeration() {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(bayesNet, 200, new Random(2), 0.2);
+
+        double expected = TestModels.logLikelihood(bayesNet, data);
+        assertEquals(expected, ParallelLearningScore.calculateLogLikelihood(data, bayesNet), 1e-9);
+        assertEquals(LearningScore.calculateLogLikelihood(data, bayesNet),
+                ParallelLearningScore.calculateLogLikelihood(data, bayesNet), 1e-9);
+    }
+
+    @Test
+    public void scoresSeveralModelsInOnePass() {
+        DiscreteBayesNet tree = TestModels.latentTree(new Random(3), 2, 2);
+        DiscreteBayesNet other = tree.copyWithParameters();
+        TestModels.parameterize(other, new Random(4));
+        DiscreteData data = TestModels.sample(tree, 100, new Random(5), 0.1);
+
+        double[] scores = ParallelLearningScore.calculateScores(data, Arrays.asList(tree, other), ScoreType.BIC);
+        assertEquals(LearningScore.calculateBIC(data, tree), scores[0], 1e-9);
+        assertEquals(LearningScore.calculateBIC(data, other), scores[1], 1e-9);
+    }
+
+    @Test
+    public void penalizesTheDimension() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(6), 2, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 50, new Random(7), 0);
+
+        double logLikelihood = TestModels.logLikelihood(bayesNet, data);
+        int dimension = bayesNet.computeDimension();
+        assertEquals(logLikelihood - dimension * Math.log(data.getTotalWeight()) / 2,
+                ParallelLearningScore.calculateBIC(data, bayesNet), 1e-9);
+        assertEquals(logLikelihood - dimension, ParallelLearningScore.calculateAIC(data, bayesNet), 1e-9);
+        assertEquals(logLikelihood, ParallelLearningScore.calculateScore(data, bayesNet, ScoreType.LogLikelihood), 1e-9);
+    }
+
+    @Test
+    public void noModelsNoScores() {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(8), 1, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 5, new Random(9), 0);
+
+        assertEquals(0, ParallelLearningScore.calculateLogLikelihoods(data, Collections.emptyList()).length);
+    }
+}
@@ -0,0 +1,107 @@
+package voltric.serving;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import voltric.TestModels;
+import voltric.data.DiscreteData;
+import voltric.inference.CliqueTreePropagation;
+import voltric.model.DiscreteBayesNet;
+import voltric.variables.DiscreteVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScoringServiceTest {
+
+    private ScoringService service;
+
+    @Before
+    public void setUp() {
+        service = new ScoringService(2, 16, 100);
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+    }
+
+    @Test
+    public void scoresLikeEnumeration() throws InterruptedException {
+        DiscreteBayesNet bayesNet = TestModels.loopyNetwork(new Random(1));
+        DiscreteData data = TestModels.sample(bayesNet, 40, new Random(2), 0.2);
+        service.registerModel("model", bayesNet);
+
+        int[][] rows = rows(data);
+        ScoringResult result = service.score("model", rows, true);
+
+        assertEquals(rows.length, result.size());
+        assertTrue(result.hasAssignments());
+        List<DiscreteVariable> latents = result.getLatentVariables();
+        CliqueTreePropagation ctp = new CliqueTreePropagation(bayesNet);
+        for (int r = 0; r < rows.length; r++) {
+            assertEquals(Math.log(TestModels.likelihood(bayesNet, data.getVariables(), rows[r])),
+                    result.getLogLikelihood(r), 1e-10);
+            for (int l = 0; l < latents.size(); l++) {
+                assertArrayEquals(TestModels.posterior(bayesNet, data.getVariables(), rows[r], latents.get(l)),
+                        result.getPosterior(r, l), 1e-10);
+            }
+
+            ctp.setEvidence(data.getVariables(), rows[r]);
+            assertArrayEquals(ctp.computeMpe(latents), result.getAssignment(r));
+        }
+    }
+
+    @Test
+    public void concurrentRequestsAreBatched() throws Exception {
+        DiscreteBayesNet bayesNet = TestModels.latentTree(new Random(3), 2, 2);
+        DiscreteData data = TestModels.sample(bayesNet, 8, new Random(4), 0);
+        service.registerModel("model", bayesNet);
+
+        int[][] rows = rows(data);
+        List<CompletableFuture<ScoringResult>> futures = new ArrayList<>();
+        for (int[] row : rows)
+            futures.add(service.submit("model", new int[][]{row}, false));
+
+        for (int r = 0; r < rows.length; r++) {
+            ScoringResult result = futures.get(r).get();
+            assertFalse(result.hasAssignments());
+            assertEquals(Math.log(TestModels.likelihood(bayesNet, data.getVariables(), rows[r])),
+                    result.getLogLikelihood(0), 1e-10);
+        }
+        assertEquals(rows.length, service.getCompletedRequests());
+        assertEquals(rows.length, service.getScoredRows());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRowsOfTheWrongLength() {
+        service.registerModel("model", TestModels.latentTree(new Random(5), 1, 2));
+        service.submit("model", new int[][]{{0}}, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownModels() {
+        service.submit("unknown", new int[0][], false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsRequestsAfterClosing() {
+        service.registerModel("model", TestModels.latentTree(new Random(6), 1, 2));
+        service.close();
+        service.submit("model", new int[][]{{0, 0}}, false);
+    }
+
+    private static int[][] rows(DiscreteData data) {
+        int[][] rows = new int[data.getInstances().size()][];
+        for (int r = 0; r < rows.length; r++)
+            rows[r] = data.getInstances().get(r).getNumericValues();
+        return rows;
+    }
+}